@@ -116,6 +116,7 @@ class BinaryExpr implements Expr {
   public Expr lhs;
   public Token binaryOp;
   public Expr rhs; 
+  public DataType operandType; // static operand type (set by SemanticChecker)
   public void accept(Visitor v) {v.visit(this);}
 }
 
@@ -168,6 +169,7 @@ class NewArrayRValue implements NewRValue {
 class VarRef {
   public Token varName;
   public Optional<Expr> arrayExpr = Optional.empty();
+  public int fieldSlot = -1; // slot of a struct field reference (set by SemanticChecker)
 }
 
 /**
@@ -1,9 +1,186 @@
 package cpsc326;
 
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.EnumSet;
+
 public class ASTOptimizer implements Visitor {
 
+    /**
+     * The optional passes run along with constant folding.
+     */
+    public enum Pass {
+        // substitute known constant locals into later expressions
+        CONSTANT_PROPAGATION,
+        // remove constant-condition branches and loops, and statements
+        // after a return
+        DEAD_CODE,
+        // remove variable declarations that are never used (when the
+        // initializer has no side effects)
+        UNUSED_VARIABLES,
+        // replace calls to small non-recursive functions with their body
+        INLINING,
+        // replace calls to pure functions with literal arguments by
+        // their value, computed while optimizing
+        PURE_CALLS,
+        // apply identities (x + 0, b and true, not not b), annihilators
+        // (x * 0) and x - x, and regroup int constants so they fold
+        ALGEBRAIC_SIMPLIFICATION,
+        // turn int multiplication (and division of non-negative values)
+        // by a power of two into shifts, and x - x / 2^k * 2^k into a mask
+        STRENGTH_REDUCTION,
+        // compute loop-invariant expressions once, before the loop
+        LOOP_INVARIANTS,
+        // compute expressions repeated in straight-line code once
+        COMMON_SUBEXPRESSIONS
+    }
+
+    /**
+     * The default largest function (in AST nodes) the inlining pass
+     * copies into its callers.
+     */
+    public static final int DEFAULT_INLINE_BUDGET = 32;
+
+    /**
+     * The default number of steps (statements, loop tests and calls) the
+     * compile-time evaluation of one call may take.
+     */
+    public static final int DEFAULT_EVAL_BUDGET = 100000;
+
+    private final Set<Pass> passes = EnumSet.noneOf(Pass.class);
+
     private Expr currExpr;
 
+    // --- Constant propagation state ---
+    // Local variables known to hold a literal at the current point of the
+    // function (flow-sensitive: updated by declarations and assignments,
+    // merged at branches, and invalidated by loops that assign them).
+    private Map<String, Token> constants = new HashMap<>();
+
+    // Variables eligible for propagation: declared exactly once in the
+    // function by a VarStmt (so there is no shadowing to worry about),
+    // and not a parameter or for-loop variable.
+    private Set<String> propagatable = new HashSet<>();
+
+    // --- Inlining state ---
+    private int inlineBudget = DEFAULT_INLINE_BUDGET;
+
+    // Functions whose calls can be replaced by their body (by name)
+    private Map<String, FunDef> inlinable = new HashMap<>();
+
+    // The call sites inlined so far, and how many (which numbers the
+    // renamed locals of each copy)
+    private List<String> inlinedCalls = new ArrayList<>();
+
+    // Set when the call search passes something that must not move
+    // after the inlined body (see findInlinable)
+    private boolean searchBlocked;
+
+    // --- Compile-time evaluation state ---
+    private int evalBudget = DEFAULT_EVAL_BUDGET;
+
+    // Evaluates calls to the pure functions (copies of them taken before
+    // anything is optimized)
+    private PureCallEvaluator evaluator;
+
+    // The calls replaced by their value so far
+    private List<String> evaluatedCalls = new ArrayList<>();
+
+    // --- Loop-invariant code motion state ---
+    // Number of expressions hoisted out of loops (also numbers the
+    // temporaries holding them)
+    private int hoisted = 0;
+
+    // --- Common subexpression elimination state ---
+    // Number of repeated expressions computed once (also numbers the
+    // temporaries holding them)
+    private int common = 0;
+
+    // Variables of the current function that can never hold null, and
+    // those that always hold ints
+    private Set<String> nonNull = new HashSet<>();
+    private Set<String> ints = new HashSet<>();
+
+    // --- Strength reduction state ---
+    // Variables of the current function that are never negative (or null)
+    private Set<String> nonNegative = new HashSet<>();
+
+    // The built-in functions without an effect (all but the I/O ones),
+    // and all of them (any other call is to a user function)
+    private static final Set<String> PURE_BUILT_INS = Set.of("size", "get", "int_val", "dbl_val", "str_val");
+    private static final Set<String> BUILT_INS = Set.of("print", "println", "readln", "size", "get", "int_val",
+            "dbl_val", "str_val");
+
+    /**
+     * Create an optimizer that runs constant propagation, dead code
+     * removal and strength reduction.
+     */
+    public ASTOptimizer() {
+        this(EnumSet.of(Pass.CONSTANT_PROPAGATION, Pass.DEAD_CODE, Pass.STRENGTH_REDUCTION));
+    }
+
+    /**
+     * Create an optimizer that runs constant folding plus the given
+     * passes.
+     */
+    public ASTOptimizer(Set<Pass> passes) {
+        this.passes.addAll(passes);
+    }
+
+    /**
+     * Set the largest function, in AST nodes (statements, expressions
+     * and rvalues), the inlining pass copies into its callers.
+     */
+    public void inlineBudget(int nodes) {
+        inlineBudget = nodes;
+    }
+
+    /**
+     * Gives the call sites the inlining pass replaced, as "f into main
+     * at line:column", in the order they were inlined.
+     */
+    public List<String> inlinedCalls() {
+        return inlinedCalls;
+    }
+
+    /**
+     * Set the number of steps (statements run, loop tests and calls
+     * made) evaluating one call to a pure function may take before the
+     * call is left to run at run time.
+     */
+    public void evalBudget(int steps) {
+        evalBudget = steps;
+    }
+
+    /**
+     * Gives the calls the pure call pass replaced with their value, as
+     * "f(args) = value at line:column", in the order they were replaced.
+     */
+    public List<String> evaluatedCalls() {
+        return evaluatedCalls;
+    }
+
+    /**
+     * Gives the number of expressions the loop-invariant pass has
+     * hoisted out of loops.
+     */
+    public int hoistedExpressions() {
+        return hoisted;
+    }
+
+    /**
+     * Gives the number of repeated expressions the common subexpression
+     * pass has computed once into a temporary.
+     */
+    public int commonSubexpressions() {
+        return common;
+    }
+
     public Expr optimize(Expr node) {
         node.accept(this);
         return currExpr;
@@ -14,13 +191,56 @@ public class ASTOptimizer implements Visitor {
     // --------------------------------------------------------------------
 
     public void visit(Program node) {
+        if (passes.contains(Pass.PURE_CALLS))
+            findPure(node);
+        if (passes.contains(Pass.INLINING))
+            findInlinable(node);
         for (FunDef f : node.functions)
             f.accept(this);
     }
 
     public void visit(FunDef node) {
-        for (Stmt stmt : node.stmts)
-            stmt.accept(this);
+        // inline first so the copied bodies are optimized in place
+        if (passes.contains(Pass.INLINING))
+            inlineCalls(node.funName.lexeme, node.stmts);
+
+        Map<String, Integer> declarations = new HashMap<>();
+        for (VarDef param : node.params)
+            declarations.merge(param.varName.lexeme, 2, Integer::sum);
+        countDeclarations(node.stmts, declarations);
+        propagatable.clear();
+        declarations.forEach((name, count) -> {
+            if (count == 1 && passes.contains(Pass.CONSTANT_PROPAGATION))
+                propagatable.add(name);
+        });
+        constants.clear();
+        if (passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION)) {
+            findNonNull(node);
+            findInts(node);
+        }
+
+        optimizeBody(node.stmts);
+
+        if (passes.contains(Pass.STRENGTH_REDUCTION)) {
+            findNonNegative(node);
+            reduceStrength(node.stmts);
+        }
+        if (passes.contains(Pass.LOOP_INVARIANTS) || passes.contains(Pass.COMMON_SUBEXPRESSIONS))
+            findNonNull(node);
+        if (passes.contains(Pass.LOOP_INVARIANTS))
+            hoistInvariants(node.stmts);
+        if (passes.contains(Pass.COMMON_SUBEXPRESSIONS))
+            eliminateCommon(node.stmts);
+
+        // removing a declaration can leave the variables its initializer
+        // read unused as well
+        if (passes.contains(Pass.UNUSED_VARIABLES)) {
+            Set<String> used = new HashSet<>();
+            do {
+                used.clear();
+                collectUses(node.stmts, used);
+            } while (removeUnused(node.stmts, used));
+        }
     }
 
     public void visit(StructDef node) {
@@ -42,11 +262,19 @@ public class ASTOptimizer implements Visitor {
             expr.accept(this);
             node.expr = java.util.Optional.of(currExpr);
         });
+        bind(node.varName.lexeme, node.expr.orElse(null));
     }
 
     public void visit(AssignStmt node) {
+        for (VarRef ref : node.lvalue)
+            ref.arrayExpr = ref.arrayExpr.map(this::optimize);
         node.expr.accept(this);
         node.expr = currExpr;
+        // only a plain "x = e" rebinds a local (x[i] = e and x.f = e
+        // change the object x refers to, not x itself)
+        VarRef target = node.lvalue.get(0);
+        if (node.lvalue.size() == 1 && target.arrayExpr.isEmpty())
+            bind(target.varName.lexeme, node.expr);
     }
 
     public void visit(ReturnStmt node) {
@@ -57,31 +285,66 @@ public class ASTOptimizer implements Visitor {
     }
 
     public void visit(WhileStmt node) {
+        Map<String, Token> before = new HashMap<>(constants);
+        // anything the body assigns is unknown on every iteration
+        // (including when the condition is re-evaluated)
+        killAssigned(node.stmts);
+        Map<String, Token> entry = new HashMap<>(constants);
         node.condition.accept(this);
         node.condition = currExpr;
-        for (Stmt s : node.stmts)
-            s.accept(this);
+        if (isDead(node)) {
+            // the body never runs (the loop is removed by optimizeBody)
+            constants = before;
+            return;
+        }
+        optimizeBody(node.stmts);
+        constants = entry;
     }
 
     public void visit(ForStmt node) {
         node.fromExpr.accept(this);
         node.fromExpr = currExpr;
+        Map<String, Token> before = new HashMap<>(constants);
+        // the upper bound is re-evaluated on every iteration
+        killAssigned(node.stmts);
+        Map<String, Token> entry = new HashMap<>(constants);
         node.toExpr.accept(this);
         node.toExpr = currExpr;
-        for (Stmt s : node.stmts)
-            s.accept(this);
+        if (isDead(node)) {
+            constants = before;
+            return;
+        }
+        optimizeBody(node.stmts);
+        constants = entry;
     }
 
     public void visit(IfStmt node) {
         node.condition.accept(this);
         node.condition = currExpr;
-        for (Stmt s : node.ifStmts)
-            s.accept(this);
+        Boolean known = passes.contains(Pass.DEAD_CODE) ? boolLiteral(node.condition) : null;
+        // with a known condition only one path is live (optimizeBody
+        // replaces the statement with it)
+        if (known == Boolean.TRUE) {
+            optimizeBody(node.ifStmts);
+            return;
+        }
+        if (known == Boolean.FALSE) {
+            node.elseIf.ifPresent(e -> e.accept(this));
+            node.elseStmts.ifPresent(this::optimizeBody);
+            collapseElseIf(node);
+            return;
+        }
+        Map<String, Token> entry = new HashMap<>(constants);
+        optimizeBody(node.ifStmts);
+        Map<String, Token> taken = constants;
+        // the else-if chain (or else block) starts from the entry state
+        constants = new HashMap<>(entry);
         node.elseIf.ifPresent(e -> e.accept(this));
-        node.elseStmts.ifPresent(stmts -> {
-            for (Stmt s : stmts)
-                s.accept(this);
-        });
+        node.elseStmts.ifPresent(this::optimizeBody);
+        // keep only the constants both paths agree on
+        constants.entrySet().removeIf(e -> !sameLiteral(e.getValue(), taken.get(e.getKey())));
+        if (passes.contains(Pass.DEAD_CODE))
+            collapseElseIf(node);
     }
 
     // --------------------------------------------------------------------
@@ -89,7 +352,19 @@ public class ASTOptimizer implements Visitor {
     // --------------------------------------------------------------------
 
     public void visit(BasicExpr node) {
+        // substitute known constants for plain variable uses
+        if (node.rvalue instanceof VarRValue v && v.path.size() == 1 && v.path.get(0).arrayExpr.isEmpty()) {
+            Token lit = constants.get(v.path.get(0).varName.lexeme);
+            if (lit != null) {
+                Token use = v.path.get(0).varName;
+                currExpr = wrapLiteral(new Token(lit.tokenType, lit.lexeme, use.line, use.column));
+                return;
+            }
+        }
+        node.rvalue.accept(this);
         currExpr = node;
+        if (passes.contains(Pass.PURE_CALLS) && node.rvalue instanceof CallRValue c)
+            evaluate(c);
     }
 
     public void visit(UnaryExpr node) {
@@ -106,12 +381,27 @@ public class ASTOptimizer implements Visitor {
             }
         }
 
+        // not not b is b (unless b is null, where not fails)
+        if (passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION) && node.unaryOp.lexeme.equals("not")
+                && node.expr instanceof UnaryExpr inner && inner.unaryOp.lexeme.equals("not")
+                && isNonNull(inner.expr)) {
+            currExpr = inner.expr;
+            return;
+        }
+
         currExpr = node;
     }
 
     public void visit(BinaryExpr node) {
         node.lhs.accept(this);
         node.lhs = currExpr;
+        // false and e, true or e: e is never evaluated (and/or
+        // short-circuit), so it goes away with its effects
+        Token decided = annihilator(node.binaryOp.lexeme, literal(node.lhs));
+        if (decided != null && decided.tokenType == TokenType.BOOL_VAL) {
+            currExpr = node.lhs;
+            return;
+        }
         node.rhs.accept(this);
         node.rhs = currExpr;
 
@@ -128,31 +418,6 @@ public class ASTOptimizer implements Visitor {
                 try {
                     String op = node.binaryOp.lexeme;
 
-                    // --- Strength Reduction: Replace * or / with shifts for powers of 2 ---
-                    if (lt.tokenType == TokenType.INT_VAL && rt.tokenType == TokenType.INT_VAL) {
-                        int a = Integer.parseInt(lt.lexeme);
-                        int b = Integer.parseInt(rt.lexeme);
-
-                        // Check if 'b' is a power of 2 (for * or / optimizations)
-                        if (b > 0 && (b & (b - 1)) == 0) { // e.g., 2, 4, 8, 16...
-                            int shift = Integer.numberOfTrailingZeros(b); // log2(b)
-                            switch (op) {
-                                case "*":
-                                    currExpr = wrapLiteral(
-                                            new Token(TokenType.INT_VAL,
-                                                    Integer.toString(a << shift),
-                                                    lt.line, lt.column));
-                                    return;
-                                case "/":
-                                    currExpr = wrapLiteral(
-                                            new Token(TokenType.INT_VAL,
-                                                    Integer.toString(a >> shift),
-                                                    lt.line, lt.column));
-                                    return;
-                            }
-                        }
-                    }
-
                     // Handle equality and relational operators first (they always return bool)
                     if (op.equals("==") || op.equals("!=") || op.equals("<") ||
                             op.equals("<=") || op.equals(">") || op.equals(">=")) {
@@ -222,12 +487,41 @@ public class ASTOptimizer implements Visitor {
                                     break;
                             }
                         }
-                        // Null comparisons
-                        else if (lt.tokenType == TokenType.NULL_VAL || rt.tokenType == TokenType.NULL_VAL) {
+                        // String comparisons (escape sequences are only
+                        // translated by the code generator, so skip those)
+                        else if (lt.tokenType == TokenType.STRING_VAL && rt.tokenType == TokenType.STRING_VAL
+                                && !lt.lexeme.contains("\\") && !rt.lexeme.contains("\\")) {
+                            int cmp = lt.lexeme.compareTo(rt.lexeme);
+                            switch (op) {
+                                case "==":
+                                    result = cmp == 0;
+                                    break;
+                                case "!=":
+                                    result = cmp != 0;
+                                    break;
+                                case "<":
+                                    result = cmp < 0;
+                                    break;
+                                case "<=":
+                                    result = cmp <= 0;
+                                    break;
+                                case ">":
+                                    result = cmp > 0;
+                                    break;
+                                case ">=":
+                                    result = cmp >= 0;
+                                    break;
+                            }
+                        }
+                        // Null comparisons (only equality, the relational
+                        // operators fail on null at run time)
+                        else if ((lt.tokenType == TokenType.NULL_VAL || rt.tokenType == TokenType.NULL_VAL)
+                                && (op.equals("==") || op.equals("!="))) {
                             result = lt.tokenType == rt.tokenType;
                             if (op.equals("!="))
                                 result = !result;
-                        }
+                        } else
+                            throw new UnsupportedOperationException();
 
                         currExpr = wrapLiteral(
                                 new Token(TokenType.BOOL_VAL, Boolean.toString(result), lt.line, lt.column));
@@ -328,32 +622,2070 @@ public class ASTOptimizer implements Visitor {
             }
         }
 
-        currExpr = node;
+        currExpr = passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION) ? simplify(node) : node;
     }
 
     // --------------------------------------------------------------------
-    // RValues (no changes for optimization)
+    // RValues (optimize the expressions they contain)
     // --------------------------------------------------------------------
 
     public void visit(CallRValue node) {
+        node.args.replaceAll(this::optimize);
     }
 
     public void visit(SimpleRValue node) {
     }
 
     public void visit(NewStructRValue node) {
+        node.args.replaceAll(this::optimize);
     }
 
     public void visit(NewArrayRValue node) {
+        node.arrayExpr = optimize(node.arrayExpr);
     }
 
     public void visit(VarRValue node) {
+        for (VarRef ref : node.path)
+            ref.arrayExpr = ref.arrayExpr.map(this::optimize);
+    }
+
+    // --------------------------------------------------------------------
+    // Dead code elimination
+    // --------------------------------------------------------------------
+
+    /**
+     * Optimize each statement of a block, then (for the dead code pass)
+     * replace constant-condition if statements with the branch taken,
+     * drop loops that never run, and drop everything after a return.
+     */
+    private void optimizeBody(List<Stmt> stmts) {
+        if (!passes.contains(Pass.DEAD_CODE)) {
+            for (Stmt stmt : stmts)
+                stmt.accept(this);
+            return;
+        }
+        List<Stmt> live = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            stmt.accept(this);
+            live.addAll(liveStmts(stmt));
+            if (!live.isEmpty() && live.get(live.size() - 1) instanceof ReturnStmt)
+                break;
+        }
+        stmts.clear();
+        stmts.addAll(live);
+    }
+
+    /**
+     * The statements that remain of an (already optimized) statement.
+     */
+    private List<Stmt> liveStmts(Stmt stmt) {
+        if (stmt instanceof IfStmt i) {
+            Boolean known = boolLiteral(i.condition);
+            if (known == Boolean.TRUE)
+                return i.ifStmts;
+            if (known == Boolean.FALSE) {
+                // the else-if chain was already collapsed, so any
+                // remaining else-if has an unknown condition
+                if (i.elseIf.isPresent())
+                    return List.of(i.elseIf.get());
+                return i.elseStmts.orElse(List.of());
+            }
+        } else if (stmt instanceof WhileStmt w && isDead(w))
+            return List.of();
+        else if (stmt instanceof ForStmt f && isDead(f))
+            return List.of();
+        return List.of(stmt);
+    }
+
+    /**
+     * Remove the else-if that follows the given if statement when its
+     * condition is known: if true it becomes the else block, if false
+     * the rest of the chain moves up. The else-if's own chain must
+     * already be collapsed.
+     */
+    private void collapseElseIf(IfStmt node) {
+        if (node.elseIf.isEmpty())
+            return;
+        IfStmt next = node.elseIf.get();
+        Boolean known = boolLiteral(next.condition);
+        if (known == Boolean.TRUE) {
+            node.elseIf = Optional.empty();
+            node.elseStmts = Optional.of(next.ifStmts);
+        } else if (known == Boolean.FALSE) {
+            node.elseIf = next.elseIf;
+            node.elseStmts = next.elseStmts;
+        }
+    }
+
+    /**
+     * Check if a while loop's condition is false (for the dead code
+     * pass).
+     */
+    private boolean isDead(WhileStmt node) {
+        return passes.contains(Pass.DEAD_CODE) && boolLiteral(node.condition) == Boolean.FALSE;
+    }
+
+    /**
+     * Check if a for loop's bounds are int literals with the start past
+     * the end (for the dead code pass).
+     */
+    private boolean isDead(ForStmt node) {
+        if (!passes.contains(Pass.DEAD_CODE))
+            return false;
+        if (node.fromExpr instanceof BasicExpr f && f.rvalue instanceof SimpleRValue from
+                && from.literal.tokenType == TokenType.INT_VAL
+                && node.toExpr instanceof BasicExpr t && t.rvalue instanceof SimpleRValue to
+                && to.literal.tokenType == TokenType.INT_VAL)
+            return Integer.parseInt(from.literal.lexeme) > Integer.parseInt(to.literal.lexeme);
+        return false;
+    }
+
+    /**
+     * The value of a bool literal expression (null if not one).
+     */
+    private Boolean boolLiteral(Expr expr) {
+        if (expr instanceof BasicExpr b && b.rvalue instanceof SimpleRValue s
+                && s.literal.tokenType == TokenType.BOOL_VAL)
+            return Boolean.parseBoolean(s.literal.lexeme);
+        return null;
+    }
+
+    // --------------------------------------------------------------------
+    // Unused variable removal
+    // --------------------------------------------------------------------
+
+    /**
+     * Remove the declarations of variables not in the used set whose
+     * initializer has no side effects. Returns true if any were removed.
+     */
+    private boolean removeUnused(List<Stmt> stmts, Set<String> used) {
+        boolean removed = stmts.removeIf(stmt -> stmt instanceof VarStmt v
+                && !used.contains(v.varName.lexeme)
+                && v.expr.map(this::isPure).orElse(true));
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof WhileStmt w)
+                removed |= removeUnused(w.stmts, used);
+            else if (stmt instanceof ForStmt f)
+                removed |= removeUnused(f.stmts, used);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    removed |= removeUnused(branch.ifStmts, used);
+                    if (branch.elseStmts.isPresent())
+                        removed |= removeUnused(branch.elseStmts.get(), used);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Check if evaluating an expression can neither fail nor have a
+     * visible effect: literals, plain variable reads, and struct
+     * allocations with such arguments.
+     */
+    private boolean isPure(Expr expr) {
+        if (!(expr instanceof BasicExpr b))
+            return false;
+        if (b.rvalue instanceof SimpleRValue)
+            return true;
+        if (b.rvalue instanceof VarRValue v)
+            return v.path.size() == 1 && v.path.get(0).arrayExpr.isEmpty();
+        if (b.rvalue instanceof NewStructRValue n)
+            return n.args.stream().allMatch(this::isPure);
+        return false;
+    }
+
+    /**
+     * Collect the names of the variables read or assigned in the given
+     * statements (by name, so a use of any declaration of a name keeps
+     * all of them).
+     */
+    private void collectUses(List<Stmt> stmts, Set<String> used) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                v.expr.ifPresent(e -> collectUses(e, used));
+            else if (stmt instanceof AssignStmt a) {
+                used.add(a.lvalue.get(0).varName.lexeme);
+                for (VarRef ref : a.lvalue)
+                    ref.arrayExpr.ifPresent(e -> collectUses(e, used));
+                collectUses(a.expr, used);
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null)
+                    collectUses(r.expr, used);
+            } else if (stmt instanceof WhileStmt w) {
+                collectUses(w.condition, used);
+                collectUses(w.stmts, used);
+            } else if (stmt instanceof ForStmt f) {
+                collectUses(f.fromExpr, used);
+                collectUses(f.toExpr, used);
+                collectUses(f.stmts, used);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    collectUses(branch.condition, used);
+                    collectUses(branch.ifStmts, used);
+                    branch.elseStmts.ifPresent(s -> collectUses(s, used));
+                }
+            } else if (stmt instanceof CallRValue c) {
+                for (Expr arg : c.args)
+                    collectUses(arg, used);
+            }
+        }
+    }
+
+    private void collectUses(Expr expr, Set<String> used) {
+        if (expr instanceof UnaryExpr u)
+            collectUses(u.expr, used);
+        else if (expr instanceof BinaryExpr b) {
+            collectUses(b.lhs, used);
+            collectUses(b.rhs, used);
+        } else if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof VarRValue v) {
+                used.add(v.path.get(0).varName.lexeme);
+                for (VarRef ref : v.path)
+                    ref.arrayExpr.ifPresent(e -> collectUses(e, used));
+            } else if (b.rvalue instanceof CallRValue c) {
+                for (Expr arg : c.args)
+                    collectUses(arg, used);
+            } else if (b.rvalue instanceof NewStructRValue n) {
+                for (Expr arg : n.args)
+                    collectUses(arg, used);
+            } else if (b.rvalue instanceof NewArrayRValue n)
+                collectUses(n.arrayExpr, used);
+        }
+    }
+
+    // --------------------------------------------------------------------
+    // Algebraic simplification
+    // --------------------------------------------------------------------
+
+    /**
+     * Simplify a binary expression (whose operands are already
+     * simplified) that is not made of two literals. The literal operand
+     * gives the type: int arithmetic wraps around, so it may be
+     * regrouped, but double arithmetic rounds and may not. An operand is
+     * only dropped if it cannot be null (an operator on null fails), and
+     * only removed entirely if it cannot fail.
+     */
+    private Expr simplify(BinaryExpr node) {
+        String op = node.binaryOp.lexeme;
+        // 1 + x is x + 1 (the literal has no effect, so the order of
+        // evaluation does not matter)
+        if ((op.equals("+") || op.equals("*")) && intLiteral(node.lhs) != null && intLiteral(node.rhs) == null) {
+            Expr lhs = node.lhs;
+            node.lhs = node.rhs;
+            node.rhs = lhs;
+        }
+        if (isIdentity(op, literal(node.rhs), true) && isNonNull(node.lhs))
+            return node.lhs;
+        if (isIdentity(op, literal(node.lhs), false) && isNonNull(node.rhs))
+            return node.rhs;
+        Token zero = annihilator(op, literal(node.rhs));
+        if (zero != null && cannotFail(node.lhs) && isNonNull(node.lhs))
+            return wrapLiteral(zero);
+        zero = annihilator(op, literal(node.lhs));
+        if (zero != null && cannotFail(node.rhs) && isNonNull(node.rhs))
+            return wrapLiteral(zero);
+        if (op.equals("-") && isPure(node.lhs) && node.lhs instanceof BasicExpr l
+                && l.rvalue instanceof VarRValue v && key(node.lhs).equals(key(node.rhs))) {
+            String name = v.path.get(0).varName.lexeme;
+            if (ints.contains(name) && nonNull.contains(name))
+                return intExpr(0);
+        }
+        return reassociate(node);
+    }
+
+    /**
+     * Regroup int additions and multiplications so constants meet:
+     * (x + 1) + 2 becomes x + 3, (2 - x) + 1 becomes 3 - x, and
+     * (x + 1) + y becomes (x + y) + 1, so a constant later in the chain
+     * meets it.
+     */
+    private Expr reassociate(BinaryExpr node) {
+        if (!(node.lhs instanceof BinaryExpr inner))
+            return node;
+        String op = node.binaryOp.lexeme;
+        String innerOp = inner.binaryOp.lexeme;
+        boolean additive = isAdditive(op) && isAdditive(innerOp);
+        boolean multiplicative = op.equals("*") && innerOp.equals("*");
+        if (!additive && !multiplicative)
+            return node;
+        Integer c2 = intLiteral(node.rhs);
+        Integer c1 = intLiteral(inner.rhs);
+        if (c2 != null && c1 != null) {
+            if (multiplicative)
+                return binary(inner.lhs, "*", intExpr(c1 * c2));
+            return offset(inner.lhs, signed(innerOp, c1) + signed(op, c2));
+        }
+        // c + x and c * x were turned around already
+        Integer c0 = intLiteral(inner.lhs);
+        if (c2 != null && c0 != null && innerOp.equals("-"))
+            return binary(intExpr(c0 + signed(op, c2)), "-", inner.rhs);
+        if (c2 == null && c1 != null && isNonNull(inner.lhs)) {
+            // the first operator can no longer fail, so it may come after
+            // the other operand is evaluated
+            BinaryExpr first = binary(inner.lhs, op, node.rhs);
+            return binary(simplify(first), innerOp, inner.rhs);
+        }
+        return node;
+    }
+
+    private boolean isAdditive(String op) {
+        return op.equals("+") || op.equals("-");
+    }
+
+    private int signed(String op, int value) {
+        return op.equals("-") ? -value : value;
+    }
+
+    /**
+     * The expression x plus a (possibly negative) constant.
+     */
+    private Expr offset(Expr x, int value) {
+        if (value == 0 && isNonNull(x))
+            return x;
+        if (value < 0 && value != Integer.MIN_VALUE)
+            return binary(x, "-", intExpr(-value));
+        return binary(x, "+", intExpr(value));
+    }
+
+    /**
+     * Check if a literal operand leaves the other operand unchanged (on
+     * the right, or on the left).
+     */
+    private boolean isIdentity(String op, Token literal, boolean right) {
+        if (literal == null)
+            return false;
+        if (literal.tokenType == TokenType.INT_VAL) {
+            int value = Integer.parseInt(literal.lexeme);
+            return (value == 0 && (op.equals("+") || (right && op.equals("-"))))
+                    || (value == 1 && (op.equals("*") || (right && op.equals("/"))));
+        }
+        if (literal.tokenType == TokenType.DOUBLE_VAL) {
+            // x + 0.0 is not x for x = -0.0, but x - 0.0 is
+            double value = Double.parseDouble(literal.lexeme);
+            return right && ((value == 0.0 && op.equals("-")) || (value == 1.0 && op.equals("/")))
+                    || (value == 1.0 && op.equals("*"));
+        }
+        if (literal.tokenType == TokenType.BOOL_VAL) {
+            boolean value = Boolean.parseBoolean(literal.lexeme);
+            return (value && op.equals("and")) || (!value && op.equals("or"));
+        }
+        return false;
+    }
+
+    /**
+     * The result of an operator whose literal operand decides it (int
+     * x * 0, b and false, b or true), or null.
+     */
+    private Token annihilator(String op, Token literal) {
+        if (literal == null)
+            return null;
+        if (literal.tokenType == TokenType.INT_VAL && op.equals("*") && Integer.parseInt(literal.lexeme) == 0)
+            return literal;
+        if (literal.tokenType == TokenType.BOOL_VAL) {
+            boolean value = Boolean.parseBoolean(literal.lexeme);
+            if ((!value && op.equals("and")) || (value && op.equals("or")))
+                return literal;
+        }
+        return null;
+    }
+
+    private Token literal(Expr expr) {
+        if (expr instanceof BasicExpr b && b.rvalue instanceof SimpleRValue s)
+            return s.literal;
+        return null;
+    }
+
+    private Integer intLiteral(Expr expr) {
+        Token literal = literal(expr);
+        if (literal == null || literal.tokenType != TokenType.INT_VAL)
+            return null;
+        try {
+            return Integer.parseInt(literal.lexeme);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Expr intExpr(int value) {
+        return wrapLiteral(new Token(TokenType.INT_VAL, Integer.toString(value), 0, 0));
+    }
+
+    /**
+     * A new int operation (typed, so the code generator still picks the
+     * int instruction).
+     */
+    private BinaryExpr binary(Expr lhs, String op, Expr rhs) {
+        BinaryExpr expr = new BinaryExpr();
+        expr.lhs = lhs;
+        TokenType type = switch (op) {
+            case "+" -> TokenType.PLUS;
+            case "-" -> TokenType.MINUS;
+            case "*" -> TokenType.TIMES;
+            case "<<" -> TokenType.SHIFT_LEFT;
+            case ">>" -> TokenType.SHIFT_RIGHT;
+            default -> TokenType.BIT_AND;
+        };
+        expr.binaryOp = new Token(type, op, 0, 0);
+        expr.rhs = rhs;
+        expr.operandType = new DataType();
+        expr.operandType.type = new Token(TokenType.INT_TYPE, "int", 0, 0);
+        return expr;
+    }
+
+    /**
+     * Find the variables of a function that always hold ints: int
+     * parameters, for-loop variables, and those (not parameters) whose
+     * every declaration is of an int.
+     */
+    private void findInts(FunDef node) {
+        Map<String, Integer> declarations = new HashMap<>();
+        countDeclarations(node.stmts, declarations);
+        ints.clear();
+        ints.addAll(declarations.keySet());
+        for (VarDef param : node.params) {
+            if (param.dataType.isArray || param.dataType.type.tokenType != TokenType.INT_TYPE)
+                ints.remove(param.varName.lexeme);
+            else if (!declarations.containsKey(param.varName.lexeme))
+                ints.add(param.varName.lexeme);
+        }
+        while (removeNonInts(node.stmts))
+            ;
+    }
+
+    private boolean removeNonInts(List<Stmt> stmts) {
+        boolean removed = false;
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v && !isIntDeclaration(v))
+                removed |= ints.remove(v.varName.lexeme);
+            else if (stmt instanceof WhileStmt w)
+                removed |= removeNonInts(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                removed |= removeNonInts(f.stmts);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    removed |= removeNonInts(branch.ifStmts);
+                    if (branch.elseStmts.isPresent())
+                        removed |= removeNonInts(branch.elseStmts.get());
+                }
+            }
+        }
+        return removed;
+    }
+
+    private boolean isIntDeclaration(VarStmt stmt) {
+        if (stmt.dataType.isPresent())
+            return !stmt.dataType.get().isArray && stmt.dataType.get().type.tokenType == TokenType.INT_TYPE;
+        return stmt.expr.isPresent() && isInt(stmt.expr.get());
+    }
+
+    /**
+     * Check if an expression's value is known to be an int.
+     */
+    private boolean isInt(Expr expr) {
+        if (expr instanceof UnaryExpr)
+            return false;
+        if (expr instanceof BinaryExpr b)
+            // the checker requires both operands to have the same type
+            return Set.of("+", "-", "*", "/", "<<", ">>", "&").contains(b.binaryOp.lexeme)
+                    && (isInt(b.lhs) || isInt(b.rhs));
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof SimpleRValue s)
+            return s.literal.tokenType == TokenType.INT_VAL;
+        if (rvalue instanceof VarRValue v)
+            return isPure(expr) && ints.contains(v.path.get(0).varName.lexeme);
+        if (rvalue instanceof CallRValue c)
+            return c.funName.lexeme.equals("size") || c.funName.lexeme.equals("int_val");
+        return false;
+    }
+
+    // --------------------------------------------------------------------
+    // Strength reduction
+    // --------------------------------------------------------------------
+
+    /**
+     * Replace int multiplications and divisions by powers of two in the
+     * given statements (and nested blocks) with shifts and masks.
+     */
+    private void reduceStrength(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                v.expr = v.expr.map(this::reduceStrength);
+            else if (stmt instanceof AssignStmt a) {
+                for (VarRef ref : a.lvalue)
+                    ref.arrayExpr = ref.arrayExpr.map(this::reduceStrength);
+                a.expr = reduceStrength(a.expr);
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null)
+                    r.expr = reduceStrength(r.expr);
+            } else if (stmt instanceof CallRValue c)
+                c.args.replaceAll(this::reduceStrength);
+            else if (stmt instanceof WhileStmt w) {
+                w.condition = reduceStrength(w.condition);
+                reduceStrength(w.stmts);
+            } else if (stmt instanceof ForStmt f) {
+                f.fromExpr = reduceStrength(f.fromExpr);
+                f.toExpr = reduceStrength(f.toExpr);
+                reduceStrength(f.stmts);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    branch.condition = reduceStrength(branch.condition);
+                    reduceStrength(branch.ifStmts);
+                    branch.elseStmts.ifPresent(this::reduceStrength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reduce an expression: x * 2^k is x << k (int multiplication wraps
+     * around just like the shift), x / 2^k is x >> k when x is never
+     * negative (division rounds toward zero, the shift down), and for
+     * such x, x / 2^k * 2^k is x & -2^k and x - x / 2^k * 2^k is
+     * x & (2^k - 1).
+     */
+    private Expr reduceStrength(Expr expr) {
+        if (expr instanceof UnaryExpr u) {
+            u.expr = reduceStrength(u.expr);
+            return u;
+        }
+        if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof CallRValue c)
+                c.args.replaceAll(this::reduceStrength);
+            else if (b.rvalue instanceof NewStructRValue n)
+                n.args.replaceAll(this::reduceStrength);
+            else if (b.rvalue instanceof NewArrayRValue n)
+                n.arrayExpr = reduceStrength(n.arrayExpr);
+            else if (b.rvalue instanceof VarRValue v) {
+                for (VarRef ref : v.path)
+                    ref.arrayExpr = ref.arrayExpr.map(this::reduceStrength);
+            }
+            return b;
+        }
+        BinaryExpr node = (BinaryExpr) expr;
+        String op = node.binaryOp.lexeme;
+        if (op.equals("-") && isPure(node.lhs) && node.rhs instanceof BinaryExpr r) {
+            Expr x = roundedDown(r);
+            if (x != null && key(x).equals(key(node.lhs)))
+                return binary(node.lhs, "&", intExpr(powerOfTwo(r.rhs) - 1));
+        }
+        Expr x = roundedDown(node);
+        if (x != null)
+            return binary(reduceStrength(x), "&", intExpr(-powerOfTwo(node.rhs)));
+        node.lhs = reduceStrength(node.lhs);
+        node.rhs = reduceStrength(node.rhs);
+        if (op.equals("*") && powerOfTwo(node.rhs) > 1)
+            return binary(node.lhs, "<<", intExpr(Integer.numberOfTrailingZeros(powerOfTwo(node.rhs))));
+        if (op.equals("*") && powerOfTwo(node.lhs) > 1)
+            return binary(node.rhs, "<<", intExpr(Integer.numberOfTrailingZeros(powerOfTwo(node.lhs))));
+        if (op.equals("/") && powerOfTwo(node.rhs) > 1 && isNonNegative(node.lhs))
+            return binary(node.lhs, ">>", intExpr(Integer.numberOfTrailingZeros(powerOfTwo(node.rhs))));
+        return node;
+    }
+
+    /**
+     * The x of an expression x / 2^k * 2^k (for x never negative), or
+     * null.
+     */
+    private Expr roundedDown(BinaryExpr expr) {
+        int power = powerOfTwo(expr.rhs);
+        if (!expr.binaryOp.lexeme.equals("*") || power <= 1 || !(expr.lhs instanceof BinaryExpr div))
+            return null;
+        if (div.binaryOp.lexeme.equals("/") && powerOfTwo(div.rhs) == power && isNonNegative(div.lhs))
+            return div.lhs;
+        return null;
+    }
+
+    /**
+     * The value of an int literal that is a power of two, or 0.
+     */
+    private int powerOfTwo(Expr expr) {
+        Integer value = intLiteral(expr);
+        return value != null && value > 0 && Integer.bitCount(value) == 1 ? value : 0;
+    }
+
+    /**
+     * Check if an expression's value is an int that is never negative
+     * (or null). Sums and products can overflow, so they are not.
+     */
+    private boolean isNonNegative(Expr expr) {
+        if (expr instanceof BinaryExpr b) {
+            return switch (b.binaryOp.lexeme) {
+                case "/" -> isNonNegative(b.lhs) && isNonNegative(b.rhs);
+                case ">>" -> isNonNegative(b.lhs);
+                case "&" -> isNonNegative(b.lhs) || isNonNegative(b.rhs);
+                default -> false;
+            };
+        }
+        if (!(expr instanceof BasicExpr b))
+            return false;
+        if (b.rvalue instanceof SimpleRValue)
+            return intLiteral(expr) != null && intLiteral(expr) >= 0;
+        if (b.rvalue instanceof VarRValue v)
+            return isPure(expr) && nonNegative.contains(v.path.get(0).varName.lexeme);
+        return b.rvalue instanceof CallRValue c && c.funName.lexeme.equals("size");
+    }
+
+    /**
+     * Find the variables of a function that are never negative: those
+     * (not parameters) whose every declaration and assignment gives a
+     * non-negative int, including for-loop variables starting at one.
+     */
+    private void findNonNegative(FunDef node) {
+        Map<String, Integer> declarations = new HashMap<>();
+        countDeclarations(node.stmts, declarations);
+        nonNegative.clear();
+        nonNegative.addAll(declarations.keySet());
+        for (VarDef param : node.params)
+            nonNegative.remove(param.varName.lexeme);
+        while (removeNegative(node.stmts))
+            ;
+    }
+
+    private boolean removeNegative(List<Stmt> stmts) {
+        boolean removed = false;
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v && !v.expr.map(this::isNonNegative).orElse(false))
+                removed |= nonNegative.remove(v.varName.lexeme);
+            else if (stmt instanceof AssignStmt a && a.lvalue.size() == 1 && a.lvalue.get(0).arrayExpr.isEmpty()
+                    && !isNonNegative(a.expr))
+                removed |= nonNegative.remove(a.lvalue.get(0).varName.lexeme);
+            else if (stmt instanceof WhileStmt w)
+                removed |= removeNegative(w.stmts);
+            else if (stmt instanceof ForStmt f) {
+                if (!isNonNegative(f.fromExpr))
+                    removed |= nonNegative.remove(f.varName.lexeme);
+                removed |= removeNegative(f.stmts);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    removed |= removeNegative(branch.ifStmts);
+                    if (branch.elseStmts.isPresent())
+                        removed |= removeNegative(branch.elseStmts.get());
+                }
+            }
+        }
+        return removed;
+    }
+
+    // --------------------------------------------------------------------
+    // Loop-invariant code motion
+    // --------------------------------------------------------------------
+
+    /**
+     * What a loop changes, and the expressions hoisted out of it.
+     */
+    private static class Loop {
+        // variables assigned or declared in the loop (and the loop
+        // variable of a for loop)
+        Set<String> written = new HashSet<>();
+        // true if the loop may store to a struct or array (directly or
+        // through a user function call)
+        boolean writesHeap;
+        // declarations of the temporaries, to go before the loop
+        List<Stmt> hoists = new ArrayList<>();
+        // temporary holding each hoisted expression (by key)
+        Map<String, String> temps = new HashMap<>();
+        // set once the search of an entry expression passes something
+        // that cannot move after a hoisted expression
+        boolean blocked;
+    }
+
+    /**
+     * Hoist the invariant expressions of every loop in the given
+     * statements (inner loops first).
+     */
+    private void hoistInvariants(List<Stmt> stmts) {
+        for (int i = 0; i < stmts.size(); ++i) {
+            Stmt stmt = stmts.get(i);
+            if (stmt instanceof WhileStmt w)
+                hoistInvariants(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                hoistInvariants(f.stmts);
+            else if (stmt instanceof IfStmt s) {
+                for (IfStmt branch = s; branch != null; branch = branch.elseIf.orElse(null)) {
+                    hoistInvariants(branch.ifStmts);
+                    branch.elseStmts.ifPresent(this::hoistInvariants);
+                }
+            }
+            if (stmt instanceof WhileStmt || stmt instanceof ForStmt) {
+                List<Stmt> hoists = hoistLoop(stmt);
+                stmts.addAll(i, hoists);
+                i += hoists.size();
+            }
+        }
+    }
+
+    /**
+     * Replace the invariant expressions of a loop with temporaries,
+     * returning the temporaries' declarations. A while condition and a
+     * for loop's upper bound are evaluated at least once, on entry, so
+     * any invariant part without an effect can move (a failure happens
+     * at the same point). The body may not run at all, so only
+     * expressions that cannot fail move out of it.
+     */
+    private List<Stmt> hoistLoop(Stmt stmt) {
+        Loop loop = new Loop();
+        if (stmt instanceof WhileStmt w) {
+            // the condition runs each iteration, so its calls count too
+            loop.writesHeap = collectWrites(w.stmts, loop.written) || hasUserCall(w.condition);
+            w.condition = hoist(w.condition, loop, true);
+            hoistBody(w.stmts, loop);
+            return loop.hoists;
+        }
+        ForStmt f = (ForStmt) stmt;
+        loop.written.add(f.varName.lexeme);
+        loop.writesHeap = collectWrites(f.stmts, loop.written) || hasUserCall(f.toExpr);
+        f.toExpr = hoist(f.toExpr, loop, true);
+        if (!loop.hoists.isEmpty() && !cannotFail(f.fromExpr)) {
+            // the start value is evaluated before the upper bound
+            String temp = "inv$" + hoisted + "$from";
+            loop.hoists.add(0, varStmt(temp, f.fromExpr));
+            f.fromExpr = varRead(temp);
+        }
+        hoistBody(f.stmts, loop);
+        return loop.hoists;
+    }
+
+    /**
+     * Hoist the invariant expressions of a loop body, including those
+     * in if statements but not in nested loops (which were done
+     * first).
+     */
+    private void hoistBody(List<Stmt> stmts, Loop loop) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                v.expr = v.expr.map(e -> hoist(e, loop, false));
+            else if (stmt instanceof AssignStmt a) {
+                for (VarRef ref : a.lvalue)
+                    ref.arrayExpr = ref.arrayExpr.map(e -> hoist(e, loop, false));
+                a.expr = hoist(a.expr, loop, false);
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null)
+                    r.expr = hoist(r.expr, loop, false);
+            } else if (stmt instanceof CallRValue c)
+                c.args.replaceAll(e -> hoist(e, loop, false));
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    branch.condition = hoist(branch.condition, loop, false);
+                    hoistBody(branch.ifStmts, loop);
+                    branch.elseStmts.ifPresent(b -> hoistBody(b, loop));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the largest invariant parts of an expression with reads of
+     * temporaries. For an entry expression (evaluated on loop entry) the
+     * parts are searched in evaluation order and the search stops at
+     * anything that is not hoisted and could fail or have an effect,
+     * since a hoisted part would then run before it.
+     */
+    private Expr hoist(Expr expr, Loop loop, boolean entry) {
+        if (entry && loop.blocked)
+            return expr;
+        if (!isPure(expr) && isInvariant(expr, loop) && (entry || cannotFail(expr)))
+            return temp(expr, loop);
+        if (expr instanceof UnaryExpr u)
+            u.expr = hoist(u.expr, loop, entry);
+        else if (expr instanceof BinaryExpr b) {
+            String op = b.binaryOp.lexeme;
+            if (op.equals(">") || op.equals(">=")) {
+                b.rhs = hoist(b.rhs, loop, entry);
+                b.lhs = hoist(b.lhs, loop, entry);
+            } else {
+                b.lhs = hoist(b.lhs, loop, entry);
+                // the right operand of and/or may not be evaluated
+                if (entry && (op.equals("and") || op.equals("or")))
+                    loop.blocked = true;
+                b.rhs = hoist(b.rhs, loop, entry);
+            }
+        } else if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof CallRValue c) {
+                // arguments are evaluated last to first
+                for (int i = c.args.size() - 1; i >= 0; --i)
+                    c.args.set(i, hoist(c.args.get(i), loop, entry));
+            } else if (b.rvalue instanceof NewStructRValue n)
+                n.args.replaceAll(e -> hoist(e, loop, entry));
+            else if (b.rvalue instanceof NewArrayRValue n)
+                n.arrayExpr = hoist(n.arrayExpr, loop, entry);
+            else if (b.rvalue instanceof VarRValue v) {
+                for (VarRef ref : v.path)
+                    ref.arrayExpr = ref.arrayExpr.map(e -> hoist(e, loop, entry));
+            }
+        }
+        if (!cannotFail(expr))
+            loop.blocked = true;
+        return expr;
+    }
+
+    /**
+     * The read of the temporary holding a hoisted expression (declaring
+     * it the first time the expression is seen).
+     */
+    private Expr temp(Expr expr, Loop loop) {
+        String key = key(expr);
+        String temp = loop.temps.get(key);
+        if (temp == null) {
+            temp = "inv$" + (++hoisted);
+            loop.temps.put(key, temp);
+            loop.hoists.add(varStmt(temp, expr));
+        }
+        return varRead(temp);
+    }
+
+    /**
+     * Check if an expression has the same value on every iteration of a
+     * loop: it reads no variable the loop writes, reads no struct field
+     * or array element if the loop may store to one, and calls no
+     * function with an effect (and allocates nothing).
+     */
+    private boolean isInvariant(Expr expr, Loop loop) {
+        if (expr instanceof UnaryExpr u)
+            return isInvariant(u.expr, loop);
+        if (expr instanceof BinaryExpr b)
+            return isInvariant(b.lhs, loop) && isInvariant(b.rhs, loop);
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof SimpleRValue)
+            return true;
+        if (rvalue instanceof VarRValue v) {
+            if (loop.written.contains(v.path.get(0).varName.lexeme))
+                return false;
+            if (v.path.size() == 1 && v.path.get(0).arrayExpr.isEmpty())
+                return true;
+            return !loop.writesHeap && v.path.stream()
+                    .allMatch(ref -> ref.arrayExpr.map(e -> isInvariant(e, loop)).orElse(true));
+        }
+        if (rvalue instanceof CallRValue c)
+            return PURE_BUILT_INS.contains(c.funName.lexeme) && c.args.stream().allMatch(e -> isInvariant(e, loop));
+        return false;
+    }
+
+    /**
+     * Check if evaluating an expression can neither fail nor have an
+     * effect, given which variables are never null: comparisons for
+     * equality, and operators on values that cannot be null (division
+     * only by a non-zero literal).
+     */
+    private boolean cannotFail(Expr expr) {
+        if (expr instanceof UnaryExpr u)
+            return cannotFail(u.expr) && isNonNull(u.expr);
+        if (expr instanceof BinaryExpr b) {
+            if (!cannotFail(b.lhs) || !cannotFail(b.rhs))
+                return false;
+            String op = b.binaryOp.lexeme;
+            if (op.equals("==") || op.equals("!="))
+                return true;
+            if (!isNonNull(b.lhs) || !isNonNull(b.rhs))
+                return false;
+            return !op.equals("/") || (b.rhs instanceof BasicExpr r && r.rvalue instanceof SimpleRValue lit
+                    && Double.parseDouble(lit.literal.lexeme) != 0.0);
+        }
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof SimpleRValue)
+            return true;
+        if (rvalue instanceof VarRValue)
+            return isPure(expr);
+        if (rvalue instanceof CallRValue c) {
+            String name = c.funName.lexeme;
+            return (name.equals("size") || name.equals("str_val")) && cannotFail(c.args.get(0))
+                    && isNonNull(c.args.get(0));
+        }
+        return false;
+    }
+
+    /**
+     * Check if an expression's value (when it has one) cannot be null.
+     */
+    private boolean isNonNull(Expr expr) {
+        if (!(expr instanceof BasicExpr b))
+            // operators never give null
+            return true;
+        if (b.rvalue instanceof SimpleRValue s)
+            return s.literal.tokenType != TokenType.NULL_VAL;
+        if (b.rvalue instanceof VarRValue v)
+            return isPure(expr) && nonNull.contains(v.path.get(0).varName.lexeme);
+        if (b.rvalue instanceof CallRValue c)
+            return PURE_BUILT_INS.contains(c.funName.lexeme);
+        return true;
+    }
+
+    /**
+     * Find the variables of a function that can never hold null: those
+     * (not parameters) whose every declaration and assignment gives a
+     * non-null value (for-loop variables always do).
+     */
+    private void findNonNull(FunDef node) {
+        Map<String, Integer> declarations = new HashMap<>();
+        countDeclarations(node.stmts, declarations);
+        nonNull.clear();
+        nonNull.addAll(declarations.keySet());
+        for (VarDef param : node.params)
+            nonNull.remove(param.varName.lexeme);
+        // a value read from a variable is non-null only if the variable
+        // is, so repeat until nothing changes
+        while (removeNullable(node.stmts))
+            ;
+    }
+
+    /**
+     * Remove the variables given a possibly null value in the given
+     * statements from the non-null set. Returns true if any were.
+     */
+    private boolean removeNullable(List<Stmt> stmts) {
+        boolean removed = false;
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v && !v.expr.map(this::isNonNull).orElse(false))
+                removed |= nonNull.remove(v.varName.lexeme);
+            else if (stmt instanceof AssignStmt a && a.lvalue.size() == 1 && a.lvalue.get(0).arrayExpr.isEmpty()
+                    && !isNonNull(a.expr))
+                removed |= nonNull.remove(a.lvalue.get(0).varName.lexeme);
+            else if (stmt instanceof WhileStmt w)
+                removed |= removeNullable(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                removed |= removeNullable(f.stmts);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    removed |= removeNullable(branch.ifStmts);
+                    if (branch.elseStmts.isPresent())
+                        removed |= removeNullable(branch.elseStmts.get());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Collect the variables declared or assigned in the given statements
+     * (and nested blocks). Returns true if they may store to a struct
+     * or array, directly or by calling a user function.
+     */
+    private boolean collectWrites(List<Stmt> stmts, Set<String> written) {
+        boolean heap = false;
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                written.add(v.varName.lexeme);
+            else if (stmt instanceof AssignStmt a) {
+                if (a.lvalue.size() == 1 && a.lvalue.get(0).arrayExpr.isEmpty())
+                    written.add(a.lvalue.get(0).varName.lexeme);
+                else
+                    heap = true;
+            } else if (stmt instanceof WhileStmt w)
+                heap |= collectWrites(w.stmts, written);
+            else if (stmt instanceof ForStmt f) {
+                written.add(f.varName.lexeme);
+                heap |= collectWrites(f.stmts, written);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    heap |= collectWrites(branch.ifStmts, written);
+                    if (branch.elseStmts.isPresent())
+                        heap |= collectWrites(branch.elseStmts.get(), written);
+                }
+            }
+        }
+        Set<String> called = new HashSet<>();
+        collectCalls(stmts, called);
+        called.removeAll(BUILT_INS);
+        return heap || !called.isEmpty();
+    }
+
+    /**
+     * Check if an expression calls a user function (which may write to
+     * any field or array).
+     */
+    private boolean hasUserCall(Expr expr) {
+        Set<String> called = new HashSet<>();
+        collectCalls(expr, called);
+        called.removeAll(BUILT_INS);
+        return !called.isEmpty();
+    }
+
+    // --------------------------------------------------------------------
+    // Common subexpression elimination
+    // --------------------------------------------------------------------
+
+    /**
+     * The statements of a basic block (a run of statements without
+     * branches or loops), and the expressions already computed into
+     * temporaries.
+     */
+    private static class Block {
+        List<Stmt> stmts = new ArrayList<>();
+        // temporary holding each available expression (by key), and the
+        // expression (to tell which stores invalidate it)
+        Map<String, String> temps = new HashMap<>();
+        Map<String, Expr> exprs = new HashMap<>();
+        // declarations of the temporaries, to go before the current
+        // statement
+        List<Stmt> decls = new ArrayList<>();
+        // the current statement and whether it calls a user function
+        int index;
+        boolean calls;
+        // set once the current statement's evaluation passes something
+        // that could fail (or has an effect), and while in an operand
+        // that may not be evaluated
+        boolean blocked;
+        boolean conditional;
+    }
+
+    /**
+     * Compute the expressions repeated within each basic block of the
+     * given statements (and nested blocks) once.
+     */
+    private void eliminateCommon(List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        Block block = new Block();
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt || stmt instanceof AssignStmt || stmt instanceof CallRValue
+                    || stmt instanceof ReturnStmt) {
+                block.stmts.add(stmt);
+                continue;
+            }
+            result.addAll(eliminateCommon(block));
+            block = new Block();
+            if (stmt instanceof WhileStmt w)
+                eliminateCommon(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                eliminateCommon(f.stmts);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    eliminateCommon(branch.ifStmts);
+                    branch.elseStmts.ifPresent(this::eliminateCommon);
+                }
+            }
+            result.add(stmt);
+        }
+        result.addAll(eliminateCommon(block));
+        stmts.clear();
+        stmts.addAll(result);
+    }
+
+    /**
+     * Replace the repeated expressions of a basic block with reads of
+     * temporaries, returning its statements with the temporaries'
+     * declarations.
+     */
+    private List<Stmt> eliminateCommon(Block block) {
+        List<Stmt> result = new ArrayList<>();
+        for (block.index = 0; block.index < block.stmts.size(); ++block.index) {
+            Stmt stmt = block.stmts.get(block.index);
+            block.calls = callsUser(stmt);
+            block.blocked = false;
+            if (stmt instanceof VarStmt v)
+                v.expr = v.expr.map(e -> common(e, block));
+            else if (stmt instanceof AssignStmt a) {
+                // x[i].f = e loads x, evaluates i, gets element i (which
+                // can fail), and then evaluates the rest
+                a.lvalue.get(0).arrayExpr = a.lvalue.get(0).arrayExpr.map(e -> common(e, block));
+                if (a.lvalue.size() > 1)
+                    block.blocked = true;
+                for (VarRef ref : a.lvalue.subList(1, a.lvalue.size()))
+                    ref.arrayExpr = ref.arrayExpr.map(e -> common(e, block));
+                a.expr = common(a.expr, block);
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null)
+                    r.expr = common(r.expr, block);
+            } else if (stmt instanceof CallRValue c) {
+                for (int i = c.args.size() - 1; i >= 0; --i)
+                    c.args.set(i, common(c.args.get(i), block));
+            }
+            result.addAll(block.decls);
+            block.decls.clear();
+            result.add(stmt);
+            block.temps.keySet().removeIf(key -> invalidates(stmt, block.exprs.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * Replace the largest repeated parts of an expression of the current
+     * statement with reads of temporaries. A part seen before (and still
+     * valid) reads its temporary; a part seen again later in the block
+     * is computed into a new temporary before the statement, as long as
+     * everything the statement evaluates before it cannot fail.
+     */
+    private Expr common(Expr expr, Block block) {
+        if (isCommonCandidate(expr) && !(block.calls && readsHeap(expr))) {
+            String key = key(expr);
+            String temp = block.temps.get(key);
+            if (temp != null)
+                return varRead(temp);
+            if (!block.blocked && !block.conditional && isRepeated(expr, key, block)) {
+                temp = "cse$" + (++common);
+                block.temps.put(key, temp);
+                block.exprs.put(key, expr);
+                block.decls.add(varStmt(temp, expr));
+                return varRead(temp);
+            }
+        }
+        if (expr instanceof UnaryExpr u)
+            u.expr = common(u.expr, block);
+        else if (expr instanceof BinaryExpr b) {
+            String op = b.binaryOp.lexeme;
+            if (op.equals(">") || op.equals(">=")) {
+                b.rhs = common(b.rhs, block);
+                b.lhs = common(b.lhs, block);
+            } else if (op.equals("and") || op.equals("or")) {
+                b.lhs = common(b.lhs, block);
+                boolean conditional = block.conditional;
+                block.conditional = true;
+                b.rhs = common(b.rhs, block);
+                block.conditional = conditional;
+            } else {
+                b.lhs = common(b.lhs, block);
+                b.rhs = common(b.rhs, block);
+            }
+        } else if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof CallRValue c) {
+                for (int i = c.args.size() - 1; i >= 0; --i)
+                    c.args.set(i, common(c.args.get(i), block));
+            } else if (b.rvalue instanceof NewStructRValue n)
+                n.args.replaceAll(e -> common(e, block));
+            else if (b.rvalue instanceof NewArrayRValue n)
+                n.arrayExpr = common(n.arrayExpr, block);
+            else if (b.rvalue instanceof VarRValue v) {
+                for (VarRef ref : v.path)
+                    ref.arrayExpr = ref.arrayExpr.map(e -> common(e, block));
+            }
+        }
+        if (!cannotFail(expr))
+            block.blocked = true;
+        return expr;
+    }
+
+    /**
+     * Check if an expression occurs again, with the same value, in the
+     * current statement or a later one of the block.
+     */
+    private boolean isRepeated(Expr expr, String key, Block block) {
+        Stmt current = block.stmts.get(block.index);
+        if (occurrences(current, key) > 1)
+            return true;
+        if (invalidates(current, expr))
+            return false;
+        for (Stmt stmt : block.stmts.subList(block.index + 1, block.stmts.size())) {
+            if (!(callsUser(stmt) && readsHeap(expr)) && occurrences(stmt, key) > 0)
+                return true;
+            if (invalidates(stmt, expr))
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Check if an expression is worth computing once: it is more than a
+     * literal or variable, and has no effect and the same value each
+     * time (no allocation or user function call).
+     */
+    private boolean isCommonCandidate(Expr expr) {
+        return !isPure(expr) && hasNoEffect(expr);
+    }
+
+    private boolean hasNoEffect(Expr expr) {
+        if (expr instanceof UnaryExpr u)
+            return hasNoEffect(u.expr);
+        if (expr instanceof BinaryExpr b)
+            return hasNoEffect(b.lhs) && hasNoEffect(b.rhs);
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof SimpleRValue)
+            return true;
+        if (rvalue instanceof VarRValue v)
+            return v.path.stream().allMatch(ref -> ref.arrayExpr.map(this::hasNoEffect).orElse(true));
+        if (rvalue instanceof CallRValue c)
+            return PURE_BUILT_INS.contains(c.funName.lexeme) && c.args.stream().allMatch(this::hasNoEffect);
+        return false;
+    }
+
+    private boolean readsHeap(Expr expr) {
+        Set<String> reads = new HashSet<>();
+        collectHeapReads(expr, reads);
+        return !reads.isEmpty();
+    }
+
+    /**
+     * Collect what an expression reads from structs and arrays: ".f" for
+     * a field f, and "[]" for an array element.
+     */
+    private void collectHeapReads(Expr expr, Set<String> reads) {
+        if (expr instanceof UnaryExpr u)
+            collectHeapReads(u.expr, reads);
+        else if (expr instanceof BinaryExpr b) {
+            collectHeapReads(b.lhs, reads);
+            collectHeapReads(b.rhs, reads);
+        } else if (((BasicExpr) expr).rvalue instanceof VarRValue v) {
+            for (int i = 0; i < v.path.size(); ++i) {
+                VarRef ref = v.path.get(i);
+                if (i > 0)
+                    reads.add("." + ref.varName.lexeme);
+                if (ref.arrayExpr.isPresent()) {
+                    reads.add("[]");
+                    collectHeapReads(ref.arrayExpr.get(), reads);
+                }
+            }
+        } else if (((BasicExpr) expr).rvalue instanceof CallRValue c) {
+            for (Expr arg : c.args)
+                collectHeapReads(arg, reads);
+        }
+    }
+
+    /**
+     * Check if a statement may change the value of an expression: it
+     * declares or assigns a variable the expression reads, stores to a
+     * field (by name) or array element the expression reads, or calls a
+     * user function when the expression reads either.
+     */
+    private boolean invalidates(Stmt stmt, Expr expr) {
+        Set<String> reads = new HashSet<>();
+        collectUses(expr, reads);
+        if (readsHeap(expr) && callsUser(stmt))
+            return true;
+        if (stmt instanceof VarStmt v)
+            return reads.contains(v.varName.lexeme);
+        if (stmt instanceof AssignStmt a) {
+            VarRef last = a.lvalue.get(a.lvalue.size() - 1);
+            if (a.lvalue.size() == 1 && last.arrayExpr.isEmpty())
+                return reads.contains(last.varName.lexeme);
+            Set<String> heapReads = new HashSet<>();
+            collectHeapReads(expr, heapReads);
+            return heapReads.contains(last.arrayExpr.isPresent() ? "[]" : "." + last.varName.lexeme);
+        }
+        return false;
+    }
+
+    private boolean callsUser(Stmt stmt) {
+        Set<String> called = new HashSet<>();
+        collectCalls(List.of(stmt), called);
+        called.removeAll(BUILT_INS);
+        return !called.isEmpty();
+    }
+
+    /**
+     * The number of times an expression (by key) occurs in a statement.
+     */
+    private int occurrences(Stmt stmt, String key) {
+        List<Expr> exprs = new ArrayList<>();
+        if (stmt instanceof VarStmt v)
+            v.expr.ifPresent(exprs::add);
+        else if (stmt instanceof AssignStmt a) {
+            for (VarRef ref : a.lvalue)
+                ref.arrayExpr.ifPresent(exprs::add);
+            exprs.add(a.expr);
+        } else if (stmt instanceof ReturnStmt r) {
+            if (r.expr != null)
+                exprs.add(r.expr);
+        } else if (stmt instanceof CallRValue c)
+            exprs.addAll(c.args);
+        int count = 0;
+        for (Expr expr : exprs)
+            count += occurrencesIn(expr, key);
+        return count;
+    }
+
+    private int occurrencesIn(Expr expr, String key) {
+        if (key(expr).equals(key))
+            return 1;
+        if (expr instanceof UnaryExpr u)
+            return occurrencesIn(u.expr, key);
+        if (expr instanceof BinaryExpr b)
+            return occurrencesIn(b.lhs, key) + occurrencesIn(b.rhs, key);
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        List<Expr> parts = new ArrayList<>();
+        if (rvalue instanceof VarRValue v) {
+            for (VarRef ref : v.path)
+                ref.arrayExpr.ifPresent(parts::add);
+        } else if (rvalue instanceof CallRValue c)
+            parts.addAll(c.args);
+        else if (rvalue instanceof NewStructRValue n)
+            parts.addAll(n.args);
+        else if (rvalue instanceof NewArrayRValue n)
+            parts.add(n.arrayExpr);
+        int count = 0;
+        for (Expr part : parts)
+            count += occurrencesIn(part, key);
+        return count;
+    }
+
+    // --------------------------------------------------------------------
+    // Compile-time evaluation of pure calls
+    // --------------------------------------------------------------------
+
+    /**
+     * Find the pure functions: not main, taking and returning only
+     * ints, doubles, bools and strings, using no structs or arrays,
+     * and calling only pure functions and the built-ins without an
+     * effect (so no I/O).
+     */
+    private void findPure(Program node) {
+        Map<String, Set<String>> callees = new HashMap<>();
+        Map<String, FunDef> pure = new HashMap<>();
+        for (FunDef f : node.functions) {
+            String name = f.funName.lexeme;
+            if (name.equals("main") || !isScalar(f.returnType) || !f.params.stream().allMatch(p -> isScalar(p.dataType))
+                    || !isScalar(f.stmts))
+                continue;
+            Set<String> called = new HashSet<>();
+            collectCalls(f.stmts, called);
+            callees.put(name, called);
+            pure.put(name, f);
+        }
+        // a function calling an impure one is impure as well
+        boolean changed = true;
+        while (changed) {
+            changed = pure.keySet().removeIf(name -> callees.get(name).stream()
+                    .anyMatch(callee -> !PURE_BUILT_INS.contains(callee) && !pure.containsKey(callee)));
+        }
+        // the functions are evaluated as written (their bodies change as
+        // they are optimized, and inlined into each other)
+        Map<String, FunDef> copies = new HashMap<>();
+        pure.forEach((name, f) -> {
+            FunDef copy = new FunDef();
+            copy.returnType = f.returnType;
+            copy.funName = f.funName;
+            copy.params = f.params;
+            for (Stmt s : f.stmts)
+                copy.stmts.add(copy(s, new HashMap<>(), ""));
+            copies.put(name, copy);
+        });
+        evaluator = new PureCallEvaluator(copies, evalBudget);
+    }
+
+    private boolean isScalar(DataType type) {
+        return !type.isArray && Set.of("int", "double", "bool", "string").contains(type.type.lexeme);
+    }
+
+    /**
+     * Check if statements only use local variables (no field, array or
+     * allocation).
+     */
+    private boolean isScalar(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v) {
+                if (v.expr.isPresent() && !isScalar(v.expr.get()))
+                    return false;
+            } else if (stmt instanceof AssignStmt a) {
+                if (a.lvalue.size() > 1 || a.lvalue.get(0).arrayExpr.isPresent() || !isScalar(a.expr))
+                    return false;
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null && !isScalar(r.expr))
+                    return false;
+            } else if (stmt instanceof WhileStmt w) {
+                if (!isScalar(w.condition) || !isScalar(w.stmts))
+                    return false;
+            } else if (stmt instanceof ForStmt f) {
+                if (!isScalar(f.fromExpr) || !isScalar(f.toExpr) || !isScalar(f.stmts))
+                    return false;
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    if (!isScalar(branch.condition) || !isScalar(branch.ifStmts)
+                            || !branch.elseStmts.map(this::isScalar).orElse(true))
+                        return false;
+                }
+            } else if (stmt instanceof CallRValue c) {
+                if (!c.args.stream().allMatch(this::isScalar))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isScalar(Expr expr) {
+        if (expr instanceof UnaryExpr u)
+            return isScalar(u.expr);
+        if (expr instanceof BinaryExpr b)
+            return isScalar(b.lhs) && isScalar(b.rhs);
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof VarRValue v)
+            return v.path.size() == 1 && v.path.get(0).arrayExpr.isEmpty();
+        if (rvalue instanceof CallRValue c)
+            return c.args.stream().allMatch(this::isScalar);
+        return rvalue instanceof SimpleRValue;
+    }
+
+    /**
+     * Replace a call to a pure function whose arguments are all literals
+     * (after optimizing them) with its value, unless the evaluation gives
+     * up.
+     */
+    private void evaluate(CallRValue call) {
+        Token value = evaluator.evaluate(call);
+        if (value == null)
+            return;
+        StringBuilder site = new StringBuilder(call.funName.lexeme).append("(");
+        for (int i = 0; i < call.args.size(); ++i)
+            site.append(i > 0 ? ", " : "").append(show(literal(call.args.get(i))));
+        evaluatedCalls.add(site + ") = " + show(value) + " at " + call.funName.line + ":" + call.funName.column);
+        currExpr = wrapLiteral(value);
+    }
+
+    private String show(Token literal) {
+        return literal.tokenType == TokenType.STRING_VAL ? "\"" + literal.lexeme + "\"" : literal.lexeme;
+    }
+
+    /**
+     * Check if a call can be replaced by its value as it is.
+     */
+    private boolean isEvaluable(CallRValue call) {
+        return passes.contains(Pass.PURE_CALLS) && evaluator.evaluate(call) != null;
+    }
+
+    // --------------------------------------------------------------------
+    // Inlining
+    // --------------------------------------------------------------------
+
+    /**
+     * Find the functions that can be inlined: not main, within the size
+     * budget, not (even indirectly) recursive, returning only at the
+     * end of the body, and not redeclaring a parameter name.
+     */
+    private void findInlinable(Program node) {
+        Map<String, Set<String>> callees = new HashMap<>();
+        for (FunDef f : node.functions) {
+            Set<String> called = new HashSet<>();
+            collectCalls(f.stmts, called);
+            callees.put(f.funName.lexeme, called);
+        }
+        inlinable.clear();
+        for (FunDef f : node.functions) {
+            String name = f.funName.lexeme;
+            if (name.equals("main") || size(f.stmts) > inlineBudget || reaches(name, name, callees, new HashSet<>()))
+                continue;
+            List<Stmt> body = f.stmts.isEmpty() || !(f.stmts.get(f.stmts.size() - 1) instanceof ReturnStmt)
+                    ? f.stmts : f.stmts.subList(0, f.stmts.size() - 1);
+            if (hasReturn(body))
+                continue;
+            Map<String, Integer> declarations = new HashMap<>();
+            countDeclarations(f.stmts, declarations);
+            if (f.params.stream().noneMatch(p -> declarations.containsKey(p.varName.lexeme)))
+                inlinable.put(name, f);
+        }
+    }
+
+    /**
+     * Check if a function calls the target, directly or through other
+     * functions.
+     */
+    private boolean reaches(String from, String target, Map<String, Set<String>> callees, Set<String> seen) {
+        for (String callee : callees.getOrDefault(from, Set.of())) {
+            if (callee.equals(target))
+                return true;
+            if (seen.add(callee) && reaches(callee, target, callees, seen))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Inline the calls in the given statements (and nested blocks),
+     * including the calls the inlined bodies make.
+     */
+    private void inlineCalls(String caller, List<Stmt> stmts) {
+        int i = 0;
+        while (i < stmts.size()) {
+            List<Stmt> expansion = inlineFirstCall(caller, stmts.get(i));
+            if (expansion != null) {
+                // the expansion (ending in what is left of the statement)
+                // is searched again
+                stmts.remove(i);
+                stmts.addAll(i, expansion);
+                continue;
+            }
+            Stmt stmt = stmts.get(i);
+            if (stmt instanceof WhileStmt w)
+                inlineCalls(caller, w.stmts);
+            else if (stmt instanceof ForStmt f)
+                inlineCalls(caller, f.stmts);
+            else if (stmt instanceof IfStmt s) {
+                for (IfStmt branch = s; branch != null; branch = branch.elseIf.orElse(null)) {
+                    inlineCalls(caller, branch.ifStmts);
+                    branch.elseStmts.ifPresent(e -> inlineCalls(caller, e));
+                }
+            }
+            ++i;
+        }
+    }
+
+    /**
+     * Inline the first call of a statement that can be moved ahead of
+     * it. Returns the statements replacing it, or null if there is no
+     * such call. Only expressions evaluated once, before anything else
+     * the statement does, are searched (not loop conditions, for-loop
+     * upper bounds, or else-if conditions).
+     */
+    private List<Stmt> inlineFirstCall(String caller, Stmt stmt) {
+        if (stmt instanceof CallRValue c && inlinable.containsKey(c.funName.lexeme)) {
+            // the statement is the call (so its value is discarded)
+            List<Stmt> expansion = new ArrayList<>();
+            Expr result = expand(caller, c, expansion);
+            if (result instanceof BasicExpr b && b.rvalue instanceof CallRValue call)
+                expansion.add(call);
+            else if (!isPure(result))
+                expansion.add(varStmt(c.funName.lexeme + "$" + inlinedCalls.size() + "$result", result));
+            return expansion;
+        }
+        searchBlocked = false;
+        BasicExpr site = null;
+        if (stmt instanceof CallRValue c) {
+            for (int i = c.args.size() - 1; i >= 0 && site == null && !searchBlocked; --i)
+                site = findInlinable(c.args.get(i));
+        } else if (stmt instanceof VarStmt v && v.expr.isPresent())
+            site = findInlinable(v.expr.get());
+        else if (stmt instanceof AssignStmt a) {
+            VarRef target = a.lvalue.get(0);
+            if (a.lvalue.size() == 1) {
+                if (target.arrayExpr.isPresent())
+                    site = findInlinable(target.arrayExpr.get());
+                if (site == null && !searchBlocked)
+                    site = findInlinable(a.expr);
+            } else if (a.lvalue.size() == 2 && a.lvalue.stream().allMatch(r -> r.arrayExpr.isEmpty()))
+                // x.f = e only loads x before evaluating e
+                site = findInlinable(a.expr);
+        } else if (stmt instanceof ReturnStmt r && r.expr != null)
+            site = findInlinable(r.expr);
+        else if (stmt instanceof IfStmt s)
+            site = findInlinable(s.condition);
+        else if (stmt instanceof ForStmt f)
+            site = findInlinable(f.fromExpr);
+        if (site == null)
+            return null;
+
+        List<Stmt> expansion = new ArrayList<>();
+        Expr result = expand(caller, (CallRValue) site.rvalue, expansion);
+        BasicExpr call = site;
+        if (stmt instanceof CallRValue c)
+            c.args.replaceAll(e -> replace(e, call, result));
+        else if (stmt instanceof VarStmt v)
+            v.expr = v.expr.map(e -> replace(e, call, result));
+        else if (stmt instanceof AssignStmt a) {
+            a.lvalue.get(0).arrayExpr = a.lvalue.get(0).arrayExpr.map(e -> replace(e, call, result));
+            a.expr = replace(a.expr, call, result);
+        } else if (stmt instanceof ReturnStmt r)
+            r.expr = replace(r.expr, call, result);
+        else if (stmt instanceof IfStmt s)
+            s.condition = replace(s.condition, call, result);
+        else if (stmt instanceof ForStmt f)
+            f.fromExpr = replace(f.fromExpr, call, result);
+        expansion.add(stmt);
+        return expansion;
+    }
+
+    /**
+     * Search an expression, in evaluation order, for a call to an
+     * inlinable function (returning the expression holding it). The
+     * inlined body runs before the whole statement, so the search stops
+     * (setting searchBlocked) at anything evaluated earlier that could
+     * fail, have an effect, or see one: only literals and plain local
+     * variable reads may come before the call.
+     */
+    private BasicExpr findInlinable(Expr expr) {
+        if (searchBlocked)
+            return null;
+        if (expr instanceof UnaryExpr u) {
+            BasicExpr site = findInlinable(u.expr);
+            searchBlocked = true;
+            return site;
+        }
+        if (expr instanceof BinaryExpr b) {
+            String op = b.binaryOp.lexeme;
+            boolean swapped = op.equals(">") || op.equals(">=");
+            BasicExpr site = findInlinable(swapped ? b.rhs : b.lhs);
+            // the right operand of and/or may not be evaluated
+            if (site == null && !op.equals("and") && !op.equals("or"))
+                site = findInlinable(swapped ? b.lhs : b.rhs);
+            searchBlocked = true;
+            return site;
+        }
+        if (!(expr instanceof BasicExpr basic))
+            return null;
+        RValue rvalue = basic.rvalue;
+        if (rvalue instanceof SimpleRValue)
+            return null;
+        if (rvalue instanceof VarRValue v) {
+            BasicExpr site = v.path.get(0).arrayExpr.map(this::findInlinable).orElse(null);
+            if (!isPure(expr))
+                searchBlocked = true;
+            return site;
+        }
+        if (rvalue instanceof CallRValue c) {
+            // the arguments move into the expansion along with the call
+            // (unless the call is replaced by its value anyway)
+            if (inlinable.containsKey(c.funName.lexeme) && !isEvaluable(c))
+                return basic;
+            // arguments are evaluated last to first
+            for (int i = c.args.size() - 1; i >= 0; --i) {
+                BasicExpr site = findInlinable(c.args.get(i));
+                if (site != null || searchBlocked)
+                    return site;
+            }
+            searchBlocked = true;
+            return null;
+        }
+        if (rvalue instanceof NewArrayRValue n) {
+            BasicExpr site = findInlinable(n.arrayExpr);
+            searchBlocked = true;
+            return site;
+        }
+        // a struct is allocated before its arguments are evaluated
+        searchBlocked = true;
+        return null;
+    }
+
+    /**
+     * Add the statements that run a call's body to the expansion, with
+     * the parameters bound to the arguments and every local renamed,
+     * and return the expression for the call's value.
+     */
+    private Expr expand(String caller, CallRValue call, List<Stmt> expansion) {
+        FunDef callee = inlinable.get(call.funName.lexeme);
+        inlinedCalls.add(String.format("%s into %s at %d:%d", callee.funName.lexeme, caller,
+                call.funName.line, call.funName.column));
+        // '$' cannot appear in a source identifier, so the names are new
+        String prefix = callee.funName.lexeme + "$" + inlinedCalls.size() + "$";
+        Map<String, String> names = new HashMap<>();
+        Set<String> assigned = new HashSet<>();
+        collectAssigned(callee.stmts, assigned);
+        // bind in the order the VM evaluates arguments (last to first)
+        for (int i = call.args.size() - 1; i >= 0; --i) {
+            String param = callee.params.get(i).varName.lexeme;
+            Expr arg = call.args.get(i);
+            if (!assigned.contains(param) && arg instanceof BasicExpr b && b.rvalue instanceof VarRValue v
+                    && isPure(arg))
+                // a local read as is needs no copy (the body cannot
+                // assign the caller's locals)
+                names.put(param, v.path.get(0).varName.lexeme);
+            else {
+                names.put(param, prefix + param);
+                expansion.add(varStmt(prefix + param, arg));
+            }
+        }
+        Expr result = null;
+        for (Stmt stmt : callee.stmts) {
+            if (stmt instanceof ReturnStmt r)
+                result = r.expr == null ? null : copyExpr(r.expr, names, prefix);
+            else
+                expansion.add(copy(stmt, names, prefix));
+        }
+        return result != null ? result : wrapLiteral(new Token(TokenType.NULL_VAL, "null",
+                call.funName.line, call.funName.column));
+    }
+
+    /**
+     * Replace the target expression (by identity) within an expression.
+     */
+    private Expr replace(Expr expr, BasicExpr target, Expr with) {
+        if (expr == target)
+            return with;
+        if (expr instanceof UnaryExpr u)
+            u.expr = replace(u.expr, target, with);
+        else if (expr instanceof BinaryExpr b) {
+            b.lhs = replace(b.lhs, target, with);
+            b.rhs = replace(b.rhs, target, with);
+        } else if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof CallRValue c)
+                c.args.replaceAll(e -> replace(e, target, with));
+            else if (b.rvalue instanceof NewArrayRValue n)
+                n.arrayExpr = replace(n.arrayExpr, target, with);
+            else if (b.rvalue instanceof VarRValue v)
+                v.path.get(0).arrayExpr = v.path.get(0).arrayExpr.map(e -> replace(e, target, with));
+        }
+        return expr;
+    }
+
+    /**
+     * Copy a statement of an inlined body, renaming its variables (and
+     * recording the new names of the ones it declares).
+     */
+    private Stmt copy(Stmt stmt, Map<String, String> names, String prefix) {
+        if (stmt instanceof VarStmt v) {
+            VarStmt copy = new VarStmt();
+            copy.dataType = v.dataType;
+            copy.expr = v.expr.map(e -> copyExpr(e, names, prefix));
+            names.put(v.varName.lexeme, prefix + v.varName.lexeme);
+            copy.varName = rename(v.varName, names);
+            return copy;
+        }
+        if (stmt instanceof ReturnStmt r) {
+            ReturnStmt copy = new ReturnStmt();
+            copy.expr = r.expr == null ? null : copyExpr(r.expr, names, prefix);
+            return copy;
+        }
+        if (stmt instanceof AssignStmt a) {
+            AssignStmt copy = new AssignStmt();
+            copy.lvalue = copy(a.lvalue, names, prefix);
+            copy.expr = copyExpr(a.expr, names, prefix);
+            return copy;
+        }
+        if (stmt instanceof WhileStmt w) {
+            WhileStmt copy = new WhileStmt();
+            copy.condition = copyExpr(w.condition, names, prefix);
+            for (Stmt s : w.stmts)
+                copy.stmts.add(copy(s, names, prefix));
+            return copy;
+        }
+        if (stmt instanceof ForStmt f) {
+            ForStmt copy = new ForStmt();
+            copy.fromExpr = copyExpr(f.fromExpr, names, prefix);
+            names.put(f.varName.lexeme, prefix + f.varName.lexeme);
+            copy.varName = rename(f.varName, names);
+            copy.toExpr = copyExpr(f.toExpr, names, prefix);
+            for (Stmt s : f.stmts)
+                copy.stmts.add(copy(s, names, prefix));
+            return copy;
+        }
+        if (stmt instanceof IfStmt i) {
+            IfStmt copy = new IfStmt();
+            copy.condition = copyExpr(i.condition, names, prefix);
+            for (Stmt s : i.ifStmts)
+                copy.ifStmts.add(copy(s, names, prefix));
+            copy.elseIf = i.elseIf.map(e -> (IfStmt) copy(e, names, prefix));
+            copy.elseStmts = i.elseStmts.map(stmts -> {
+                List<Stmt> copies = new ArrayList<>();
+                for (Stmt s : stmts)
+                    copies.add(copy(s, names, prefix));
+                return copies;
+            });
+            return copy;
+        }
+        return (CallRValue) copyRValue((RValue) stmt, names, prefix);
+    }
+
+    private Expr copyExpr(Expr expr, Map<String, String> names, String prefix) {
+        if (expr instanceof UnaryExpr u) {
+            UnaryExpr copy = new UnaryExpr();
+            copy.unaryOp = u.unaryOp;
+            copy.expr = copyExpr(u.expr, names, prefix);
+            return copy;
+        }
+        if (expr instanceof BinaryExpr b) {
+            BinaryExpr copy = new BinaryExpr();
+            copy.lhs = copyExpr(b.lhs, names, prefix);
+            copy.binaryOp = b.binaryOp;
+            copy.rhs = copyExpr(b.rhs, names, prefix);
+            copy.operandType = b.operandType;
+            return copy;
+        }
+        BasicExpr copy = new BasicExpr();
+        copy.rvalue = copyRValue(((BasicExpr) expr).rvalue, names, prefix);
+        return copy;
+    }
+
+    private RValue copyRValue(RValue rvalue, Map<String, String> names, String prefix) {
+        if (rvalue instanceof CallRValue c) {
+            CallRValue copy = new CallRValue();
+            copy.funName = c.funName;
+            for (Expr arg : c.args)
+                copy.args.add(copyExpr(arg, names, prefix));
+            return copy;
+        }
+        if (rvalue instanceof NewStructRValue n) {
+            NewStructRValue copy = new NewStructRValue();
+            copy.structName = n.structName;
+            for (Expr arg : n.args)
+                copy.args.add(copyExpr(arg, names, prefix));
+            return copy;
+        }
+        if (rvalue instanceof NewArrayRValue n) {
+            NewArrayRValue copy = new NewArrayRValue();
+            copy.type = n.type;
+            copy.arrayExpr = copyExpr(n.arrayExpr, names, prefix);
+            return copy;
+        }
+        if (rvalue instanceof VarRValue v) {
+            VarRValue copy = new VarRValue();
+            copy.path = copy(v.path, names, prefix);
+            return copy;
+        }
+        return rvalue;
+    }
+
+    /**
+     * Copy a variable path (only its first reference names a variable,
+     * the rest are fields).
+     */
+    private List<VarRef> copy(List<VarRef> path, Map<String, String> names, String prefix) {
+        List<VarRef> copy = new ArrayList<>();
+        for (VarRef ref : path) {
+            VarRef r = new VarRef();
+            r.varName = copy.isEmpty() ? rename(ref.varName, names) : ref.varName;
+            r.arrayExpr = ref.arrayExpr.map(e -> copyExpr(e, names, prefix));
+            r.fieldSlot = ref.fieldSlot;
+            copy.add(r);
+        }
+        return copy;
+    }
+
+    private Token rename(Token name, Map<String, String> names) {
+        String renamed = names.get(name.lexeme);
+        return renamed == null ? name : new Token(name.tokenType, renamed, name.line, name.column);
+    }
+
+    private Expr varRead(String name) {
+        VarRef ref = new VarRef();
+        ref.varName = new Token(TokenType.ID, name, 0, 0);
+        VarRValue read = new VarRValue();
+        read.path.add(ref);
+        BasicExpr expr = new BasicExpr();
+        expr.rvalue = read;
+        return expr;
+    }
+
+    private VarStmt varStmt(String name, Expr expr) {
+        VarStmt stmt = new VarStmt();
+        stmt.varName = new Token(TokenType.ID, name, 0, 0);
+        stmt.expr = Optional.of(expr);
+        return stmt;
+    }
+
+    /**
+     * The number of statements, expressions and rvalues in a function
+     * body (the measure the inline budget is in).
+     */
+    private int size(List<Stmt> stmts) {
+        int count = 0;
+        for (Stmt stmt : stmts) {
+            ++count;
+            if (stmt instanceof VarStmt v)
+                count += v.expr.map(this::size).orElse(0);
+            else if (stmt instanceof AssignStmt a) {
+                for (VarRef ref : a.lvalue)
+                    count += ref.arrayExpr.map(this::size).orElse(0);
+                count += size(a.expr);
+            } else if (stmt instanceof ReturnStmt r)
+                count += r.expr == null ? 0 : size(r.expr);
+            else if (stmt instanceof WhileStmt w)
+                count += size(w.condition) + size(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                count += size(f.fromExpr) + size(f.toExpr) + size(f.stmts);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    count += size(branch.condition) + size(branch.ifStmts);
+                    count += branch.elseStmts.map(this::size).orElse(0);
+                }
+            } else if (stmt instanceof CallRValue c) {
+                for (Expr arg : c.args)
+                    count += size(arg);
+            }
+        }
+        return count;
+    }
+
+    private int size(Expr expr) {
+        if (expr instanceof UnaryExpr u)
+            return 1 + size(u.expr);
+        if (expr instanceof BinaryExpr b)
+            return 1 + size(b.lhs) + size(b.rhs);
+        int count = 2;
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof CallRValue c) {
+            for (Expr arg : c.args)
+                count += size(arg);
+        } else if (rvalue instanceof NewStructRValue n) {
+            for (Expr arg : n.args)
+                count += size(arg);
+        } else if (rvalue instanceof NewArrayRValue n)
+            count += size(n.arrayExpr);
+        else if (rvalue instanceof VarRValue v) {
+            for (VarRef ref : v.path)
+                count += ref.arrayExpr.map(this::size).orElse(0);
+        }
+        return count;
+    }
+
+    /**
+     * Check if any of the given statements (or nested blocks) returns.
+     */
+    private boolean hasReturn(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof ReturnStmt)
+                return true;
+            if (stmt instanceof WhileStmt w && hasReturn(w.stmts))
+                return true;
+            if (stmt instanceof ForStmt f && hasReturn(f.stmts))
+                return true;
+            if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    if (hasReturn(branch.ifStmts) || branch.elseStmts.map(this::hasReturn).orElse(false))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect the names of the variables assigned (as a whole, by
+     * "x = e") in the given statements.
+     */
+    private void collectAssigned(List<Stmt> stmts, Set<String> assigned) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof AssignStmt a && a.lvalue.size() == 1 && a.lvalue.get(0).arrayExpr.isEmpty())
+                assigned.add(a.lvalue.get(0).varName.lexeme);
+            else if (stmt instanceof WhileStmt w)
+                collectAssigned(w.stmts, assigned);
+            else if (stmt instanceof ForStmt f)
+                collectAssigned(f.stmts, assigned);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    collectAssigned(branch.ifStmts, assigned);
+                    branch.elseStmts.ifPresent(s -> collectAssigned(s, assigned));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the names of the functions called in the given statements.
+     */
+    private void collectCalls(List<Stmt> stmts, Set<String> called) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                v.expr.ifPresent(e -> collectCalls(e, called));
+            else if (stmt instanceof AssignStmt a) {
+                for (VarRef ref : a.lvalue)
+                    ref.arrayExpr.ifPresent(e -> collectCalls(e, called));
+                collectCalls(a.expr, called);
+            } else if (stmt instanceof ReturnStmt r) {
+                if (r.expr != null)
+                    collectCalls(r.expr, called);
+            } else if (stmt instanceof WhileStmt w) {
+                collectCalls(w.condition, called);
+                collectCalls(w.stmts, called);
+            } else if (stmt instanceof ForStmt f) {
+                collectCalls(f.fromExpr, called);
+                collectCalls(f.toExpr, called);
+                collectCalls(f.stmts, called);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    collectCalls(branch.condition, called);
+                    collectCalls(branch.ifStmts, called);
+                    branch.elseStmts.ifPresent(s -> collectCalls(s, called));
+                }
+            } else if (stmt instanceof CallRValue c) {
+                called.add(c.funName.lexeme);
+                for (Expr arg : c.args)
+                    collectCalls(arg, called);
+            }
+        }
+    }
+
+    private void collectCalls(Expr expr, Set<String> called) {
+        if (expr instanceof UnaryExpr u)
+            collectCalls(u.expr, called);
+        else if (expr instanceof BinaryExpr b) {
+            collectCalls(b.lhs, called);
+            collectCalls(b.rhs, called);
+        } else if (expr instanceof BasicExpr b) {
+            if (b.rvalue instanceof VarRValue v) {
+                for (VarRef ref : v.path)
+                    ref.arrayExpr.ifPresent(e -> collectCalls(e, called));
+            } else if (b.rvalue instanceof CallRValue c) {
+                called.add(c.funName.lexeme);
+                for (Expr arg : c.args)
+                    collectCalls(arg, called);
+            } else if (b.rvalue instanceof NewStructRValue n) {
+                for (Expr arg : n.args)
+                    collectCalls(arg, called);
+            } else if (b.rvalue instanceof NewArrayRValue n)
+                collectCalls(n.arrayExpr, called);
+        }
     }
 
     // --------------------------------------------------------------------
     // Helpers
     // --------------------------------------------------------------------
 
+    /**
+     * Record the value a local variable is (re)bound to: a literal
+     * makes it a known constant, anything else makes it unknown.
+     */
+    private void bind(String name, Expr value) {
+        if (propagatable.contains(name) && value instanceof BasicExpr b && b.rvalue instanceof SimpleRValue s)
+            constants.put(name, s.literal);
+        else
+            constants.remove(name);
+    }
+
+    /**
+     * Forget every variable assigned anywhere in the given statements.
+     */
+    private void killAssigned(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof AssignStmt a && a.lvalue.size() == 1 && a.lvalue.get(0).arrayExpr.isEmpty())
+                constants.remove(a.lvalue.get(0).varName.lexeme);
+            else if (stmt instanceof VarStmt v)
+                constants.remove(v.varName.lexeme);
+            else if (stmt instanceof WhileStmt w)
+                killAssigned(w.stmts);
+            else if (stmt instanceof ForStmt f)
+                killAssigned(f.stmts);
+            else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    killAssigned(branch.ifStmts);
+                    branch.elseStmts.ifPresent(this::killAssigned);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the variable declarations (VarStmts and for-loop variables)
+     * of each name in the given statements.
+     */
+    private void countDeclarations(List<Stmt> stmts, Map<String, Integer> counts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof VarStmt v)
+                counts.merge(v.varName.lexeme, 1, Integer::sum);
+            else if (stmt instanceof WhileStmt w)
+                countDeclarations(w.stmts, counts);
+            else if (stmt instanceof ForStmt f) {
+                counts.merge(f.varName.lexeme, 2, Integer::sum);
+                countDeclarations(f.stmts, counts);
+            } else if (stmt instanceof IfStmt i) {
+                for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+                    countDeclarations(branch.ifStmts, counts);
+                    branch.elseStmts.ifPresent(s -> countDeclarations(s, counts));
+                }
+            }
+        }
+    }
+
+    /**
+     * A string that is equal for (and only for) structurally equal
+     * expressions.
+     */
+    private String key(Expr expr) {
+        if (expr instanceof UnaryExpr u)
+            return "(" + u.unaryOp.lexeme + " " + key(u.expr) + ")";
+        if (expr instanceof BinaryExpr b)
+            return "(" + key(b.lhs) + " " + b.binaryOp.lexeme + " " + key(b.rhs) + ")";
+        RValue rvalue = ((BasicExpr) expr).rvalue;
+        if (rvalue instanceof SimpleRValue s)
+            return s.literal.tokenType + ":" + s.literal.lexeme;
+        if (rvalue instanceof VarRValue v) {
+            StringBuilder path = new StringBuilder();
+            for (VarRef ref : v.path) {
+                path.append(path.length() == 0 ? "" : ".").append(ref.varName.lexeme);
+                ref.arrayExpr.ifPresent(e -> path.append("[").append(key(e)).append("]"));
+            }
+            return path.toString();
+        }
+        List<Expr> args = rvalue instanceof CallRValue c ? c.args
+                : rvalue instanceof NewStructRValue n ? n.args : List.of(((NewArrayRValue) rvalue).arrayExpr);
+        String name = rvalue instanceof CallRValue c ? c.funName.lexeme
+                : rvalue instanceof NewStructRValue n ? "new " + n.structName.lexeme
+                : "new " + ((NewArrayRValue) rvalue).type.lexeme + "[]";
+        StringBuilder call = new StringBuilder(name).append("(");
+        for (Expr arg : args)
+            call.append(key(arg)).append(",");
+        return call.append(")").toString();
+    }
+
+    /**
+     * Check if two literal tokens hold the same value.
+     */
+    private boolean sameLiteral(Token a, Token b) {
+        return a != null && b != null && a.tokenType == b.tokenType && a.lexeme.equals(b.lexeme);
+    }
+
     private Expr wrapLiteral(Token token) {
         SimpleRValue simp = new SimpleRValue();
         simp.literal = token;
@@ -0,0 +1,846 @@
+/**
+ * CPSC 326, Spring 2025
+ * Closure compilation of MyPL programs (an alternative to the VM).
+ */
+
+package cpsc326;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compiles a checked (and optionally optimized) program into a tree of
+ * Java closures, one per AST node, and runs it. Each closure is chosen
+ * at compile time for its operator and statically known operand types
+ * (e.g., an int "+" becomes a closure that only adds ints), variables
+ * are resolved to slots of a per-call locals array (laid out as by the
+ * CodeGenerator), and calls are bound to their callee up front. Running
+ * a program is then just calling closures: there is no instruction
+ * decoding and no operand stack.
+ *
+ * Programs behave as they do on the VM: values, output, evaluation
+ * order, object ids, and error messages are the same, except that
+ * errors the VM reports at an instruction ("... in f at 3: IDIV()")
+ * name only the function ("... in f").
+ */
+public class ClosureCompiler implements Visitor {
+
+  /**
+   * A compiled expression.
+   */
+  interface Eval {
+    Object eval(Object[] locals);
+  }
+
+  /**
+   * A compiled statement.
+   */
+  interface Exec {
+    /**
+     * @return null to continue with the next statement, otherwise the
+     *         value the function returns
+     */
+    Object exec(Object[] locals);
+  }
+
+  /**
+   * A compiled function.
+   */
+  private static class Function {
+    String name;
+    int maxLocals;
+    Exec[] body;
+
+    Object invoke(Object[] locals) {
+      Object result = execBlock(body, locals);
+      return result == null ? VM.NULL : result;
+    }
+  }
+
+  /* the compiled functions by name */
+  private Map<String, Function> functions = new HashMap<>();
+
+  /* struct defs for field counts */
+  private Map<String, StructDef> structs = new HashMap<>();
+
+  /* the function being compiled */
+  private Function currFunction;
+
+  /* variable -> slot mappings with respect to environments */
+  private VarTable varTable = new VarTable();
+
+  /* the result of compiling the last expression or statement visited */
+  private Eval currEval;
+  private Exec currExec;
+
+  /* the next unused object id (numbered as by the VM) */
+  private int nextObjectId = 2025;
+
+  private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+
+  // ----------------------------------------------------------------------
+  // Running
+  // ----------------------------------------------------------------------
+
+  /**
+   * Run the compiled program (starting at main).
+   */
+  public void run() {
+    Function main = functions.get("main");
+    if (main == null)
+      MyPLException.vmError("No 'main' function");
+    // calls are Java calls, so deep recursion needs a deep stack
+    VM.runOnLargeStack(() -> main.invoke(new Object[main.maxLocals]));
+  }
+
+  /**
+   * Run statements until one returns.
+   */
+  private static Object execBlock(Exec[] stmts, Object[] locals) {
+    for (Exec stmt : stmts) {
+      Object result = stmt.exec(locals);
+      if (result != null)
+        return result;
+    }
+    return null;
+  }
+
+  // ----------------------------------------------------------------------
+  // Runtime helpers (the checks made by the VM instructions)
+  // ----------------------------------------------------------------------
+
+  private static void error(String msg) {
+    MyPLException.vmError(msg);
+  }
+
+  private static void error(String msg, String function) {
+    MyPLException.vmError(msg + " in " + function);
+  }
+
+  private static void ensureNotNull(Object x, String function) {
+    if (x == VM.NULL)
+      error("null value error", function);
+  }
+
+  private static void ensureNotNull(Object x, Object y, String function) {
+    if (x == VM.NULL || y == VM.NULL)
+      error("null value error", function);
+  }
+
+  /* JMPF (and the short-circuit and/or it lowers to) */
+  private static boolean truth(Object val) {
+    if (!(val instanceof Boolean))
+      error("Operand must be a boolean");
+    return (boolean) val;
+  }
+
+  /* GETF, SETF */
+  private static VMStruct struct(Object obj) {
+    if (!(obj instanceof VMStruct))
+      error("Invalid struct object ID");
+    return (VMStruct) obj;
+  }
+
+  /* GETI, SETI */
+  private static VMArray array(Object obj, Object index, String instr) {
+    if (!(obj instanceof VMArray))
+      error("Invalid array object ID");
+    if (!(index instanceof Integer) || (int) index < 0)
+      error("not a valid array index, must be a non-negative integer");
+    VMArray array = (VMArray) obj;
+    if ((int) index >= array.length)
+      error(instr + ": index out of bounds");
+    return array;
+  }
+
+  /* the untyped ADD, SUB, MUL, DIV, CMPLT, and CMPLE */
+  private static Object untyped(TokenType op, Object y, Object x, String function) {
+    if (x.getClass() != y.getClass())
+      error("To add they must have the same type");
+    return switch (op) {
+      case PLUS -> x instanceof Integer ? (Object) ((int) y + (int) x)
+          : x instanceof Double ? (Object) ((double) y + (double) x) : (String) y + (String) x;
+      case MINUS -> x instanceof Integer ? (Object) ((int) y - (int) x) : (Object) ((double) y - (double) x);
+      case TIMES -> x instanceof Integer ? (Object) ((int) x * (int) y) : (Object) ((double) x * (double) y);
+      case DIVIDE -> {
+        if (y instanceof Integer && (int) x != 0)
+          yield (int) y / (int) x;
+        if (y instanceof Double && (double) x != 0.0)
+          yield (double) y / (double) x;
+        error("division by zero error", function);
+        yield null;
+      }
+      case LESS -> x instanceof Integer ? (int) y < (int) x
+          : x instanceof Double ? (double) y < (double) x : ((String) y).compareTo((String) x) < 0;
+      default -> x instanceof Integer ? (int) y <= (int) x
+          : x instanceof Double ? (double) y <= (double) x : ((String) y).compareTo((String) x) <= 0;
+    };
+  }
+
+  // ----------------------------------------------------------------------
+  // Compile helpers
+  // ----------------------------------------------------------------------
+
+  private Eval compile(Expr expr) {
+    expr.accept(this);
+    return currEval;
+  }
+
+  private Eval[] compile(List<Expr> exprs) {
+    Eval[] evals = new Eval[exprs.size()];
+    for (int i = 0; i < evals.length; ++i)
+      evals[i] = compile(exprs.get(i));
+    return evals;
+  }
+
+  /**
+   * Compile a statement (a call statement discards its value).
+   */
+  private Exec compileStmt(Stmt stmt) {
+    if (stmt instanceof CallRValue call) {
+      Eval eval = compile(call);
+      return locals -> {
+        eval.eval(locals);
+        return null;
+      };
+    }
+    stmt.accept(this);
+    return currExec;
+  }
+
+  private Exec[] compileBody(List<Stmt> stmts) {
+    Exec[] execs = new Exec[stmts.size()];
+    for (int i = 0; i < execs.length; ++i)
+      execs[i] = compileStmt(stmts.get(i));
+    return execs;
+  }
+
+  private Eval compile(CallRValue call) {
+    call.accept(this);
+    return currEval;
+  }
+
+  // ----------------------------------------------------------------------
+  // Visitors for programs, functions, and structs
+  // ----------------------------------------------------------------------
+
+  public void visit(Program node) {
+    for (StructDef s : node.structs)
+      s.accept(this);
+    // create every function first so calls can bind to their callee
+    for (FunDef f : node.functions) {
+      Function function = new Function();
+      function.name = f.funName.lexeme;
+      functions.put(function.name, function);
+    }
+    for (FunDef f : node.functions)
+      f.accept(this);
+  }
+
+  public void visit(FunDef node) {
+    currFunction = functions.get(node.funName.lexeme);
+    varTable.pushEnvironment();
+    // arguments are passed in the first slots
+    for (VarDef param : node.params)
+      varTable.add(param.varName.lexeme);
+    currFunction.body = compileBody(node.stmts);
+    currFunction.maxLocals = varTable.maxVars();
+    varTable.popEnvironment();
+  }
+
+  public void visit(StructDef node) {
+    structs.put(node.structName.lexeme, node);
+  }
+
+  public void visit(VarDef node) {
+    // nothing to do here
+  }
+
+  public void visit(DataType node) {
+    // nothing to do here
+  }
+
+  // ----------------------------------------------------------------------
+  // Statements
+  // ----------------------------------------------------------------------
+
+  public void visit(ReturnStmt node) {
+    Eval expr = compile(node.expr);
+    currExec = locals -> expr.eval(locals);
+  }
+
+  public void visit(VarStmt node) {
+    varTable.add(node.varName.lexeme);
+    int slot = varTable.get(node.varName.lexeme);
+    if (node.expr.isEmpty()) {
+      currExec = locals -> {
+        locals[slot] = VM.NULL;
+        return null;
+      };
+      return;
+    }
+    Eval expr = compile(node.expr.get());
+    currExec = locals -> {
+      locals[slot] = expr.eval(locals);
+      return null;
+    };
+  }
+
+  public void visit(AssignStmt node) {
+    VarRef base = node.lvalue.get(0);
+    int slot = varTable.get(base.varName.lexeme);
+    Eval baseIndex = base.arrayExpr.isPresent() ? compile(base.arrayExpr.get()) : null;
+
+    // x = e and x[i] = e
+    if (node.lvalue.size() == 1) {
+      Eval expr = compile(node.expr);
+      if (baseIndex == null) {
+        currExec = locals -> {
+          locals[slot] = expr.eval(locals);
+          return null;
+        };
+      } else {
+        currExec = locals -> {
+          Object obj = locals[slot];
+          Object index = baseIndex.eval(locals);
+          Object val = expr.eval(locals);
+          array(obj, index, "SETI").set((int) index, val);
+          return null;
+        };
+      }
+      return;
+    }
+
+    // a.b.c = e and a.b.c[i] = e: walk to the struct (or array) holding c
+    int last = node.lvalue.size() - 1;
+    int[] slots = new int[last];
+    Eval[] indexes = new Eval[last];
+    for (int i = 1; i < last; ++i) {
+      VarRef ref = node.lvalue.get(i);
+      slots[i] = ref.fieldSlot;
+      indexes[i] = ref.arrayExpr.isPresent() ? compile(ref.arrayExpr.get()) : null;
+    }
+    VarRef lastRef = node.lvalue.get(last);
+    int field = lastRef.fieldSlot;
+    Eval lastIndex = lastRef.arrayExpr.isPresent() ? compile(lastRef.arrayExpr.get()) : null;
+    Eval expr = compile(node.expr);
+    currExec = locals -> {
+      Object obj = locals[slot];
+      if (baseIndex != null) {
+        Object index = baseIndex.eval(locals);
+        obj = array(obj, index, "GETI").get((int) index);
+      }
+      for (int i = 1; i < last; ++i) {
+        obj = struct(obj).fields[slots[i]];
+        if (indexes[i] != null) {
+          Object index = indexes[i].eval(locals);
+          obj = array(obj, index, "GETI").get((int) index);
+        }
+      }
+      if (lastIndex == null) {
+        Object val = expr.eval(locals);
+        struct(obj).fields[field] = val;
+      } else {
+        obj = struct(obj).fields[field];
+        Object index = lastIndex.eval(locals);
+        Object val = expr.eval(locals);
+        array(obj, index, "SETI").set((int) index, val);
+      }
+      return null;
+    };
+  }
+
+  public void visit(WhileStmt node) {
+    Eval condition = compile(node.condition);
+    Exec[] body = compileBody(node.stmts);
+    currExec = locals -> {
+      while (truth(condition.eval(locals))) {
+        Object result = execBlock(body, locals);
+        if (result != null)
+          return result;
+      }
+      return null;
+    };
+  }
+
+  public void visit(ForStmt node) {
+    varTable.pushEnvironment();
+    varTable.add(node.varName.lexeme);
+    int slot = varTable.get(node.varName.lexeme);
+    Eval from = compile(node.fromExpr);
+    Eval to = compile(node.toExpr);
+    Exec[] body = compileBody(node.stmts);
+    varTable.popEnvironment();
+    String function = currFunction.name;
+    currExec = locals -> {
+      locals[slot] = from.eval(locals);
+      while (true) {
+        Object i = locals[slot];
+        Object bound = to.eval(locals);
+        ensureNotNull(bound, i, function);
+        if ((int) i > (int) bound)
+          return null;
+        Object result = execBlock(body, locals);
+        if (result != null)
+          return result;
+        ensureNotNull(locals[slot], function);
+        locals[slot] = (int) locals[slot] + 1;
+      }
+    };
+  }
+
+  public void visit(IfStmt node) {
+    // flatten the else-if chain into condition/body pairs
+    List<Eval> conditions = new ArrayList<>();
+    List<Exec[]> bodies = new ArrayList<>();
+    IfStmt current = node;
+    conditions.add(compile(current.condition));
+    bodies.add(compileBody(current.ifStmts));
+    while (current.elseIf.isPresent()) {
+      current = current.elseIf.get();
+      conditions.add(compile(current.condition));
+      bodies.add(compileBody(current.ifStmts));
+    }
+    Exec[] elseBody = current.elseStmts.isPresent() ? compileBody(current.elseStmts.get()) : new Exec[0];
+
+    if (conditions.size() == 1) {
+      Eval condition = conditions.get(0);
+      Exec[] ifBody = bodies.get(0);
+      currExec = locals -> truth(condition.eval(locals)) ? execBlock(ifBody, locals) : execBlock(elseBody, locals);
+      return;
+    }
+    Eval[] conds = conditions.toArray(new Eval[0]);
+    Exec[][] blocks = bodies.toArray(new Exec[0][]);
+    currExec = locals -> {
+      for (int i = 0; i < conds.length; ++i)
+        if (truth(conds[i].eval(locals)))
+          return execBlock(blocks[i], locals);
+      return execBlock(elseBody, locals);
+    };
+  }
+
+  // ----------------------------------------------------------------------
+  // Expressions
+  // ----------------------------------------------------------------------
+
+  public void visit(BasicExpr node) {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(UnaryExpr node) {
+    Eval expr = compile(node.expr);
+    currEval = locals -> {
+      Object x = expr.eval(locals);
+      if (!(x instanceof Boolean))
+        error("operands must be booleans");
+      return !(boolean) x;
+    };
+  }
+
+  public void visit(BinaryExpr node) {
+    TokenType op = node.binaryOp.tokenType;
+    Eval lhs = compile(node.lhs);
+    Eval rhs = compile(node.rhs);
+    // a > b is b < a (and b is evaluated first, as on the VM)
+    if (op == TokenType.GREATER || op == TokenType.GREATER_EQ) {
+      Eval tmp = lhs;
+      lhs = rhs;
+      rhs = tmp;
+      op = op == TokenType.GREATER ? TokenType.LESS : TokenType.LESS_EQ;
+    }
+    String type = node.operandType == null ? "" : node.operandType.type.lexeme;
+    currEval = switch (op) {
+      case AND -> and(lhs, rhs);
+      case OR -> or(lhs, rhs);
+      case EQUAL -> equal(lhs, rhs);
+      case NOT_EQUAL -> notEqual(lhs, rhs);
+      default -> switch (type) {
+        case "int" -> intOp(op, lhs, rhs);
+        case "double" -> doubleOp(op, lhs, rhs);
+        case "string" -> op == TokenType.MINUS || op == TokenType.TIMES || op == TokenType.DIVIDE
+            ? untypedOp(op, lhs, rhs) : stringOp(op, lhs, rhs);
+        default -> untypedOp(op, lhs, rhs);
+      };
+    };
+  }
+
+  // the rhs only runs when the lhs does not decide the value
+  private Eval and(Eval lhs, Eval rhs) {
+    return locals -> truth(lhs.eval(locals)) && truth(rhs.eval(locals));
+  }
+
+  private Eval or(Eval lhs, Eval rhs) {
+    return locals -> truth(lhs.eval(locals)) || truth(rhs.eval(locals));
+  }
+
+  private Eval equal(Eval lhs, Eval rhs) {
+    return locals -> {
+      Object y = lhs.eval(locals);
+      return rhs.eval(locals).equals(y);
+    };
+  }
+
+  private Eval notEqual(Eval lhs, Eval rhs) {
+    return locals -> {
+      Object y = lhs.eval(locals);
+      return !rhs.eval(locals).equals(y);
+    };
+  }
+
+  private Eval intOp(TokenType op, Eval lhs, Eval rhs) {
+    String f = currFunction.name;
+    return switch (op) {
+      case PLUS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y + (int) x;
+      };
+      case MINUS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y - (int) x;
+      };
+      case TIMES -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y * (int) x;
+      };
+      case DIVIDE -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        if ((int) x == 0)
+          error("division by zero error", f);
+        return (int) y / (int) x;
+      };
+      case SHIFT_LEFT -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y << (int) x;
+      };
+      case SHIFT_RIGHT -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y >> (int) x;
+      };
+      case BIT_AND -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y & (int) x;
+      };
+      case LESS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y < (int) x;
+      };
+      default -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (int) y <= (int) x;
+      };
+    };
+  }
+
+  private Eval doubleOp(TokenType op, Eval lhs, Eval rhs) {
+    String f = currFunction.name;
+    return switch (op) {
+      case PLUS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (double) y + (double) x;
+      };
+      case MINUS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (double) y - (double) x;
+      };
+      case TIMES -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (double) y * (double) x;
+      };
+      case DIVIDE -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        if ((double) x == 0.0)
+          error("division by zero error", f);
+        return (double) y / (double) x;
+      };
+      case LESS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (double) y < (double) x;
+      };
+      default -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (double) y <= (double) x;
+      };
+    };
+  }
+
+  private Eval stringOp(TokenType op, Eval lhs, Eval rhs) {
+    String f = currFunction.name;
+    return switch (op) {
+      case PLUS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return (String) y + (String) x;
+      };
+      case LESS -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return ((String) y).compareTo((String) x) < 0;
+      };
+      default -> locals -> {
+        Object y = lhs.eval(locals);
+        Object x = rhs.eval(locals);
+        ensureNotNull(x, y, f);
+        return ((String) y).compareTo((String) x) <= 0;
+      };
+    };
+  }
+
+  private Eval untypedOp(TokenType op, Eval lhs, Eval rhs) {
+    String f = currFunction.name;
+    return locals -> {
+      Object y = lhs.eval(locals);
+      Object x = rhs.eval(locals);
+      return untyped(op, y, x, f);
+    };
+  }
+
+  public void visit(CallRValue node) {
+    String name = node.funName.lexeme;
+    String f = currFunction.name;
+    switch (name) {
+      case "print" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          System.out.print(arg.eval(locals));
+          return VM.NULL;
+        };
+      }
+      case "println" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          System.out.print(arg.eval(locals));
+          System.out.print("\n");
+          return VM.NULL;
+        };
+      }
+      case "readln" -> currEval = locals -> {
+        try {
+          return reader.readLine();
+        } catch (IOException e) {
+          error("input error: " + e.getMessage());
+          return null;
+        }
+      };
+      case "str_val" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          Object val = arg.eval(locals);
+          ensureNotNull(val, f);
+          if (val instanceof Integer i)
+            return Integer.toString(i);
+          if (val instanceof Double d)
+            return Double.toString(d);
+          return (String) val;
+        };
+      }
+      case "int_val" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          Object val = arg.eval(locals);
+          ensureNotNull(val, f);
+          if (val instanceof String s) {
+            try {
+              return Integer.valueOf(s);
+            } catch (NumberFormatException e) {
+              error("invalid string to call TOINT");
+            }
+          }
+          if (val instanceof Double d)
+            return (int) Math.floor(d);
+          return val;
+        };
+      }
+      case "dbl_val" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          Object val = arg.eval(locals);
+          ensureNotNull(val, f);
+          if (val instanceof String s) {
+            try {
+              return Double.valueOf(s);
+            } catch (NumberFormatException e) {
+              error("invalid string to call TODBL");
+            }
+          }
+          if (val instanceof Integer i)
+            return (double) i;
+          return val;
+        };
+      }
+      case "size" -> {
+        Eval arg = compile(node.args.get(0));
+        currEval = locals -> {
+          Object x = arg.eval(locals);
+          ensureNotNull(x, f);
+          if (x instanceof String s)
+            return s.length();
+          if (x instanceof VMArray array)
+            return array.length;
+          error("invalid LEN call, must be on a String or Array");
+          return null;
+        };
+      }
+      case "get" -> {
+        // the string is evaluated before the index (as on the VM)
+        Eval string = compile(node.args.get(1));
+        Eval index = compile(node.args.get(0));
+        currEval = locals -> {
+          Object s = string.eval(locals);
+          Object i = index.eval(locals);
+          if (!(s instanceof String))
+            error("incorrect type, must be a string");
+          if (!(i instanceof Integer))
+            error("invalid index; must be of type integer");
+          if ((int) i >= ((String) s).length() || (int) i < 0)
+            error("GETC: index out of bounds");
+          return Character.toString(((String) s).charAt((int) i));
+        };
+      }
+      default -> {
+        Function callee = functions.get(name);
+        Eval[] args = compile(node.args);
+        currEval = switch (args.length) {
+          case 0 -> locals -> callee.invoke(new Object[callee.maxLocals]);
+          case 1 -> locals -> {
+            Object[] frame = new Object[callee.maxLocals];
+            frame[0] = args[0].eval(locals);
+            return callee.invoke(frame);
+          };
+          default -> locals -> {
+            // arguments are evaluated last to first (as on the VM)
+            Object[] frame = new Object[callee.maxLocals];
+            for (int i = args.length - 1; i >= 0; --i)
+              frame[i] = args[i].eval(locals);
+            return callee.invoke(frame);
+          };
+        };
+      }
+    }
+  }
+
+  public void visit(SimpleRValue node) {
+    String val = node.literal.lexeme;
+    Object constant = switch (node.literal.tokenType) {
+      case INT_VAL -> Integer.parseInt(val);
+      case DOUBLE_VAL -> Double.parseDouble(val);
+      case STRING_VAL -> val.replace("\\n", "\n").replace("\\t", "\t").replace("\\r", "\r");
+      case BOOL_VAL -> Boolean.parseBoolean(val);
+      default -> VM.NULL;
+    };
+    currEval = locals -> constant;
+  }
+
+  public void visit(NewStructRValue node) {
+    int fieldCount = structs.get(node.structName.lexeme).fields.size();
+    Eval[] args = compile(node.args);
+    currEval = locals -> {
+      VMStruct struct = new VMStruct(nextObjectId++, fieldCount);
+      for (int i = 0; i < args.length; ++i)
+        struct.fields[i] = args[i].eval(locals);
+      return struct;
+    };
+  }
+
+  public void visit(NewArrayRValue node) {
+    Eval size = compile(node.arrayExpr);
+    String type = node.type.lexeme;
+    currEval = locals -> {
+      Object n = size.eval(locals);
+      if (!(n instanceof Integer) || (int) n < 0)
+        error("not a valid array size, must be a non-negative integer");
+      return switch (type) {
+        case "int" -> VMArray.ofInts(nextObjectId++, (int) n);
+        case "double" -> VMArray.ofDoubles(nextObjectId++, (int) n);
+        case "bool" -> VMArray.ofBools(nextObjectId++, (int) n);
+        default -> VMArray.ofObjects(nextObjectId++, (int) n);
+      };
+    };
+  }
+
+  public void visit(VarRValue node) {
+    VarRef base = node.path.get(0);
+    int slot = varTable.get(base.varName.lexeme);
+    // the common case: a local variable
+    if (node.path.size() == 1 && base.arrayExpr.isEmpty()) {
+      currEval = locals -> locals[slot];
+      return;
+    }
+    Eval baseIndex = base.arrayExpr.isPresent() ? compile(base.arrayExpr.get()) : null;
+    if (node.path.size() == 1) {
+      currEval = locals -> {
+        Object obj = locals[slot];
+        Object index = baseIndex.eval(locals);
+        return array(obj, index, "GETI").get((int) index);
+      };
+      return;
+    }
+    int length = node.path.size();
+    int[] fields = new int[length];
+    Eval[] indexes = new Eval[length];
+    for (int i = 1; i < length; ++i) {
+      VarRef ref = node.path.get(i);
+      fields[i] = ref.fieldSlot;
+      indexes[i] = ref.arrayExpr.isPresent() ? compile(ref.arrayExpr.get()) : null;
+    }
+    // x.f (no indexing)
+    if (length == 2 && baseIndex == null && indexes[1] == null) {
+      int field = fields[1];
+      currEval = locals -> struct(locals[slot]).fields[field];
+      return;
+    }
+    currEval = locals -> {
+      Object obj = locals[slot];
+      if (baseIndex != null) {
+        Object index = baseIndex.eval(locals);
+        obj = array(obj, index, "GETI").get((int) index);
+      }
+      for (int i = 1; i < length; ++i) {
+        obj = struct(obj).fields[fields[i]];
+        if (indexes[i] != null) {
+          Object index = indexes[i].eval(locals);
+          obj = array(obj, index, "GETI").get((int) index);
+        }
+      }
+      return obj;
+    };
+  }
+
+}
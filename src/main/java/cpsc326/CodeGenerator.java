@@ -63,6 +63,63 @@ public class CodeGenerator implements Visitor {
     currTemplate.add(instr);
   }
 
+  /**
+   * Helper to pick the typed variant of an instruction for the given
+   * (statically known) operand type, falling back to the generic
+   * instruction when the type is unknown or has no typed variant.
+   */
+  private VMInstr typed(String type, VMInstr intInstr, VMInstr dblInstr, VMInstr strInstr, VMInstr generic) {
+    VMInstr instr = switch (type) {
+      case "int" -> intInstr;
+      case "double" -> dblInstr;
+      case "string" -> strInstr;
+      default -> null;
+    };
+    return instr == null ? generic : instr;
+  }
+
+  /**
+   * Helper to generate a condition that falls through when it is true
+   * and jumps away when it is false. The operands of and/or are tested
+   * one at a time (short-circuit), so the right operand only runs when
+   * the left one does not decide the result.
+   *
+   * @param cond       the (boolean) condition
+   * @param falseJumps indexes of the JMPFs (and JMPs) to backpatch with
+   *                   the target for a false condition
+   */
+  private void condition(Expr cond, List<Integer> falseJumps) {
+    if (cond instanceof BinaryExpr b && b.binaryOp.tokenType == TokenType.AND) {
+      condition(b.lhs, falseJumps);
+      condition(b.rhs, falseJumps);
+    } else if (cond instanceof BinaryExpr b && b.binaryOp.tokenType == TokenType.OR) {
+      // a true lhs skips the rhs
+      List<Integer> lhsFalse = new ArrayList<>();
+      condition(b.lhs, lhsFalse);
+      add(VMInstr.JMP(0), "or: lhs true");
+      int trueJump = currTemplate.instructions.size() - 1;
+      backpatch(lhsFalse);
+      condition(b.rhs, falseJumps);
+      currTemplate.instructions.set(trueJump, VMInstr.JMP(currTemplate.instructions.size()));
+    } else {
+      cond.accept(this);
+      add(VMInstr.JMPF(0));
+      falseJumps.add(currTemplate.instructions.size() - 1);
+    }
+  }
+
+  /**
+   * Helper to point the given (placeholder) JMPFs and JMPs at the next
+   * instruction.
+   */
+  private void backpatch(List<Integer> jumps) {
+    int pc = currTemplate.instructions.size();
+    for (int index : jumps) {
+      VMInstr jump = currTemplate.instructions.get(index);
+      currTemplate.instructions.set(index, jump.opcode == OpCode.JMP ? VMInstr.JMP(pc) : VMInstr.JMPF(pc));
+    }
+  }
+
   /**
    * Helper to execute body statements that cleans up the stack for
    * single function call statements (whose returned values aren't
@@ -123,6 +180,7 @@ public class CodeGenerator implements Visitor {
       add(VMInstr.RET());
     }
 
+    currTemplate.maxLocals = varTable.maxVars();
     varTable.popEnvironment();
     vm.add(currTemplate);
   }
@@ -174,7 +232,7 @@ public class CodeGenerator implements Visitor {
     node.toExpr.accept(this);
 
     // Compare loop var <= upper bound
-    add(VMInstr.CMPLE(), "ForStmt: compare loop var <= upper bound"); // i <= n
+    add(VMInstr.ICMPLE(), "ForStmt: compare loop var <= upper bound"); // i <= n
 
     // Placeholder JMPF
     VMInstr jmpf = VMInstr.JMPF(0); // just a placeholder
@@ -187,7 +245,7 @@ public class CodeGenerator implements Visitor {
     // Increment loop variable: i++
     add(VMInstr.LOAD(loopVarIndex), "ForStmt: load loop var for increment");
     add(VMInstr.PUSH(1), "ForStmt: push 1");
-    add(VMInstr.ADD(), "ForStmt: increment loop var");
+    add(VMInstr.IADD(), "ForStmt: increment loop var");
     add(VMInstr.STORE(loopVarIndex), "ForStmt: store incremented loop var");
 
     // Jump back to start of the loop condition check
@@ -209,9 +267,9 @@ public class CodeGenerator implements Visitor {
     List<Integer> jumpsToEnd = new ArrayList<>();
 
     // IF block
-    node.condition.accept(this); // evaluate the main if condition
-    add(VMInstr.JMPF(0)); // jump to elseif/else stmts if condition is false -- placeholder for now
-    int jmpfIndex = currTemplate.instructions.size() - 1; // index to go back to when you backpatch the placeholder
+    // evaluate the main if condition, jumping to elseif/else stmts if it is false -- placeholders for now
+    List<Integer> jmpfIndexes = new ArrayList<>();
+    condition(node.condition, jmpfIndexes);
 
     execBody(node.ifStmts); // execute if-block
 
@@ -220,21 +278,17 @@ public class CodeGenerator implements Visitor {
     jumpsToEnd.add(currTemplate.instructions.size() - 1); // we will go back using this index to backpatch the jmp to
                                                           // the end
 
-    // backpatch the initial JMPF
-    int afterIfPC = currTemplate.instructions.size(); // pc for the end of the if stmt
-    currTemplate.instructions.set(jmpfIndex, VMInstr.JMPF(afterIfPC)); // replace placeholder with afterIfPC for when if
-                                                                       // stmt condition is false
+    // backpatch the initial JMPFs to the end of the if stmt (for when the if stmt condition is false)
+    backpatch(jmpfIndexes);
 
     // ELSE-IF block
     IfStmt current = node;
     while (current.elseIf.isPresent()) {
       current = current.elseIf.get();
 
-      current.condition.accept(this); // evaluate elseif condition
-
-      add(VMInstr.JMPF(0));
-      int elseifJmpfIndex = currTemplate.instructions.size() - 1; // we will go back using this index to change the jmpf
-                                                                  // to the end of the else-if stmt
+      // evaluate elseif condition; we will go back to change the jumps to the end of the else-if stmt
+      List<Integer> elseifJmpfIndexes = new ArrayList<>();
+      condition(current.condition, elseifJmpfIndexes);
 
       execBody(current.ifStmts); // execute elseif block
 
@@ -243,10 +297,8 @@ public class CodeGenerator implements Visitor {
       jumpsToEnd.add(currTemplate.instructions.size() - 1); // we will go back using this index to backpatch the jmp to
                                                             // the end
 
-      // backpatch the JMPF for this elseif
-      int afterElseIfPC = currTemplate.instructions.size(); // the pc for the end of the elseif stmt
-      currTemplate.instructions.set(elseifJmpfIndex, VMInstr.JMPF(afterElseIfPC)); // if condition was false then jmpf
-                                                                                   // jumps to afterElseIfPC; not filler
+      // backpatch the JMPFs for this elseif (if condition was false they jump to the end of the elseif stmt)
+      backpatch(elseifJmpfIndexes);
     }
 
     // ELSE BLOCK
@@ -313,24 +365,24 @@ public class CodeGenerator implements Visitor {
         // add(VMInstr.DUP());
         VarRef fieldRef = node.lvalue.get(i);
         if (fieldRef.arrayExpr.isPresent()) { // if the field has an array expr then go into that
-          add(VMInstr.GETF(fieldRef.varName.lexeme), "AssignStmt: get field (array)" + fieldRef.varName.lexeme);
+          add(VMInstr.GETF(fieldRef.fieldSlot), "AssignStmt: get field (array)" + fieldRef.varName.lexeme);
           fieldRef.arrayExpr.get().accept(this);
           add(VMInstr.GETI(), "gets index in array");
         } else { // if no array expr then get the field as normal
-          add(VMInstr.GETF(fieldRef.varName.lexeme), "AssignStmt: get field " + fieldRef.varName.lexeme);
+          add(VMInstr.GETF(fieldRef.fieldSlot), "AssignStmt: get field " + fieldRef.varName.lexeme);
         }
       }
 
       // Now set the final field: c
       VarRef finalRef = node.lvalue.get(node.lvalue.size() - 1);
       if (finalRef.arrayExpr.isPresent()) {
-        add(VMInstr.GETF(finalRef.varName.lexeme), "AssignStmt: get field (array) " + finalRef.varName.lexeme);
+        add(VMInstr.GETF(finalRef.fieldSlot), "AssignStmt: get field (array) " + finalRef.varName.lexeme);
         finalRef.arrayExpr.get().accept(this);
         node.expr.accept(this); // value to assign is now on top of the operand stack
         add(VMInstr.SETI(), "AssignStmt: sets value at index in array");
       } else {
         node.expr.accept(this); // value to assign is now on top of the operand stack
-        add(VMInstr.SETF(finalRef.varName.lexeme), "AssignStmt: set field " + finalRef.varName.lexeme);
+        add(VMInstr.SETF(finalRef.fieldSlot), "AssignStmt: set field " + finalRef.varName.lexeme);
       }
     }
   }
@@ -344,23 +396,18 @@ public class CodeGenerator implements Visitor {
   // done
   public void visit(WhileStmt node) {
     int initial_pc = currTemplate.instructions.size(); // gets initial pc
-    node.condition.accept(this);
 
-    // Placeholder JMPF
-    VMInstr jmpf = VMInstr.JMPF(0); // just a placeholder
-    add(jmpf, "WhileStmt: temporary jumpf offset");
-    int jmpf_index = currTemplate.instructions.size() - 1; // Index where JMPF was added so we can go back and change
+    // placeholder jumps out of the loop when the condition is false
+    List<Integer> exits = new ArrayList<>();
+    condition(node.condition, exits);
 
     // go through body
     execBody(node.stmts);
     // jumps back to right before condition was checked
     add(VMInstr.JMP(initial_pc));
 
-    // replace placeholder
-    int final_pc = currTemplate.instructions.size();
-    VMInstr final_jumpf = VMInstr.JMPF(final_pc);
-    // replaces the placeholder at the index saved earlier with the correct jmpf
-    currTemplate.instructions.set(jmpf_index, final_jumpf);
+    // replace placeholders
+    backpatch(exits);
   }
 
   public void visit(BasicExpr node) {
@@ -368,6 +415,19 @@ public class CodeGenerator implements Visitor {
   }
 
   public void visit(BinaryExpr node) {
+    // and/or only evaluate the rhs when the lhs does not decide the value
+    if (node.binaryOp.tokenType == TokenType.AND || node.binaryOp.tokenType == TokenType.OR) {
+      List<Integer> falseJumps = new ArrayList<>();
+      condition(node, falseJumps);
+      add(VMInstr.PUSH(true), "BinaryExpr: short-circuit true");
+      add(VMInstr.JMP(0));
+      int endJump = currTemplate.instructions.size() - 1;
+      backpatch(falseJumps);
+      add(VMInstr.PUSH(false), "BinaryExpr: short-circuit false");
+      currTemplate.instructions.set(endJump, VMInstr.JMP(currTemplate.instructions.size()));
+      return;
+    }
+
     // have to swap bc we have no > or >=
     if (node.binaryOp.tokenType == TokenType.GREATER || node.binaryOp.tokenType == TokenType.GREATER_EQ) {
       node.rhs.accept(this);
@@ -377,25 +437,31 @@ public class CodeGenerator implements Visitor {
       node.rhs.accept(this);
     }
 
+    // pick the typed instruction when the checker recorded the operand type
+    String type = node.operandType == null ? "" : node.operandType.type.lexeme;
     TokenType op = node.binaryOp.tokenType;
     switch (op) {
       case PLUS:
-        add(VMInstr.ADD());
+        add(typed(type, VMInstr.IADD(), VMInstr.DADD(), VMInstr.SCONCAT(), VMInstr.ADD()));
         break;
       case MINUS:
-        add(VMInstr.SUB());
+        add(typed(type, VMInstr.ISUB(), VMInstr.DSUB(), null, VMInstr.SUB()));
         break;
       case TIMES:
-        add(VMInstr.MUL());
+        add(typed(type, VMInstr.IMUL(), VMInstr.DMUL(), null, VMInstr.MUL()));
         break;
       case DIVIDE:
-        add(VMInstr.DIV());
+        add(typed(type, VMInstr.IDIV(), VMInstr.DDIV(), null, VMInstr.DIV()));
         break;
-      case AND:
-        add(VMInstr.AND());
+      // only on ints (from strength reduction)
+      case SHIFT_LEFT:
+        add(VMInstr.SHL());
         break;
-      case OR:
-        add(VMInstr.OR());
+      case SHIFT_RIGHT:
+        add(VMInstr.SHR());
+        break;
+      case BIT_AND:
+        add(VMInstr.IAND());
         break;
       case EQUAL:
         add(VMInstr.CMPEQ());
@@ -404,16 +470,12 @@ public class CodeGenerator implements Visitor {
         add(VMInstr.CMPNE());
         break;
       case LESS:
-        add(VMInstr.CMPLT());
-        break;
-      case LESS_EQ:
-        add(VMInstr.CMPLE());
-        break;
       case GREATER:
-        add(VMInstr.CMPLT());
+        add(typed(type, VMInstr.ICMPLT(), VMInstr.DCMPLT(), VMInstr.SCMPLT(), VMInstr.CMPLT()));
         break;
+      case LESS_EQ:
       case GREATER_EQ:
-        add(VMInstr.CMPLE());
+        add(typed(type, VMInstr.ICMPLE(), VMInstr.DCMPLE(), VMInstr.SCMPLE(), VMInstr.CMPLE()));
         break;
       default:
         throw new RuntimeException("BinExpr: Unknown binary operator: " + op);
@@ -549,7 +611,7 @@ public class CodeGenerator implements Visitor {
     }
 
     for (int i = 1; i < node.path.size(); i++) {
-      add(VMInstr.GETF(node.path.get(i).varName.lexeme), "VarRValue");
+      add(VMInstr.GETF(node.path.get(i).fieldSlot), "VarRValue: get field " + node.path.get(i).varName.lexeme);
 
       if (node.path.get(i).arrayExpr.isPresent()) { // checks if it is x[]
         node.path.get(i).arrayExpr.get().accept(this); // loads index
@@ -589,14 +651,15 @@ public class CodeGenerator implements Visitor {
 
   public void visit(NewStructRValue node) {
 
-    add(VMInstr.ALLOCS());
-
     StructDef struct = structs.get(node.structName.lexeme);
 
     if (struct == null) {
       throw new RuntimeException("NewStructRValue: Undefined struct type");
     }
 
+    // one slot per field, in declaration order
+    add(VMInstr.ALLOCS(struct.fields.size()), "NewStructRValue: " + node.structName.lexeme);
+
     /*
      * if (node.args.size() != struct.fields.size()) {
      * throw new RuntimeException("NewStructRValue: Incorrect number of arguments");
@@ -606,13 +669,26 @@ public class CodeGenerator implements Visitor {
     for (int i = 0; i < node.args.size(); i++) {
       add(VMInstr.DUP(), "NewStructRValue");
       node.args.get(i).accept(this);
-      add(VMInstr.SETF(struct.fields.get(i).varName.lexeme));
+      add(VMInstr.SETF(i), "NewStructRValue: set field " + struct.fields.get(i).varName.lexeme);
     }
   }
 
   public void visit(NewArrayRValue node) {
     node.arrayExpr.accept(this);
-    add(VMInstr.ALLOCA());
+    // int, double, and bool arrays are stored unboxed
+    switch (node.type.lexeme) {
+      case "int":
+        add(VMInstr.IALLOCA());
+        break;
+      case "double":
+        add(VMInstr.DALLOCA());
+        break;
+      case "bool":
+        add(VMInstr.BALLOCA());
+        break;
+      default:
+        add(VMInstr.ALLOCA());
+    }
   }
 
 }
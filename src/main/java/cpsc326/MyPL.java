@@ -8,6 +8,7 @@ package cpsc326;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.EnumSet;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
@@ -100,9 +101,14 @@ public class MyPL {
       ASTParser parser = new ASTParser(lexer);
       Program p = parser.parse();
       p.accept(new SemanticChecker());
-      p.accept(new ASTOptimizer());
+      ASTOptimizer optimizer = new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class));
+      p.accept(optimizer);
       PrintVisitor v = new PrintVisitor();
       p.accept(v);
+      for (String site : optimizer.inlinedCalls())
+        System.out.println("# inlined " + site);
+      for (String call : optimizer.evaluatedCalls())
+        System.out.println("# evaluated " + call);
     } catch (MyPLException e) {
       System.err.println(e.getMessage());
     }
@@ -120,7 +126,7 @@ public class MyPL {
       ASTParser parser = new ASTParser(lexer);
       Program p = parser.parse();
       p.accept(new SemanticChecker());
-      p.accept(new ASTOptimizer());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
       VM vm = new VM();
       p.accept(new CodeGenerator(vm));
       System.out.println(vm);
@@ -129,6 +135,29 @@ public class MyPL {
     }
   }
 
+  /**
+   * Output the intermediate representation of the given mypl program
+   * after AST optimization and peephole optimization.
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void irModePeephole(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      VM vm = new VM();
+      p.accept(new CodeGenerator(vm));
+      vm.optimize(new VMPeephole());
+      vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+      System.out.println(vm);
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
   /**
    * Output the intermediate representation of the given mypl
    * program.
@@ -160,9 +189,120 @@ public class MyPL {
       ASTParser parser = new ASTParser(lexer);
       Program p = parser.parse();
       p.accept(new SemanticChecker());
-      p.accept(new ASTOptimizer());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      VM vm = new VM();
+      p.accept(new CodeGenerator(vm));
+      vm.optimize(new VMPeephole());
+      vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+      vm.run();
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Run the given mypl program using the switch-dispatched VM engine.
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void dispatchRunMode(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
       VM vm = new VM();
+      vm.dispatchMode(true);
       p.accept(new CodeGenerator(vm));
+      vm.optimize(new VMPeephole());
+      vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+      vm.run();
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Run the given mypl program with the JIT tier (hot functions are
+   * compiled to JVM classes).
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void jitRunMode(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      VM vm = new VM();
+      vm.jitMode(true);
+      p.accept(new CodeGenerator(vm));
+      vm.optimize(new VMPeephole());
+      vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+      vm.run();
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Run the given mypl program with the closure compiler instead of
+   * the VM.
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void closureRunMode(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      ClosureCompiler compiler = new ClosureCompiler();
+      p.accept(compiler);
+      compiler.run();
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Output the register VM code of the given mypl program (after AST
+   * optimization).
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void irModeRegister(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      RegVM vm = new RegVM();
+      p.accept(new RegCodeGenerator(vm));
+      System.out.println(vm);
+    } catch (MyPLException e) {
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Run the given mypl program on the register VM.
+   * 
+   * @param input The mypl program as an input stream
+   */
+  private static void registerRunMode(InputStream input) {
+    try {
+      Lexer lexer = new Lexer(input);
+      ASTParser parser = new ASTParser(lexer);
+      Program p = parser.parse();
+      p.accept(new SemanticChecker());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+      RegVM vm = new RegVM();
+      p.accept(new RegCodeGenerator(vm));
       vm.run();
     } catch (MyPLException e) {
       System.err.println(e.getMessage());
@@ -180,7 +320,7 @@ public class MyPL {
       ASTParser parser = new ASTParser(lexer);
       Program p = parser.parse();
       p.accept(new SemanticChecker());
-      p.accept(new ASTOptimizer());
+      p.accept(new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
       VM vm = new VM();
       vm.debugMode(true);
       p.accept(new CodeGenerator(vm));
@@ -202,7 +342,7 @@ public class MyPL {
         .defaultHelp(true)
         .description("MyPL interpreter.");
     cmdParser.addArgument("-m", "--mode")
-        .choices("LEX", "PARSE", "PRINT", "CHECK", "OPTIMIZE", "IR-O", "IR", "RUN", "DEBUG")
+        .choices("LEX", "PARSE", "PRINT", "CHECK", "OPTIMIZE", "IR-O", "IR-P", "IR", "IR-R", "RUN", "RUN-D", "RUN-J", "RUN-C", "RUN-R", "DEBUG")
         .setDefault("RUN")
         .help("specify execution mode");
     cmdParser.addArgument("file").nargs("?").help("mypl file to execute");
@@ -240,8 +380,20 @@ public class MyPL {
       optimizeMode(input);
     else if (mode.equals("IR-O"))
       irMode(input);
+    else if (mode.equals("IR-P"))
+      irModePeephole(input);
     else if (mode.equals("IR"))
       irModeNoOptimizer(input);
+    else if (mode.equals("IR-R"))
+      irModeRegister(input);
+    else if (mode.equals("RUN-D"))
+      dispatchRunMode(input);
+    else if (mode.equals("RUN-J"))
+      jitRunMode(input);
+    else if (mode.equals("RUN-C"))
+      closureRunMode(input);
+    else if (mode.equals("RUN-R"))
+      registerRunMode(input);
     else if (mode.equals("DEBUG"))
       debugMode(input);
   }
@@ -27,6 +27,26 @@ public enum OpCode {
     OR,      // pop x, pop y, push (y or x)
     NOT,     // pop x, push (not x)
 
+    // typed arithmetic and relational operators (operand types known statically)
+    IADD,    // pop int x, pop int y, push (y + x)
+    DADD,    // pop double x, pop double y, push (y + x)
+    SCONCAT, // pop string x, pop string y, push (y + x)
+    ISUB,    // pop int x, pop int y, push (y - x)
+    DSUB,    // pop double x, pop double y, push (y - x)
+    IMUL,    // pop int x, pop int y, push (y * x)
+    DMUL,    // pop double x, pop double y, push (y * x)
+    IDIV,    // pop int x, pop int y, push (y // x)
+    DDIV,    // pop double x, pop double y, push (y / x)
+    ICMPLT,  // pop int x, pop int y, push (y < x)
+    DCMPLT,  // pop double x, pop double y, push (y < x)
+    SCMPLT,  // pop string x, pop string y, push (y < x)
+    ICMPLE,  // pop int x, pop int y, push (y <= x)
+    DCMPLE,  // pop double x, pop double y, push (y <= x)
+    SCMPLE,  // pop string x, pop string y, push (y <= x)
+    SHL,     // pop int x, pop int y, push (y << x)
+    SHR,     // pop int x, pop int y, push (y >> x)
+    IAND,    // pop int x, pop int y, push (y & x)
+
     // jump and branch
     JMP,     // jump to given instruction offset A
     JMPF,    // pop x, if x is False jump to instruction offset A
@@ -34,6 +54,7 @@ public enum OpCode {
     // functions
     CALL,    // call function A (pop and push arguments)
     RET,     // return from current function
+    TAILCALL, // call function A in place of the current one (CALL A; RET)
 
     // built ins
     WRITE,   // pop x, print x to standard output
@@ -45,13 +66,22 @@ public enum OpCode {
     TOSTR,   // pop x, push str(x)
 
     // heap
-    ALLOCS,  // allocate struct object, push oid x
-    SETF,    // pop value x, pop oid y, set obj(y)[A] = x
-    GETF,    // pop oid x, push obj(x)[A] onto stack
+    ALLOCS,  // allocate struct object with A (null) field slots, push oid x
+    SETF,    // pop value x, pop oid y, set field slot A of obj(y) to x
+    GETF,    // pop oid x, push field slot A of obj(x) onto stack
     ALLOCA,  // pop int x, allocate array object with x None values, push oid
+    IALLOCA, // pop int x, allocate int array object with x None values, push oid
+    DALLOCA, // pop int x, allocate double array object with x None values, push oid
+    BALLOCA, // pop int x, allocate bool array object with x None values, push oid
     SETI,    // pop value x, pop index y, pop oid z, set array obj(z)[y] = x
     GETI,    // pop index x, pop oid y, push obj(y)[x] onto stack
 
+    // superinstructions (fused from common sequences by VMPeephole)
+    INC_LOCAL,     // add 1 to the int at memory address A (LOAD A; PUSH 1; IADD; STORE A)
+    LOAD_LOAD,     // push value at memory address A, then at address B (LOAD A; LOAD B)
+    LOAD_GETF,     // push field slot B of obj(value at memory address A) (LOAD A; GETF B)
+    JMP_IF_NOT_LE, // pop int x, pop int y, if not (y <= x) jump to offset A (ICMPLE; JMPF A)
+
     // special
     DUP,     // pop x, push x, push x
     NOP      // do nothing
@@ -0,0 +1,415 @@
+/**
+ * CPSC 326, Spring 2025
+ * Compile-time evaluation of calls to pure functions.
+ */
+
+package cpsc326;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Runs a call to a pure function on literal arguments while the
+ * program is optimized, so the ASTOptimizer can replace the call with
+ * its value (see ASTOptimizer.Pass.PURE_CALLS). The pure functions
+ * take, return and compute only ints, doubles, bools, strings and null
+ * (they touch no structs or arrays and do no I/O), so they are run
+ * straight off their ASTs, with every operator and built-in giving the
+ * value it gives on the VM.
+ *
+ * Evaluation is sandboxed: when the VM would stop with an error (e.g.,
+ * division by zero, an operator on null, or a bad int_val string), or
+ * the call runs for more steps (statements, loop tests and calls) than
+ * its budget or nests calls too deeply, the evaluator gives up and the
+ * call is left to run (and fail, or loop) at run time.
+ */
+public class PureCallEvaluator {
+
+  /* deepest nesting of calls before giving up (instead of overflowing
+     the Java stack) */
+  public static final int MAX_CALL_DEPTH = 256;
+
+  /* the pure functions by name */
+  private final Map<String, FunDef> functions;
+
+  /* steps each evaluation may take */
+  private final int budget;
+
+  /* steps left for the current evaluation */
+  private int steps;
+
+  /* calls currently running */
+  private int depth;
+
+  /* the variable scopes of the running call, innermost first */
+  private Deque<Map<String, Object>> scopes;
+
+  /**
+   * Thrown to abandon an evaluation.
+   */
+  private static class GiveUp extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    GiveUp() {
+      super(null, null, false, false);
+    }
+  }
+
+  /**
+   * The value of a return statement, passed out of the statements
+   * (and loops) it ends.
+   */
+  private static class Return {
+    final Object value;
+
+    Return(Object value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Create an evaluator.
+   *
+   * @param functions the functions calls may be evaluated to, by name
+   *                  (each must be pure, and its calls go only to these
+   *                  functions and the built-ins without an effect)
+   * @param budget    the steps each evaluation may take
+   */
+  public PureCallEvaluator(Map<String, FunDef> functions, int budget) {
+    this.functions = functions;
+    this.budget = budget;
+  }
+
+  /**
+   * Evaluate a call to one of the functions whose arguments are all
+   * literals.
+   *
+   * @param call the call
+   * @return the literal of its value, or null if the evaluation gave up
+   */
+  public Token evaluate(CallRValue call) {
+    if (!functions.containsKey(call.funName.lexeme))
+      return null;
+    List<Object> args = new ArrayList<>();
+    for (Expr arg : call.args) {
+      if (!(arg instanceof BasicExpr b && b.rvalue instanceof SimpleRValue s))
+        return null;
+      args.add(value(s.literal));
+    }
+    steps = budget;
+    depth = 0;
+    try {
+      return literal(call(call.funName.lexeme, args), call.funName);
+    } catch (GiveUp e) {
+      return null;
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Helper functions
+  // ----------------------------------------------------------------------
+
+  /**
+   * Abandon the evaluation (declared to return a value so it can stand
+   * in for one).
+   */
+  private static Object giveUp() {
+    throw new GiveUp();
+  }
+
+  /**
+   * Count a step against the budget.
+   */
+  private void step() {
+    if (--steps < 0)
+      giveUp();
+  }
+
+  /**
+   * The value of a literal (translating string escapes as the code
+   * generator does).
+   */
+  private static Object value(Token literal) {
+    String val = literal.lexeme;
+    return switch (literal.tokenType) {
+      case INT_VAL -> Integer.parseInt(val);
+      case DOUBLE_VAL -> Double.parseDouble(val);
+      case BOOL_VAL -> Boolean.parseBoolean(val);
+      case STRING_VAL -> val.replace("\\n", "\n").replace("\\t", "\t").replace("\\r", "\r");
+      default -> VM.NULL;
+    };
+  }
+
+  /**
+   * The literal for a value (at the given position). Gives up if the
+   * value has no literal the code generator reads back as it.
+   */
+  private static Token literal(Object value, Token at) {
+    if (value instanceof Integer i)
+      return new Token(TokenType.INT_VAL, Integer.toString(i), at.line, at.column);
+    if (value instanceof Double d && Double.isFinite(d))
+      return new Token(TokenType.DOUBLE_VAL, Double.toString(d), at.line, at.column);
+    if (value instanceof Boolean b)
+      return new Token(TokenType.BOOL_VAL, Boolean.toString(b), at.line, at.column);
+    if (value instanceof String s && !s.contains("\\"))
+      return new Token(TokenType.STRING_VAL, s.replace("\n", "\\n").replace("\t", "\\t").replace("\r", "\\r"),
+          at.line, at.column);
+    if (value == VM.NULL)
+      return new Token(TokenType.NULL_VAL, "null", at.line, at.column);
+    giveUp();
+    return null;
+  }
+
+  /**
+   * Check that a value is a boolean (as JMPF, and so and/or, do).
+   */
+  private static boolean truth(Object value) {
+    if (!(value instanceof Boolean))
+      giveUp();
+    return (boolean) value;
+  }
+
+  // ----------------------------------------------------------------------
+  // Calls and statements
+  // ----------------------------------------------------------------------
+
+  private Object call(String name, List<Object> args) {
+    step();
+    if (++depth > MAX_CALL_DEPTH)
+      giveUp();
+    FunDef f = functions.get(name);
+    Deque<Map<String, Object>> caller = scopes;
+    scopes = new ArrayDeque<>();
+    scopes.push(new HashMap<>());
+    for (int i = 0; i < f.params.size(); ++i)
+      scopes.peek().put(f.params.get(i).varName.lexeme, args.get(i));
+    try {
+      Return ret = exec(f.stmts);
+      // falling off the end returns null
+      return ret == null ? VM.NULL : ret.value;
+    } finally {
+      scopes = caller;
+      --depth;
+    }
+  }
+
+  /**
+   * Run statements in a new scope.
+   *
+   * @return the return that ended them, or null if they ran to the end
+   */
+  private Return exec(List<Stmt> stmts) {
+    scopes.push(new HashMap<>());
+    try {
+      for (Stmt stmt : stmts) {
+        Return ret = exec(stmt);
+        if (ret != null)
+          return ret;
+      }
+      return null;
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  private Return exec(Stmt stmt) {
+    step();
+    if (stmt instanceof VarStmt v)
+      scopes.peek().put(v.varName.lexeme, v.expr.isPresent() ? eval(v.expr.get()) : VM.NULL);
+    else if (stmt instanceof AssignStmt a)
+      assign(a.lvalue.get(0).varName.lexeme, eval(a.expr));
+    else if (stmt instanceof ReturnStmt r)
+      return new Return(r.expr == null ? VM.NULL : eval(r.expr));
+    else if (stmt instanceof CallRValue c)
+      call(c);
+    else if (stmt instanceof IfStmt i) {
+      for (IfStmt branch = i; branch != null; branch = branch.elseIf.orElse(null)) {
+        if (truth(eval(branch.condition)))
+          return exec(branch.ifStmts);
+        if (branch.elseIf.isEmpty() && branch.elseStmts.isPresent())
+          return exec(branch.elseStmts.get());
+      }
+    } else if (stmt instanceof WhileStmt w) {
+      while (truth(eval(w.condition))) {
+        Return ret = exec(w.stmts);
+        if (ret != null)
+          return ret;
+        step();
+      }
+    } else if (stmt instanceof ForStmt f) {
+      // the loop variable gets its own scope, and the upper bound is
+      // evaluated before each iteration
+      String var = f.varName.lexeme;
+      scopes.push(new HashMap<>());
+      try {
+        scopes.peek().put(var, eval(f.fromExpr));
+        while (true) {
+          Object i = lookup(var);
+          Object to = eval(f.toExpr);
+          if (i == VM.NULL || to == VM.NULL)
+            giveUp();
+          if ((int) i > (int) to)
+            break;
+          Return ret = exec(f.stmts);
+          if (ret != null)
+            return ret;
+          // the body may have set the loop variable to null
+          Object next = lookup(var);
+          if (!(next instanceof Integer))
+            giveUp();
+          assign(var, (int) next + 1);
+          step();
+        }
+      } finally {
+        scopes.pop();
+      }
+    }
+    return null;
+  }
+
+  private Object lookup(String name) {
+    for (Map<String, Object> scope : scopes)
+      if (scope.containsKey(name))
+        return scope.get(name);
+    return giveUp();
+  }
+
+  private void assign(String name, Object value) {
+    for (Map<String, Object> scope : scopes) {
+      if (scope.containsKey(name)) {
+        scope.put(name, value);
+        return;
+      }
+    }
+    giveUp();
+  }
+
+  // ----------------------------------------------------------------------
+  // Expressions
+  // ----------------------------------------------------------------------
+
+  private Object eval(Expr expr) {
+    if (expr instanceof UnaryExpr u)
+      return !truth(eval(u.expr));
+    if (expr instanceof BinaryExpr b)
+      return binary(b);
+    RValue rvalue = ((BasicExpr) expr).rvalue;
+    if (rvalue instanceof SimpleRValue s)
+      return value(s.literal);
+    if (rvalue instanceof VarRValue v)
+      return lookup(v.path.get(0).varName.lexeme);
+    if (rvalue instanceof CallRValue c)
+      return call(c);
+    return giveUp();
+  }
+
+  private Object binary(BinaryExpr node) {
+    String op = node.binaryOp.lexeme;
+    if (op.equals("and"))
+      return truth(eval(node.lhs)) && truth(eval(node.rhs));
+    if (op.equals("or"))
+      return truth(eval(node.lhs)) || truth(eval(node.rhs));
+    Object y = eval(node.lhs);
+    Object x = eval(node.rhs);
+    if (op.equals("=="))
+      return x.equals(y);
+    if (op.equals("!="))
+      return !x.equals(y);
+    // the other operators fail on null and on mixed types
+    if (x == VM.NULL || y == VM.NULL || x.getClass() != y.getClass())
+      giveUp();
+    if (y instanceof Integer a) {
+      int b = (int) x;
+      return switch (op) {
+        case "+" -> a + b;
+        case "-" -> a - b;
+        case "*" -> a * b;
+        case "/" -> b == 0 ? giveUp() : a / b;
+        case "<" -> a < b;
+        case "<=" -> a <= b;
+        case ">" -> a > b;
+        case ">=" -> a >= b;
+        case "<<" -> a << b;
+        case ">>" -> a >> b;
+        case "&" -> a & b;
+        default -> giveUp();
+      };
+    }
+    if (y instanceof Double a) {
+      double b = (double) x;
+      return switch (op) {
+        case "+" -> a + b;
+        case "-" -> a - b;
+        case "*" -> a * b;
+        case "/" -> b == 0.0 ? giveUp() : a / b;
+        case "<" -> a < b;
+        case "<=" -> a <= b;
+        case ">" -> a > b;
+        case ">=" -> a >= b;
+        default -> giveUp();
+      };
+    }
+    if (y instanceof String a) {
+      String b = (String) x;
+      return switch (op) {
+        case "+" -> a + b;
+        case "<" -> a.compareTo(b) < 0;
+        case "<=" -> a.compareTo(b) <= 0;
+        case ">" -> a.compareTo(b) > 0;
+        case ">=" -> a.compareTo(b) >= 0;
+        default -> giveUp();
+      };
+    }
+    return giveUp();
+  }
+
+  private Object call(CallRValue node) {
+    List<Object> args = new ArrayList<>();
+    for (Expr arg : node.args)
+      args.add(eval(arg));
+    String name = node.funName.lexeme;
+    if (functions.containsKey(name))
+      return call(name, args);
+    Object x = args.get(0);
+    switch (name) {
+      case "size":
+        if (x instanceof String s)
+          return s.length();
+        break;
+      case "get":
+        if (x instanceof Integer i && args.get(1) instanceof String s && i >= 0 && i < s.length())
+          return Character.toString(s.charAt(i));
+        break;
+      case "int_val":
+        if (x instanceof String s) {
+          try {
+            return Integer.valueOf(s);
+          } catch (NumberFormatException e) {
+            giveUp();
+          }
+        } else if (x instanceof Double d)
+          return (int) Math.floor(d);
+        break;
+      case "dbl_val":
+        if (x instanceof String s) {
+          try {
+            return Double.valueOf(s);
+          } catch (NumberFormatException e) {
+            giveUp();
+          }
+        } else if (x instanceof Integer i)
+          return (double) i;
+        break;
+      case "str_val":
+        if (x instanceof Integer || x instanceof Double)
+          return x.toString();
+        break;
+    }
+    return giveUp();
+  }
+}
@@ -0,0 +1,571 @@
+/**
+ * CPSC 326, Spring 2025
+ * Register VM code generation.
+ */
+
+package cpsc326;
+
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Generates register VM code (see RegVM) from an AST.
+ *
+ * Variables live in the same frame slots the CodeGenerator gives them,
+ * and these slots are used directly as registers, so reading a local
+ * variable costs no instruction at all. Intermediate results go into
+ * temporary registers above the variables in scope. Temporaries only
+ * live for the statement that creates them and are handed out (and
+ * released) in stack order. An expression whose value is assigned to a
+ * variable writes it straight into the variable's register.
+ *
+ * Evaluation order (and so output and object ids) matches the stack
+ * code: calls evaluate their arguments last to first, and the right
+ * operand of > and >= is evaluated first.
+ */
+public class RegCodeGenerator implements Visitor {
+
+  /* vm to add frames to */
+  private RegVM vm;
+
+  /* current frame template being generated */
+  private RegFrameTemplate currTemplate;
+
+  /* variable -> register mappings with respect to environments */
+  private VarTable varTable = new VarTable();
+
+  /* struct defs for field counts */
+  private Map<String, StructDef> structs = new HashMap<>();
+
+  /* the next free temporary register */
+  private int nextReg = 0;
+
+  /* the register the expression being generated must write its value
+     to (-1 if any register will do) */
+  private int target = -1;
+
+  /* the register holding the value of the last expression generated */
+  private int result = -1;
+
+  /**
+   * Create a new Code Generator given a register virtual machine
+   *
+   * @param vm the VM for storing generated frame templates
+   */
+  public RegCodeGenerator(RegVM vm) {
+    this.vm = vm;
+  }
+
+  // ----------------------------------------------------------------------
+  // Helper functions
+  // ----------------------------------------------------------------------
+
+  /**
+   * Helper to add an instruction to the current frame.
+   */
+  private void add(RegInstr instr) {
+    currTemplate.add(instr);
+  }
+
+  /**
+   * Helper to take the next free temporary register.
+   */
+  private int newTemp() {
+    int reg = nextReg++;
+    currTemplate.maxRegs = Math.max(currTemplate.maxRegs, nextReg);
+    return reg;
+  }
+
+  /**
+   * Helper to pick the register an expression writes its value to: the
+   * target if there is one, otherwise a new temporary.
+   */
+  private int dest() {
+    return target >= 0 ? target : newTemp();
+  }
+
+  /**
+   * Generate an expression.
+   *
+   * @param expr   the expression
+   * @param target the register the value must end up in, or -1 to let
+   *               the expression pick (e.g., a variable's own register)
+   * @return the register holding the value
+   */
+  private int gen(Expr expr, int target) {
+    int saved = this.target;
+    this.target = target;
+    expr.accept(this);
+    this.target = saved;
+    return result;
+  }
+
+  /**
+   * Helper to pick the typed variant of an operator for the given
+   * (statically known) operand type, falling back to the generic
+   * operator when the type is unknown or has no typed variant.
+   */
+  private RegOpCode typed(String type, RegOpCode intOp, RegOpCode dblOp, RegOpCode strOp, RegOpCode generic) {
+    RegOpCode op = switch (type) {
+      case "int" -> intOp;
+      case "double" -> dblOp;
+      case "string" -> strOp;
+      default -> null;
+    };
+    return op == null ? generic : op;
+  }
+
+  /**
+   * Helper to generate a condition that falls through when it is true
+   * and jumps away when it is false. As on the stack VM, the operands
+   * of and/or are tested one at a time (short-circuit).
+   *
+   * @param cond       the (boolean) condition
+   * @param falseJumps the JMPFs (and JMPs) to point at the target for
+   *                   a false condition
+   */
+  private void condition(Expr cond, List<RegInstr> falseJumps) {
+    if (cond instanceof BinaryExpr b && b.binaryOp.tokenType == TokenType.AND) {
+      condition(b.lhs, falseJumps);
+      condition(b.rhs, falseJumps);
+    } else if (cond instanceof BinaryExpr b && b.binaryOp.tokenType == TokenType.OR) {
+      // a true lhs skips the rhs
+      List<RegInstr> lhsFalse = new ArrayList<>();
+      condition(b.lhs, lhsFalse);
+      RegInstr trueJump = RegInstr.JMP(0);
+      add(trueJump);
+      backpatch(lhsFalse);
+      condition(b.rhs, falseJumps);
+      trueJump.a = currTemplate.instructions.size();
+    } else {
+      int mark = nextReg;
+      RegInstr jmpf = RegInstr.JMPF(gen(cond, -1), 0);
+      add(jmpf);
+      falseJumps.add(jmpf);
+      nextReg = mark;
+    }
+  }
+
+  /**
+   * Helper to point the given JMPFs and JMPs at the next instruction.
+   */
+  private void backpatch(List<RegInstr> jumps) {
+    for (RegInstr jump : jumps) {
+      if (jump.opcode == RegOpCode.JMP)
+        jump.a = currTemplate.instructions.size();
+      else
+        jump.b = currTemplate.instructions.size();
+    }
+  }
+
+  /**
+   * Helper to generate body statements. Each statement starts with no
+   * temporaries in use (and a call statement's value is left in a
+   * temporary and never read).
+   */
+  private void execBody(List<Stmt> stmts) {
+    for (var stmt : stmts) {
+      nextReg = varTable.numVars();
+      stmt.accept(this);
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Visitors for programs, functions, and structs
+  // ----------------------------------------------------------------------
+
+  public void visit(Program node) {
+    for (StructDef s : node.structs)
+      s.accept(this);
+    for (FunDef f : node.functions)
+      f.accept(this);
+  }
+
+  public void visit(FunDef node) {
+    currTemplate = new RegFrameTemplate(node.funName.lexeme);
+    varTable.pushEnvironment();
+
+    // arguments are passed in the first registers
+    for (VarDef param : node.params)
+      varTable.add(param.varName.lexeme);
+
+    execBody(node.stmts);
+
+    int size = currTemplate.instructions.size();
+    if (size == 0 || currTemplate.instructions.get(size - 1).opcode != RegOpCode.RET)
+      add(RegInstr.RET(-1));
+
+    currTemplate.maxRegs = Math.max(currTemplate.maxRegs, varTable.maxVars());
+    varTable.popEnvironment();
+    vm.add(currTemplate);
+  }
+
+  public void visit(StructDef node) {
+    structs.put(node.structName.lexeme, node);
+  }
+
+  public void visit(VarDef node) {
+    // nothing to do here
+  }
+
+  public void visit(DataType node) {
+    // nothing to do here
+  }
+
+  // ----------------------------------------------------------------------
+  // Statements
+  // ----------------------------------------------------------------------
+
+  public void visit(VarStmt node) {
+    varTable.add(node.varName.lexeme);
+    int reg = varTable.get(node.varName.lexeme);
+    nextReg = varTable.numVars();
+    if (node.expr.isPresent())
+      gen(node.expr.get(), reg);
+    else
+      add(RegInstr.LOADK(reg, VM.NULL));
+  }
+
+  public void visit(AssignStmt node) {
+    VarRef base = node.lvalue.get(0);
+    int reg = varTable.get(base.varName.lexeme);
+
+    // x = e
+    if (node.lvalue.size() == 1 && base.arrayExpr.isEmpty()) {
+      gen(node.expr, reg);
+      return;
+    }
+
+    // x[i] = e
+    if (node.lvalue.size() == 1) {
+      int index = gen(base.arrayExpr.get(), -1);
+      int val = gen(node.expr, -1);
+      add(RegInstr.SETI(reg, index, val));
+      return;
+    }
+
+    // a.b.c = e and a.b.c[i] = e: walk to the struct (or array) holding c
+    int obj = reg;
+    int temp = -1;
+    if (base.arrayExpr.isPresent()) {
+      temp = newTemp();
+      int index = gen(base.arrayExpr.get(), -1);
+      add(RegInstr.GETI(temp, obj, index));
+      nextReg = temp + 1;
+      obj = temp;
+    }
+    for (int i = 1; i < node.lvalue.size() - 1; ++i) {
+      VarRef ref = node.lvalue.get(i);
+      if (temp < 0)
+        temp = newTemp();
+      add(RegInstr.GETF(temp, obj, ref.fieldSlot));
+      obj = temp;
+      if (ref.arrayExpr.isPresent()) {
+        int index = gen(ref.arrayExpr.get(), -1);
+        add(RegInstr.GETI(temp, temp, index));
+        nextReg = temp + 1;
+      }
+    }
+    VarRef last = node.lvalue.get(node.lvalue.size() - 1);
+    if (last.arrayExpr.isPresent()) {
+      if (temp < 0)
+        temp = newTemp();
+      add(RegInstr.GETF(temp, obj, last.fieldSlot));
+      int index = gen(last.arrayExpr.get(), -1);
+      int val = gen(node.expr, -1);
+      add(RegInstr.SETI(temp, index, val));
+    } else {
+      int val = gen(node.expr, -1);
+      add(RegInstr.SETF(obj, last.fieldSlot, val));
+    }
+  }
+
+  public void visit(ReturnStmt node) {
+    add(RegInstr.RET(gen(node.expr, -1)));
+  }
+
+  public void visit(WhileStmt node) {
+    int startPC = currTemplate.instructions.size();
+    List<RegInstr> exits = new ArrayList<>();
+    condition(node.condition, exits);
+
+    execBody(node.stmts);
+    add(RegInstr.JMP(startPC));
+
+    backpatch(exits);
+  }
+
+  public void visit(ForStmt node) {
+    varTable.pushEnvironment();
+    varTable.add(node.varName.lexeme);
+    int reg = varTable.get(node.varName.lexeme);
+    nextReg = varTable.numVars();
+
+    // i = from
+    gen(node.fromExpr, reg);
+
+    // i <= to (the bound is evaluated on each iteration)
+    int conditionPC = currTemplate.instructions.size();
+    int bound = gen(node.toExpr, -1);
+    nextReg = varTable.numVars();
+    int condition = newTemp();
+    add(RegInstr.binary(RegOpCode.ICMPLE, condition, reg, bound));
+    add(RegInstr.JMPF(condition, 0));
+    int jmpfIndex = currTemplate.instructions.size() - 1;
+
+    execBody(node.stmts);
+    add(RegInstr.INC(reg));
+    add(RegInstr.JMP(conditionPC));
+
+    currTemplate.instructions.get(jmpfIndex).b = currTemplate.instructions.size();
+    varTable.popEnvironment();
+  }
+
+  public void visit(IfStmt node) {
+    // JMPs to the end of the if-elseif-else statement
+    List<RegInstr> jumpsToEnd = new ArrayList<>();
+
+    IfStmt current = node;
+    while (true) {
+      nextReg = varTable.numVars();
+      List<RegInstr> jmpfs = new ArrayList<>();
+      condition(current.condition, jmpfs);
+      execBody(current.ifStmts);
+      RegInstr jmp = RegInstr.JMP(0);
+      add(jmp);
+      jumpsToEnd.add(jmp);
+      backpatch(jmpfs);
+      if (current.elseIf.isEmpty())
+        break;
+      current = current.elseIf.get();
+    }
+
+    if (current.elseStmts.isPresent())
+      execBody(current.elseStmts.get());
+
+    for (RegInstr jmp : jumpsToEnd)
+      jmp.a = currTemplate.instructions.size();
+  }
+
+  // ----------------------------------------------------------------------
+  // Expressions
+  // ----------------------------------------------------------------------
+
+  public void visit(BasicExpr node) {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(UnaryExpr node) {
+    int mark = nextReg;
+    int operand = gen(node.expr, -1);
+    nextReg = mark;
+    result = dest();
+    add(RegInstr.unary(RegOpCode.NOT, result, operand));
+  }
+
+  public void visit(BinaryExpr node) {
+    TokenType op = node.binaryOp.tokenType;
+    // and/or only evaluate the rhs when the lhs does not decide the value
+    if (op == TokenType.AND || op == TokenType.OR) {
+      List<RegInstr> falseJumps = new ArrayList<>();
+      condition(node, falseJumps);
+      result = dest();
+      add(RegInstr.LOADK(result, true));
+      RegInstr endJump = RegInstr.JMP(0);
+      add(endJump);
+      backpatch(falseJumps);
+      add(RegInstr.LOADK(result, false));
+      endJump.a = currTemplate.instructions.size();
+      return;
+    }
+    int mark = nextReg;
+    int lhs;
+    int rhs;
+    // no > or >= either: a > b is b < a (with b evaluated first)
+    if (op == TokenType.GREATER || op == TokenType.GREATER_EQ) {
+      lhs = gen(node.rhs, -1);
+      rhs = gen(node.lhs, -1);
+    } else {
+      lhs = gen(node.lhs, -1);
+      rhs = gen(node.rhs, -1);
+    }
+    nextReg = mark;
+    result = dest();
+
+    String type = node.operandType == null ? "" : node.operandType.type.lexeme;
+    RegOpCode opcode = switch (op) {
+      case PLUS -> typed(type, RegOpCode.IADD, RegOpCode.DADD, RegOpCode.SCONCAT, RegOpCode.ADD);
+      case MINUS -> typed(type, RegOpCode.ISUB, RegOpCode.DSUB, null, RegOpCode.SUB);
+      case TIMES -> typed(type, RegOpCode.IMUL, RegOpCode.DMUL, null, RegOpCode.MUL);
+      case DIVIDE -> typed(type, RegOpCode.IDIV, RegOpCode.DDIV, null, RegOpCode.DIV);
+      case SHIFT_LEFT -> RegOpCode.SHL;
+      case SHIFT_RIGHT -> RegOpCode.SHR;
+      case BIT_AND -> RegOpCode.IAND;
+      case EQUAL -> RegOpCode.CMPEQ;
+      case NOT_EQUAL -> RegOpCode.CMPNE;
+      case LESS, GREATER -> typed(type, RegOpCode.ICMPLT, RegOpCode.DCMPLT, RegOpCode.SCMPLT, RegOpCode.CMPLT);
+      case LESS_EQ, GREATER_EQ -> typed(type, RegOpCode.ICMPLE, RegOpCode.DCMPLE, RegOpCode.SCMPLE, RegOpCode.CMPLE);
+      default -> throw new RuntimeException("BinExpr: Unknown binary operator: " + op);
+    };
+    add(RegInstr.binary(opcode, result, lhs, rhs));
+  }
+
+  public void visit(CallRValue node) {
+    String name = node.funName.lexeme;
+    int mark = nextReg;
+
+    if (name.equals("print") || name.equals("println")) {
+      add(RegInstr.WRITE(gen(node.args.get(0), -1)));
+      if (name.equals("println")) {
+        nextReg = mark;
+        int newline = newTemp();
+        add(RegInstr.LOADK(newline, "\n"));
+        add(RegInstr.WRITE(newline));
+      }
+      nextReg = mark;
+      result = target;
+      if (target >= 0)
+        add(RegInstr.LOADK(target, VM.NULL));
+      return;
+    }
+
+    if (name.equals("readln")) {
+      result = dest();
+      add(RegInstr.READ(result));
+      return;
+    }
+
+    RegOpCode builtIn = switch (name) {
+      case "str_val" -> RegOpCode.TOSTR;
+      case "int_val" -> RegOpCode.TOINT;
+      case "dbl_val" -> RegOpCode.TODBL;
+      case "size" -> RegOpCode.LEN;
+      default -> null;
+    };
+    if (builtIn != null) {
+      int operand = gen(node.args.get(0), -1);
+      nextReg = mark;
+      result = dest();
+      add(RegInstr.unary(builtIn, result, operand));
+      return;
+    }
+
+    if (name.equals("get")) {
+      // the string is evaluated before the index
+      int string = gen(node.args.get(1), -1);
+      int index = gen(node.args.get(0), -1);
+      nextReg = mark;
+      result = dest();
+      add(RegInstr.binary(RegOpCode.GETC, result, string, index));
+      return;
+    }
+
+    // arguments go in consecutive registers, evaluated last to first
+    int firstArg = nextReg;
+    for (int i = 0; i < node.args.size(); ++i)
+      newTemp();
+    for (int i = node.args.size() - 1; i >= 0; --i)
+      gen(node.args.get(i), firstArg + i);
+    nextReg = mark;
+    result = dest();
+    add(RegInstr.CALL(result, name, firstArg, node.args.size()));
+  }
+
+  public void visit(SimpleRValue node) {
+    String val = node.literal.lexeme;
+    Object constant = switch (node.literal.tokenType) {
+      case INT_VAL -> Integer.parseInt(val);
+      case DOUBLE_VAL -> Double.parseDouble(val);
+      case STRING_VAL -> val.replace("\\n", "\n").replace("\\t", "\t").replace("\\r", "\r");
+      case BOOL_VAL -> Boolean.parseBoolean(val);
+      case NULL_VAL -> VM.NULL;
+      default -> throw new RuntimeException("ERROR: Unknown literal type " + val);
+    };
+    result = dest();
+    add(RegInstr.LOADK(result, constant));
+  }
+
+  public void visit(NewStructRValue node) {
+    StructDef struct = structs.get(node.structName.lexeme);
+    if (struct == null)
+      throw new RuntimeException("NewStructRValue: Undefined struct type");
+
+    // the field values may read the target variable, so the object is
+    // built in a temporary
+    int obj = newTemp();
+    add(RegInstr.ALLOCS(obj, struct.fields.size()));
+    for (int i = 0; i < node.args.size(); ++i) {
+      int mark = nextReg;
+      add(RegInstr.SETF(obj, i, gen(node.args.get(i), -1)));
+      nextReg = mark;
+    }
+    result = obj;
+    if (target >= 0) {
+      add(RegInstr.MOVE(target, obj));
+      nextReg = obj;
+      result = target;
+    }
+  }
+
+  public void visit(NewArrayRValue node) {
+    int mark = nextReg;
+    int size = gen(node.arrayExpr, -1);
+    nextReg = mark;
+    result = dest();
+    // int, double, and bool arrays are stored unboxed
+    RegOpCode opcode = switch (node.type.lexeme) {
+      case "int" -> RegOpCode.IALLOCA;
+      case "double" -> RegOpCode.DALLOCA;
+      case "bool" -> RegOpCode.BALLOCA;
+      default -> RegOpCode.ALLOCA;
+    };
+    add(RegInstr.unary(opcode, result, size));
+  }
+
+  public void visit(VarRValue node) {
+    VarRef base = node.path.get(0);
+    int reg = varTable.get(base.varName.lexeme);
+
+    // a plain variable is already in its register
+    if (node.path.size() == 1 && base.arrayExpr.isEmpty()) {
+      result = reg;
+      if (target >= 0 && target != reg) {
+        add(RegInstr.MOVE(target, reg));
+        result = target;
+      }
+      return;
+    }
+
+    // each GETI and GETF reads the previous step's object (starting
+    // with the variable's register) and the last one writes the result
+    int mark = nextReg;
+    int steps = node.path.size() - 1;
+    for (VarRef ref : node.path)
+      if (ref.arrayExpr.isPresent())
+        ++steps;
+    int dst = dest();
+    int temp = target < 0 ? dst : steps > 1 ? newTemp() : -1;
+    int obj = reg;
+    for (int i = 0; i < node.path.size(); ++i) {
+      VarRef ref = node.path.get(i);
+      if (i > 0) {
+        --steps;
+        add(RegInstr.GETF(steps == 0 ? dst : temp, obj, ref.fieldSlot));
+        obj = temp;
+      }
+      if (ref.arrayExpr.isPresent()) {
+        int indexMark = nextReg;
+        int index = gen(ref.arrayExpr.get(), -1);
+        nextReg = indexMark;
+        --steps;
+        add(RegInstr.GETI(steps == 0 ? dst : temp, obj, index));
+        obj = temp;
+      }
+    }
+    nextReg = target < 0 ? dst + 1 : mark;
+    result = dst;
+  }
+
+}
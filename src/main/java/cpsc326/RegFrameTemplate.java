@@ -0,0 +1,54 @@
+/**
+ * CPSC 326, Spring 2025
+ * The information needed for creating a register VM frame.
+ */
+
+package cpsc326;
+
+import java.util.List;
+import java.util.ArrayList;
+
+
+/**
+ * Class for holding a function's name, register instructions, and
+ * register count.
+ */
+public class RegFrameTemplate {
+
+  /* name of the function */
+  public String functionName;
+
+  /* list of instructions defining the function */
+  public List<RegInstr> instructions = new ArrayList<>();
+
+  /* the instructions as an array (filled in by RegVM before running) */
+  public RegInstr[] code;
+
+  /* number of registers (params, locals, and temporaries) a frame needs */
+  public int maxRegs = 0;
+
+  /**
+   * Create a new template
+   */
+  public RegFrameTemplate(String functionName) {
+    this.functionName = functionName;
+  }
+
+  /**
+   * Add an instruction
+   * @param instr the instruction to add
+   */
+  public void add(RegInstr instr) {
+    instructions.add(instr);
+  }
+
+  /**
+   * Templates print as their function name (e.g., as a linked CALL
+   * operand)
+   */
+  @Override
+  public String toString() {
+    return functionName;
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * CPSC 326, Spring 2025
+ * Class for representing a register VM instruction.
+ */
+
+package cpsc326;
+
+
+/**
+ * Represents a register VM instruction (see RegOpCode for the meaning
+ * of each operand). Unused operands are -1.
+ */
+public class RegInstr {
+  public RegOpCode opcode;
+  public int a = -1;
+  public int b = -1;
+  public int c = -1;
+  public Object constant;
+  public String comment = "";
+
+  /**
+   * Create an instruction
+   * @param opcode The instruction opcode.
+   * @param a The first operand.
+   * @param b The second operand.
+   * @param c The third operand.
+   */
+  public RegInstr(RegOpCode opcode, int a, int b, int c) {
+    this.opcode = opcode;
+    this.a = a;
+    this.b = b;
+    this.c = c;
+  }
+
+  /**
+   * Pretty print an instruction.
+   */
+  public String toString() {
+    String s = opcode + "(";
+    String sep = "";
+    for (int operand : new int[] {a, b, c}) {
+      if (operand >= 0) {
+        s += sep + operand;
+        sep = ", ";
+      }
+    }
+    if (constant != null)
+      s += sep + constant;
+    s += ")";
+    if (!comment.equals(""))
+      s += "  // " + comment;
+    return s;
+  }
+
+  // Helpers to create instructions (use these to create actual instructions)
+
+  public static RegInstr LOADK(int dst, Object value) {
+    RegInstr instr = new RegInstr(RegOpCode.LOADK, dst, -1, -1);
+    instr.constant = value;
+    return instr;
+  }
+
+  public static RegInstr MOVE(int dst, int src) {
+    return new RegInstr(RegOpCode.MOVE, dst, src, -1);
+  }
+
+  /**
+   * Any of the three-register operators, r[dst] = r[lhs] op r[rhs]
+   */
+  public static RegInstr binary(RegOpCode opcode, int dst, int lhs, int rhs) {
+    return new RegInstr(opcode, dst, lhs, rhs);
+  }
+
+  /**
+   * Any of the two-register operators and built ins, r[dst] = op r[src]
+   */
+  public static RegInstr unary(RegOpCode opcode, int dst, int src) {
+    return new RegInstr(opcode, dst, src, -1);
+  }
+
+  public static RegInstr INC(int reg) {
+    return new RegInstr(RegOpCode.INC, reg, -1, -1);
+  }
+
+  public static RegInstr JMP(int offset) {
+    return new RegInstr(RegOpCode.JMP, offset, -1, -1);
+  }
+
+  public static RegInstr JMPF(int reg, int offset) {
+    return new RegInstr(RegOpCode.JMPF, reg, offset, -1);
+  }
+
+  public static RegInstr CALL(int dst, String functionName, int firstArg, int argCount) {
+    RegInstr instr = new RegInstr(RegOpCode.CALL, dst, firstArg, argCount);
+    instr.constant = functionName;
+    return instr;
+  }
+
+  public static RegInstr RET(int reg) {
+    return new RegInstr(RegOpCode.RET, reg, -1, -1);
+  }
+
+  public static RegInstr WRITE(int reg) {
+    return new RegInstr(RegOpCode.WRITE, reg, -1, -1);
+  }
+
+  public static RegInstr READ(int dst) {
+    return new RegInstr(RegOpCode.READ, dst, -1, -1);
+  }
+
+  public static RegInstr ALLOCS(int dst, int fieldCount) {
+    return new RegInstr(RegOpCode.ALLOCS, dst, fieldCount, -1);
+  }
+
+  public static RegInstr SETF(int obj, int fieldSlot, int val) {
+    return new RegInstr(RegOpCode.SETF, obj, fieldSlot, val);
+  }
+
+  public static RegInstr GETF(int dst, int obj, int fieldSlot) {
+    return new RegInstr(RegOpCode.GETF, dst, obj, fieldSlot);
+  }
+
+  public static RegInstr SETI(int array, int index, int val) {
+    return new RegInstr(RegOpCode.SETI, array, index, val);
+  }
+
+  public static RegInstr GETI(int dst, int array, int index) {
+    return new RegInstr(RegOpCode.GETI, dst, array, index);
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * CPSC 326, Spring 2025
+ *
+ * The available mypl register VM opcodes
+ */
+
+package cpsc326;
+
+
+/**
+ * Opcodes of the register VM (see RegVM). Operands A, B, and C are
+ * registers (frame slots) unless noted otherwise, and r[A] is the value
+ * of register A.
+ */
+public enum RegOpCode {
+    // literals and variables
+    LOADK,   // r[A] = constant K
+    MOVE,    // r[A] = r[B]
+
+    // arithmetic, relational, and logical operators
+    ADD,     // r[A] = r[B] + r[C]
+    SUB,     // r[A] = r[B] - r[C]
+    MUL,     // r[A] = r[B] * r[C]
+    DIV,     // r[A] = r[B] // r[C] or r[B] / r[C]
+    CMPLT,   // r[A] = r[B] < r[C]
+    CMPLE,   // r[A] = r[B] <= r[C]
+    CMPEQ,   // r[A] = r[B] == r[C]
+    CMPNE,   // r[A] = r[B] != r[C]
+    AND,     // r[A] = r[B] and r[C]
+    OR,      // r[A] = r[B] or r[C]
+    NOT,     // r[A] = not r[B]
+
+    // typed arithmetic and relational operators (operand types known statically)
+    IADD,    // int r[A] = r[B] + r[C]
+    DADD,    // double r[A] = r[B] + r[C]
+    SCONCAT, // string r[A] = r[B] + r[C]
+    ISUB,    // int r[A] = r[B] - r[C]
+    DSUB,    // double r[A] = r[B] - r[C]
+    IMUL,    // int r[A] = r[B] * r[C]
+    DMUL,    // double r[A] = r[B] * r[C]
+    IDIV,    // int r[A] = r[B] // r[C]
+    DDIV,    // double r[A] = r[B] / r[C]
+    ICMPLT,  // int r[A] = r[B] < r[C]
+    DCMPLT,  // double r[A] = r[B] < r[C]
+    SCMPLT,  // string r[A] = r[B] < r[C]
+    ICMPLE,  // int r[A] = r[B] <= r[C]
+    DCMPLE,  // double r[A] = r[B] <= r[C]
+    SCMPLE,  // string r[A] = r[B] <= r[C]
+    SHL,     // int r[A] = r[B] << r[C]
+    SHR,     // int r[A] = r[B] >> r[C]
+    IAND,    // int r[A] = r[B] & r[C]
+    INC,     // int r[A] = r[A] + 1
+
+    // jump and branch
+    JMP,     // jump to instruction offset A
+    JMPF,    // if r[A] is False jump to instruction offset B
+
+    // functions
+    CALL,    // r[A] = call function K with the C arguments in r[B], ..., r[B+C-1]
+    RET,     // return r[A] (or null if A is -1) from the current function
+
+    // built ins
+    WRITE,   // print r[A] to standard output
+    READ,    // r[A] = line read from standard input
+    LEN,     // r[A] = length(r[B]) if str, else obj(r[B]).length
+    GETC,    // r[A] = r[B][r[C]] (r[B] a string)
+    TOINT,   // r[A] = int(r[B])
+    TODBL,   // r[A] = double(r[B])
+    TOSTR,   // r[A] = str(r[B])
+
+    // heap
+    ALLOCS,  // r[A] = new struct object with B (null) field slots
+    SETF,    // set field slot B (not a register) of obj(r[A]) to r[C]
+    GETF,    // r[A] = field slot C (not a register) of obj(r[B])
+    ALLOCA,  // r[A] = new array object with r[B] None values
+    IALLOCA, // r[A] = new int array object with r[B] None values
+    DALLOCA, // r[A] = new double array object with r[B] None values
+    BALLOCA, // r[A] = new bool array object with r[B] None values
+    SETI,    // set array obj(r[A])[r[B]] = r[C]
+    GETI     // r[A] = obj(r[B])[r[C]]
+}
@@ -0,0 +1,603 @@
+/**
+ * CPSC 326, Spring 2025
+ * The register virtual machine implementation.
+ */
+
+package cpsc326;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Register-based virtual machine for running MyPL programs (as
+ * register instructions, see RegCodeGenerator). An alternative to the
+ * stack VM: each instruction names the frame slots (registers) it
+ * reads and writes, so there is no operand stack, and e.g. a = b + c
+ * is a single IADD instead of LOAD, LOAD, IADD, STORE.
+ *
+ * Values, output, object ids, and error messages are the same as on
+ * the stack VM (errors reported at an instruction show the register
+ * instruction).
+ */
+public class RegVM {
+
+  /**
+   * A function call: the function's registers and program counter.
+   */
+  private static class Frame {
+    RegFrameTemplate template;
+    Object[] regs;
+    int pc = 0;
+
+    Frame(RegFrameTemplate template) {
+      this.template = template;
+      this.regs = new Object[template.maxRegs];
+    }
+  }
+
+  /* the function (frame) call stack */
+  private Deque<Frame> callStack = new ArrayDeque<>();
+
+  /* the set of program function definitions (frame templates) */
+  private Map<String, RegFrameTemplate> templates = new HashMap<>();
+
+  /* the next unused object id (objects print as their id) */
+  private int nextObjectId = 2025;
+
+  /* number of instructions executed by the last call to run */
+  private long instructionCount = 0;
+
+  private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+
+  // helper functions
+
+  /**
+   * Create and throw an error.
+   *
+   * @param msg The error message.
+   */
+  private void error(String msg) {
+    MyPLException.vmError(msg);
+  }
+
+  /**
+   * Create and throw an error (for a specific frame).
+   *
+   * @param msg   The error message.
+   * @param frame The frame where the error occurred.
+   */
+  private void error(String msg, Frame frame) {
+    String s = "%s in %s at %d: %s";
+    int pc = frame.pc - 1;
+    MyPLException.vmError(String.format(s, msg, frame.template.functionName, pc, frame.template.code[pc]));
+  }
+
+  /**
+   * Helper to ensure neither operand of a typed operator is NULL
+   */
+  private void ensureNotNull(Object x, Object y, Frame frame) {
+    if (x == VM.NULL || y == VM.NULL)
+      error("null value error", frame);
+  }
+
+  /**
+   * Helper to ensure the given value isn't NULL
+   */
+  private void ensureNotNull(Object x, Frame frame) {
+    if (x == VM.NULL)
+      error("null value error", frame);
+  }
+
+  /**
+   * Helper to check the operands of an untyped operator
+   */
+  private void ensureSameType(Object x, Object y) {
+    if (x.getClass() != y.getClass())
+      error("To add they must have the same type");
+  }
+
+  /**
+   * Helper to check an array access, returning the array
+   */
+  private VMArray array(Object obj, Object index, String instr) {
+    if (!(obj instanceof VMArray))
+      error("Invalid array object ID");
+    if (!(index instanceof Integer) || (int) index < 0)
+      error("not a valid array index, must be a non-negative integer");
+    VMArray array = (VMArray) obj;
+    if ((int) index >= array.length)
+      error(instr + ": index out of bounds");
+    return array;
+  }
+
+  /**
+   * Helper to check a struct access, returning the struct
+   */
+  private VMStruct struct(Object obj) {
+    if (!(obj instanceof VMStruct))
+      error("Invalid struct object ID");
+    return (VMStruct) obj;
+  }
+
+  /**
+   * Add a frame template to the VM.
+   *
+   * @param template The template to add.
+   */
+  public void add(RegFrameTemplate template) {
+    templates.put(template.functionName, template);
+  }
+
+  /**
+   * Number of instructions executed by the most recent run.
+   *
+   * @return the executed instruction count
+   */
+  public long instructionCount() {
+    return instructionCount;
+  }
+
+  /**
+   * Pretty-print the VM frames.
+   */
+  public String toString() {
+    String s = "";
+    for (var funName : templates.keySet()) {
+      s += String.format("\nFrame '%s'\n", funName);
+      RegFrameTemplate template = templates.get(funName);
+      s += String.format("  registers: %d\n", template.maxRegs);
+      for (int i = 0; i < template.instructions.size(); ++i)
+        s += String.format("  %d: %s\n", i, template.instructions.get(i));
+    }
+    return s;
+  }
+
+  /**
+   * Link the program before running it: each CALL's function name is
+   * replaced by the callee's template (reporting undefined functions
+   * up front), and each function's instructions are copied to an array.
+   */
+  private void link() {
+    for (RegFrameTemplate template : templates.values()) {
+      template.code = template.instructions.toArray(new RegInstr[0]);
+      for (int pc = 0; pc < template.code.length; ++pc) {
+        RegInstr instr = template.code[pc];
+        if (instr.opcode == RegOpCode.CALL && instr.constant instanceof String name) {
+          if (!templates.containsKey(name))
+            MyPLException.vmError(String.format("%s not recognized in %s at %d: %s", name,
+                template.functionName, pc, instr));
+          instr.constant = templates.get(name);
+        }
+      }
+    }
+  }
+
+  // the main run method
+
+  /**
+   * Execute the program
+   */
+  public void run() {
+    if (!templates.containsKey("main"))
+      error("No 'main' function");
+    link();
+
+    Frame frame = new Frame(templates.get("main"));
+    callStack.push(frame);
+    instructionCount = 0;
+    RegInstr[] code = frame.template.code;
+    Object[] r = frame.regs;
+
+    // run loop until out of call frames or instructions in the frame
+    while (frame.pc < code.length) {
+      RegInstr instr = code[frame.pc];
+      ++frame.pc;
+      ++instructionCount;
+
+      switch (instr.opcode) {
+
+        // --------------------------------------------------------------------
+        // Literals and Variables
+        // --------------------------------------------------------------------
+
+        case LOADK:
+          r[instr.a] = instr.constant;
+          break;
+
+        case MOVE:
+          r[instr.a] = r[instr.b];
+          break;
+
+        // --------------------------------------------------------------------
+        // Arithmetic, relational, and logical operators
+        // --------------------------------------------------------------------
+
+        case ADD: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (x instanceof Integer)
+            r[instr.a] = (int) y + (int) x;
+          else if (x instanceof Double)
+            r[instr.a] = (double) y + (double) x;
+          else
+            r[instr.a] = (String) y + (String) x;
+          break;
+        }
+
+        case SUB: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (x instanceof Integer)
+            r[instr.a] = (int) y - (int) x;
+          else
+            r[instr.a] = (double) y - (double) x;
+          break;
+        }
+
+        case MUL: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (x instanceof Integer)
+            r[instr.a] = (int) y * (int) x;
+          else
+            r[instr.a] = (double) y * (double) x;
+          break;
+        }
+
+        case DIV: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (y instanceof Integer && (int) x != 0)
+            r[instr.a] = (int) y / (int) x;
+          else if (y instanceof Double && (double) x != 0.0)
+            r[instr.a] = (double) y / (double) x;
+          else
+            error("division by zero error", frame);
+          break;
+        }
+
+        case CMPLT: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (x instanceof Integer)
+            r[instr.a] = (int) y < (int) x;
+          else if (x instanceof Double)
+            r[instr.a] = (double) y < (double) x;
+          else
+            r[instr.a] = ((String) y).compareTo((String) x) < 0;
+          break;
+        }
+
+        case CMPLE: {
+          Object y = r[instr.b];
+          Object x = r[instr.c];
+          ensureSameType(x, y);
+          if (x instanceof Integer)
+            r[instr.a] = (int) y <= (int) x;
+          else if (x instanceof Double)
+            r[instr.a] = (double) y <= (double) x;
+          else
+            r[instr.a] = ((String) y).compareTo((String) x) <= 0;
+          break;
+        }
+
+        case CMPEQ:
+          r[instr.a] = r[instr.c].equals(r[instr.b]);
+          break;
+
+        case CMPNE:
+          r[instr.a] = !r[instr.c].equals(r[instr.b]);
+          break;
+
+        case AND:
+          if (!(r[instr.b] instanceof Boolean y && r[instr.c] instanceof Boolean x))
+            error("operands must be booleans");
+          else
+            r[instr.a] = y && x;
+          break;
+
+        case OR:
+          if (!(r[instr.b] instanceof Boolean y && r[instr.c] instanceof Boolean x))
+            error("operands must be booleans");
+          else
+            r[instr.a] = y || x;
+          break;
+
+        case NOT:
+          if (!(r[instr.b] instanceof Boolean x))
+            error("operands must be booleans");
+          else
+            r[instr.a] = !x;
+          break;
+
+        // --------------------------------------------------------------------
+        // Typed operators (operand types known statically)
+        // --------------------------------------------------------------------
+
+        case IADD:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] + (int) r[instr.c];
+          break;
+
+        case DADD:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (double) r[instr.b] + (double) r[instr.c];
+          break;
+
+        case SCONCAT:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (String) r[instr.b] + (String) r[instr.c];
+          break;
+
+        case ISUB:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] - (int) r[instr.c];
+          break;
+
+        case DSUB:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (double) r[instr.b] - (double) r[instr.c];
+          break;
+
+        case IMUL:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] * (int) r[instr.c];
+          break;
+
+        case DMUL:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (double) r[instr.b] * (double) r[instr.c];
+          break;
+
+        case IDIV:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          if ((int) r[instr.c] == 0)
+            error("division by zero error", frame);
+          r[instr.a] = (int) r[instr.b] / (int) r[instr.c];
+          break;
+
+        case DDIV:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          if ((double) r[instr.c] == 0.0)
+            error("division by zero error", frame);
+          r[instr.a] = (double) r[instr.b] / (double) r[instr.c];
+          break;
+
+        case ICMPLT:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] < (int) r[instr.c];
+          break;
+
+        case DCMPLT:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (double) r[instr.b] < (double) r[instr.c];
+          break;
+
+        case SCMPLT:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = ((String) r[instr.b]).compareTo((String) r[instr.c]) < 0;
+          break;
+
+        case ICMPLE:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] <= (int) r[instr.c];
+          break;
+
+        case DCMPLE:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (double) r[instr.b] <= (double) r[instr.c];
+          break;
+
+        case SCMPLE:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = ((String) r[instr.b]).compareTo((String) r[instr.c]) <= 0;
+          break;
+
+        case SHL:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] << (int) r[instr.c];
+          break;
+
+        case SHR:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] >> (int) r[instr.c];
+          break;
+
+        case IAND:
+          ensureNotNull(r[instr.b], r[instr.c], frame);
+          r[instr.a] = (int) r[instr.b] & (int) r[instr.c];
+          break;
+
+        case INC:
+          ensureNotNull(r[instr.a], frame);
+          r[instr.a] = (int) r[instr.a] + 1;
+          break;
+
+        // --------------------------------------------------------------------
+        // Jump and branch
+        // --------------------------------------------------------------------
+
+        case JMP:
+          frame.pc = instr.a;
+          break;
+
+        case JMPF:
+          if (!(r[instr.a] instanceof Boolean val))
+            error("Operand must be a boolean");
+          else if (!val)
+            frame.pc = instr.b;
+          break;
+
+        // --------------------------------------------------------------------
+        // Functions
+        // --------------------------------------------------------------------
+
+        case CALL: {
+          // the link phase replaced the function name with its template
+          Frame callee = new Frame((RegFrameTemplate) instr.constant);
+          System.arraycopy(r, instr.b, callee.regs, 0, instr.c);
+          callStack.push(callee);
+          frame = callee;
+          code = frame.template.code;
+          r = frame.regs;
+          break;
+        }
+
+        case RET: {
+          Object returnValue = instr.a < 0 ? VM.NULL : r[instr.a];
+          callStack.pop();
+          if (callStack.isEmpty())
+            return;
+          frame = callStack.peek();
+          code = frame.template.code;
+          r = frame.regs;
+          // the caller's CALL names the register the value goes to
+          r[code[frame.pc - 1].a] = returnValue;
+          break;
+        }
+
+        // --------------------------------------------------------------------
+        // Built ins
+        // --------------------------------------------------------------------
+
+        case WRITE:
+          System.out.print(r[instr.a]);
+          break;
+
+        case READ:
+          try {
+            r[instr.a] = reader.readLine();
+          } catch (IOException e) {
+            error("input error: " + e.getMessage());
+          }
+          break;
+
+        case LEN: {
+          Object x = r[instr.b];
+          ensureNotNull(x, frame);
+          if (x instanceof String s)
+            r[instr.a] = s.length();
+          else if (x instanceof VMArray array)
+            r[instr.a] = array.length;
+          else
+            error("invalid LEN call, must be on a String or Array");
+          break;
+        }
+
+        case GETC: {
+          Object string = r[instr.b];
+          Object index = r[instr.c];
+          if (!(string instanceof String))
+            error("incorrect type, must be a string");
+          if (!(index instanceof Integer))
+            error("invalid index; must be of type integer");
+          if ((int) index >= ((String) string).length() || (int) index < 0)
+            error("GETC: index out of bounds");
+          r[instr.a] = Character.toString(((String) string).charAt((int) index));
+          break;
+        }
+
+        case TOINT: {
+          Object val = r[instr.b];
+          ensureNotNull(val, frame);
+          if (val instanceof String s) {
+            try {
+              val = Integer.valueOf(s);
+            } catch (NumberFormatException e) {
+              error("invalid string to call TOINT");
+            }
+          } else if (val instanceof Double d)
+            val = (int) Math.floor(d);
+          r[instr.a] = val;
+          break;
+        }
+
+        case TODBL: {
+          Object val = r[instr.b];
+          ensureNotNull(val, frame);
+          if (val instanceof String s) {
+            try {
+              val = Double.valueOf(s);
+            } catch (NumberFormatException e) {
+              error("invalid string to call TODBL");
+            }
+          } else if (val instanceof Integer i)
+            val = (double) i;
+          r[instr.a] = val;
+          break;
+        }
+
+        case TOSTR: {
+          Object val = r[instr.b];
+          ensureNotNull(val, frame);
+          if (val instanceof Integer i)
+            val = Integer.toString(i);
+          else if (val instanceof Double d)
+            val = Double.toString(d);
+          r[instr.a] = (String) val;
+          break;
+        }
+
+        // --------------------------------------------------------------------
+        // Heap
+        // --------------------------------------------------------------------
+
+        case ALLOCS:
+          r[instr.a] = new VMStruct(nextObjectId++, instr.b);
+          break;
+
+        case SETF:
+          struct(r[instr.a]).fields[instr.b] = r[instr.c];
+          break;
+
+        case GETF:
+          r[instr.a] = struct(r[instr.b]).fields[instr.c];
+          break;
+
+        case ALLOCA:
+        case IALLOCA:
+        case DALLOCA:
+        case BALLOCA: {
+          Object size = r[instr.b];
+          if (!(size instanceof Integer) || (int) size < 0)
+            error("not a valid array size, must be a non-negative integer");
+          int n = (int) size;
+          int oid = nextObjectId++;
+          r[instr.a] = switch (instr.opcode) {
+            case IALLOCA -> VMArray.ofInts(oid, n);
+            case DALLOCA -> VMArray.ofDoubles(oid, n);
+            case BALLOCA -> VMArray.ofBools(oid, n);
+            default -> VMArray.ofObjects(oid, n);
+          };
+          break;
+        }
+
+        case SETI: {
+          Object index = r[instr.b];
+          array(r[instr.a], index, "SETI").set((int) index, r[instr.c]);
+          break;
+        }
+
+        case GETI: {
+          Object index = r[instr.c];
+          r[instr.a] = array(r[instr.b], index, "GETI").get((int) index);
+          break;
+        }
+
+        default:
+          error("Unsupported operation: " + instr);
+      }
+    }
+  }
+
+}
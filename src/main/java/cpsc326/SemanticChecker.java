@@ -90,6 +90,22 @@ public class SemanticChecker implements Visitor {
     return null;
   }
 
+  /**
+   * Obtains the slot (position in the struct's field list) of the
+   * field name in the struct definition. Struct objects store their
+   * field values by slot.
+   * 
+   * @param fieldName the field name
+   * @param structDef the struct definition
+   * @returns the slot or -1 if no such field exists
+   */
+  private int getStructFieldSlot(String fieldName, StructDef structDef) {
+    for (int i = 0; i < structDef.fields.size(); ++i)
+      if (structDef.fields.get(i).varName.lexeme.equals(fieldName))
+        return i;
+    return -1;
+  }
+
   // ----------------------------------------------------------------------
   // Visit Functions
   // ----------------------------------------------------------------------
@@ -322,6 +338,10 @@ public class SemanticChecker implements Visitor {
         error("Relational operator '" + node.binaryOp.lexeme + "' cannot be applied to arrays");
       }
 
+      // record the operand type so code generation can pick a typed compare
+      if (lhs.type.lexeme.equals(rhs.type.lexeme))
+        node.operandType = lhs;
+
       currType = new DataType();
       currType.type = new Token(TokenType.BOOL_TYPE, "bool", node.binaryOp.line, node.binaryOp.column);
       return;
@@ -343,6 +363,9 @@ public class SemanticChecker implements Visitor {
             lhs.type.lexeme + " vs " + rhs.type.lexeme);
       }
 
+      // record the operand type so code generation can pick a typed operator
+      node.operandType = lhs;
+
       currType = new DataType();
 
       // Determine result type based on operand type
@@ -687,6 +710,7 @@ public class SemanticChecker implements Visitor {
       }
 
       // Set the current type to the field type
+      ref.fieldSlot = getStructFieldSlot(ref.varName.lexeme, def);
       currType = getStructFieldType(ref.varName.lexeme, def);
     }
   }
@@ -815,6 +839,8 @@ public class SemanticChecker implements Visitor {
         error("Undefined field: " + node.lvalue.get(i).varName.lexeme, node.lvalue.get(i).varName);
 
       // Update currType to the type of the accessed field
+      node.lvalue.get(i).fieldSlot = getStructFieldSlot(node.lvalue.get(i).varName.lexeme,
+          structs.get(currType.type.lexeme));
       currType = getStructFieldType(node.lvalue.get(i).varName.lexeme, structs.get(currType.type.lexeme));
     }
 
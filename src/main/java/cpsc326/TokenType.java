@@ -21,6 +21,8 @@ public enum TokenType {
   INT_TYPE, DOUBLE_TYPE, CHAR_TYPE, STRING_TYPE, BOOL_TYPE, VOID_TYPE,
   // reserved words
   STRUCT, VAR, WHILE, FOR, FROM, TO, IF, ELSE, NEW, RETURN, 
+  // int shift and mask operators (never lexed; introduced by the optimizer)
+  SHIFT_LEFT, SHIFT_RIGHT, BIT_AND,
   // comment token and end-of-stream
   COMMENT, EOS
 }
@@ -13,6 +13,10 @@ import java.util.Map;
 import java.util.Scanner;
 import java.util.HashMap;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -31,12 +35,6 @@ public class VM {
     }
   };
 
-  /* the array heap as an oid to list mapping */
-  private Map<Integer, List<Object>> arrayHeap = new HashMap<>();
-
-  /* the struct heap as an oid to object (field to value map) mapping */
-  private Map<Integer, Map<String, Object>> structHeap = new HashMap<>();
-
   /* the operand stack */
   private Deque<Object> operandStack = new ArrayDeque<>();
 
@@ -46,12 +44,42 @@ public class VM {
   /* the set of program function definitions (frame templates) */
   private Map<String, VMFrameTemplate> templates = new HashMap<>();
 
-  /* the next unused object id */
+  /* the function table of the linked program (see VMLinker) */
+  private VMFrameTemplate[] functions = new VMFrameTemplate[0];
+
+  /* the constant pool of the linked program (see VMLinker) */
+  private Object[] constants = new Object[0];
+
+  /* opcodes indexed by ordinal, for decoding linked code words */
+  private static final OpCode[] OPCODES = OpCode.values();
+
+  /* the next unused object id (objects print as their id) */
   private int nextObjectId = 2025;
 
   /* debug flag for output debug info during vm execution (run) */
   private boolean debug = false;
 
+  /* use the switch-dispatched loop (runDispatch) instead of the if-chain */
+  private boolean dispatch = false;
+
+  /* number of instructions executed by the last call to run */
+  private long instructionCount = 0;
+
+  /* most frames on the call stack at once during the last call to run */
+  private int maxCallDepth = 0;
+
+  /* executed opcode pair counts indexed by the ordinals of the first and
+     second opcode (null unless profiling) */
+  private long[][] pairCounts = null;
+
+  /* compile hot functions to JVM classes (see VMJit) */
+  private boolean jit = false;
+  private int jitCallThreshold = VMJit.DEFAULT_CALL_THRESHOLD;
+  private int jitBackEdgeThreshold = VMJit.DEFAULT_BACK_EDGE_THRESHOLD;
+
+  /* the compiler of the current run (null if not compiling) */
+  private VMJit compiler = null;
+
   private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
   // helper functions
@@ -85,9 +113,24 @@ public class VM {
    * @param template The template to add.
    */
   public void add(VMFrameTemplate template) {
+    // hand-assembled templates may not record their locals count
+    for (VMInstr instr : template.instructions)
+      if (instr.opcode == OpCode.STORE && instr.operand instanceof Integer index)
+        template.maxLocals = Math.max(template.maxLocals, index + 1);
     templates.put(template.functionName, template);
   }
 
+  /**
+   * Run a peephole optimizer over every frame template (before the
+   * program is linked).
+   * 
+   * @param peephole The optimizer to apply.
+   */
+  public void optimize(VMPeephole peephole) {
+    for (VMFrameTemplate template : templates.values())
+      peephole.optimize(template);
+  }
+
   /**
    * For turning on debug mode to help with debugging the VM.
    * 
@@ -97,6 +140,98 @@ public class VM {
     debug = on;
   }
 
+  /**
+   * For selecting the execution engine. The switch-dispatched engine
+   * decodes each instruction with a single jump through the opcode
+   * table instead of walking the if-chain in run.
+   * 
+   * @param on Set to true to use the switch-dispatched engine, false to
+   *           use the original if-chain loop.
+   */
+  public void dispatchMode(boolean on) {
+    dispatch = on;
+  }
+
+  /**
+   * For turning on opcode pair profiling. Profiled runs always use the
+   * if-chain loop (the dispatch engine is not instrumented).
+   * 
+   * @param on Set to true to count executed opcode pairs.
+   */
+  public void profileMode(boolean on) {
+    pairCounts = on ? new long[OPCODES.length][OPCODES.length] : null;
+  }
+
+  /**
+   * For turning on the JIT tier. Functions called often, or looping
+   * often, are compiled to JVM classes and run from then on as compiled
+   * code. Runs with the JIT use the if-chain loop as the interpreter
+   * tier, and debug mode turns the JIT off.
+   * 
+   * @param on Set to true to compile hot functions.
+   */
+  public void jitMode(boolean on) {
+    jit = on;
+  }
+
+  /**
+   * Set when the JIT compiles a function.
+   * 
+   * @param calls     The number of calls before a function is compiled.
+   * @param backEdges The number of backward jumps (loop iterations)
+   *                  before a function is compiled.
+   */
+  public void jitThresholds(int calls, int backEdges) {
+    jitCallThreshold = calls;
+    jitBackEdgeThreshold = backEdges;
+  }
+
+  /**
+   * Functions compiled by the JIT in the most recent run.
+   * 
+   * @return the function names, in order of compilation
+   */
+  public List<String> jitCompiled() {
+    return compiler == null ? List.of() : compiler.compiledFunctions();
+  }
+
+  /**
+   * Opcode pairs executed back to back by the most recent profiled run
+   * (including across calls and returns).
+   * 
+   * @return the count of each executed pair, keyed by "FIRST SECOND"
+   */
+  public Map<String, Long> pairCounts() {
+    Map<String, Long> counts = new HashMap<>();
+    if (pairCounts == null)
+      return counts;
+    for (OpCode first : OPCODES)
+      for (OpCode second : OPCODES)
+        if (pairCounts[first.ordinal()][second.ordinal()] > 0)
+          counts.put(first + " " + second, pairCounts[first.ordinal()][second.ordinal()]);
+    return counts;
+  }
+
+  /**
+   * Number of instructions executed by the most recent run (used for
+   * per-instruction dispatch benchmarks).
+   * 
+   * @return the executed instruction count
+   */
+  public long instructionCount() {
+    return instructionCount;
+  }
+
+  /**
+   * Most frames on the call stack at once during the most recent run
+   * (tail calls reuse the caller's frame, see TAILCALL).
+   * 
+   * @return the deepest call stack
+   */
+  public int maxCallDepth() {
+    return maxCallDepth;
+  }
+
   /**
    * Pretty-print the VM frames.
    */
@@ -113,6 +248,69 @@ public class VM {
 
   // Additional helpers for implementing the VM instructions
 
+  /**
+   * Helper to allocate an array object for one of the ALLOCA
+   * instructions (the typed variants store their elements unboxed)
+   */
+  VMArray newArray(OpCode opcode, int length) {
+    int oid = newObjectId();
+    return switch (opcode) {
+      case IALLOCA -> VMArray.ofInts(oid, length);
+      case DALLOCA -> VMArray.ofDoubles(oid, length);
+      case BALLOCA -> VMArray.ofBools(oid, length);
+      default -> VMArray.ofObjects(oid, length);
+    };
+  }
+
+  /**
+   * Helper to take the next object id
+   */
+  int newObjectId() {
+    return nextObjectId++;
+  }
+
+  /**
+   * Helper for a backward jump when compiling: if the function has been
+   * compiled, the rest of the current call runs in the compiled code
+   * (entered at the jump target) and returns as RET does.
+   * 
+   * @param frame the current stack frame (at the jump target)
+   * @return the frame to continue interpreting
+   */
+  private VMFrame backEdge(VMFrame frame) {
+    VMJit.Compiled code = compiler.onBackEdge(frame.template);
+    if (code == null || !code.canEnter(frame.pc))
+      return frame;
+    Object returnValue = code.enter(frame, operandStack);
+    callStack.pop();
+    if (callStack.isEmpty())
+      return frame;
+    operandStack.push(returnValue);
+    return callStack.peek();
+  }
+
+  /**
+   * Helper for TAILCALL: the callee takes over the current frame (all
+   * the caller has left to do is return the callee's value), so the
+   * call stack does not grow. The frame's memory is reused when it is
+   * big enough, since a function stores to every slot it reads first.
+   * 
+   * @param frame  the current stack frame
+   * @param callee the function being called
+   * @param lanes  true if the frame has the dispatch engine's lanes
+   * @return the callee's frame
+   */
+  private VMFrame tailCall(VMFrame frame, VMFrameTemplate callee, boolean lanes) {
+    if ((lanes ? frame.prims.length : frame.memory.length) < callee.maxLocals) {
+      callStack.pop();
+      frame = new VMFrame(callee, lanes);
+      callStack.push(frame);
+    }
+    frame.template = callee;
+    frame.pc = 0;
+    return frame;
+  }
+
   /**
    * Helper to ensure the given value isn't NULL
    * 
@@ -193,17 +391,85 @@ public class VM {
       return ((String) x).compareTo((String) y) <= 0;
   }
 
+  /**
+   * Link the program before running it (see VMLinker). Resolves every
+   * CALL to its callee's template, reporting undefined functions up
+   * front, and builds the compact code used by the dispatch engine.
+   */
+  private void link() {
+    VMLinker linker = new VMLinker();
+    linker.link(templates.values());
+    functions = linker.functions();
+    constants = linker.constants();
+  }
+
   // the main run method
 
   /**
    * Execute the program
    */
   public void run() {
-    // grab the main frame and "instantiate" it
     if (!templates.containsKey("main"))
       error("No 'main' function");
+    link();
+    compiler = jit && !debug ? new VMJit(this, functions, jitCallThreshold, jitBackEdgeThreshold) : null;
+    if (dispatch && pairCounts == null && compiler == null) {
+      runDispatch();
+      return;
+    }
+    if (compiler != null) {
+      runOnLargeStack(this::runInterpreter);
+      return;
+    }
+    runInterpreter();
+  }
+
+  /* stack size of the threads running compiled code (compiled functions
+     call each other on the JVM stack, so deep MyPL recursion needs a
+     deep JVM stack) */
+  private static final long LARGE_STACK_SIZE = 1L << 29;
+
+  /* threads with large stacks, kept for reuse (starting a thread costs
+     more than running a small program) */
+  private static final ExecutorService LARGE_STACK_THREADS = Executors.newCachedThreadPool(body -> {
+    Thread thread = new Thread(null, body, "mypl", LARGE_STACK_SIZE);
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Run code on a thread with a large stack, rethrowing what it throws
+   * (used with the JIT, see VMJit, and by ClosureCompiler).
+   * 
+   * @param body The code to run.
+   */
+  static void runOnLargeStack(Runnable body) {
+    try {
+      LARGE_STACK_THREADS.submit(body).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      MyPLException.vmError("interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause)
+        throw cause;
+      if (e.getCause() instanceof Error cause)
+        throw cause;
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Execute the program with the original if-chain loop
+   */
+  private void runInterpreter() {
+    // grab the main frame and "instantiate" it
     VMFrame frame = new VMFrame(templates.get("main"));
     callStack.push(frame);
+    instructionCount = 0;
+    maxCallDepth = 1;
+    if (pairCounts != null)
+      profileMode(true);
+    OpCode previous = null;
 
     // run loop until out of call frames or instructions in the frame
     while (!callStack.isEmpty() && frame.pc < frame.template.instructions.size()) {
@@ -222,6 +488,13 @@ public class VM {
 
       // increment the pc
       ++frame.pc;
+      ++instructionCount;
+
+      if (pairCounts != null) {
+        if (previous != null)
+          ++pairCounts[previous.ordinal()][instr.opcode.ordinal()];
+        previous = instr.opcode;
+      }
 
       // ----------------------------------------------------------------------
       // Literals and Variables
@@ -236,7 +509,7 @@ public class VM {
       }
 
       else if (instr.opcode == OpCode.LOAD) {
-        operandStack.push(frame.memory.get((int) instr.operand));
+        operandStack.push(frame.memory[(int) instr.operand]);
       }
 
       // TODO: Implement the remaining instructions (except for DUP and NOP, see
@@ -263,14 +536,10 @@ public class VM {
         if (!(instr.operand instanceof Integer)) {
           error("invalid index");
         }
-        if ((int) instr.operand > frame.memory.size() || (int) instr.operand < 0) {
+        if ((int) instr.operand >= frame.memory.length || (int) instr.operand < 0) {
           error("memory index out of bounds");
         }
-        if ((int) instr.operand == frame.memory.size()) {
-          frame.memory.add(val);
-        } else {
-          frame.memory.set((int) instr.operand, val);
-        }
+        frame.memory[(int) instr.operand] = val;
       }
 
       else if (instr.opcode == OpCode.ADD) {
@@ -369,6 +638,157 @@ public class VM {
         operandStack.push(cmpleHelper(y, x));
       }
 
+      // typed operators: operand types are known statically, so only
+      // null operands need checking
+
+      else if (instr.opcode == OpCode.IADD) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y + (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DADD) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((double) y + (double) x);
+      }
+
+      else if (instr.opcode == OpCode.SCONCAT) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((String) y + (String) x);
+      }
+
+      else if (instr.opcode == OpCode.ISUB) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y - (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DSUB) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((double) y - (double) x);
+      }
+
+      else if (instr.opcode == OpCode.IMUL) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y * (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DMUL) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((double) y * (double) x);
+      }
+
+      else if (instr.opcode == OpCode.IDIV) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        if ((int) x == 0)
+          error("division by zero error", frame);
+        operandStack.push((int) y / (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DDIV) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        if ((double) x == 0.0)
+          error("division by zero error", frame);
+        operandStack.push((double) y / (double) x);
+      }
+
+      else if (instr.opcode == OpCode.ICMPLT) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y < (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DCMPLT) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((double) y < (double) x);
+      }
+
+      else if (instr.opcode == OpCode.SCMPLT) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push(((String) y).compareTo((String) x) < 0);
+      }
+
+      else if (instr.opcode == OpCode.ICMPLE) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y <= (int) x);
+      }
+
+      else if (instr.opcode == OpCode.DCMPLE) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((double) y <= (double) x);
+      }
+
+      else if (instr.opcode == OpCode.SCMPLE) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push(((String) y).compareTo((String) x) <= 0);
+      }
+
+      else if (instr.opcode == OpCode.SHL) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y << (int) x);
+      }
+
+      else if (instr.opcode == OpCode.SHR) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y >> (int) x);
+      }
+
+      else if (instr.opcode == OpCode.IAND) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        operandStack.push((int) y & (int) x);
+      }
+
       else if (instr.opcode == OpCode.CMPEQ) {
         Object x = operandStack.pop();
         Object y = operandStack.pop();
@@ -386,8 +806,12 @@ public class VM {
       else if (instr.opcode == OpCode.JMP) {
         if (!(instr.operand instanceof Integer))
           error("operand must be an Integer");
-        else
+        else {
+          boolean backward = (int) instr.operand < frame.pc;
           frame.pc = (int) instr.operand;
+          if (backward && compiler != null)
+            frame = backEdge(frame);
+        }
       }
 
       else if (instr.opcode == OpCode.JMPF) {
@@ -400,26 +824,42 @@ public class VM {
           if (!(instr.operand instanceof Integer)) {
             error("jump target must be an Integer");
           }
+          boolean backward = (int) instr.operand < frame.pc;
           frame.pc = (int) instr.operand;
+          if (backward && compiler != null)
+            frame = backEdge(frame);
         }
       }
 
       else if (instr.opcode == OpCode.CALL) {
-        if (!(instr.operand instanceof String)) {
-          error("Function name must be a string");
-        }
-
-        String name = (String) instr.operand;
+        // the link phase replaced the function name with its template
+        VMFrameTemplate callee = (VMFrameTemplate) instr.operand;
+        VMJit.Compiled code = compiler == null ? null : compiler.onCall(callee);
+        if (code != null) {
+          operandStack.push(code.invoke(operandStack));
+        } else {
+          VMFrame newFrame = new VMFrame(callee);
 
-        if (!templates.containsKey(name)) {
-          error(name + " not recognized");
+          callStack.push(newFrame);
+          maxCallDepth = Math.max(maxCallDepth, callStack.size());
+          newFrame.pc = 0;
+          frame = newFrame;
         }
+      }
 
-        VMFrame newFrame = new VMFrame(templates.get(name));
-
-        callStack.push(newFrame);
-        newFrame.pc = 0;
-        frame = newFrame;
+      else if (instr.opcode == OpCode.TAILCALL) {
+        VMFrameTemplate callee = (VMFrameTemplate) instr.operand;
+        VMJit.Compiled code = compiler == null ? null : compiler.onCall(callee);
+        if (code != null) {
+          // return the compiled callee's value as RET would
+          Object returnValue = code.invoke(operandStack);
+          callStack.pop();
+          if (!callStack.isEmpty()) {
+            frame = callStack.peek();
+            operandStack.push(returnValue);
+          }
+        } else
+          frame = tailCall(frame, callee, false);
       }
 
       else if (instr.opcode == OpCode.RET) {
@@ -434,75 +874,52 @@ public class VM {
       }
 
       else if (instr.opcode == OpCode.ALLOCS) {
-        int oid = nextObjectId;
-        structHeap.put(oid, new HashMap<>());
-        operandStack.push(oid);
+        operandStack.push(new VMStruct(nextObjectId, (int) instr.operand));
         nextObjectId++;
       }
 
       else if (instr.opcode == OpCode.SETF) {
         Object val = operandStack.pop();
-        Object oid = operandStack.pop();
+        Object obj = operandStack.pop();
 
-        if (!(oid instanceof Integer) || !structHeap.containsKey((int) oid)) {
+        if (!(obj instanceof VMStruct)) {
           error("Invalid struct object ID");
         }
 
-        Map<String, Object> struct = structHeap.get((int) oid); // modify existing struct
+        VMStruct struct = (VMStruct) obj; // modify existing struct
 
-        if (!(instr.operand instanceof String)) {
-          error("Field name must be a string");
-        }
-
-        struct.put((String) instr.operand, val);
+        struct.fields[(int) instr.operand] = val;
       }
 
       else if (instr.opcode == OpCode.GETF) {
-        Object oid = operandStack.pop();
+        Object obj = operandStack.pop();
 
-        if (!(oid instanceof Integer) || !structHeap.containsKey((int) oid)) {
+        if (!(obj instanceof VMStruct)) {
           error("Invalid struct object ID");
         }
 
-        if (!(instr.operand instanceof String)) {
-          error("Field name must be a string");
-        }
-
-        Map<String, Object> struct = structHeap.get((int) oid);
-
-        if (!(struct.containsKey((String) instr.operand))) {
-          error((String) instr.operand + " does not exist");
-        }
+        VMStruct struct = (VMStruct) obj;
 
-        operandStack.push(struct.get((String) instr.operand));
+        operandStack.push(struct.fields[(int) instr.operand]);
       }
 
-      else if (instr.opcode == OpCode.ALLOCA) {
+      else if (instr.opcode == OpCode.ALLOCA || instr.opcode == OpCode.IALLOCA
+          || instr.opcode == OpCode.DALLOCA || instr.opcode == OpCode.BALLOCA) {
         Object x = operandStack.pop();
 
         if (!(x instanceof Integer) || (int) x < 0) {
           error("not a valid array size, must be a non-negative integer");
         }
 
-        int oid = nextObjectId;
-
-        List<Object> list = new ArrayList<>((int) x);
-
-        for (int i = 0; i < ((int) x); i++) {
-          list.add(VM.NULL);
-        }
-
-        arrayHeap.put(oid, list);
-        operandStack.push(oid);
-        nextObjectId++;
+        operandStack.push(newArray(instr.opcode, (int) x));
       }
 
       else if (instr.opcode == OpCode.SETI) {
         Object val = operandStack.pop();
         Object index = operandStack.pop();
-        Object oid = operandStack.pop();
+        Object obj = operandStack.pop();
 
-        if (!(oid instanceof Integer) || !arrayHeap.containsKey((int) oid)) {
+        if (!(obj instanceof VMArray)) {
           error("Invalid array object ID");
         }
 
@@ -510,9 +927,9 @@ public class VM {
           error("not a valid array index, must be a non-negative integer");
         }
 
-        List<Object> array = arrayHeap.get((int) oid);
+        VMArray array = (VMArray) obj;
 
-        if ((int) index >= array.size()) {
+        if ((int) index >= array.length) {
           error("SETI: index out of bounds");
         }
 
@@ -521,9 +938,9 @@ public class VM {
 
       else if (instr.opcode == OpCode.GETI) {
         Object index = operandStack.pop();
-        Object oid = operandStack.pop();
+        Object obj = operandStack.pop();
 
-        if (!(oid instanceof Integer) || !arrayHeap.containsKey((int) oid)) {
+        if (!(obj instanceof VMArray)) {
           error("Invalid array object ID");
         }
 
@@ -531,9 +948,9 @@ public class VM {
           error("not a valid array index, must be a non-negative integer");
         }
 
-        List<Object> array = arrayHeap.get((int) oid);
+        VMArray array = (VMArray) obj;
 
-        if ((int) index >= array.size()) {
+        if ((int) index >= array.length) {
           error("GETI: index out of bounds");
         }
 
@@ -555,16 +972,15 @@ public class VM {
       }
 
       else if (instr.opcode == OpCode.LEN) {
-        Object x = operandStack.pop(); // oid
+        Object x = operandStack.pop(); // string or array
         int len = 0;
 
         ensureNotNull(x, frame);
 
         if (x instanceof String) { // here we want the length of a string
           len = ((String) x).length();
-        } else if (x instanceof Integer) {
-          List<Object> array = arrayHeap.get((int) x);
-          len = array.size();
+        } else if (x instanceof VMArray array) {
+          len = array.length;
         } else {
           error("invalid LEN call, must be on a String or Array");
         }
@@ -645,6 +1061,46 @@ public class VM {
         operandStack.push((String) val);
       }
 
+      // ----------------------------------------------------------------------
+      // Superinstructions
+      // ----------------------------------------------------------------------
+
+      else if (instr.opcode == OpCode.INC_LOCAL) {
+        int slot = (int) instr.operand;
+        ensureNotNull(frame.memory[slot], frame);
+        frame.memory[slot] = (int) frame.memory[slot] + 1;
+      }
+
+      else if (instr.opcode == OpCode.LOAD_LOAD) {
+        VMInstr.Pair slots = (VMInstr.Pair) instr.operand;
+        operandStack.push(frame.memory[slots.first()]);
+        operandStack.push(frame.memory[slots.second()]);
+      }
+
+      else if (instr.opcode == OpCode.LOAD_GETF) {
+        VMInstr.Pair slots = (VMInstr.Pair) instr.operand;
+        Object obj = frame.memory[slots.first()];
+
+        if (!(obj instanceof VMStruct)) {
+          error("Invalid struct object ID");
+        }
+
+        operandStack.push(((VMStruct) obj).fields[slots.second()]);
+      }
+
+      else if (instr.opcode == OpCode.JMP_IF_NOT_LE) {
+        Object x = operandStack.pop();
+        Object y = operandStack.pop();
+        ensureNotNull(x, frame);
+        ensureNotNull(y, frame);
+        if (!((int) y <= (int) x)) {
+          boolean backward = (int) instr.operand < frame.pc;
+          frame.pc = (int) instr.operand;
+          if (backward && compiler != null)
+            frame = backEdge(frame);
+        }
+      }
+
       // ----------------------------------------------------------------------
       // Special Instructions
       // ----------------------------------------------------------------------
@@ -665,4 +1121,738 @@ public class VM {
 
   }
 
+  // ----------------------------------------------------------------------
+  // Operand lanes for the dispatch engine
+  // ----------------------------------------------------------------------
+
+  /* lane markers: a primitive value's ref slot holds one of these */
+  private static final Object INT_LANE = new Object();
+  private static final Object DBL_LANE = new Object();
+  private static final Object BOOL_LANE = new Object();
+
+  /* primitive lane of the dispatch engine's operand stack */
+  private long[] stackPrims = new long[64];
+
+  /* reference lane (or lane marker) of the dispatch engine's operand stack */
+  private Object[] stackRefs = new Object[64];
+
+  /* number of values on the dispatch engine's operand stack */
+  private int sp = 0;
+
+  /**
+   * Helper to make room for one more value on the operand lanes.
+   */
+  private void ensureStackCapacity() {
+    if (sp == stackPrims.length) {
+      stackPrims = Arrays.copyOf(stackPrims, sp * 2);
+      stackRefs = Arrays.copyOf(stackRefs, sp * 2);
+    }
+  }
+
+  /**
+   * Helper to push a primitive value with the given lane marker.
+   */
+  private void pushPrim(long bits, Object lane) {
+    ensureStackCapacity();
+    stackPrims[sp] = bits;
+    stackRefs[sp++] = lane;
+  }
+
+  /**
+   * Helper to push a boxed value, unboxing it into its lane. Used when
+   * values come back out of struct fields and array elements.
+   */
+  private void pushBoxed(Object val) {
+    if (val instanceof Integer i)
+      pushPrim(i, INT_LANE);
+    else if (val instanceof Double d)
+      pushPrim(Double.doubleToRawLongBits(d), DBL_LANE);
+    else if (val instanceof Boolean b)
+      pushPrim(b ? 1 : 0, BOOL_LANE);
+    else
+      pushPrim(0, val);
+  }
+
+  /**
+   * Helper to box the value at the given stack (or memory) slot. This is
+   * the only place a value leaves its lane: when it is written into a
+   * struct or array, printed, or handed to a generic helper.
+   */
+  private static Object box(long bits, Object ref) {
+    if (ref == INT_LANE)
+      return (int) bits;
+    if (ref == DBL_LANE)
+      return Double.longBitsToDouble(bits);
+    if (ref == BOOL_LANE)
+      return bits != 0;
+    return ref;
+  }
+
+  /**
+   * Helper to pop and box the top of the operand lanes.
+   */
+  private Object popBoxed() {
+    --sp;
+    return box(stackPrims[sp], stackRefs[sp]);
+  }
+
+  /**
+   * Helper to compare two lane values with the same semantics as
+   * Object.equals on their boxed forms.
+   */
+  private static boolean laneEquals(long xBits, Object x, long yBits, Object y) {
+    if (x == INT_LANE || x == BOOL_LANE)
+      return x == y && xBits == yBits;
+    if (x == DBL_LANE)
+      return y == DBL_LANE && Double.doubleToLongBits(Double.longBitsToDouble(xBits)) == Double
+          .doubleToLongBits(Double.longBitsToDouble(yBits));
+    if (y == INT_LANE || y == DBL_LANE || y == BOOL_LANE)
+      return false;
+    return x.equals(y);
+  }
+
+  /**
+   * Helper to check the top two values of the operand lanes before a
+   * typed operator. The checker guarantees their types, so the only
+   * possible mismatch is a null operand (its ref slot holds NULL).
+   *
+   * @param lane  the expected lane marker (null for reference values)
+   * @param frame the current stack frame
+   */
+  private void ensureLanes(Object lane, VMFrame frame) {
+    Object x = stackRefs[sp - 1];
+    Object y = stackRefs[sp - 2];
+    if (x == NULL || y == NULL || (lane != null && (x != lane || y != lane)))
+      error("null value error", frame);
+  }
+
+  /**
+   * Execute the program using a switch over the instruction opcode.
+   * The enum switch compiles to a dense jump table, so every opcode
+   * costs the same to decode regardless of its position. The engine
+   * runs the linked form of each function (an int per instruction
+   * plus the program constant pool) built by VMLinker, so operands
+   * need no casts or type checks at runtime.
+   *
+   * Values live unboxed in parallel primitive/reference lanes, both on
+   * the operand stack and in frame memory, so int, double, and bool
+   * arithmetic and loop counters never allocate. Values are boxed only
+   * when they escape into a struct or array or are handed to a
+   * generic helper. Semantics (including error messages) match the
+   * if-chain loop in run.
+   */
+  private void runDispatch() {
+    // split the constant pool into lanes so PUSH never unboxes
+    long[] constPrims = new long[constants.length];
+    Object[] constRefs = new Object[constants.length];
+    sp = 0;
+    for (int i = 0; i < constants.length; ++i) {
+      pushBoxed(constants[i]);
+      constPrims[i] = stackPrims[0];
+      constRefs[i] = stackRefs[0];
+      sp = 0;
+    }
+
+    VMFrame frame = new VMFrame(templates.get("main"), true);
+    callStack.push(frame);
+    instructionCount = 0;
+    maxCallDepth = 1;
+    int[] code = frame.template.code;
+
+    // run loop until out of call frames or instructions in the frame
+    while (!callStack.isEmpty() && frame.pc < code.length) {
+      // get the next instruction
+      int word = code[frame.pc];
+      int operand = VMLinker.operand(word);
+
+      // for debugging:
+      if (debug) {
+        System.out.println();
+        System.out.println("\t FRAME.........: " + frame.template.functionName);
+        System.out.println("\t PC............: " + frame.pc);
+        System.out.println("\t INSTRUCTION...: " + frame.template.instructions.get(frame.pc));
+        Object val = sp == 0 ? null : box(stackPrims[sp - 1], stackRefs[sp - 1]);
+        System.out.println("\t NEXT OPERAND..: " + val);
+      }
+
+      // increment the pc
+      ++frame.pc;
+      ++instructionCount;
+
+      // x is the top of the stack, y the value below it
+      int x = sp - 1;
+      int y = sp - 2;
+
+      switch (OPCODES[word & VMLinker.OPCODE_MASK]) {
+
+        // --------------------------------------------------------------------
+        // Literals and Variables
+        // --------------------------------------------------------------------
+
+        case PUSH:
+          pushPrim(constPrims[operand], constRefs[operand]);
+          break;
+
+        case POP:
+          --sp;
+          break;
+
+        case LOAD:
+          pushPrim(frame.prims[operand], frame.refs[operand]);
+          break;
+
+        case STORE:
+          --sp;
+          frame.prims[operand] = stackPrims[sp];
+          frame.refs[operand] = stackRefs[sp];
+          break;
+
+        // --------------------------------------------------------------------
+        // Arithmetic, relational, and logical operators
+        // --------------------------------------------------------------------
+
+        case ADD:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE)
+            stackPrims[y] = (int) stackPrims[y] + (int) stackPrims[x];
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE)
+            stackPrims[y] = Double.doubleToRawLongBits(
+                Double.longBitsToDouble(stackPrims[y]) + Double.longBitsToDouble(stackPrims[x]));
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(addHelper(yv, xv));
+            break;
+          }
+          --sp;
+          break;
+
+        case SUB:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE)
+            stackPrims[y] = (int) stackPrims[y] - (int) stackPrims[x];
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE)
+            stackPrims[y] = Double.doubleToRawLongBits(
+                Double.longBitsToDouble(stackPrims[y]) - Double.longBitsToDouble(stackPrims[x]));
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(subHelper(yv, xv));
+            break;
+          }
+          --sp;
+          break;
+
+        case MUL:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE)
+            stackPrims[y] = (int) stackPrims[y] * (int) stackPrims[x];
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE)
+            stackPrims[y] = Double.doubleToRawLongBits(
+                Double.longBitsToDouble(stackPrims[y]) * Double.longBitsToDouble(stackPrims[x]));
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(mulHelper(xv, yv));
+            break;
+          }
+          --sp;
+          break;
+
+        case DIV:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE && (int) stackPrims[x] != 0)
+            stackPrims[y] = (int) stackPrims[y] / (int) stackPrims[x];
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE
+              && Double.longBitsToDouble(stackPrims[x]) != 0.0)
+            stackPrims[y] = Double.doubleToRawLongBits(
+                Double.longBitsToDouble(stackPrims[y]) / Double.longBitsToDouble(stackPrims[x]));
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(divHelper(yv, xv, frame));
+            break;
+          }
+          --sp;
+          break;
+
+        case AND:
+          if (stackRefs[x] != BOOL_LANE || stackRefs[y] != BOOL_LANE)
+            error("operands must be booleans");
+          stackPrims[y] = stackPrims[y] & stackPrims[x];
+          --sp;
+          break;
+
+        case OR:
+          if (stackRefs[x] != BOOL_LANE || stackRefs[y] != BOOL_LANE)
+            error("operands must be booleans");
+          stackPrims[y] = stackPrims[y] | stackPrims[x];
+          --sp;
+          break;
+
+        case NOT:
+          if (stackRefs[x] != BOOL_LANE)
+            error("operands must be booleans");
+          stackPrims[x] = stackPrims[x] ^ 1;
+          break;
+
+        case CMPLT:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE)
+            stackPrims[y] = (int) stackPrims[y] < (int) stackPrims[x] ? 1 : 0;
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE)
+            stackPrims[y] = Double.longBitsToDouble(stackPrims[y]) < Double.longBitsToDouble(stackPrims[x]) ? 1 : 0;
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(cmpltHelper(yv, xv));
+            break;
+          }
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case CMPLE:
+          if (stackRefs[x] == INT_LANE && stackRefs[y] == INT_LANE)
+            stackPrims[y] = (int) stackPrims[y] <= (int) stackPrims[x] ? 1 : 0;
+          else if (stackRefs[x] == DBL_LANE && stackRefs[y] == DBL_LANE)
+            stackPrims[y] = Double.longBitsToDouble(stackPrims[y]) <= Double.longBitsToDouble(stackPrims[x]) ? 1 : 0;
+          else {
+            Object xv = popBoxed();
+            Object yv = popBoxed();
+            if (xv.getClass() != yv.getClass())
+              error("To add they must have the same type");
+            pushBoxed(cmpleHelper(yv, xv));
+            break;
+          }
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        // --------------------------------------------------------------------
+        // Typed operators (operand types known statically)
+        // --------------------------------------------------------------------
+
+        case IADD:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] + (int) stackPrims[x];
+          --sp;
+          break;
+
+        case DADD:
+          ensureLanes(DBL_LANE, frame);
+          stackPrims[y] = Double.doubleToRawLongBits(
+              Double.longBitsToDouble(stackPrims[y]) + Double.longBitsToDouble(stackPrims[x]));
+          --sp;
+          break;
+
+        case SCONCAT:
+          ensureLanes(null, frame);
+          stackRefs[y] = (String) stackRefs[y] + (String) stackRefs[x];
+          --sp;
+          break;
+
+        case ISUB:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] - (int) stackPrims[x];
+          --sp;
+          break;
+
+        case DSUB:
+          ensureLanes(DBL_LANE, frame);
+          stackPrims[y] = Double.doubleToRawLongBits(
+              Double.longBitsToDouble(stackPrims[y]) - Double.longBitsToDouble(stackPrims[x]));
+          --sp;
+          break;
+
+        case IMUL:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] * (int) stackPrims[x];
+          --sp;
+          break;
+
+        case DMUL:
+          ensureLanes(DBL_LANE, frame);
+          stackPrims[y] = Double.doubleToRawLongBits(
+              Double.longBitsToDouble(stackPrims[y]) * Double.longBitsToDouble(stackPrims[x]));
+          --sp;
+          break;
+
+        case IDIV:
+          ensureLanes(INT_LANE, frame);
+          if ((int) stackPrims[x] == 0)
+            error("division by zero error", frame);
+          stackPrims[y] = (int) stackPrims[y] / (int) stackPrims[x];
+          --sp;
+          break;
+
+        case DDIV:
+          ensureLanes(DBL_LANE, frame);
+          if (Double.longBitsToDouble(stackPrims[x]) == 0.0)
+            error("division by zero error", frame);
+          stackPrims[y] = Double.doubleToRawLongBits(
+              Double.longBitsToDouble(stackPrims[y]) / Double.longBitsToDouble(stackPrims[x]));
+          --sp;
+          break;
+
+        case ICMPLT:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] < (int) stackPrims[x] ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case DCMPLT:
+          ensureLanes(DBL_LANE, frame);
+          stackPrims[y] = Double.longBitsToDouble(stackPrims[y]) < Double.longBitsToDouble(stackPrims[x]) ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case SCMPLT:
+          ensureLanes(null, frame);
+          stackPrims[y] = ((String) stackRefs[y]).compareTo((String) stackRefs[x]) < 0 ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case ICMPLE:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] <= (int) stackPrims[x] ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case DCMPLE:
+          ensureLanes(DBL_LANE, frame);
+          stackPrims[y] = Double.longBitsToDouble(stackPrims[y]) <= Double.longBitsToDouble(stackPrims[x]) ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case SCMPLE:
+          ensureLanes(null, frame);
+          stackPrims[y] = ((String) stackRefs[y]).compareTo((String) stackRefs[x]) <= 0 ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case SHL:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] << (int) stackPrims[x];
+          --sp;
+          break;
+
+        case SHR:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] >> (int) stackPrims[x];
+          --sp;
+          break;
+
+        case IAND:
+          ensureLanes(INT_LANE, frame);
+          stackPrims[y] = (int) stackPrims[y] & (int) stackPrims[x];
+          --sp;
+          break;
+
+        case CMPEQ:
+          stackPrims[y] = laneEquals(stackPrims[x], stackRefs[x], stackPrims[y], stackRefs[y]) ? 1 : 0;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        case CMPNE:
+          stackPrims[y] = laneEquals(stackPrims[x], stackRefs[x], stackPrims[y], stackRefs[y]) ? 0 : 1;
+          stackRefs[y] = BOOL_LANE;
+          --sp;
+          break;
+
+        // --------------------------------------------------------------------
+        // Jump and branch
+        // --------------------------------------------------------------------
+
+        case JMP:
+          frame.pc = operand;
+          break;
+
+        case JMPF:
+          if (stackRefs[x] != BOOL_LANE)
+            error("Operand must be a boolean");
+          --sp;
+          if (stackPrims[x] == 0)
+            frame.pc = operand;
+          break;
+
+        // --------------------------------------------------------------------
+        // Functions
+        // --------------------------------------------------------------------
+
+        case CALL:
+          frame = new VMFrame(functions[operand], true);
+          callStack.push(frame);
+          maxCallDepth = Math.max(maxCallDepth, callStack.size());
+          code = frame.template.code;
+          break;
+
+        case TAILCALL:
+          frame = tailCall(frame, functions[operand], true);
+          code = frame.template.code;
+          break;
+
+        case RET:
+          // the return value (if any) is already on top of the stack
+          callStack.pop();
+          if (!callStack.isEmpty()) {
+            frame = callStack.peek();
+            code = frame.template.code;
+            if (sp == 0)
+              pushPrim(0, NULL);
+          }
+          break;
+
+        // --------------------------------------------------------------------
+        // Built ins
+        // --------------------------------------------------------------------
+
+        case WRITE:
+          --sp;
+          if (stackRefs[x] == INT_LANE)
+            System.out.print((int) stackPrims[x]);
+          else if (stackRefs[x] == DBL_LANE)
+            System.out.print(Double.longBitsToDouble(stackPrims[x]));
+          else if (stackRefs[x] == BOOL_LANE)
+            System.out.print(stackPrims[x] != 0);
+          else
+            System.out.print(stackRefs[x]);
+          break;
+
+        case READ:
+          try {
+            pushPrim(0, reader.readLine());
+          } catch (IOException e) {
+            error("input error: " + e.getMessage());
+          }
+          break;
+
+        case LEN: {
+          Object val = stackRefs[x];
+          ensureNotNull(val, frame);
+          if (val instanceof String s)
+            stackPrims[x] = s.length();
+          else if (val instanceof VMArray array)
+            stackPrims[x] = array.length;
+          else
+            error("invalid LEN call, must be on a String or Array");
+          stackRefs[x] = INT_LANE;
+          break;
+        }
+
+        case GETC: {
+          if (!(stackRefs[y] instanceof String))
+            error("incorrect type, must be a string");
+          if (stackRefs[x] != INT_LANE)
+            error("invalid index; must be of type integer");
+          String string = (String) stackRefs[y];
+          int index = (int) stackPrims[x];
+          if (index >= string.length() || index < 0)
+            error("GETC: index out of bounds");
+          stackRefs[y] = Character.toString(string.charAt(index));
+          --sp;
+          break;
+        }
+
+        case TOINT: {
+          Object val = stackRefs[x];
+          ensureNotNull(val, frame);
+          if (val instanceof String s) {
+            try {
+              stackPrims[x] = Integer.parseInt(s);
+              stackRefs[x] = INT_LANE;
+            } catch (NumberFormatException e) {
+              error("invalid string to call TOINT");
+            }
+          } else if (val == DBL_LANE) {
+            stackPrims[x] = (int) Math.floor(Double.longBitsToDouble(stackPrims[x]));
+            stackRefs[x] = INT_LANE;
+          }
+          break;
+        }
+
+        case TODBL: {
+          Object val = stackRefs[x];
+          ensureNotNull(val, frame);
+          if (val instanceof String s) {
+            try {
+              stackPrims[x] = Double.doubleToRawLongBits(Double.parseDouble(s));
+              stackRefs[x] = DBL_LANE;
+            } catch (NumberFormatException e) {
+              error("invalid string to call TODBL");
+            }
+          } else if (val == INT_LANE) {
+            stackPrims[x] = Double.doubleToRawLongBits((double) (int) stackPrims[x]);
+            stackRefs[x] = DBL_LANE;
+          }
+          break;
+        }
+
+        case TOSTR: {
+          Object val = stackRefs[x];
+          ensureNotNull(val, frame);
+          if (val == INT_LANE)
+            stackRefs[x] = Integer.toString((int) stackPrims[x]);
+          else if (val == DBL_LANE)
+            stackRefs[x] = Double.toString(Double.longBitsToDouble(stackPrims[x]));
+          else if (!(val instanceof String))
+            stackRefs[x] = (String) box(stackPrims[x], val);
+          break;
+        }
+
+        // --------------------------------------------------------------------
+        // Heap
+        // --------------------------------------------------------------------
+
+        case ALLOCS:
+          pushPrim(0, new VMStruct(nextObjectId, operand));
+          nextObjectId++;
+          break;
+
+        case SETF: {
+          Object val = popBoxed();
+          sp--;
+          if (!(stackRefs[y] instanceof VMStruct struct))
+            error("Invalid struct object ID");
+          else
+            struct.fields[operand] = val;
+          break;
+        }
+
+        case GETF: {
+          if (!(stackRefs[x] instanceof VMStruct struct))
+            error("Invalid struct object ID");
+          else {
+            --sp;
+            pushBoxed(struct.fields[operand]);
+          }
+          break;
+        }
+
+        case ALLOCA:
+        case IALLOCA:
+        case DALLOCA:
+        case BALLOCA:
+          if (stackRefs[x] != INT_LANE || (int) stackPrims[x] < 0)
+            error("not a valid array size, must be a non-negative integer");
+          stackRefs[x] = newArray(OPCODES[word & VMLinker.OPCODE_MASK], (int) stackPrims[x]);
+          break;
+
+        case SETI: {
+          // z is the array, y the index, and x the value
+          int z = sp - 3;
+          if (!(stackRefs[z] instanceof VMArray))
+            error("Invalid array object ID");
+          if (stackRefs[y] != INT_LANE || (int) stackPrims[y] < 0)
+            error("not a valid array index, must be a non-negative integer");
+          VMArray array = (VMArray) stackRefs[z];
+          int index = (int) stackPrims[y];
+          if (index >= array.length)
+            error("SETI: index out of bounds");
+          if (array.elements != null)
+            array.elements[index] = box(stackPrims[x], stackRefs[x]);
+          else {
+            // primitive arrays: values move straight from their lane
+            array.setNull(index, stackRefs[x] == NULL);
+            if (stackRefs[x] == INT_LANE)
+              array.ints[index] = (int) stackPrims[x];
+            else if (stackRefs[x] == DBL_LANE)
+              array.doubles[index] = Double.longBitsToDouble(stackPrims[x]);
+            else if (stackRefs[x] == BOOL_LANE)
+              array.bools[index] = stackPrims[x] != 0;
+          }
+          sp -= 3;
+          break;
+        }
+
+        case GETI: {
+          if (!(stackRefs[y] instanceof VMArray))
+            error("Invalid array object ID");
+          if (stackRefs[x] != INT_LANE || (int) stackPrims[x] < 0)
+            error("not a valid array index, must be a non-negative integer");
+          VMArray array = (VMArray) stackRefs[y];
+          int index = (int) stackPrims[x];
+          if (index >= array.length)
+            error("GETI: index out of bounds");
+          --sp;
+          if (array.elements != null) {
+            --sp;
+            pushBoxed(array.elements[index]);
+          } else if (array.isNull(index)) {
+            stackRefs[y] = NULL;
+          } else if (array.ints != null) {
+            stackPrims[y] = array.ints[index];
+            stackRefs[y] = INT_LANE;
+          } else if (array.doubles != null) {
+            stackPrims[y] = Double.doubleToRawLongBits(array.doubles[index]);
+            stackRefs[y] = DBL_LANE;
+          } else {
+            stackPrims[y] = array.bools[index] ? 1 : 0;
+            stackRefs[y] = BOOL_LANE;
+          }
+          break;
+        }
+
+        // --------------------------------------------------------------------
+        // Superinstructions
+        // --------------------------------------------------------------------
+
+        case INC_LOCAL:
+          if (frame.refs[operand] != INT_LANE)
+            error("null value error", frame);
+          frame.prims[operand] = (int) frame.prims[operand] + 1;
+          break;
+
+        case LOAD_LOAD: {
+          int first = VMLinker.first(operand);
+          int second = VMLinker.second(operand);
+          pushPrim(frame.prims[first], frame.refs[first]);
+          pushPrim(frame.prims[second], frame.refs[second]);
+          break;
+        }
+
+        case LOAD_GETF: {
+          if (!(frame.refs[VMLinker.first(operand)] instanceof VMStruct struct))
+            error("Invalid struct object ID");
+          else
+            pushBoxed(struct.fields[VMLinker.second(operand)]);
+          break;
+        }
+
+        case JMP_IF_NOT_LE:
+          ensureLanes(INT_LANE, frame);
+          sp -= 2;
+          if (!((int) stackPrims[y] <= (int) stackPrims[x]))
+            frame.pc = operand;
+          break;
+
+        // --------------------------------------------------------------------
+        // Special Instructions
+        // --------------------------------------------------------------------
+
+        case DUP:
+          pushPrim(stackPrims[x], stackRefs[x]);
+          break;
+
+        case NOP:
+          break;
+
+        default:
+          error("Unsupported operation: " + frame.template.instructions.get(frame.pc - 1));
+      }
+    }
+  }
+
 }
@@ -0,0 +1,160 @@
+/**
+ * CPSC 326, Spring 2025
+ * An array object created by the VM.
+ */
+
+package cpsc326;
+
+import java.util.Arrays;
+
+
+/**
+ * Array objects are referenced directly from the operand stack, frame
+ * memory, and other objects (and reclaimed by the JVM once
+ * unreachable). The object id is only used for printing.
+ *
+ * Arrays of int, double, and bool values store their elements unboxed
+ * in a primitive Java array (exactly one of ints, doubles, and bools is
+ * set), with a bitmap recording which elements are null. All other
+ * arrays store their elements in an Object[].
+ */
+public class VMArray {
+
+  /* the object id (printed in place of the object) */
+  public final int id;
+
+  /* the number of elements */
+  public final int length;
+
+  /* the elements of a string or struct array (null otherwise) */
+  public Object[] elements;
+
+  /* the elements of an int array (null otherwise) */
+  public int[] ints;
+
+  /* the elements of a double array (null otherwise) */
+  public double[] doubles;
+
+  /* the elements of a bool array (null otherwise) */
+  public boolean[] bools;
+
+  /* null bitmap of a primitive array: bit i is set if element i is null */
+  public long[] nulls;
+
+  /**
+   * Create an array object (use the factory methods below)
+   */
+  private VMArray(int id, int length) {
+    this.id = id;
+    this.length = length;
+  }
+
+  /**
+   * Create an array of (string or struct) references, all null
+   */
+  public static VMArray ofObjects(int id, int length) {
+    VMArray array = new VMArray(id, length);
+    array.elements = new Object[length];
+    Arrays.fill(array.elements, VM.NULL);
+    return array;
+  }
+
+  /**
+   * Create an int array, all null
+   */
+  public static VMArray ofInts(int id, int length) {
+    VMArray array = new VMArray(id, length);
+    array.ints = new int[length];
+    array.nulls = allNull(length);
+    return array;
+  }
+
+  /**
+   * Create a double array, all null
+   */
+  public static VMArray ofDoubles(int id, int length) {
+    VMArray array = new VMArray(id, length);
+    array.doubles = new double[length];
+    array.nulls = allNull(length);
+    return array;
+  }
+
+  /**
+   * Create a bool array, all null
+   */
+  public static VMArray ofBools(int id, int length) {
+    VMArray array = new VMArray(id, length);
+    array.bools = new boolean[length];
+    array.nulls = allNull(length);
+    return array;
+  }
+
+  /**
+   * Helper to create a null bitmap with every bit set
+   */
+  private static long[] allNull(int length) {
+    long[] bits = new long[(length + 63) >>> 6];
+    Arrays.fill(bits, -1L);
+    return bits;
+  }
+
+  /**
+   * Check if an element of a primitive array is null
+   */
+  public boolean isNull(int index) {
+    return (nulls[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Mark an element of a primitive array as null or not null
+   */
+  public void setNull(int index, boolean isNull) {
+    if (isNull)
+      nulls[index >>> 6] |= 1L << index;
+    else
+      nulls[index >>> 6] &= ~(1L << index);
+  }
+
+  /**
+   * Get an element as a (boxed) VM value
+   */
+  public Object get(int index) {
+    if (elements != null)
+      return elements[index];
+    if (isNull(index))
+      return VM.NULL;
+    if (ints != null)
+      return ints[index];
+    if (doubles != null)
+      return doubles[index];
+    return bools[index];
+  }
+
+  /**
+   * Set an element from a (boxed) VM value
+   */
+  public void set(int index, Object val) {
+    if (elements != null) {
+      elements[index] = val;
+      return;
+    }
+    setNull(index, val == VM.NULL);
+    if (val == VM.NULL)
+      return;
+    if (ints != null)
+      ints[index] = (int) val;
+    else if (doubles != null)
+      doubles[index] = (double) val;
+    else
+      bools[index] = (boolean) val;
+  }
+
+  /**
+   * Array objects print as their object id
+   */
+  @Override
+  public String toString() {
+    return String.valueOf(id);
+  }
+
+}
@@ -5,10 +5,6 @@
 
 package cpsc326;
 
-import java.util.List;
-import java.util.ArrayList;
-
-
 /**
  * Class for representing function call information.
  */
@@ -17,8 +13,14 @@ public class VMFrame {
   /* the template this frame is an instance of */
   public VMFrameTemplate template;
 
-  /* the memory associated with variables of the frame */
-  public List<Object> memory = new ArrayList<>();
+  /* the memory associated with variables of the frame (if-chain engine) */
+  public Object[] memory;
+
+  /* primitive lane of the frame memory (dispatch engine, see VM) */
+  public long[] prims;
+
+  /* reference lane (or lane marker) of the frame memory (dispatch engine) */
+  public Object[] refs;
 
   /* the current instruction index (program counter) */
   public int pc = 0;
@@ -28,7 +30,24 @@ public class VMFrame {
    * Create (instantiate) a frame with the given template
    */
   public VMFrame(VMFrameTemplate template) {
+    this(template, false);
+  }
+
+  /**
+   * Create (instantiate) a frame with the given template, sizing its
+   * memory from the template's max locals count
+   *
+   * @param template the frame template
+   * @param lanes    true to allocate the primitive/reference lanes used
+   *                 by the dispatch engine instead of the object memory
+   */
+  public VMFrame(VMFrameTemplate template, boolean lanes) {
     this.template = template;
+    if (lanes) {
+      prims = new long[template.maxLocals];
+      refs = new Object[template.maxLocals];
+    } else
+      memory = new Object[template.maxLocals];
   }
   
 }
@@ -20,6 +20,12 @@ public class VMFrameTemplate {
   /* list of instructions defining the function */
   public List<VMInstr> instructions = new ArrayList<>();
 
+  /* the linked instructions, one word per instruction (see VMLinker) */
+  public int[] code;
+
+  /* number of memory slots (params and locals) a frame needs */
+  public int maxLocals = 0;
+
   /**
    * Create a new template
    */
@@ -35,6 +41,15 @@ public class VMFrameTemplate {
     instructions.add(instr);
   }
 
+  /**
+   * Templates print as their function name (e.g., as a linked CALL
+   * operand)
+   */
+  @Override
+  public String toString() {
+    return functionName;
+  }
+
   /**
    * Get the instruction at the given index
    * @param instrIndex the index of the instruction
@@ -17,6 +17,15 @@ public class VMInstr {
   public Object operand;
   public String comment = "";
 
+  /**
+   * The operand of an instruction with two (index) operands.
+   */
+  public record Pair(int first, int second) {
+    public String toString() {
+      return first + ", " + second;
+    }
+  }
+
   /**
    * Create an instruction
    * @param opcode The instruction opcode.
@@ -109,6 +118,78 @@ public class VMInstr {
   public static VMInstr NOT() {
     return new VMInstr(OpCode.NOT);
   }
+
+  public static VMInstr IADD() {
+    return new VMInstr(OpCode.IADD);
+  }
+
+  public static VMInstr DADD() {
+    return new VMInstr(OpCode.DADD);
+  }
+
+  public static VMInstr SCONCAT() {
+    return new VMInstr(OpCode.SCONCAT);
+  }
+
+  public static VMInstr ISUB() {
+    return new VMInstr(OpCode.ISUB);
+  }
+
+  public static VMInstr DSUB() {
+    return new VMInstr(OpCode.DSUB);
+  }
+
+  public static VMInstr IMUL() {
+    return new VMInstr(OpCode.IMUL);
+  }
+
+  public static VMInstr DMUL() {
+    return new VMInstr(OpCode.DMUL);
+  }
+
+  public static VMInstr IDIV() {
+    return new VMInstr(OpCode.IDIV);
+  }
+
+  public static VMInstr DDIV() {
+    return new VMInstr(OpCode.DDIV);
+  }
+
+  public static VMInstr ICMPLT() {
+    return new VMInstr(OpCode.ICMPLT);
+  }
+
+  public static VMInstr DCMPLT() {
+    return new VMInstr(OpCode.DCMPLT);
+  }
+
+  public static VMInstr SCMPLT() {
+    return new VMInstr(OpCode.SCMPLT);
+  }
+
+  public static VMInstr ICMPLE() {
+    return new VMInstr(OpCode.ICMPLE);
+  }
+
+  public static VMInstr DCMPLE() {
+    return new VMInstr(OpCode.DCMPLE);
+  }
+
+  public static VMInstr SCMPLE() {
+    return new VMInstr(OpCode.SCMPLE);
+  }
+
+  public static VMInstr SHL() {
+    return new VMInstr(OpCode.SHL);
+  }
+
+  public static VMInstr SHR() {
+    return new VMInstr(OpCode.SHR);
+  }
+
+  public static VMInstr IAND() {
+    return new VMInstr(OpCode.IAND);
+  }
   
   public static VMInstr JMP(int offset) {
     return new VMInstr(OpCode.JMP, offset);
@@ -122,6 +203,10 @@ public class VMInstr {
     return new VMInstr(OpCode.CALL, functionName);
   }
 
+  public static VMInstr TAILCALL(String functionName) {
+    return new VMInstr(OpCode.TAILCALL, functionName);
+  }
+
   public static VMInstr RET() {
     return new VMInstr(OpCode.RET);
   }
@@ -154,22 +239,34 @@ public class VMInstr {
     return new VMInstr(OpCode.TOSTR);
   }
 
-  public static VMInstr ALLOCS() {
-    return new VMInstr(OpCode.ALLOCS);
+  public static VMInstr ALLOCS(int fieldCount) {
+    return new VMInstr(OpCode.ALLOCS, fieldCount);
   }
 
-  public static VMInstr SETF(String field) {
-    return new VMInstr(OpCode.SETF, field);
+  public static VMInstr SETF(int fieldSlot) {
+    return new VMInstr(OpCode.SETF, fieldSlot);
   }
 
-  public static VMInstr GETF(String field) {
-    return new VMInstr(OpCode.GETF, field);
+  public static VMInstr GETF(int fieldSlot) {
+    return new VMInstr(OpCode.GETF, fieldSlot);
   }
 
   public static VMInstr ALLOCA() {
     return new VMInstr(OpCode.ALLOCA);
   }
 
+  public static VMInstr IALLOCA() {
+    return new VMInstr(OpCode.IALLOCA);
+  }
+
+  public static VMInstr DALLOCA() {
+    return new VMInstr(OpCode.DALLOCA);
+  }
+
+  public static VMInstr BALLOCA() {
+    return new VMInstr(OpCode.BALLOCA);
+  }
+
   public static VMInstr SETI() {
     return new VMInstr(OpCode.SETI);
   }
@@ -178,6 +275,22 @@ public class VMInstr {
     return new VMInstr(OpCode.GETI);
   }
 
+  public static VMInstr INC_LOCAL(int memoryAddress) {
+    return new VMInstr(OpCode.INC_LOCAL, memoryAddress);
+  }
+
+  public static VMInstr LOAD_LOAD(int firstAddress, int secondAddress) {
+    return new VMInstr(OpCode.LOAD_LOAD, new Pair(firstAddress, secondAddress));
+  }
+
+  public static VMInstr LOAD_GETF(int memoryAddress, int fieldSlot) {
+    return new VMInstr(OpCode.LOAD_GETF, new Pair(memoryAddress, fieldSlot));
+  }
+
+  public static VMInstr JMP_IF_NOT_LE(int offset) {
+    return new VMInstr(OpCode.JMP_IF_NOT_LE, offset);
+  }
+
   public static VMInstr DUP() {
     return new VMInstr(OpCode.DUP);
   }
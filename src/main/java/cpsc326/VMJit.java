@@ -0,0 +1,754 @@
+/**
+ * CPSC 326, Spring 2025
+ * Compiles hot functions to JVM classes (the VM's second tier).
+ */
+
+package cpsc326;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+
+/**
+ * The VM interprets every function at first (tier 0). The if-chain
+ * loop counts calls and backward jumps per function, and once a
+ * function crosses either threshold it is translated into a JVM class
+ * (tier 1) and called directly from then on. A function hot in a loop
+ * switches over in the middle of the call: the rest of the call runs
+ * in the compiled code, entered at the loop head.
+ *
+ * Each function is translated to Java source (one class per function,
+ * with the operand stack positions and memory slots as Java locals and
+ * the jump targets as cases of a switch), compiled in memory with the
+ * system Java compiler, and loaded through a private class loader.
+ * Generated code reports errors with the same messages as the
+ * interpreter.
+ *
+ * A function is only compiled along with every function it (directly
+ * or indirectly) calls, since compiled code cannot call back into the
+ * interpreter. Functions using instructions the translator does not
+ * support (e.g., READ), or whose stack use cannot be determined
+ * statically, stay interpreted, as does everything when no Java
+ * compiler is available.
+ */
+public class VMJit {
+
+  /* default number of calls before a function is compiled */
+  public static final int DEFAULT_CALL_THRESHOLD = 1000;
+
+  /* default number of backward jumps before a function is compiled */
+  public static final int DEFAULT_BACK_EDGE_THRESHOLD = 10000;
+
+  /* package of the generated classes (they live in their own runtime
+     package, so they can only use public and protected members) */
+  private static final String PACKAGE = "cpsc326.jit";
+
+  /**
+   * Base class of the generated classes. The helpers are the runtime
+   * support for the instructions not translated inline.
+   */
+  public static abstract class Compiled {
+
+    /* the function this class was compiled from */
+    protected VMFrameTemplate template;
+
+    /* instruction operands indexed by pc (the constants of PUSH) */
+    protected Object[] operands;
+
+    /* the operand stack depth before each instruction (-1 if unreachable) */
+    private int[] depths;
+
+    /* the pcs the generated code can be entered at */
+    private boolean[] entries;
+
+    /* the number of arguments the function takes */
+    private int arity;
+
+    /* the compiler that produced this class (for calls) */
+    private VMJit jit;
+
+    /**
+     * Run the function from the given pc to its return.
+     *
+     * @param memory the frame memory (params and locals)
+     * @param stack  the operand stack contents at pc (bottom first)
+     * @param pc     the instruction to start at (an entry point)
+     * @return the return value
+     */
+    public abstract Object run(Object[] memory, Object[] stack, int pc);
+
+    /**
+     * Call a (compiled) function.
+     */
+    protected final Object call(int index, Object... args) {
+      Compiled callee = jit.compiled[index];
+      return callee.run(new Object[callee.template.maxLocals], args, 0);
+    }
+
+    /**
+     * Throw an error for the instruction at pc (never returns, so
+     * generated code can "throw error(...)").
+     */
+    protected final MyPLException error(String msg, int pc) {
+      String s = "%s in %s at %d: %s";
+      MyPLException.vmError(String.format(s, msg, template.functionName, pc, template.instructions.get(pc)));
+      return null;
+    }
+
+    /**
+     * Throw an error that does not name the instruction.
+     */
+    protected final MyPLException error(String msg) {
+      MyPLException.vmError(msg);
+      return null;
+    }
+
+    protected final Object allocStruct(int fieldCount) {
+      return new VMStruct(jit.vm.newObjectId(), fieldCount);
+    }
+
+    protected final Object allocArray(OpCode opcode, Object size) {
+      if (!(size instanceof Integer) || (int) size < 0)
+        throw error("not a valid array size, must be a non-negative integer");
+      return jit.vm.newArray(opcode, (int) size);
+    }
+
+    protected final void setIndex(Object obj, Object index, Object val) {
+      if (!(obj instanceof VMArray))
+        throw error("Invalid array object ID");
+      if (!(index instanceof Integer) || (int) index < 0)
+        throw error("not a valid array index, must be a non-negative integer");
+      VMArray array = (VMArray) obj;
+      if ((int) index >= array.length)
+        throw error("SETI: index out of bounds");
+      array.set((int) index, val);
+    }
+
+    protected final Object getIndex(Object obj, Object index) {
+      if (!(obj instanceof VMArray))
+        throw error("Invalid array object ID");
+      if (!(index instanceof Integer) || (int) index < 0)
+        throw error("not a valid array index, must be a non-negative integer");
+      VMArray array = (VMArray) obj;
+      if ((int) index >= array.length)
+        throw error("GETI: index out of bounds");
+      return array.get((int) index);
+    }
+
+    protected final Object length(Object x, int pc) {
+      if (x == VM.NULL)
+        throw error("null value error", pc);
+      if (x instanceof String s)
+        return s.length();
+      if (x instanceof VMArray array)
+        return array.length;
+      throw error("invalid LEN call, must be on a String or Array");
+    }
+
+    protected final Object charAt(Object string, Object index) {
+      if (!(string instanceof String))
+        throw error("incorrect type, must be a string");
+      if (!(index instanceof Integer))
+        throw error("invalid index; must be of type integer");
+      if ((int) index >= ((String) string).length() || (int) index < 0)
+        throw error("GETC: index out of bounds");
+      return Character.toString(((String) string).charAt((int) index));
+    }
+
+    protected final Object toInt(Object val, int pc) {
+      if (val == VM.NULL)
+        throw error("null value error", pc);
+      if (val instanceof String s) {
+        try {
+          return Integer.valueOf(s);
+        } catch (NumberFormatException e) {
+          throw error("invalid string to call TOINT");
+        }
+      }
+      if (val instanceof Double d)
+        return (int) Math.floor(d);
+      return val;
+    }
+
+    protected final Object toDouble(Object val, int pc) {
+      if (val == VM.NULL)
+        throw error("null value error", pc);
+      if (val instanceof String s) {
+        try {
+          return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+          throw error("invalid string to call TODBL");
+        }
+      }
+      if (val instanceof Integer i)
+        return (double) i;
+      return val;
+    }
+
+    protected final Object toStr(Object val, int pc) {
+      if (val == VM.NULL)
+        throw error("null value error", pc);
+      if (val instanceof Integer i)
+        return Integer.toString(i);
+      if (val instanceof Double d)
+        return Double.toString(d);
+      return (String) val;
+    }
+
+    /**
+     * Call the function from the interpreter, popping its arguments
+     * off the interpreter's operand stack.
+     */
+    Object invoke(Deque<Object> stack) {
+      Object[] args = new Object[arity];
+      for (int i = arity - 1; i >= 0; --i)
+        args[i] = stack.pop();
+      return run(new Object[template.maxLocals], args, 0);
+    }
+
+    /**
+     * Check if an interpreted call can continue in this code at pc.
+     */
+    boolean canEnter(int pc) {
+      return pc < entries.length && entries[pc];
+    }
+
+    /**
+     * Finish an interpreted call in this code, starting at the frame's
+     * pc and popping the frame's part of the interpreter's operand
+     * stack.
+     */
+    Object enter(VMFrame frame, Deque<Object> stack) {
+      Object[] in = new Object[depths[frame.pc]];
+      for (int i = in.length - 1; i >= 0; --i)
+        in[i] = stack.pop();
+      return run(frame.memory, in, frame.pc);
+    }
+  }
+
+  /* the VM running the program */
+  private final VM vm;
+
+  /* the program's function table (see VMLinker) */
+  private final VMFrameTemplate[] functions;
+
+  /* function table index of each template */
+  private final Map<VMFrameTemplate, Integer> indexes = new IdentityHashMap<>();
+
+  /* the compiled code of each function (null if interpreted) */
+  private final Compiled[] compiled;
+
+  /* call and backward jump counts of each function */
+  private final int[] calls;
+  private final int[] backEdges;
+
+  /* functions that cannot be compiled (so are not retried) */
+  private final boolean[] failed;
+
+  /* thresholds for compiling a function */
+  private final int callThreshold;
+  private final int backEdgeThreshold;
+
+  /* names of the compiled functions, in order of compilation */
+  private final List<String> compiledNames = new ArrayList<>();
+
+  /* the system Java compiler (null if not available) */
+  private final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+
+  /**
+   * Create a compiler for a linked program.
+   *
+   * @param vm                the VM running the program
+   * @param functions         the program's function table
+   * @param callThreshold     calls before a function is compiled
+   * @param backEdgeThreshold backward jumps before a function is compiled
+   */
+  public VMJit(VM vm, VMFrameTemplate[] functions, int callThreshold, int backEdgeThreshold) {
+    this.vm = vm;
+    this.functions = functions;
+    this.callThreshold = callThreshold;
+    this.backEdgeThreshold = backEdgeThreshold;
+    compiled = new Compiled[functions.length];
+    calls = new int[functions.length];
+    backEdges = new int[functions.length];
+    failed = new boolean[functions.length];
+    for (int i = 0; i < functions.length; ++i)
+      indexes.put(functions[i], i);
+  }
+
+  /**
+   * The names of the functions compiled so far.
+   */
+  public List<String> compiledFunctions() {
+    return compiledNames;
+  }
+
+  /**
+   * Count a call of a function.
+   *
+   * @return the function's compiled code, or null to interpret it
+   */
+  Compiled onCall(VMFrameTemplate template) {
+    int index = indexes.get(template);
+    if (compiled[index] == null && ++calls[index] >= callThreshold)
+      compile(index);
+    return compiled[index];
+  }
+
+  /**
+   * Count a backward jump in a function.
+   *
+   * @return the function's compiled code, or null to keep interpreting
+   */
+  Compiled onBackEdge(VMFrameTemplate template) {
+    int index = indexes.get(template);
+    if (compiled[index] == null && ++backEdges[index] >= backEdgeThreshold)
+      compile(index);
+    return compiled[index];
+  }
+
+  // ----------------------------------------------------------------------
+  // Compilation
+  // ----------------------------------------------------------------------
+
+  /**
+   * Compile a function along with the functions it calls that are not
+   * compiled yet.
+   */
+  private void compile(int index) {
+    if (failed[index] || javac == null)
+      return;
+    // the function and everything it reaches through calls
+    List<Integer> batch = new ArrayList<>();
+    Deque<Integer> pending = new ArrayDeque<>(List.of(index));
+    boolean[] seen = new boolean[functions.length];
+    seen[index] = true;
+    Map<Integer, Analysis> analyses = new HashMap<>();
+    while (!pending.isEmpty()) {
+      int next = pending.pop();
+      if (compiled[next] != null)
+        continue;
+      Analysis analysis = failed[next] ? null : analyze(functions[next]);
+      if (analysis == null) {
+        failed[next] = true;
+        failed[index] = true;
+        return;
+      }
+      batch.add(next);
+      analyses.put(next, analysis);
+      for (VMInstr instr : functions[next].instructions) {
+        if (instr.opcode == OpCode.CALL || instr.opcode == OpCode.TAILCALL) {
+          int callee = indexes.get((VMFrameTemplate) instr.operand);
+          if (!seen[callee]) {
+            seen[callee] = true;
+            pending.push(callee);
+          }
+        }
+      }
+    }
+
+    Map<String, String> sources = new HashMap<>();
+    for (int i : batch)
+      sources.put(className(i), translate(i, analyses.get(i)));
+    Map<String, byte[]> classes = javac(sources);
+    if (classes == null) {
+      failed[index] = true;
+      return;
+    }
+
+    ClassLoader loader = new ClassLoader(VMJit.class.getClassLoader()) {
+      @Override
+      protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name);
+        if (bytes == null)
+          throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+      }
+    };
+    try {
+      for (int i : batch) {
+        Compiled code = (Compiled) loader.loadClass(PACKAGE + "." + className(i)).getDeclaredConstructor()
+            .newInstance();
+        Analysis analysis = analyses.get(i);
+        code.template = functions[i];
+        code.operands = functions[i].instructions.stream().map(instr -> instr.operand).toArray();
+        code.depths = analysis.depths;
+        code.entries = analysis.labels;
+        code.arity = analysis.arity;
+        code.jit = this;
+        compiled[i] = code;
+        compiledNames.add(functions[i].functionName);
+      }
+    } catch (ReflectiveOperationException e) {
+      failed[index] = true;
+    }
+  }
+
+  /**
+   * Compile Java sources in memory.
+   *
+   * @param sources the source of each class (by simple name)
+   * @return the class files by binary name, or null if compilation failed
+   */
+  private Map<String, byte[]> javac(Map<String, String> sources) {
+    Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+    JavaFileManager files = new ForwardingJavaFileManager<>(javac.getStandardFileManager(null, null, null)) {
+      @Override
+      public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+          FileObject sibling) {
+        return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+          @Override
+          public OutputStream openOutputStream() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outputs.put(className, out);
+            return out;
+          }
+        };
+      }
+    };
+    List<JavaFileObject> units = new ArrayList<>();
+    sources.forEach((name, source) -> units.add(
+        new SimpleJavaFileObject(URI.create("mem:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+          }
+        }));
+    List<String> options = List.of("-classpath", classPath(), "-proc:none", "-g:none", "-nowarn");
+    Boolean ok;
+    try {
+      ok = javac.getTask(new StringWriter(), files, null, options, null, units).call();
+    } catch (RuntimeException e) {
+      return null;
+    }
+    if (!ok)
+      return null;
+    Map<String, byte[]> classes = new HashMap<>();
+    outputs.forEach((name, out) -> classes.put(name, out.toByteArray()));
+    return classes;
+  }
+
+  /**
+   * The class path the generated code is compiled against (where the
+   * VM classes were loaded from).
+   */
+  private static String classPath() {
+    try {
+      return Path.of(VMJit.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString()
+          + File.pathSeparator + System.getProperty("java.class.path");
+    } catch (Exception e) {
+      return System.getProperty("java.class.path");
+    }
+  }
+
+  private static String className(int index) {
+    return "F" + index;
+  }
+
+  // ----------------------------------------------------------------------
+  // Stack analysis
+  // ----------------------------------------------------------------------
+
+  /**
+   * The stack layout of a function: the operand stack depth before each
+   * instruction, and which instructions are jump targets.
+   */
+  private static class Analysis {
+    int arity;
+    int maxDepth;
+    int[] depths;
+    boolean[] labels;
+  }
+
+  /**
+   * Compute the stack layout of a function, or null if it cannot be
+   * compiled (an unsupported instruction, inconsistent stack depths, or
+   * code that may run past the end of the function).
+   */
+  private Analysis analyze(VMFrameTemplate template) {
+    List<VMInstr> code = template.instructions;
+    Analysis analysis = new Analysis();
+    analysis.arity = arity(template);
+    analysis.depths = new int[code.size()];
+    analysis.labels = new boolean[code.size()];
+    java.util.Arrays.fill(analysis.depths, -1);
+    if (code.isEmpty())
+      return null;
+    analysis.labels[0] = true;
+
+    Deque<Integer> pending = new ArrayDeque<>();
+    analysis.depths[0] = analysis.arity;
+    pending.push(0);
+    while (!pending.isEmpty()) {
+      int pc = pending.pop();
+      VMInstr instr = code.get(pc);
+      int depth = analysis.depths[pc];
+      int pops = pops(instr);
+      if (pops < 0 || depth < pops || !operandsValid(instr, template))
+        return null;
+      if (instr.opcode == OpCode.RET || instr.opcode == OpCode.TAILCALL)
+        continue;
+      int after = depth - pops + pushes(instr);
+      analysis.maxDepth = Math.max(analysis.maxDepth, after);
+      List<Integer> next = new ArrayList<>();
+      if (instr.opcode == OpCode.JMP || instr.opcode == OpCode.JMPF || instr.opcode == OpCode.JMP_IF_NOT_LE) {
+        int target = (int) instr.operand;
+        if (target < 0 || target >= code.size())
+          return null;
+        analysis.labels[target] = true;
+        next.add(target);
+      }
+      if (instr.opcode != OpCode.JMP) {
+        if (pc + 1 >= code.size())
+          return null;
+        next.add(pc + 1);
+      }
+      for (int successor : next) {
+        if (analysis.depths[successor] == -1) {
+          analysis.depths[successor] = after;
+          pending.push(successor);
+        } else if (analysis.depths[successor] != after)
+          return null;
+      }
+    }
+    analysis.maxDepth = Math.max(analysis.maxDepth, analysis.arity);
+    return analysis;
+  }
+
+  /**
+   * The number of arguments a function takes: the number of values its
+   * straight-line prefix pops (a function starts by storing its
+   * arguments).
+   */
+  private int arity(VMFrameTemplate template) {
+    int depth = 0;
+    int lowest = 0;
+    for (VMInstr instr : template.instructions) {
+      int pops = pops(instr);
+      if (pops < 0 || instr.opcode == OpCode.CALL || instr.opcode == OpCode.TAILCALL || instr.opcode == OpCode.RET
+          || instr.opcode == OpCode.JMP || instr.opcode == OpCode.JMPF || instr.opcode == OpCode.JMP_IF_NOT_LE)
+        break;
+      depth -= pops;
+      lowest = Math.min(lowest, depth);
+      depth += pushes(instr);
+    }
+    return -lowest;
+  }
+
+  /**
+   * Check the operands of an instruction the translator relies on.
+   */
+  private boolean operandsValid(VMInstr instr, VMFrameTemplate template) {
+    return switch (instr.opcode) {
+      case LOAD, STORE, INC_LOCAL -> instr.operand instanceof Integer slot && slot >= 0 && slot < template.maxLocals;
+      case LOAD_LOAD -> instr.operand instanceof VMInstr.Pair pair && pair.first() >= 0 && pair.second() >= 0
+          && pair.first() < template.maxLocals && pair.second() < template.maxLocals;
+      case LOAD_GETF -> instr.operand instanceof VMInstr.Pair pair && pair.first() >= 0
+          && pair.first() < template.maxLocals;
+      case JMP, JMPF, JMP_IF_NOT_LE, ALLOCS, SETF, GETF -> instr.operand instanceof Integer;
+      case CALL, TAILCALL -> instr.operand instanceof VMFrameTemplate;
+      default -> true;
+    };
+  }
+
+  /**
+   * The number of values an instruction pops (-1 if not supported).
+   */
+  private int pops(VMInstr instr) {
+    return switch (instr.opcode) {
+      case PUSH, LOAD, NOP, JMP, ALLOCS, INC_LOCAL, LOAD_LOAD, LOAD_GETF -> 0;
+      case POP, STORE, DUP, NOT, JMPF, GETF, ALLOCA, IALLOCA, DALLOCA, BALLOCA, WRITE, LEN, TOINT, TODBL, TOSTR,
+          RET -> 1;
+      case IADD, DADD, SCONCAT, ISUB, DSUB, IMUL, DMUL, IDIV, DDIV, ICMPLT, DCMPLT, SCMPLT, ICMPLE, DCMPLE, SCMPLE,
+          SHL, SHR, IAND, CMPEQ, CMPNE, AND, OR, SETF, GETI, GETC, JMP_IF_NOT_LE -> 2;
+      case SETI -> 3;
+      case CALL, TAILCALL -> arity((VMFrameTemplate) instr.operand);
+      default -> -1;
+    };
+  }
+
+  /**
+   * The number of values an instruction pushes.
+   */
+  private int pushes(VMInstr instr) {
+    return switch (instr.opcode) {
+      case POP, STORE, NOP, JMP, JMPF, JMP_IF_NOT_LE, SETF, SETI, WRITE, INC_LOCAL, RET, TAILCALL -> 0;
+      case DUP, LOAD_LOAD -> 2;
+      default -> 1;
+    };
+  }
+
+  // ----------------------------------------------------------------------
+  // Translation
+  // ----------------------------------------------------------------------
+
+  /**
+   * Translate a function into the Java source of its class.
+   */
+  private String translate(int index, Analysis analysis) {
+    VMFrameTemplate template = functions[index];
+    StringBuilder s = new StringBuilder();
+    s.append("package ").append(PACKAGE).append(";\n\n");
+    s.append("import cpsc326.*;\n\n");
+    s.append("// compiled from function '").append(template.functionName.replaceAll("[^A-Za-z0-9_]", "_"))
+        .append("'\n");
+    s.append("public final class ").append(className(index)).append(" extends VMJit.Compiled {\n");
+    s.append("  public Object run(Object[] m, Object[] in, int pc) {\n");
+    for (int i = 0; i < template.maxLocals; ++i)
+      s.append("    Object l").append(i).append(" = m[").append(i).append("];\n");
+    for (int i = 0; i < analysis.maxDepth; ++i) {
+      s.append("    Object s").append(i).append(" = null;\n");
+      s.append("    if (in.length > ").append(i).append(") s").append(i).append(" = in[").append(i).append("];\n");
+    }
+    s.append("    while (true) {\n");
+    s.append("      switch (pc) {\n");
+    List<VMInstr> code = template.instructions;
+    for (int pc = 0; pc < code.size(); ++pc) {
+      if (analysis.depths[pc] < 0)
+        continue;
+      if (analysis.labels[pc])
+        s.append("      case ").append(pc).append(":\n");
+      s.append("        // ").append(pc).append(": ").append(code.get(pc).opcode).append("\n");
+      translate(template, code.get(pc), pc, analysis.depths[pc], s);
+    }
+    s.append("      default:\n");
+    s.append("        throw new IllegalStateException(\"no entry at \" + pc);\n");
+    s.append("      }\n");
+    s.append("    }\n");
+    s.append("  }\n");
+    s.append("}\n");
+    return s.toString();
+  }
+
+  /**
+   * Translate one instruction of a function (with the given stack depth
+   * before it).
+   */
+  private void translate(VMFrameTemplate template, VMInstr instr, int pc, int depth, StringBuilder s) {
+    String x = "s" + (depth - 1);
+    String y = "s" + (depth - 2);
+    String top = "s" + depth;
+    String line = switch (instr.opcode) {
+      case PUSH -> top + " = operands[" + pc + "];";
+      case POP, NOP -> "";
+      case LOAD -> top + " = l" + instr.operand + ";";
+      case STORE -> "l" + instr.operand + " = " + x + ";";
+      case DUP -> top + " = " + x + ";";
+
+      case IADD -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " + (Integer) " + x + ";");
+      case ISUB -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " - (Integer) " + x + ";");
+      case IMUL -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " * (Integer) " + x + ";");
+      case IDIV -> typed(y, x, pc, "Integer", "if ((Integer) " + x + " == 0) throw error(\"division by zero error\", "
+          + pc + ");\n        " + y + " = (Integer) " + y + " / (Integer) " + x + ";");
+      case DADD -> typed(y, x, pc, "Double", y + " = (Double) " + y + " + (Double) " + x + ";");
+      case DSUB -> typed(y, x, pc, "Double", y + " = (Double) " + y + " - (Double) " + x + ";");
+      case DMUL -> typed(y, x, pc, "Double", y + " = (Double) " + y + " * (Double) " + x + ";");
+      case DDIV -> typed(y, x, pc, "Double", "if ((Double) " + x + " == 0.0) throw error(\"division by zero error\", "
+          + pc + ");\n        " + y + " = (Double) " + y + " / (Double) " + x + ";");
+      case SCONCAT -> typed(y, x, pc, "String", y + " = (String) " + y + " + (String) " + x + ";");
+      case ICMPLT -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " < (Integer) " + x + ";");
+      case ICMPLE -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " <= (Integer) " + x + ";");
+      case DCMPLT -> typed(y, x, pc, "Double", y + " = (Double) " + y + " < (Double) " + x + ";");
+      case DCMPLE -> typed(y, x, pc, "Double", y + " = (Double) " + y + " <= (Double) " + x + ";");
+      case SCMPLT -> typed(y, x, pc, "String", y + " = ((String) " + y + ").compareTo((String) " + x + ") < 0;");
+      case SCMPLE -> typed(y, x, pc, "String", y + " = ((String) " + y + ").compareTo((String) " + x + ") <= 0;");
+      case SHL -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " << (Integer) " + x + ";");
+      case SHR -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " >> (Integer) " + x + ";");
+      case IAND -> typed(y, x, pc, "Integer", y + " = (Integer) " + y + " & (Integer) " + x + ";");
+      case CMPEQ -> y + " = " + x + ".equals(" + y + ");";
+      case CMPNE -> y + " = !" + x + ".equals(" + y + ");";
+      case AND, OR -> "if (!(" + x + " instanceof Boolean && " + y + " instanceof Boolean)) "
+          + "throw error(\"operands must be booleans\");\n        " + y + " = (Boolean) " + y
+          + (instr.opcode == OpCode.AND ? " && " : " || ") + "(Boolean) " + x + ";";
+      case NOT -> "if (!(" + x + " instanceof Boolean)) throw error(\"operands must be booleans\");\n        "
+          + x + " = !(Boolean) " + x + ";";
+
+      case JMP -> "pc = " + instr.operand + ";\n        continue;";
+      case JMPF -> "if (!(" + x + " instanceof Boolean)) throw error(\"Operand must be a boolean\");\n"
+          + "        if (!(Boolean) " + x + ") {\n          pc = " + instr.operand + ";\n          continue;\n        }";
+      case JMP_IF_NOT_LE -> typed(y, x, pc, "Integer", "if (!((Integer) " + y + " <= (Integer) " + x + ")) {\n"
+          + "          pc = " + instr.operand + ";\n          continue;\n        }");
+
+      case CALL -> {
+        VMFrameTemplate callee = (VMFrameTemplate) instr.operand;
+        int arity = arity(callee);
+        StringBuilder args = new StringBuilder();
+        for (int i = depth - arity; i < depth; ++i)
+          args.append(", s").append(i);
+        yield "s" + (depth - arity) + " = call(" + indexes.get(callee) + args + ");";
+      }
+      case TAILCALL -> {
+        VMFrameTemplate callee = (VMFrameTemplate) instr.operand;
+        int arity = arity(callee);
+        // a self call with only its arguments on the stack restarts the
+        // function (the arguments are where its first STOREs take them)
+        if (callee == template && depth == arity)
+          yield "pc = 0;\n        continue;";
+        StringBuilder args = new StringBuilder();
+        for (int i = depth - arity; i < depth; ++i)
+          args.append(", s").append(i);
+        yield "return call(" + indexes.get(callee) + args + ");";
+      }
+      case RET -> "return " + x + ";";
+
+      case ALLOCS -> top + " = allocStruct(" + instr.operand + ");";
+      case SETF -> "if (!(" + y + " instanceof VMStruct)) throw error(\"Invalid struct object ID\");\n        "
+          + "((VMStruct) " + y + ").fields[" + instr.operand + "] = " + x + ";";
+      case GETF -> "if (!(" + x + " instanceof VMStruct)) throw error(\"Invalid struct object ID\");\n        "
+          + x + " = ((VMStruct) " + x + ").fields[" + instr.operand + "];";
+      case ALLOCA, IALLOCA, DALLOCA, BALLOCA -> x + " = allocArray(OpCode." + instr.opcode + ", " + x + ");";
+      case SETI -> "setIndex(s" + (depth - 3) + ", " + y + ", " + x + ");";
+      case GETI -> y + " = getIndex(" + y + ", " + x + ");";
+
+      case WRITE -> "System.out.print(" + x + ");";
+      case LEN -> x + " = length(" + x + ", " + pc + ");";
+      case GETC -> y + " = charAt(" + y + ", " + x + ");";
+      case TOINT -> x + " = toInt(" + x + ", " + pc + ");";
+      case TODBL -> x + " = toDouble(" + x + ", " + pc + ");";
+      case TOSTR -> x + " = toStr(" + x + ", " + pc + ");";
+
+      case INC_LOCAL -> "if (l" + instr.operand + " == VM.NULL) throw error(\"null value error\", " + pc + ");\n"
+          + "        l" + instr.operand + " = (Integer) l" + instr.operand + " + 1;";
+      case LOAD_LOAD -> {
+        VMInstr.Pair slots = (VMInstr.Pair) instr.operand;
+        yield top + " = l" + slots.first() + ";\n        s" + (depth + 1) + " = l" + slots.second() + ";";
+      }
+      case LOAD_GETF -> {
+        VMInstr.Pair slots = (VMInstr.Pair) instr.operand;
+        String local = "l" + slots.first();
+        yield "if (!(" + local + " instanceof VMStruct)) throw error(\"Invalid struct object ID\");\n        "
+            + top + " = ((VMStruct) " + local + ").fields[" + slots.second() + "];";
+      }
+      default -> throw new IllegalStateException("unsupported " + instr.opcode);
+    };
+    if (!line.isEmpty())
+      s.append("        ").append(line).append("\n");
+  }
+
+  /**
+   * Wrap a typed operator's code with the null operand check.
+   */
+  private static String typed(String y, String x, int pc, String type, String code) {
+    return "if (" + x + " == VM.NULL || " + y + " == VM.NULL) throw error(\"null value error\", " + pc + ");\n"
+        + "        " + code;
+  }
+
+}
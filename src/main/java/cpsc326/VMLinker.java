@@ -0,0 +1,223 @@
+/**
+ * CPSC 326, Spring 2025
+ * Packs frame templates into the compact "linked" code format.
+ */
+
+package cpsc326;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collection;
+
+
+/**
+ * Links the VM instructions of a program into one int per
+ * instruction. The low byte of each word holds the opcode and the
+ * upper 24 bits hold the operand: a memory slot for LOAD/STORE, a
+ * target pc for JMP/JMPF, a field slot (or count) for GETF/SETF
+ * (ALLOCS), an index into the program's function table for CALL and
+ * TAILCALL, and an index into the program's constant pool for PUSH
+ * literals.
+ * Superinstructions with two operands (LOAD_LOAD, LOAD_GETF) hold the
+ * first in the low 12 operand bits and the second in the high 12.
+ *
+ * Linking also resolves each CALL and TAILCALL by name exactly once,
+ * replacing the instruction's operand with the callee's template, so
+ * neither VM engine looks functions up by name at runtime. Calls to undefined
+ * functions are reported before the program starts.
+ */
+public class VMLinker {
+
+  /* number of low bits holding the opcode */
+  public static final int OPCODE_BITS = 8;
+
+  /* mask for extracting the opcode from a word */
+  public static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+  /* largest operand that fits in a word */
+  public static final int MAX_OPERAND = (1 << (32 - OPCODE_BITS)) - 1;
+
+  /* number of operand bits holding each half of a two-operand instruction */
+  public static final int PAIR_BITS = 12;
+
+  /* largest value of either half of a two-operand instruction */
+  public static final int MAX_PAIR_OPERAND = (1 << PAIR_BITS) - 1;
+
+  /* the program's constant pool */
+  private List<Object> constants = new ArrayList<>();
+
+  /* constant to pool index (so each distinct constant is stored once) */
+  private Map<Object, Integer> constantIndexes = new HashMap<>();
+
+  /* the program's function table (call targets) */
+  private List<VMFrameTemplate> functions = new ArrayList<>();
+
+  /* function name to function table index */
+  private Map<String, Integer> functionIndexes = new HashMap<>();
+
+  /**
+   * Create and throw a link error.
+   *
+   * @param msg      The error message.
+   * @param template The function being linked.
+   * @param pc       The index of the offending instruction.
+   */
+  private void error(String msg, VMFrameTemplate template, int pc) {
+    String s = "%s in %s at %d: %s";
+    MyPLException.vmError(String.format(s, msg, template.functionName, pc, template.instructions.get(pc)));
+  }
+
+  /**
+   * Pack an opcode and operand into a single code word.
+   *
+   * @param opcode  the instruction opcode
+   * @param operand the (non-negative) operand
+   * @return the code word
+   */
+  public static int encode(OpCode opcode, int operand) {
+    return opcode.ordinal() | (operand << OPCODE_BITS);
+  }
+
+  /**
+   * Extract the operand from a code word.
+   */
+  public static int operand(int word) {
+    return word >>> OPCODE_BITS;
+  }
+
+  /**
+   * Extract the first half of a two-operand instruction's operand.
+   */
+  public static int first(int operand) {
+    return operand & MAX_PAIR_OPERAND;
+  }
+
+  /**
+   * Extract the second half of a two-operand instruction's operand.
+   */
+  public static int second(int operand) {
+    return operand >>> PAIR_BITS;
+  }
+
+  /**
+   * Add a constant to the pool (if not already present).
+   *
+   * @param value the constant value
+   * @return the pool index of the constant
+   */
+  private int constant(Object value) {
+    Integer index = constantIndexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndexes.put(value, index);
+    }
+    return index;
+  }
+
+  /**
+   * Link every template, filling in each template's code array.
+   *
+   * @param templates the program's frame templates
+   */
+  public void link(Collection<VMFrameTemplate> templates) {
+    for (VMFrameTemplate template : templates) {
+      functionIndexes.put(template.functionName, functions.size());
+      functions.add(template);
+    }
+    for (VMFrameTemplate template : templates)
+      link(template);
+  }
+
+  /**
+   * Link a single template.
+   *
+   * @param template the template to link
+   */
+  private void link(VMFrameTemplate template) {
+    int[] code = new int[template.instructions.size()];
+    for (int pc = 0; pc < code.length; ++pc) {
+      VMInstr instr = template.instructions.get(pc);
+      int operand = 0;
+      switch (instr.opcode) {
+        case PUSH:
+          operand = constant(instr.operand);
+          break;
+        case LOAD:
+        case STORE:
+        case INC_LOCAL:
+          if (!(instr.operand instanceof Integer) || (int) instr.operand < 0)
+            error("invalid index", template, pc);
+          operand = (int) instr.operand;
+          break;
+        case JMP:
+        case JMPF:
+        case JMP_IF_NOT_LE:
+          if (!(instr.operand instanceof Integer) || (int) instr.operand < 0)
+            error("jump target must be an Integer", template, pc);
+          operand = (int) instr.operand;
+          break;
+        case CALL:
+        case TAILCALL: {
+          // operand is a name, or a template if linked before
+          Object callee = instr.operand;
+          if (callee instanceof VMFrameTemplate t)
+            callee = t.functionName;
+          if (!(callee instanceof String))
+            error("Function name must be a string", template, pc);
+          Integer index = functionIndexes.get(callee);
+          if (index == null)
+            error(callee + " not recognized", template, pc);
+          instr.operand = functions.get(index);
+          operand = index;
+          break;
+        }
+        case ALLOCS:
+        case SETF:
+        case GETF:
+          if (!(instr.operand instanceof Integer) || (int) instr.operand < 0)
+            error("invalid field slot", template, pc);
+          operand = (int) instr.operand;
+          break;
+        case LOAD_LOAD:
+        case LOAD_GETF: {
+          if (!(instr.operand instanceof VMInstr.Pair))
+            error("invalid operand pair", template, pc);
+          VMInstr.Pair pair = (VMInstr.Pair) instr.operand;
+          if (pair.first() < 0 || pair.second() < 0 || pair.first() > MAX_PAIR_OPERAND
+              || pair.second() > MAX_PAIR_OPERAND)
+            error("invalid operand pair", template, pc);
+          operand = pair.first() | (pair.second() << PAIR_BITS);
+          break;
+        }
+        default:
+          break;
+      }
+      if (operand > MAX_OPERAND)
+        error("operand too large to link", template, pc);
+      code[pc] = encode(instr.opcode, operand);
+    }
+    template.code = code;
+  }
+
+  /**
+   * The constant pool built up by the linked templates.
+   *
+   * @return the constants indexed by the code word operands
+   */
+  public Object[] constants() {
+    return constants.toArray();
+  }
+
+  /**
+   * The function table built up by the linked templates.
+   *
+   * @return the templates indexed by the CALL code word operands
+   */
+  public VMFrameTemplate[] functions() {
+    return functions.toArray(new VMFrameTemplate[0]);
+  }
+
+}
@@ -0,0 +1,334 @@
+/**
+ * CPSC 326, Spring 2025
+ * Peephole optimization of generated VM instructions.
+ */
+
+package cpsc326;
+
+import java.util.List;
+
+
+/**
+ * Rewrites short instruction sequences of a frame template into
+ * cheaper equivalents, repeatedly applying a set of rules until none
+ * of them changes anything. Rules edit the code through a Code object,
+ * which keeps every JMP/JMPF target pointing at the same instruction
+ * as instructions are removed or replaced.
+ *
+ * Runs on generated (unlinked) templates: jump operands must be
+ * instruction indexes.
+ */
+public class VMPeephole {
+
+  /**
+   * A rewrite rule, tried at every instruction index.
+   */
+  public interface Rule {
+    /**
+     * Rewrite the instructions starting at the given index if they
+     * match the rule's pattern.
+     *
+     * @param code  the instructions being optimized
+     * @param index the start of the window to match
+     * @return true if the code was changed
+     */
+    boolean apply(Code code, int index);
+  }
+
+  /**
+   * The instructions of a template under rewrite.
+   */
+  public static class Code {
+
+    private final List<VMInstr> instructions;
+
+    private Code(List<VMInstr> instructions) {
+      this.instructions = instructions;
+    }
+
+    /**
+     * The number of instructions.
+     */
+    public int size() {
+      return instructions.size();
+    }
+
+    /**
+     * The instruction at the given index (null if out of range).
+     */
+    public VMInstr get(int index) {
+      if (index < 0 || index >= instructions.size())
+        return null;
+      return instructions.get(index);
+    }
+
+    /**
+     * Check if any jump lands on the given index (such an instruction
+     * cannot be merged with the one before it).
+     */
+    public boolean isJumpTarget(int index) {
+      for (VMInstr instr : instructions)
+        if (isJump(instr) && (int) instr.operand == index)
+          return true;
+      return false;
+    }
+
+    /**
+     * Check if any jump lands strictly inside the count instructions
+     * starting at index (such a sequence cannot be fused).
+     */
+    public boolean hasJumpInto(int index, int count) {
+      for (int i = index + 1; i < index + count; ++i)
+        if (isJumpTarget(i))
+          return true;
+      return false;
+    }
+
+    /**
+     * Replace count instructions starting at index with the given
+     * ones. Jumps past the replaced instructions are shifted, and
+     * jumps into them land on the first replacement (or on whatever
+     * follows if there is none).
+     */
+    public void replace(int index, int count, VMInstr... with) {
+      for (int i = 0; i < count; ++i)
+        instructions.remove(index);
+      instructions.addAll(index, List.of(with));
+      int shift = with.length - count;
+      for (VMInstr instr : instructions) {
+        if (!isJump(instr))
+          continue;
+        int target = (int) instr.operand;
+        if (target >= index + count)
+          instr.operand = target + shift;
+        else if (target > index)
+          instr.operand = index;
+      }
+    }
+
+    /**
+     * Check if an instruction is a (resolved) jump.
+     */
+    public static boolean isJump(VMInstr instr) {
+      return (instr.opcode == OpCode.JMP || instr.opcode == OpCode.JMPF || instr.opcode == OpCode.JMP_IF_NOT_LE)
+          && instr.operand instanceof Integer;
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Rules
+  // ----------------------------------------------------------------------
+
+  /**
+   * STORE n; LOAD n => DUP; STORE n
+   */
+  public static final Rule STORE_LOAD = (code, i) -> {
+    VMInstr store = code.get(i);
+    VMInstr load = code.get(i + 1);
+    if (store.opcode != OpCode.STORE || load == null || load.opcode != OpCode.LOAD
+        || !store.operand.equals(load.operand) || code.isJumpTarget(i + 1))
+      return false;
+    code.replace(i, 2, VMInstr.DUP(), store);
+    return true;
+  };
+
+  /**
+   * PUSH x; POP => (nothing), e.g., the discarded result of println
+   */
+  public static final Rule PUSH_POP = (code, i) -> {
+    VMInstr pop = code.get(i + 1);
+    if (code.get(i).opcode != OpCode.PUSH || pop == null || pop.opcode != OpCode.POP || code.isJumpTarget(i + 1))
+      return false;
+    code.replace(i, 2);
+    return true;
+  };
+
+  /**
+   * JMP/JMPF to a JMP => jump straight to the final target
+   */
+  public static final Rule JUMP_TO_JUMP = (code, i) -> {
+    VMInstr jump = code.get(i);
+    if (!Code.isJump(jump))
+      return false;
+    VMInstr next = code.get((int) jump.operand);
+    if (next == null || next.opcode != OpCode.JMP || !Code.isJump(next) || next.operand.equals(jump.operand))
+      return false;
+    jump.operand = next.operand;
+    return true;
+  };
+
+  /**
+   * JMP to a RET => RET
+   */
+  public static final Rule JUMP_TO_RET = (code, i) -> {
+    VMInstr jump = code.get(i);
+    if (jump.opcode != OpCode.JMP || !Code.isJump(jump))
+      return false;
+    VMInstr target = code.get((int) jump.operand);
+    if (target == null || target.opcode != OpCode.RET)
+      return false;
+    code.replace(i, 1, VMInstr.RET());
+    return true;
+  };
+
+  /**
+   * CALL f; RET => TAILCALL f (the callee returns straight to the
+   * caller's caller, so tail recursion runs in a single frame). A RET
+   * that jumps land on stays for them.
+   */
+  public static final Rule TAIL_CALL = (code, i) -> {
+    VMInstr call = code.get(i);
+    VMInstr ret = code.get(i + 1);
+    if (call.opcode != OpCode.CALL || ret == null || ret.opcode != OpCode.RET)
+      return false;
+    code.replace(i, code.isJumpTarget(i + 1) ? 1 : 2, VMInstr.TAILCALL(call.operand.toString()));
+    return true;
+  };
+
+  /**
+   * JMP to the next instruction => (nothing)
+   */
+  public static final Rule JUMP_TO_NEXT = (code, i) -> {
+    VMInstr jump = code.get(i);
+    if (jump.opcode != OpCode.JMP || !Code.isJump(jump) || (int) jump.operand != i + 1)
+      return false;
+    code.replace(i, 1);
+    return true;
+  };
+
+  /**
+   * Remove an instruction that follows a JMP, RET or TAILCALL and that
+   * no jump lands on (e.g., the PUSH null; RET added after a final
+   * return)
+   */
+  public static final Rule UNREACHABLE = (code, i) -> {
+    VMInstr prev = code.get(i - 1);
+    if (prev == null || (prev.opcode != OpCode.JMP && prev.opcode != OpCode.RET && prev.opcode != OpCode.TAILCALL)
+        || code.isJumpTarget(i))
+      return false;
+    code.replace(i, 1);
+    return true;
+  };
+
+  /* the rules applied by default */
+  public static final List<Rule> DEFAULT_RULES = List.of(UNREACHABLE, JUMP_TO_JUMP, JUMP_TO_RET, JUMP_TO_NEXT,
+      STORE_LOAD, PUSH_POP, TAIL_CALL);
+
+  // ----------------------------------------------------------------------
+  // Superinstruction rules
+  //
+  // These fuse the sequences executed most often (measured with
+  // VM.profileMode over the examples/ programs) into single
+  // instructions. For loops account for most of them: the loop test is
+  // LOAD i; LOAD n; ICMPLE; JMPF and the increment is LOAD i; PUSH 1;
+  // IADD; STORE i, so a loop iteration now dispatches 4 instructions of
+  // overhead instead of 9. Run these after the default rules.
+  // ----------------------------------------------------------------------
+
+  /**
+   * LOAD n; PUSH 1; IADD; STORE n => INC_LOCAL n
+   */
+  public static final Rule FUSE_INC_LOCAL = (code, i) -> {
+    VMInstr load = code.get(i);
+    VMInstr push = code.get(i + 1);
+    VMInstr add = code.get(i + 2);
+    VMInstr store = code.get(i + 3);
+    if (load.opcode != OpCode.LOAD || store == null || push.opcode != OpCode.PUSH
+        || !Integer.valueOf(1).equals(push.operand) || add.opcode != OpCode.IADD
+        || store.opcode != OpCode.STORE || !load.operand.equals(store.operand) || code.hasJumpInto(i, 4))
+      return false;
+    code.replace(i, 4, VMInstr.INC_LOCAL((int) load.operand));
+    return true;
+  };
+
+  /**
+   * LOAD a; LOAD b => LOAD_LOAD a, b (unless LOAD b; GETF fuses)
+   */
+  public static final Rule FUSE_LOAD_LOAD = (code, i) -> {
+    VMInstr first = code.get(i);
+    VMInstr second = code.get(i + 1);
+    VMInstr next = code.get(i + 2);
+    if (first.opcode != OpCode.LOAD || second == null || second.opcode != OpCode.LOAD
+        || (next != null && next.opcode == OpCode.GETF) || !fitsPair(first.operand, second.operand)
+        || code.hasJumpInto(i, 2))
+      return false;
+    code.replace(i, 2, VMInstr.LOAD_LOAD((int) first.operand, (int) second.operand));
+    return true;
+  };
+
+  /**
+   * LOAD n; GETF f => LOAD_GETF n, f
+   */
+  public static final Rule FUSE_LOAD_GETF = (code, i) -> {
+    VMInstr load = code.get(i);
+    VMInstr getf = code.get(i + 1);
+    if (load.opcode != OpCode.LOAD || getf == null || getf.opcode != OpCode.GETF
+        || !fitsPair(load.operand, getf.operand) || code.hasJumpInto(i, 2))
+      return false;
+    code.replace(i, 2, VMInstr.LOAD_GETF((int) load.operand, (int) getf.operand));
+    return true;
+  };
+
+  /**
+   * ICMPLE; JMPF t => JMP_IF_NOT_LE t
+   */
+  public static final Rule FUSE_CMPLE_JMPF = (code, i) -> {
+    VMInstr cmp = code.get(i);
+    VMInstr jump = code.get(i + 1);
+    if (cmp.opcode != OpCode.ICMPLE || jump == null || jump.opcode != OpCode.JMPF || !Code.isJump(jump)
+        || code.hasJumpInto(i, 2))
+      return false;
+    code.replace(i, 2, VMInstr.JMP_IF_NOT_LE((int) jump.operand));
+    return true;
+  };
+
+  /* the superinstruction rules */
+  public static final List<Rule> SUPERINSTRUCTION_RULES = List.of(FUSE_INC_LOCAL, FUSE_LOAD_GETF,
+      FUSE_CMPLE_JMPF, FUSE_LOAD_LOAD);
+
+  /**
+   * Check if two operands fit the halves of a linked two-operand
+   * instruction.
+   */
+  private static boolean fitsPair(Object first, Object second) {
+    return first instanceof Integer a && second instanceof Integer b
+        && a >= 0 && b >= 0 && a <= VMLinker.MAX_PAIR_OPERAND && b <= VMLinker.MAX_PAIR_OPERAND;
+  }
+
+  /* the rules this optimizer applies */
+  private final List<Rule> rules;
+
+  /**
+   * Create a peephole optimizer with the default rules.
+   */
+  public VMPeephole() {
+    this(DEFAULT_RULES);
+  }
+
+  /**
+   * Create a peephole optimizer with the given rules.
+   *
+   * @param rules the rules to apply (in order at each index)
+   */
+  public VMPeephole(List<Rule> rules) {
+    this.rules = rules;
+  }
+
+  /**
+   * Optimize a template's instructions in place.
+   *
+   * @param template the (unlinked) template to optimize
+   */
+  public void optimize(VMFrameTemplate template) {
+    Code code = new Code(template.instructions);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < code.size(); ++i)
+        for (Rule rule : rules)
+          if (i < code.size() && rule.apply(code, i))
+            changed = true;
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * CPSC 326, Spring 2025
+ * A struct object created by the VM.
+ */
+
+package cpsc326;
+
+import java.util.Arrays;
+
+
+/**
+ * Struct objects are referenced directly from the operand stack, frame
+ * memory, and other objects (and reclaimed by the JVM once
+ * unreachable). The object id is only used for printing. Field values
+ * are stored by slot, in the order the struct declares its fields.
+ */
+public class VMStruct {
+
+  /* the object id (printed in place of the object) */
+  public final int id;
+
+  /* the struct's field values, indexed by field slot */
+  public Object[] fields;
+
+  /**
+   * Create a struct object with every field set to null
+   * @param id the object id
+   * @param fieldCount the number of field slots
+   */
+  public VMStruct(int id, int fieldCount) {
+    this.id = id;
+    this.fields = new Object[fieldCount];
+    Arrays.fill(fields, VM.NULL);
+  }
+
+  /**
+   * Struct objects print as their object id
+   */
+  @Override
+  public String toString() {
+    return String.valueOf(id);
+  }
+
+}
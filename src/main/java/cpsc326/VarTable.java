@@ -18,11 +18,15 @@ public class VarTable {
   private Deque<List<String>> environments = new ArrayDeque<>();
   // total number of variables that have been added
   private int totalVars = 0;
+  // most variables in scope at once (since the outermost environment)
+  private int maxVars = 0;
 
   
   /**
    */
   public void pushEnvironment() {
+    if (environments.isEmpty())
+      maxVars = 0;
     environments.push(new ArrayList<>());
   }
 
@@ -41,6 +45,7 @@ public class VarTable {
     if (environments.size() > 0) {
       environments.peek().add(varName);
       ++totalVars;
+      maxVars = Math.max(maxVars, totalVars);
     }
   }
 
@@ -58,6 +63,25 @@ public class VarTable {
     return -1;
   }
   
+  /**
+   * Gives the most variables that were in scope at once since the
+   * outermost environment was pushed, i.e., the number of memory
+   * slots a frame needs
+   * @return the high-water mark of variable indexes
+   */
+  public int maxVars() {
+    return maxVars;
+  }
+
+  /**
+   * Gives the number of variables currently in scope, i.e., the first
+   * memory slot not used by a variable
+   * @return the number of variables in scope
+   */
+  public int numVars() {
+    return totalVars;
+  }
+
   /**
    * Gives the number of environments in the symbol table
    * @return the number of environments
@@ -0,0 +1,110 @@
+/**
+ * CPSC 326, Spring 2025
+ * Benchmark comparing the VM engines with the closure compiler.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+class ClosureBenchmarkTests {
+
+  // Benchmark configuration
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Benchmark
+  // ----------------------------------------------------------------------
+
+  @Test
+  void benchmarkClosuresAgainstVM() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-24s %14s %14s %14s%n", "program", "if-chain us", "switch us", "closures us"));
+    for (Path file : files) {
+      String program = Files.readString(file);
+
+      // the closures must produce the same output as the VM
+      String expected = runOnce(program, Engine.IF_CHAIN);
+      assertEquals(expected, runOnce(program, Engine.CLOSURES), "Closures disagree on output for " + file);
+
+      report.append(String.format("%-24s %14.1f %14.1f %14.1f%n", file.getFileName(),
+          micros(program, Engine.IF_CHAIN), micros(program, Engine.SWITCH), micros(program, Engine.CLOSURES)));
+    }
+    stdout.print(report);
+  }
+
+  // ----------------------------------------------------------------------
+  // Benchmark Infrastructure
+  // ----------------------------------------------------------------------
+
+  private enum Engine {
+    IF_CHAIN, SWITCH, CLOSURES
+  }
+
+  private double micros(String program, Engine engine) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      runOnce(program, engine);
+    long total = 0;
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      Runnable run = build(program, engine);
+      long start = System.nanoTime();
+      run.run();
+      total += System.nanoTime() - start;
+    }
+    return total / 1000.0 / MEASURED_ITERATIONS;
+  }
+
+  private String runOnce(String program, Engine engine) {
+    output.reset();
+    build(program, engine).run();
+    return output.toString();
+  }
+
+  private Runnable build(String program, Engine engine) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new ASTOptimizer());
+    if (engine == Engine.CLOSURES) {
+      ClosureCompiler compiler = new ClosureCompiler();
+      p.accept(compiler);
+      return compiler::run;
+    }
+    VM vm = new VM();
+    vm.dispatchMode(engine == Engine.SWITCH);
+    p.accept(new CodeGenerator(vm));
+    return vm::run;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
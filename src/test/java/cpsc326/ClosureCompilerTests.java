@@ -0,0 +1,238 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the closure compiler (RUN-C).
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+
+class ClosureCompilerTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior as the VM
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testArithmeticAndComparisons() {
+    assertSameAsVM("""
+        void main() {
+          var a = 7
+          var b = 2
+          var x = 7.5
+          var s = "ab"
+          println(a + b * 3 - a / b)
+          println(x / 2.0 - 1.25 * x)
+          println(s + "c")
+          println(a > b)
+          println(a <= b)
+          println(x >= 7.5)
+          println(s < "b")
+          println(a == 7 and not (s != "ab"))
+          println(null == s or false)
+        }
+        """);
+  }
+
+  @Test
+  void testLoopsAndBranches() {
+    assertSameAsVM("""
+        int classify(n: int) {
+          if n < 3 {
+            return 0
+          } else if n < 6 {
+            return 1
+          } else if n < 9 {
+            return 2
+          }
+          return 3
+        }
+        void main() {
+          var counts = new int[4]
+          for i from 0 to 3 {
+            counts[i] = 0
+          }
+          for i from 0 to 10 {
+            var c = classify(i)
+            counts[c] = counts[c] + 1
+          }
+          var j = 0
+          while j < 4 {
+            print(counts[j])
+            j = j + 1
+          }
+          for i from 5 to 1 {
+            print("never")
+          }
+        }
+        """);
+  }
+
+  @Test
+  void testStructsAndArrays() {
+    assertSameAsVM("""
+        struct Node {
+          val: int,
+          next: Node,
+          tags: [string]
+        }
+        void main() {
+          var head = new Node(1, null, new string[2])
+          head.next = new Node(2, null, null)
+          head.next.next = new Node(3, null, new string[1])
+          var ts = head.tags
+          ts[1] = "x"
+          var us = head.next.next.tags
+          us[0] = "y"
+          head.next.val = head.val + head.next.next.val
+          var n = head
+          while n != null {
+            println(n.val)
+            n = n.next
+          }
+          println(ts[1] + us[0])
+          println(size(head.tags))
+        }
+        """);
+  }
+
+  @Test
+  void testEvaluationOrder() {
+    // calls evaluate their arguments last to first, and the right
+    // operand of > and >= comes first
+    assertSameAsVM("""
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        int g(a: int, b: int, c: int) {
+          return a * 100 + b * 10 + c
+        }
+        void main() {
+          println(g(f("a", 1), f("b", 2), f("c", 3)))
+          println(f("d", 1) > f("e", 2))
+          println(f("f", 1) < f("g", 2))
+          println(get(f("h", 0), "xy"))
+        }
+        """);
+  }
+
+  @Test
+  void testBuiltInsAndRecursion() {
+    assertSameAsVM("""
+        int fib(n: int) {
+          if n < 2 {
+            return n
+          }
+          return fib(n - 1) + fib(n - 2)
+        }
+        int depth(n: int) {
+          if n == 0 {
+            return 0
+          }
+          return 1 + depth(n - 1)
+        }
+        void main() {
+          println(fib(15))
+          println(depth(20000))
+          println(int_val("42") + int_val(3.9))
+          println(dbl_val(3) + dbl_val("0.5"))
+          println(str_val(12) + str_val(0.5))
+          println(size("hello"))
+        }
+        """);
+  }
+
+  // ----------------------------------------------------------------------
+  // Errors
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testErrorsReported() {
+    assertEquals("VM_ERROR: division by zero error in f", error("""
+        int f(x: int) {
+          return 10 / x
+        }
+        void main() {
+          print(f(0))
+        }
+        """));
+    assertEquals("VM_ERROR: null value error in main", error("""
+        void main() {
+          var x = 1
+          x = null
+          print(x + 1)
+        }
+        """));
+    assertEquals("VM_ERROR: GETI: index out of bounds", error("""
+        void main() {
+          var xs = new int[2]
+          print(xs[2])
+        }
+        """));
+    assertEquals("VM_ERROR: Invalid struct object ID", error("""
+        struct P {
+          x: int
+        }
+        void main() {
+          var p = new P(1)
+          p = null
+          p.x = 2
+        }
+        """));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private void assertSameAsVM(String program) {
+    output.reset();
+    VM vm = new VM();
+    parse(program).accept(new CodeGenerator(vm));
+    vm.run();
+    String expected = output.toString();
+    output.reset();
+    ClosureCompiler compiler = new ClosureCompiler();
+    parse(program).accept(compiler);
+    compiler.run();
+    assertEquals(expected, output.toString());
+  }
+
+  private String error(String program) {
+    ClosureCompiler compiler = new ClosureCompiler();
+    parse(program).accept(compiler);
+    return assertThrows(MyPLException.class, compiler::run).getMessage();
+  }
+
+  private Program parse(String program) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new ASTOptimizer());
+    return p;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
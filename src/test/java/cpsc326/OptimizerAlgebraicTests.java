@@ -0,0 +1,238 @@
+/**
+ * CPSC 326, Spring 2025
+ * Algebraic simplification unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Unit tests for the algebraic simplification pass of the ASTOptimizer
+ */
+class OptimizerAlgebraicTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Rewrites
+
+  @Test
+  void testIdentities() {
+    String f = simplified("""
+        int f(x: int, s: string) {
+          var a = x + 1
+          var b = a + 0
+          var c = 1 * (a - 0)
+          var d = a / 1
+          var t = s == "x"
+          var u = not not t
+          var v = t and true
+          var w = false or t
+          return b + c + d
+        }
+        """);
+    assertTrue(f.contains("var b:  = a\n"), f);
+    assertTrue(f.contains("var c:  = a\n"), f);
+    assertTrue(f.contains("var d:  = a\n"), f);
+    assertTrue(f.contains("var u:  = t\n"), f);
+    assertTrue(f.contains("var v:  = t\n"), f);
+    assertTrue(f.contains("var w:  = t\n"), f);
+  }
+
+  @Test
+  void testAnnihilatorsAndSelfSubtraction() {
+    String f = simplified("""
+        int f(x: int, b: bool) {
+          var a = x * 2
+          var c = a - a
+          var d = a * 0
+          var t = x > 0
+          var u = t and false
+          var v = true or t
+          println(u or v)
+          return c + d
+        }
+        """);
+    assertTrue(f.contains("var c:  = 0\n"), f);
+    assertTrue(f.contains("var d:  = 0\n"), f);
+    assertTrue(f.contains("var u:  = false\n"), f);
+    assertTrue(f.contains("var v:  = true\n"), f);
+  }
+
+  @Test
+  void testIntConstantChainsFolded() {
+    String f = simplified("""
+        int f(x: int, y: int) {
+          var a = x + 1 + 2
+          var b = x - 1 + 4 - 5
+          var c = 2 + x * 3 * 4
+          var d = a + 1 + y + 2
+          var g = x + 1 + y + 2
+          var e = 10 - x + 5
+          return a + b + c + d + e + g
+        }
+        """);
+    assertTrue(f.contains("var a:  = (x + 3)\n"), f);
+    assertTrue(f.contains("var b:  = (x - 2)\n"), f);
+    assertTrue(f.contains("var c:  = ((x * 12) + 2)\n"), f);
+    // a + 1 cannot fail, so y may be added first, but x may be null
+    assertTrue(f.contains("var d:  = ((a + y) + 3)\n"), f);
+    assertTrue(f.contains("var g:  = (((x + 1) + y) + 2)\n"), f);
+    assertTrue(f.contains("var e:  = (15 - x)\n"), f);
+  }
+
+  @Test
+  void testRegroupedArithmeticStaysTyped() {
+    Program p = optimize("""
+        void main() {
+          var x = size("abc")
+          var y = x + 1 + 2 * x * 3 - 4
+          println(y)
+        }
+        """, new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.ALGEBRAIC_SIMPLIFICATION)));
+    VM vm = new VM();
+    p.accept(new CodeGenerator(vm));
+    String code = vm.toString();
+    assertFalse(code.contains(": ADD()") || code.contains(": SUB()") || code.contains(": MUL()"), code);
+  }
+
+  @Test
+  void testUnsafeRewritesSkipped() {
+    String f = simplified("""
+        int f(x: int, y: double, b: bool) {
+          var a = x + 0
+          var c = x * 0
+          var d = x - x
+          var e = y + 0.0
+          var g = y * 2.0 * 4.0
+          var h = y - y
+          var k = b and true
+          var m = not not b
+          println(e + g + h)
+          println(k and m)
+          return a + c + d
+        }
+        """);
+    // parameters may be null (and operators on null fail), and double
+    // arithmetic rounds
+    assertTrue(f.contains("var a:  = (x + 0)\n"), f);
+    assertTrue(f.contains("var c:  = (x * 0)\n"), f);
+    assertTrue(f.contains("var d:  = (x - x)\n"), f);
+    assertTrue(f.contains("var e:  = (y + 0.0)\n"), f);
+    assertTrue(f.contains("var g:  = ((y * 2.0) * 4.0)\n"), f);
+    assertTrue(f.contains("var h:  = (y - y)\n"), f);
+    assertTrue(f.contains("var k:  = (b and true)\n"), f);
+    assertTrue(f.contains("var m:  = not (not (b))\n"), f);
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior
+
+  @Test
+  void testArithmeticRunsTheSame() {
+    assertSameOutput("""
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        void main() {
+          var big = 2147483600
+          for i from 0 to 3 {
+            var j = i * 1 + 0
+            println(j + 40 + 10 - big + 7)
+            println(big + i + 100 + f("a", i) - 50)
+            println(3 - j - 1 + 8 * j * 2)
+            println(not not (j > 1) and true)
+          }
+          var x = 0.1
+          println(x + 0.2 + 0.3)
+          println(x * 1.0 - 0.0)
+        }
+        """);
+  }
+
+  @Test
+  void testExamplesRunTheSame() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+    for (Path file : files)
+      assertSameOutput(Files.readString(file));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+
+  /**
+   * The printed function (before main) of a program optimized with
+   * constant propagation, unused variable removal and the given pass.
+   */
+  private String simplified(String program, ASTOptimizer.Pass pass) {
+    Program p = optimize(program + "void main() {\n}\n",
+        new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.CONSTANT_PROPAGATION, pass)));
+    output.reset();
+    p.functions.get(p.functions.size() - 2).accept(new PrintVisitor());
+    return output.toString();
+  }
+
+  private String simplified(String program) {
+    return simplified(program, ASTOptimizer.Pass.ALGEBRAIC_SIMPLIFICATION);
+  }
+
+  private Program optimize(String program, ASTOptimizer optimizer) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(optimizer);
+    return p;
+  }
+
+  private void assertSameOutput(String program) {
+    Set<ASTOptimizer.Pass> without = EnumSet.allOf(ASTOptimizer.Pass.class);
+    without.remove(ASTOptimizer.Pass.ALGEBRAIC_SIMPLIFICATION);
+    assertEquals(run(program, without), run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  /**
+   * The output of a program, followed by the error it stops with (if
+   * any).
+   */
+  private String run(String program, Set<ASTOptimizer.Pass> passes) {
+    output.reset();
+    VM vm = new VM();
+    optimize(program, new ASTOptimizer(passes)).accept(new CodeGenerator(vm));
+    try {
+      vm.run();
+    } catch (MyPLException e) {
+      return output + e.getMessage();
+    }
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
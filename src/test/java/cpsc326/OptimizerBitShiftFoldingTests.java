@@ -6,10 +6,13 @@
 package cpsc326;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 
 class OptimizerBitShiftFoldingTests {
 
@@ -145,4 +148,108 @@ class OptimizerBitShiftFoldingTests {
     VarStmt stmt = (VarStmt) prog.functions.get(0).stmts.get(0);
     assertLiteral(stmt.expr.get(), "100", TokenType.INT_VAL);
   }
-}
\ No newline at end of file
+
+  @Test
+  void testNegativeDivisionFolding() {
+    var p = "void main() { var x = (0 - 7) / 2 }"; // rounds toward zero, unlike -7 >> 1
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    VarStmt stmt = (VarStmt) prog.functions.get(0).stmts.get(0);
+    assertLiteral(stmt.expr.get(), "-3", TokenType.INT_VAL);
+  }
+
+  // ----------------------------------------------------------------------
+  // Variable Operands (Shift and Mask Instructions)
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testMultiplyVariableBecomesShift() {
+    var p = "void f(x: int) { var y = x * 8 var z = 4 * x } void main() { }";
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    assertShift(((VarStmt) prog.functions.get(0).stmts.get(0)).expr.get(), TokenType.SHIFT_LEFT, "3");
+    assertShift(((VarStmt) prog.functions.get(0).stmts.get(1)).expr.get(), TokenType.SHIFT_LEFT, "2");
+  }
+
+  @Test
+  void testDivideNonNegativeVariableBecomesShift() {
+    var p = "void main() { for i from 0 to 9 { var y = i / 4 } }";
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    ForStmt loop = (ForStmt) prog.functions.get(0).stmts.get(0);
+    assertShift(((VarStmt) loop.stmts.get(0)).expr.get(), TokenType.SHIFT_RIGHT, "2");
+  }
+
+  @Test
+  void testDividePossiblyNegativeVariableNotShifted() {
+    var p = "void f(x: int) { var y = x / 4 for i from 0 - 1 to 9 { var z = i / 4 } } void main() { }";
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    BinaryExpr y = (BinaryExpr) ((VarStmt) prog.functions.get(0).stmts.get(0)).expr.get();
+    assertEquals(TokenType.DIVIDE, y.binaryOp.tokenType);
+    ForStmt loop = (ForStmt) prog.functions.get(0).stmts.get(1);
+    BinaryExpr z = (BinaryExpr) ((VarStmt) loop.stmts.get(0)).expr.get();
+    assertEquals(TokenType.DIVIDE, z.binaryOp.tokenType);
+  }
+
+  @Test
+  void testRemainderBecomesMask() {
+    var p = "void main() { for i from 0 to 9 { var r = i - i / 8 * 8 var d = i / 8 * 8 } }";
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    ForStmt loop = (ForStmt) prog.functions.get(0).stmts.get(0);
+    assertShift(((VarStmt) loop.stmts.get(0)).expr.get(), TokenType.BIT_AND, "7");
+    assertShift(((VarStmt) loop.stmts.get(1)).expr.get(), TokenType.BIT_AND, "-8");
+  }
+
+  @Test
+  void testLoopRunsShiftInstructions() {
+    var p = """
+        void main() {
+          var total = 0
+          for i from 0 to 100 {
+            total = total + (i * 8) + (i / 4) + (i - i / 16 * 16)
+          }
+          print(total)
+        }
+        """;
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+    VM vm = new VM();
+    prog.accept(new CodeGenerator(vm));
+    String code = vm.toString();
+    assertTrue(code.contains("SHL()") && code.contains("SHR()") && code.contains("IAND()"), code);
+    assertFalse(code.contains("MUL()") || code.contains("DIV()"), code);
+
+    PrintStream stdout = System.out;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+    try {
+      vm.run();
+    } finally {
+      System.setOut(stdout);
+    }
+    int total = 0;
+    for (int i = 0; i <= 100; i++)
+      total = total + i * 8 + i / 4 + i % 16;
+    assertEquals(Integer.toString(total), output.toString());
+  }
+
+  private void assertShift(Expr expr, TokenType op, String amount) {
+    assertTrue(expr instanceof BinaryExpr, "Expected BinaryExpr");
+    BinaryExpr binary = (BinaryExpr) expr;
+    assertEquals(op, binary.binaryOp.tokenType, "Incorrect operator");
+    assertLiteral(binary.rhs, amount, TokenType.INT_VAL);
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * CPSC 326, Spring 2025
+ * Common subexpression elimination unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Unit tests for the common subexpression pass of the ASTOptimizer
+ */
+class OptimizerCommonSubexpressionTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // What is computed once
+
+  @Test
+  void testRepeatedArithmeticComputedOnce() {
+    ASTOptimizer optimizer = eliminator();
+    FunDef f = function("""
+        int cell(g: [int], i: int, w: int, j: int) {
+          g[i * w + j] = g[i * w + j] + 1
+          return g[i * w + j]
+        }
+        """, optimizer);
+    assertEquals(1, optimizer.commonSubexpressions());
+    VarStmt temp = (VarStmt) f.stmts.get(0);
+    assertEquals("cse$1", temp.varName.lexeme);
+    AssignStmt assign = (AssignStmt) f.stmts.get(1);
+    assertEquals("cse$1", read(assign.lvalue.get(0).arrayExpr.get()));
+  }
+
+  @Test
+  void testRepeatedPathsComputedOnce() {
+    ASTOptimizer optimizer = eliminator();
+    FunDef f = function("""
+        struct C {
+          n: int
+        }
+        struct B {
+          c: C
+        }
+        int sum(b: B, xs: [int], i: int) {
+          var x = b.c.n * 2
+          var y = b.c.n + xs[i]
+          xs[i] = b.c.n
+          return y + xs[i]
+        }
+        """, optimizer);
+    // b.c.n three times (the element store does not change it), but
+    // xs[i] is stored to between its reads
+    assertEquals(1, optimizer.commonSubexpressions());
+    assertEquals("cse$1", ((VarStmt) f.stmts.get(0)).varName.lexeme);
+    assertEquals(5, f.stmts.size());
+  }
+
+  @Test
+  void testStoresInvalidate() {
+    ASTOptimizer optimizer = eliminator();
+    function("""
+        struct P {
+          x: int,
+          next: P
+        }
+        void bump(p: P) {
+          p.x = p.x + 1
+        }
+        int f(p: P, q: P, i: int) {
+          var a = i * 2
+          i = i + 1
+          var b = i * 2
+          var c = p.next.x
+          q.x = 0
+          var d = p.next.x
+          var e = p.next
+          bump(q)
+          var g = p.next
+          return a + b + c + d + e.x + g.x
+        }
+        """, optimizer);
+    // i is assigned, q.x may be p.next.x, and bump may change p.next
+    assertEquals(0, optimizer.commonSubexpressions());
+  }
+
+  @Test
+  void testCallsInDeclarationsInvalidate() {
+    String program = """
+        struct S {
+          f: int
+        }
+        int g(s: S, n: int) {
+          s.f = s.f + 10
+          return n
+        }
+        void main() {
+          var s = new S(1)
+          var a = s.f + 1
+          var y = g(s, 0)
+          var b = s.f + 1
+          println(a)
+          println(b)
+        }
+        """;
+    ASTOptimizer optimizer = eliminator();
+    optimize(program, optimizer);
+    // g changes s.f between the two reads
+    assertEquals(0, optimizer.commonSubexpressions());
+    assertEquals("2\n12\n", run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  @Test
+  void testBasicBlocksKeptApart() {
+    ASTOptimizer optimizer = eliminator();
+    FunDef f = function("""
+        int f(a: int, b: int) {
+          var x = a * b
+          if x > 0 {
+            x = a * b + a * b
+          }
+          return a * b
+        }
+        """, optimizer);
+    // only the repeat within the if body
+    assertEquals(1, optimizer.commonSubexpressions());
+    IfStmt branch = (IfStmt) f.stmts.get(1);
+    assertEquals(2, branch.ifStmts.size());
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior
+
+  @Test
+  void testErrorsHappenAtTheSamePoint() {
+    String program = """
+        struct P {
+          x: int
+        }
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        void main() {
+          var p = new P(1)
+          println(p.x + p.x)
+          p = null
+          println(f("a", 1) + p.x + p.x)
+        }
+        """;
+    String expected = run(program, EnumSet.noneOf(ASTOptimizer.Pass.class));
+    assertTrue(expected.startsWith("2\na"), expected);
+    assertEquals(expected, run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  @Test
+  void testEvaluationOrderKept() {
+    assertSameOutput("""
+        struct P {
+          x: int
+        }
+        int f(p: P, s: string, n: int) {
+          print(s)
+          p.x = p.x + n
+          return n
+        }
+        void main() {
+          var p = new P(1)
+          var xs = new int[4]
+          var i = 1
+          println(p.x + f(p, "a", 2) + p.x)
+          println(f(p, "b", p.x * 2) > p.x * 2)
+          xs[i + 1] = xs[i + 1] + f(p, "c", i + 1)
+          println(xs[i + 1] + p.x)
+          println(i > 0 and xs[i + 1] > 0 or xs[i + 1] < 0)
+        }
+        """);
+  }
+
+  @Test
+  void testExamplesRunTheSame() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+    for (Path file : files)
+      assertSameOutput(Files.readString(file));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+
+  private ASTOptimizer eliminator() {
+    return new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.COMMON_SUBEXPRESSIONS));
+  }
+
+  private Program optimize(String program, ASTOptimizer optimizer) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(optimizer);
+    return p;
+  }
+
+  /**
+   * Optimize a program (given a main function) and return its last
+   * function before main.
+   */
+  private FunDef function(String program, ASTOptimizer optimizer) {
+    Program p = optimize(program + "void main() {\n}\n", optimizer);
+    return p.functions.get(p.functions.size() - 2);
+  }
+
+  /**
+   * The name of the variable an expression reads.
+   */
+  private String read(Expr e) {
+    return ((VarRValue) ((BasicExpr) e).rvalue).path.get(0).varName.lexeme;
+  }
+
+  private void assertSameOutput(String program) {
+    Set<ASTOptimizer.Pass> without = EnumSet.allOf(ASTOptimizer.Pass.class);
+    without.remove(ASTOptimizer.Pass.COMMON_SUBEXPRESSIONS);
+    assertEquals(run(program, without), run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  /**
+   * The output of a program, followed by the error it stops with (if
+   * any).
+   */
+  private String run(String program, Set<ASTOptimizer.Pass> passes) {
+    output.reset();
+    VM vm = new VM();
+    optimize(program, new ASTOptimizer(passes)).accept(new CodeGenerator(vm));
+    try {
+      vm.run();
+    } catch (MyPLException e) {
+      return output + e.getMessage();
+    }
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * CPSC 326, Spring 2025
+ * Constant Propagation unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+/**
+ * Unit tests for constant propagation in the ASTOptimizer
+ */
+class OptimizerConstantPropagationTests {
+
+  /**
+   * Helper to build an input string.
+   */
+  InputStream istream(String str) {
+    try {
+      return new ByteArrayInputStream(str.getBytes("UTF-8"));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  private List<Stmt> optimize(String p) {
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+    return prog.functions.get(prog.functions.size() - 1).stmts;
+  }
+
+  private void assertLiteral(Expr expr, String expectedLexeme, TokenType expectedType) {
+    assertTrue(expr instanceof BasicExpr, "Expected BasicExpr");
+    BasicExpr basic = (BasicExpr) expr;
+
+    assertTrue(basic.rvalue instanceof SimpleRValue, "Expected SimpleRValue");
+    SimpleRValue val = (SimpleRValue) basic.rvalue;
+
+    assertEquals(expectedLexeme, val.literal.lexeme, "Incorrect literal value");
+    assertEquals(expectedType, val.literal.tokenType, "Incorrect literal type");
+  }
+
+  private boolean isLiteral(Expr expr) {
+    return expr instanceof BasicExpr b && b.rvalue instanceof SimpleRValue;
+  }
+
+  // ----------------------------------------------------------------------
+  // Straight-line code
+
+  @Test
+  void testPropagatedConstantIsFolded() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var x = 5
+          var c = x * 2
+        }
+        """);
+    assertLiteral(((VarStmt) stmts.get(1)).expr.get(), "10", TokenType.INT_VAL);
+  }
+
+  @Test
+  void testChainedConstants() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var a = 2.0
+          var b = a * 3.0
+          var s = "x"
+          var t = s + "y"
+          var done = b > 5.0 and t == "xy"
+        }
+        """);
+    assertLiteral(((VarStmt) stmts.get(1)).expr.get(), "6.0", TokenType.DOUBLE_VAL);
+    assertLiteral(((VarStmt) stmts.get(3)).expr.get(), "xy", TokenType.STRING_VAL);
+    assertLiteral(((VarStmt) stmts.get(4)).expr.get(), "true", TokenType.BOOL_VAL);
+  }
+
+  @Test
+  void testReassignedConstantUsesLatestValue() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var x = 1
+          x = 4
+          var y = x + 1
+        }
+        """);
+    assertLiteral(((VarStmt) stmts.get(2)).expr.get(), "5", TokenType.INT_VAL);
+  }
+
+  @Test
+  void testConstantsPropagateIntoCallArguments() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var n = 3
+          println(n * n)
+        }
+        """);
+    CallRValue call = (CallRValue) stmts.get(1);
+    assertLiteral(call.args.get(0), "9", TokenType.INT_VAL);
+  }
+
+  // ----------------------------------------------------------------------
+  // Branches and loops
+
+  @Test
+  void testBranchAssignmentBlocksPropagation() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var b = int_val("1") == 1
+          var x = 1
+          if b {
+            x = 2
+          }
+          var y = x
+        }
+        """);
+    assertFalse(isLiteral(((VarStmt) stmts.get(3)).expr.get()));
+  }
+
+  @Test
+  void testBranchesAgreeingOnConstant() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var b = int_val("1") == 1
+          var x = 1
+          if b {
+            x = 2
+          } else {
+            x = 2
+          }
+          var y = x * 10
+        }
+        """);
+    assertLiteral(((VarStmt) stmts.get(3)).expr.get(), "20", TokenType.INT_VAL);
+  }
+
+  @Test
+  void testLoopAssignmentBlocksPropagation() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var i = 0
+          var k = 7
+          while i < 10 {
+            i = i + 1
+          }
+          var j = i
+          var m = k + 1
+        }
+        """);
+    WhileStmt loop = (WhileStmt) stmts.get(2);
+    assertTrue(loop.condition instanceof BinaryExpr, "loop condition must not be folded");
+    assertFalse(isLiteral(((VarStmt) stmts.get(3)).expr.get()));
+    assertLiteral(((VarStmt) stmts.get(4)).expr.get(), "8", TokenType.INT_VAL);
+  }
+
+  @Test
+  void testForUpperBoundAssignedInBodyNotPropagated() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var n = 3
+          for i from 1 to n {
+            n = n - 1
+          }
+        }
+        """);
+    ForStmt loop = (ForStmt) stmts.get(1);
+    assertFalse(isLiteral(loop.toExpr));
+  }
+
+  // ----------------------------------------------------------------------
+  // Null values
+
+  @Test
+  void testPropagatedNullOnlyFoldsEquality() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var x: int = null
+          var s: string = null
+          var a = x == null
+          var b = s != null
+          var c = x < 3
+          var d = s >= "a"
+        }
+        """);
+    assertLiteral(((VarStmt) stmts.get(2)).expr.get(), "true", TokenType.BOOL_VAL);
+    assertLiteral(((VarStmt) stmts.get(3)).expr.get(), "false", TokenType.BOOL_VAL);
+    // relational operators fail on null at run time
+    assertFalse(isLiteral(((VarStmt) stmts.get(4)).expr.get()));
+    assertFalse(isLiteral(((VarStmt) stmts.get(5)).expr.get()));
+  }
+
+  // ----------------------------------------------------------------------
+  // Names that are not propagated
+
+  @Test
+  void testParametersAndShadowedNamesNotPropagated() {
+    List<Stmt> stmts = optimize("""
+        int f(p: int) {
+          var q = p + 1
+          return q
+        }
+        void main() {
+          var x = 1
+          for i from 1 to 2 {
+            var x = 2
+          }
+          var y = x
+          var i = 5
+          var z = i
+        }
+        """);
+    assertFalse(isLiteral(((VarStmt) stmts.get(2)).expr.get()));
+    assertFalse(isLiteral(((VarStmt) stmts.get(4)).expr.get()));
+  }
+
+}
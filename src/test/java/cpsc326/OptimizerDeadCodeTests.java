@@ -0,0 +1,218 @@
+/**
+ * CPSC 326, Spring 2025
+ * Dead code elimination unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Unit tests for dead code and unused variable elimination in the
+ * ASTOptimizer
+ */
+class OptimizerDeadCodeTests {
+
+  /**
+   * Helper to build an input string.
+   */
+  InputStream istream(String str) {
+    try {
+      return new ByteArrayInputStream(str.getBytes("UTF-8"));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  private List<Stmt> optimize(String p, ASTOptimizer optimizer) {
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(optimizer);
+    return prog.functions.get(prog.functions.size() - 1).stmts;
+  }
+
+  private List<Stmt> optimize(String p) {
+    return optimize(p, new ASTOptimizer());
+  }
+
+  private List<Stmt> optimizeAll(String p) {
+    return optimize(p, new ASTOptimizer(EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  private String callName(Stmt stmt) {
+    assertTrue(stmt instanceof CallRValue, "Expected CallRValue");
+    return ((CallRValue) stmt).funName.lexeme;
+  }
+
+  // ----------------------------------------------------------------------
+  // Branches
+
+  @Test
+  void testTrueBranchReplacesIf() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var debug = true
+          if debug {
+            println("a")
+            println("b")
+          } else {
+            print("c")
+          }
+        }
+        """);
+    assertEquals(3, stmts.size());
+    assertEquals("println", callName(stmts.get(1)));
+    assertEquals("println", callName(stmts.get(2)));
+  }
+
+  @Test
+  void testFalseBranchReplacedByElse() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          if 1 > 2 {
+            println("a")
+          } else {
+            print("b")
+          }
+          if false {
+            println("c")
+          }
+        }
+        """);
+    assertEquals(1, stmts.size());
+    assertEquals("print", callName(stmts.get(0)));
+  }
+
+  @Test
+  void testElseIfChainCollapsed() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var n = int_val("3")
+          if n > 5 {
+            println("big")
+          } else if false {
+            println("never")
+          } else if true {
+            println("small")
+          } else {
+            println("unreachable")
+          }
+        }
+        """);
+    IfStmt node = (IfStmt) stmts.get(1);
+    assertTrue(node.elseIf.isEmpty(), "else-if chain should be collapsed");
+    assertEquals(1, node.elseStmts.get().size());
+  }
+
+  @Test
+  void testFalseHeadPromotesElseIf() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var n = int_val("3")
+          if false {
+            println("a")
+          } else if n > 1 {
+            println("b")
+          } else {
+            print("c")
+          }
+        }
+        """);
+    assertEquals(2, stmts.size());
+    IfStmt node = (IfStmt) stmts.get(1);
+    assertTrue(node.condition instanceof BinaryExpr);
+    assertTrue(node.elseStmts.isPresent());
+  }
+
+  // ----------------------------------------------------------------------
+  // Loops and returns
+
+  @Test
+  void testLoopsThatNeverRunRemoved() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          while false {
+            println("a")
+          }
+          for i from 5 to 1 {
+            println(i)
+          }
+          for i from 1 to 1 {
+            println(i)
+          }
+        }
+        """);
+    assertEquals(1, stmts.size());
+    assertTrue(stmts.get(0) instanceof ForStmt);
+  }
+
+  @Test
+  void testStatementsAfterReturnRemoved() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+        }
+        int f(x: int) {
+          if true {
+            return x
+          }
+          println("dead")
+          return 0
+        }
+        """);
+    assertEquals(1, stmts.size());
+    assertTrue(stmts.get(0) instanceof ReturnStmt);
+  }
+
+  // ----------------------------------------------------------------------
+  // Unused variables
+
+  @Test
+  void testUnusedVariablesRemoved() {
+    List<Stmt> stmts = optimizeAll("""
+        void main() {
+          var a = 1
+          var b = a
+          var c = int_val("2")
+          var d = 3
+          println(d)
+        }
+        """);
+    // b is unused, which then leaves a unused; c's initializer is a call
+    assertEquals(2, stmts.size());
+    assertEquals("c", ((VarStmt) stmts.get(0)).varName.lexeme);
+    assertEquals("println", callName(stmts.get(1)));
+  }
+
+  @Test
+  void testAssignedVariablesKept() {
+    List<Stmt> stmts = optimizeAll("""
+        void main() {
+          var i = 0
+          while i < 3 {
+            i = i + 1
+          }
+          var xs = new int[2]
+          xs[0] = 1
+        }
+        """);
+    assertEquals(4, stmts.size());
+  }
+
+  @Test
+  void testDefaultOptimizerKeepsUnusedVariables() {
+    List<Stmt> stmts = optimize("""
+        void main() {
+          var a = 1
+        }
+        """);
+    assertEquals(1, stmts.size());
+  }
+
+}
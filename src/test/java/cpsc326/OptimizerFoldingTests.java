@@ -166,4 +166,28 @@ class OptimizerFoldingTests {
     assertLiteral(stmt.expr.get(), "true", TokenType.BOOL_VAL);
   }
 
+  @Test
+  void testShortCircuitFolding() {
+    var p = """
+        bool f(x: int) {
+          println(x)
+          return true
+        }
+        void main() {
+          var a = false and f(1)
+          var b = true or f(2)
+          var c = (1 > 2) and f(3)
+        }
+        """;
+    Program prog = new ASTParser(new Lexer(istream(p))).parse();
+    prog.accept(new SemanticChecker());
+    prog.accept(new ASTOptimizer());
+
+    // the right operand would never run, so its call goes too
+    List<Stmt> stmts = prog.functions.get(1).stmts;
+    assertLiteral(((VarStmt) stmts.get(0)).expr.get(), "false", TokenType.BOOL_VAL);
+    assertLiteral(((VarStmt) stmts.get(1)).expr.get(), "true", TokenType.BOOL_VAL);
+    assertLiteral(((VarStmt) stmts.get(2)).expr.get(), "false", TokenType.BOOL_VAL);
+  }
+
 }
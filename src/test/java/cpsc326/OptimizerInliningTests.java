@@ -0,0 +1,314 @@
+/**
+ * CPSC 326, Spring 2025
+ * Function inlining unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Unit tests for the inlining pass of the ASTOptimizer
+ */
+class OptimizerInliningTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Which calls are inlined
+
+  @Test
+  void testSmallFunctionsInlined() {
+    ASTOptimizer optimizer = inliner();
+    Program p = optimize("""
+        struct P {
+          x: int
+        }
+        int getX(p: P) {
+          return p.x
+        }
+        int twice(n: int) {
+          return n + n
+        }
+        void main() {
+          var p = new P(3)
+          var a = twice(getX(p))
+          println(a)
+        }
+        """, optimizer);
+    assertEquals(List.of("twice into main at 12:11", "getX into main at 12:17"), optimizer.inlinedCalls());
+    assertFalse(calls(main(p)).contains("twice"));
+    assertFalse(calls(main(p)).contains("getX"));
+  }
+
+  @Test
+  void testRecursiveFunctionsNotInlined() {
+    ASTOptimizer optimizer = inliner();
+    Program p = optimize("""
+        int fact(n: int) {
+          var r = 1
+          if n > 1 {
+            r = n * fact(n - 1)
+          }
+          return r
+        }
+        bool isEven(n: int) {
+          var r = true
+          if n > 0 {
+            r = isOdd(n - 1)
+          }
+          return r
+        }
+        bool isOdd(n: int) {
+          var r = false
+          if n > 0 {
+            r = isEven(n - 1)
+          }
+          return r
+        }
+        void main() {
+          println(fact(5))
+          println(isEven(4))
+        }
+        """, optimizer);
+    assertTrue(optimizer.inlinedCalls().isEmpty());
+    assertEquals(Set.of("println", "fact", "isEven"), calls(main(p)));
+  }
+
+  @Test
+  void testEarlyReturnNotInlined() {
+    ASTOptimizer optimizer = inliner();
+    optimize("""
+        int sign(n: int) {
+          if n < 0 {
+            return 0 - 1
+          }
+          return 1
+        }
+        void main() {
+          println(sign(2))
+        }
+        """, optimizer);
+    assertTrue(optimizer.inlinedCalls().isEmpty());
+  }
+
+  @Test
+  void testBudget() {
+    String program = """
+        int poly(x: int) {
+          var a = x * x * x
+          return a + 7 * x + 1
+        }
+        void main() {
+          println(poly(2))
+        }
+        """;
+    ASTOptimizer optimizer = inliner();
+    optimize(program, optimizer);
+    assertEquals(1, optimizer.inlinedCalls().size());
+
+    optimizer = inliner();
+    optimizer.inlineBudget(10);
+    optimize(program, optimizer);
+    assertTrue(optimizer.inlinedCalls().isEmpty());
+  }
+
+  @Test
+  void testCallAfterFieldReadNotMoved() {
+    ASTOptimizer optimizer = inliner();
+    Program p = optimize("""
+        struct P {
+          x: int
+        }
+        int bump(p: P) {
+          p.x = p.x + 1
+          return 0
+        }
+        void main() {
+          var p = new P(1)
+          println(p.x + bump(p))
+        }
+        """, optimizer);
+    // bump would run before p.x is read
+    assertTrue(optimizer.inlinedCalls().isEmpty());
+    assertTrue(calls(main(p)).contains("bump"));
+  }
+
+  @Test
+  void testLocalsRenamed() {
+    ASTOptimizer optimizer = inliner();
+    Program p = optimize("""
+        int sq(n: int) {
+          var r = n * n
+          return r
+        }
+        void main() {
+          var r = 2
+          var n = sq(r) + sq(3)
+          println(n)
+        }
+        """, optimizer);
+    assertEquals(2, optimizer.inlinedCalls().size());
+    Set<String> names = new HashSet<>();
+    for (Stmt s : main(p).stmts) {
+      if (s instanceof VarStmt v)
+        assertTrue(names.add(v.varName.lexeme), "Redeclared " + v.varName.lexeme);
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior
+
+  @Test
+  void testEvaluationOrderKept() {
+    assertSameOutput("""
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        int pick(a: int, b: int, c: int) {
+          var t = a * 100
+          return t + b * 10 + c
+        }
+        void main() {
+          println(pick(f("a", 1), f("b", 2), f("c", 3)))
+          println(f("d", 1) > f("e", 2))
+          println(f("f", 1) + f("g", 2) * f("h", 3))
+          var xs = new int[3]
+          xs[f("i", 1)] = f("j", 2)
+        }
+        """);
+  }
+
+  @Test
+  void testArgumentsAndLocalsKeptApart() {
+    assertSameOutput("""
+        struct Counter {
+          n: int
+        }
+        int add(x: int, y: int) {
+          x = x + y
+          return x
+        }
+        void incr(c: Counter, by: int) {
+          var n = c.n
+          for i from 1 to by {
+            n = n + 1
+          }
+          c.n = n
+        }
+        void main() {
+          var x = 1
+          var y = 2
+          var z = add(y, x)
+          println(x + y + z)
+          var c = new Counter(0)
+          var n = 5
+          incr(c, n)
+          incr(c, add(n, 1))
+          println(c.n + n)
+          for i from add(0, 1) to 3 {
+            incr(c, i)
+          }
+          if add(c.n, 0) > 20 {
+            println(c.n)
+          }
+        }
+        """);
+  }
+
+  @Test
+  void testExamplesRunTheSame() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+    for (Path file : files)
+      assertSameOutput(Files.readString(file));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+
+  private ASTOptimizer inliner() {
+    return new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.INLINING));
+  }
+
+  private Program optimize(String program, ASTOptimizer optimizer) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(optimizer);
+    return p;
+  }
+
+  private FunDef main(Program p) {
+    return p.functions.get(p.functions.size() - 1);
+  }
+
+  /**
+   * The names of the functions called (as statements or in variable
+   * initializers) in a function's top-level statements.
+   */
+  private Set<String> calls(FunDef f) {
+    Set<String> names = new HashSet<>();
+    for (Stmt s : f.stmts) {
+      if (s instanceof CallRValue c) {
+        names.add(c.funName.lexeme);
+        for (Expr arg : c.args)
+          calls(arg, names);
+      } else if (s instanceof VarStmt v)
+        v.expr.ifPresent(e -> calls(e, names));
+    }
+    return names;
+  }
+
+  private void calls(Expr e, Set<String> names) {
+    if (e instanceof BinaryExpr b) {
+      calls(b.lhs, names);
+      calls(b.rhs, names);
+    } else if (e instanceof BasicExpr b && b.rvalue instanceof CallRValue c) {
+      names.add(c.funName.lexeme);
+      for (Expr arg : c.args)
+        calls(arg, names);
+    }
+  }
+
+  private void assertSameOutput(String program) {
+    assertEquals(run(program, EnumSet.of(ASTOptimizer.Pass.CONSTANT_PROPAGATION, ASTOptimizer.Pass.DEAD_CODE)),
+        run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  private String run(String program, Set<ASTOptimizer.Pass> passes) {
+    output.reset();
+    VM vm = new VM();
+    optimize(program, new ASTOptimizer(passes)).accept(new CodeGenerator(vm));
+    vm.run();
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
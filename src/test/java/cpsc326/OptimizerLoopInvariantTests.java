@@ -0,0 +1,317 @@
+/**
+ * CPSC 326, Spring 2025
+ * Loop-invariant code motion unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Unit tests for the loop-invariant pass of the ASTOptimizer
+ */
+class OptimizerLoopInvariantTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // What is hoisted
+
+  @Test
+  void testForUpperBoundHoisted() {
+    ASTOptimizer optimizer = hoister();
+    FunDef f = function("""
+        int sum(xs: [int]) {
+          var s = 0
+          for i from 0 to size(xs) - 1 {
+            s = s + xs[i]
+          }
+          return s
+        }
+        """, optimizer);
+    assertEquals(1, optimizer.hoistedExpressions());
+    VarStmt temp = (VarStmt) f.stmts.get(1);
+    assertEquals("inv$1", temp.varName.lexeme);
+    ForStmt loop = (ForStmt) f.stmts.get(2);
+    assertEquals("inv$1", read(loop.toExpr));
+  }
+
+  @Test
+  void testWhileConditionHoisted() {
+    ASTOptimizer optimizer = hoister();
+    FunDef f = function("""
+        int count(s: string, c: string) {
+          var n = 0
+          var i = 0
+          while i < size(s) {
+            if get(i, s) == c {
+              n = n + 1
+            }
+            i = i + 1
+          }
+          return n
+        }
+        """, optimizer);
+    assertEquals(1, optimizer.hoistedExpressions());
+    WhileStmt loop = (WhileStmt) f.stmts.get(3);
+    assertEquals("inv$1", read(((BinaryExpr) loop.condition).rhs));
+  }
+
+  @Test
+  void testBodyExpressionsOfNonNullLocalsHoisted() {
+    ASTOptimizer optimizer = hoister();
+    FunDef f = function("""
+        int scale(n: int) {
+          var a = n + 1
+          var b = a * 2
+          var t = 0
+          var i = 0
+          while i < n {
+            t = t + a * b - 1
+            i = i + 1
+          }
+          return t
+        }
+        """, optimizer);
+    // a and b are set only by operators, so a * b cannot fail
+    assertEquals(1, optimizer.hoistedExpressions());
+    assertTrue(f.stmts.get(4) instanceof VarStmt v && v.varName.lexeme.equals("inv$1"));
+  }
+
+  @Test
+  void testVariantExpressionsKept() {
+    ASTOptimizer optimizer = hoister();
+    function("""
+        struct P {
+          x: int
+        }
+        int g(p: P) {
+          p.x = p.x + 1
+          return p.x
+        }
+        int f(p: P, n: int, d: int) {
+          var t = 0
+          var k = 1
+          for i from 0 to 9 {
+            k = k + 1
+            t = t + k * 2
+            t = t + n * 2
+            t = t + 100 / d
+            p.x = p.x + 1
+            t = t + p.x * 2
+          }
+          while t < g(p) {
+            t = t + 1
+          }
+          return t
+        }
+        """, optimizer);
+    // k is assigned, n may be null, d may be zero, p.x is stored to, and
+    // g may change anything
+    assertEquals(0, optimizer.hoistedExpressions());
+  }
+
+  @Test
+  void testCallsInTheLoopHeaderKeepHeapReads() {
+    String program = """
+        struct S {
+          f: int
+        }
+        int g(s: S) {
+          s.f = s.f - 1
+          return 0
+        }
+        void main() {
+          var s = new S(5)
+          var n = 0
+          while 0 < s.f + g(s) {
+            n = n + 1
+          }
+          println(n)
+          var t = new S(3)
+          var m = 0
+          for i from 1 to t.f * 2 + g(t) {
+            m = m + 1
+          }
+          println(m)
+        }
+        """;
+    ASTOptimizer optimizer = hoister();
+    optimize(program, optimizer);
+    // g runs with every test of the condition and bound, and changes
+    // s.f and t.f
+    assertEquals(0, optimizer.hoistedExpressions());
+    assertSameOutput(program);
+  }
+
+  @Test
+  void testFieldReadHoistedWithoutStores() {
+    ASTOptimizer optimizer = hoister();
+    FunDef f = function("""
+        struct P {
+          xs: [int]
+        }
+        int total(p: P) {
+          var t = 0
+          for i from 0 to size(p.xs) - 1 {
+            var xs = p.xs
+            t = t + xs[i]
+          }
+          return t
+        }
+        """, optimizer);
+    assertEquals(1, optimizer.hoistedExpressions());
+    assertEquals("inv$1", read(((ForStmt) f.stmts.get(2)).toExpr));
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior
+
+  @Test
+  void testZeroIterationLoopsDoNotFail() {
+    assertEquals("0\n", run("""
+        struct P {
+          x: int
+        }
+        void main() {
+          var p: P = null
+          var xs: [int] = null
+          var d = 0
+          var t = 0
+          for i from 1 to 0 {
+            t = t + p.x + size(xs) + 10 / d
+          }
+          var j = 0
+          while j > 0 {
+            t = t + p.x * 2 + 10 / d
+          }
+          println(t)
+        }
+        """, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  @Test
+  void testEvaluationOrderKept() {
+    assertSameOutput("""
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        void main() {
+          var xs = new int[4]
+          var n = 3
+          for i from f("a", 0) to size(xs) - f("b", 1) {
+            xs[i] = f("c", i) + n * 2
+          }
+          var j = 0
+          while f("d", j) < size(xs) * n {
+            j = j + 4
+          }
+          println(j)
+        }
+        """);
+  }
+
+  @Test
+  void testNestedLoopsRunTheSame() {
+    assertSameOutput("""
+        void main() {
+          var rows = 4
+          var cols = 5
+          var grid = new int[rows * cols]
+          for r from 0 to rows - 1 {
+            for c from 0 to cols - 1 {
+              grid[r * cols + c] = r * c + rows * cols
+            }
+          }
+          var t = 0
+          var i = 0
+          while i < size(grid) {
+            t = t + grid[i] * (rows + cols)
+            i = i + 1
+          }
+          println(t)
+        }
+        """);
+  }
+
+  @Test
+  void testExamplesRunTheSame() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+    for (Path file : files)
+      assertSameOutput(Files.readString(file));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+
+  private ASTOptimizer hoister() {
+    return new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.LOOP_INVARIANTS));
+  }
+
+  private Program optimize(String program, ASTOptimizer optimizer) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(optimizer);
+    return p;
+  }
+
+  /**
+   * Optimize a program (given a main function) and return its last
+   * function before main.
+   */
+  private FunDef function(String program, ASTOptimizer optimizer) {
+    Program p = optimize(program + "void main() {\n}\n", optimizer);
+    return p.functions.get(p.functions.size() - 2);
+  }
+
+  /**
+   * The name of the variable an expression reads.
+   */
+  private String read(Expr e) {
+    return ((VarRValue) ((BasicExpr) e).rvalue).path.get(0).varName.lexeme;
+  }
+
+  private void assertSameOutput(String program) {
+    Set<ASTOptimizer.Pass> without = EnumSet.allOf(ASTOptimizer.Pass.class);
+    without.remove(ASTOptimizer.Pass.LOOP_INVARIANTS);
+    assertEquals(run(program, without), run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  private String run(String program, Set<ASTOptimizer.Pass> passes) {
+    output.reset();
+    VM vm = new VM();
+    optimize(program, new ASTOptimizer(passes)).accept(new CodeGenerator(vm));
+    vm.run();
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ * CPSC 326, Spring 2025
+ * Compile-time evaluation of pure calls unit tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Unit tests for the pure call pass of the ASTOptimizer
+ */
+class OptimizerPureCallTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Which calls are evaluated
+
+  @Test
+  void testConstantCallsEvaluated() {
+    ASTOptimizer optimizer = evaluator();
+    Program p = optimize("""
+        int fib(n: int) {
+          if n < 2 {
+            return n
+          }
+          return fib(n - 1) + fib(n - 2)
+        }
+        int buckets(kb: int) {
+          var n = 1
+          while n < kb {
+            n = n * 2
+          }
+          return n
+        }
+        void main() {
+          var k = 300
+          println(fib(20))
+          println(buckets(k) + buckets(3))
+          println(fib(k - 290))
+        }
+        """, optimizer);
+    assertEquals(List.of("fib(20) = 6765 at 16:11", "buckets(300) = 512 at 17:11", "buckets(3) = 4 at 17:24",
+        "fib(10) = 55 at 18:11"), optimizer.evaluatedCalls());
+    assertEquals(Set.of("println"), calls(main(p)));
+  }
+
+  @Test
+  void testImpureFunctionsNotEvaluated() {
+    ASTOptimizer optimizer = evaluator();
+    Program p = optimize("""
+        struct P {
+          x: int
+        }
+        int noisy(n: int) {
+          println(n)
+          return n
+        }
+        int indirect(n: int) {
+          return noisy(n) + 1
+        }
+        int boxed(n: int) {
+          var p = new P(n)
+          return p.x
+        }
+        int first(xs: [int]) {
+          return xs[0]
+        }
+        string ask(n: int) {
+          return readln()
+        }
+        void main() {
+          println(noisy(1) + indirect(2) + boxed(3) + first(null))
+          println(ask(4))
+        }
+        """, optimizer);
+    assertTrue(optimizer.evaluatedCalls().isEmpty());
+    assertEquals(Set.of("println", "noisy", "indirect", "boxed", "first", "ask"), calls(main(p)));
+  }
+
+  @Test
+  void testCallsThatFailOrRunTooLongKept() {
+    ASTOptimizer optimizer = evaluator();
+    optimizer.evalBudget(1000);
+    Program p = optimize("""
+        int spin(n: int) {
+          while n > 0 {
+            n = n + 1
+          }
+          return n
+        }
+        int deep(n: int) {
+          if n == 0 {
+            return 0
+          }
+          return 1 + deep(n - 1)
+        }
+        int quot(n: int) {
+          return 100 / n
+        }
+        int parse(s: string) {
+          return int_val(s)
+        }
+        int add(x: int, y: int) {
+          return x + y
+        }
+        void main() {
+          var z = 0
+          if z > 0 {
+            println(spin(1) + deep(100000) + quot(0) + parse("x") + add(1, null))
+          }
+          println(deep(10) + quot(5) + parse("7"))
+        }
+        """, optimizer);
+    assertEquals(List.of("deep(10) = 10 at 27:11", "quot(5) = 20 at 27:22", "parse(\"7\") = 7 at 27:32"),
+        optimizer.evaluatedCalls());
+    CallRValue guarded = (CallRValue) ((IfStmt) main(p).stmts.get(1)).ifStmts.get(0);
+    assertEquals(Set.of("spin", "deep", "quot", "parse", "add"), calls(guarded.args.get(0)));
+  }
+
+  @Test
+  void testLoopVariableSetToNullKept() {
+    String program = """
+        int f(n: int) {
+          var r = 0
+          for i from 0 to n {
+            r = r + i
+            i = null
+          }
+          return r
+        }
+        void main() {
+          println(f(3))
+        }
+        """;
+    ASTOptimizer optimizer = evaluator();
+    Program p = optimize(program, optimizer);
+    assertTrue(optimizer.evaluatedCalls().isEmpty());
+    assertEquals(Set.of("println", "f"), calls(main(p)));
+    // the call fails at run time (with every pass on, as inlining asks
+    // the evaluator too)
+    assertSameOutput(program);
+  }
+
+  @Test
+  void testValuesMatchTheVM() {
+    assertSameOutput("""
+        string label(k: int, d: double) {
+          var s = ""
+          for i from 1 to k {
+            s = s + str_val(i) + "\\t"
+          }
+          return s + str_val(d / 4.0) + get(1, "xyz") + "\\n"
+        }
+        int wrap(n: int) {
+          var x = n
+          for i from 1 to 3 {
+            x = x * 65536
+          }
+          return x
+        }
+        bool between(x: double, lo: double, hi: double) {
+          return lo <= x and x < hi or x == hi
+        }
+        int floor(d: double) {
+          return int_val(d) + size(str_val(d))
+        }
+        string nothing(n: int) {
+          var s: string = null
+          if n > 0 {
+            s = "some"
+          }
+          return s
+        }
+        void main() {
+          print(label(3, 1.0))
+          println(wrap(7))
+          println(between(2.5, 1.0, 2.5))
+          println(floor(0.0 - 2.5))
+          println(nothing(0) == null)
+          println(nothing(1))
+        }
+        """);
+  }
+
+  @Test
+  void testExamplesRunTheSame() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+    for (Path file : files)
+      assertSameOutput(Files.readString(file));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+
+  private ASTOptimizer evaluator() {
+    return new ASTOptimizer(EnumSet.of(ASTOptimizer.Pass.CONSTANT_PROPAGATION, ASTOptimizer.Pass.PURE_CALLS));
+  }
+
+  private Program optimize(String program, ASTOptimizer optimizer) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(optimizer);
+    return p;
+  }
+
+  private FunDef main(Program p) {
+    return p.functions.get(p.functions.size() - 1);
+  }
+
+  /**
+   * The names of the functions called in a function's top-level
+   * statements (as statements or in their arguments).
+   */
+  private Set<String> calls(FunDef f) {
+    Set<String> names = new HashSet<>();
+    for (Stmt s : f.stmts) {
+      if (s instanceof CallRValue c) {
+        names.add(c.funName.lexeme);
+        for (Expr arg : c.args)
+          names.addAll(calls(arg));
+      }
+    }
+    return names;
+  }
+
+  private Set<String> calls(Expr e) {
+    Set<String> names = new HashSet<>();
+    if (e instanceof BinaryExpr b) {
+      names.addAll(calls(b.lhs));
+      names.addAll(calls(b.rhs));
+    } else if (e instanceof BasicExpr b && b.rvalue instanceof CallRValue c) {
+      names.add(c.funName.lexeme);
+      for (Expr arg : c.args)
+        names.addAll(calls(arg));
+    }
+    return names;
+  }
+
+  private void assertSameOutput(String program) {
+    Set<ASTOptimizer.Pass> without = EnumSet.allOf(ASTOptimizer.Pass.class);
+    without.remove(ASTOptimizer.Pass.PURE_CALLS);
+    assertEquals(run(program, without), run(program, EnumSet.allOf(ASTOptimizer.Pass.class)));
+  }
+
+  /**
+   * The output of a program, followed by the error it stops with (if
+   * any).
+   */
+  private String run(String program, Set<ASTOptimizer.Pass> passes) {
+    output.reset();
+    VM vm = new VM();
+    optimize(program, new ASTOptimizer(passes)).accept(new CodeGenerator(vm));
+    try {
+      vm.run();
+    } catch (MyPLException e) {
+      return output + e.getMessage();
+    }
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
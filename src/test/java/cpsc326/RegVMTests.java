@@ -0,0 +1,334 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the register VM (RUN-R).
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+class RegVMTests {
+
+  // Benchmark configuration
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Generated code
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testAssignmentIsOneInstruction() {
+    RegVM vm = generate("""
+        void f(b: int, c: int, a: int) {
+          a = b + c
+          print(a)
+        }
+        void main() {
+          f(1, 2, 3)
+        }
+        """);
+    // b, c, a are registers 0, 1, 2
+    assertTrue(vm.toString().contains("0: IADD(2, 0, 1)"), vm.toString());
+  }
+
+  @Test
+  void testTemporariesReused() {
+    RegVM vm = generate("""
+        int f(a: int) {
+          var x = (a * 2) * (a * 3) - (a * 4) * (a * 5)
+          var y = x * x
+          return y
+        }
+        void main() {
+          print(f(1))
+        }
+        """);
+    // a, x and at most three temporaries live at once
+    assertTrue(vm.toString().contains("Frame 'f'\n  registers: 5"), vm.toString());
+  }
+
+  // ----------------------------------------------------------------------
+  // Same behavior as the stack VM
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testArithmeticAndComparisons() {
+    assertSameAsVM("""
+        void main() {
+          var a = 7
+          var b = 2
+          var x = 7.5
+          var s = "ab"
+          println(a + b * 3 - a / b)
+          println(x / 2.0 - 1.25 * x)
+          println(s + "c")
+          println(a > b)
+          println(a <= b)
+          println(x >= 7.5)
+          println(s < "b")
+          println(a == 7 and not (s != "ab"))
+          println(null == s or false)
+          a = a * a + b
+          b = a - b
+          println(a + b)
+        }
+        """);
+  }
+
+  @Test
+  void testLoopsBranchesAndCalls() {
+    assertSameAsVM("""
+        int classify(n: int) {
+          if n < 3 {
+            return 0
+          } else if n < 6 {
+            return 1
+          } else if n < 9 {
+            return 2
+          }
+          return 3
+        }
+        int add3(a: int, b: int, c: int) {
+          return a * 100 + b * 10 + c
+        }
+        void main() {
+          var counts = new int[4]
+          for i from 0 to 3 {
+            counts[i] = 0
+          }
+          for i from 0 to 10 {
+            var c = classify(i)
+            counts[c] = counts[c] + 1
+          }
+          var j = 0
+          while j < 4 {
+            print(counts[j])
+            j = j + 1
+          }
+          for i from 5 to 1 {
+            print("never")
+          }
+          println(add3(counts[0], add3(1, 2, 3), j))
+        }
+        """);
+  }
+
+  @Test
+  void testStructsAndArrays() {
+    assertSameAsVM("""
+        struct Node {
+          val: int,
+          next: Node,
+          tags: [string]
+        }
+        void main() {
+          var head = new Node(1, null, new string[2])
+          head.next = new Node(2, null, null)
+          head.next.next = new Node(3, null, new string[1])
+          var ts = head.tags
+          ts[1] = "x"
+          var us = head.next.next.tags
+          us[0] = "y"
+          head.next.val = head.val + head.next.next.val
+          var n = head
+          while n != null {
+            println(n.val)
+            n = n.next
+          }
+          println(ts[1] + us[0])
+          var nodes = new Node[2]
+          nodes[1] = new Node(5, head, null)
+          nodes[1].next.val = 9
+          println(nodes[1].next.val + nodes[1].val)
+          n = nodes[1]
+          n = new Node(n.val, n, null)
+          println(n.next.next.val)
+          println(size(head.tags))
+        }
+        """);
+  }
+
+  @Test
+  void testEvaluationOrder() {
+    assertSameAsVM("""
+        int f(s: string, n: int) {
+          print(s)
+          return n
+        }
+        void main() {
+          println(f("a", 1) + f("b", 2) * f("c", 3))
+          println(f("d", 1) > f("e", 2))
+          println(f("f", 1) < f("g", 2))
+          println(get(f("h", 0), "xy"))
+        }
+        """);
+  }
+
+  @Test
+  void testBuiltInsAndRecursion() {
+    assertSameAsVM("""
+        int fib(n: int) {
+          if n < 2 {
+            return n
+          }
+          return fib(n - 1) + fib(n - 2)
+        }
+        void main() {
+          println(fib(15))
+          println(int_val("42") + int_val(3.9))
+          println(dbl_val(3) + dbl_val("0.5"))
+          println(str_val(12) + str_val(0.5))
+          println(size("hello"))
+        }
+        """);
+  }
+
+  // ----------------------------------------------------------------------
+  // Errors
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testErrorsReported() {
+    assertTrue(error("""
+        int f(x: int) {
+          return 10 / x
+        }
+        void main() {
+          print(f(0))
+        }
+        """).startsWith("VM_ERROR: division by zero error in f at "));
+    assertEquals("VM_ERROR: GETI: index out of bounds", error("""
+        void main() {
+          var xs = new int[2]
+          print(xs[2])
+        }
+        """));
+    assertEquals("VM_ERROR: Invalid struct object ID", error("""
+        struct P {
+          x: int
+        }
+        void main() {
+          var p = new P(1)
+          p = null
+          p.x = 2
+        }
+        """));
+  }
+
+  // ----------------------------------------------------------------------
+  // Examples
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testExamplesRunWithFewerInstructions() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-24s %12s %12s %12s %12s%n", "program", "stack instrs", "reg instrs",
+        "stack us", "reg us"));
+    for (Path file : files) {
+      String program = Files.readString(file);
+
+      output.reset();
+      VM vm = stackVM(program);
+      vm.run();
+      String expected = output.toString();
+      output.reset();
+      RegVM regVM = generate(program);
+      regVM.run();
+      assertEquals(expected, output.toString(), "Register VM disagrees on output for " + file);
+      assertTrue(regVM.instructionCount() < vm.instructionCount(), "No fewer instructions for " + file);
+
+      report.append(String.format("%-24s %12d %12d %12.1f %12.1f%n", file.getFileName(), vm.instructionCount(),
+          regVM.instructionCount(), micros(() -> stackVM(program)::run), micros(() -> generate(program)::run)));
+    }
+    stdout.print(report);
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private interface Build {
+    Runnable build();
+  }
+
+  private double micros(Build build) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      build.build().run();
+    long total = 0;
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      Runnable run = build.build();
+      long start = System.nanoTime();
+      run.run();
+      total += System.nanoTime() - start;
+    }
+    return total / 1000.0 / MEASURED_ITERATIONS;
+  }
+
+  private void assertSameAsVM(String program) {
+    output.reset();
+    stackVM(program).run();
+    String expected = output.toString();
+    output.reset();
+    generate(program).run();
+    assertEquals(expected, output.toString());
+  }
+
+  private String error(String program) {
+    RegVM vm = generate(program);
+    return assertThrows(MyPLException.class, vm::run).getMessage();
+  }
+
+  private VM stackVM(String program) {
+    VM vm = new VM();
+    parse(program).accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private RegVM generate(String program) {
+    RegVM vm = new RegVM();
+    parse(program).accept(new RegCodeGenerator(vm));
+    return vm;
+  }
+
+  private Program parse(String program) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new ASTOptimizer());
+    return p;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * CPSC 326, Spring 2025
+ * Benchmark comparing the if-chain and switch-dispatched VM engines.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+class VMDispatchBenchmarkTests {
+
+  // Benchmark configuration
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 20;
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Benchmark
+  // ----------------------------------------------------------------------
+
+  @Test
+  void benchmarkDispatchPerInstruction() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-24s %12s %14s %14s%n", "program", "instrs", "if-chain ns/i", "switch ns/i"));
+    for (Path file : files) {
+      String program = Files.readString(file);
+
+      // both engines must agree on output and executed instructions
+      RunResult chain = runOnce(program, false);
+      RunResult table = runOnce(program, true);
+      assertEquals(chain.output, table.output, "Engines disagree on output for " + file);
+      assertEquals(chain.instructions, table.instructions, "Engines disagree on instruction count for " + file);
+
+      double chainCost = nanosPerInstruction(program, false, chain.instructions);
+      double tableCost = nanosPerInstruction(program, true, table.instructions);
+      report.append(String.format("%-24s %12d %14.2f %14.2f%n", file.getFileName(),
+          chain.instructions, chainCost, tableCost));
+    }
+    stdout.print(report);
+  }
+
+  // ----------------------------------------------------------------------
+  // Benchmark Infrastructure
+  // ----------------------------------------------------------------------
+
+  private double nanosPerInstruction(String program, boolean dispatch, long instructions) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      runOnce(program, dispatch);
+    long total = 0;
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      VM vm = build(program);
+      vm.dispatchMode(dispatch);
+      long start = System.nanoTime();
+      vm.run();
+      total += System.nanoTime() - start;
+    }
+    return (double) total / MEASURED_ITERATIONS / Math.max(1, instructions);
+  }
+
+  private RunResult runOnce(String program, boolean dispatch) {
+    output.reset();
+    VM vm = build(program);
+    vm.dispatchMode(dispatch);
+    vm.run();
+    return new RunResult(output.toString(), vm.instructionCount());
+  }
+
+  private VM build(String program) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new ASTOptimizer());
+    VM vm = new VM();
+    p.accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+
+  private record RunResult(String output, long instructions) {
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for pre-sized frame memory (max locals per function).
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.util.Map;
+import java.util.HashMap;
+
+class VMFrameLocalsTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Max locals recorded by the code generator
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testMaxLocalsCountsParamsAndLocals() {
+    String program = """
+        int f(a: int, b: int) {
+          var c = a + b
+          return c
+        }
+        void main() {
+        }
+        """;
+    Map<String, VMFrameTemplate> templates = generate(program);
+    assertEquals(3, templates.get("f").maxLocals);
+    assertEquals(0, templates.get("main").maxLocals);
+  }
+
+  @Test
+  void testMaxLocalsReusesSlotsOfSiblingLoops() {
+    String program = """
+        void main() {
+          var x = 0
+          for i from 1 to 3 {
+            var y = i
+            x = x + y
+          }
+          for j from 1 to 3 {
+            x = x + j
+          }
+          print(x)
+        }
+        """;
+    // x, plus i and y of the first loop; j reuses the slot of i
+    assertEquals(3, generate(program).get("main").maxLocals);
+  }
+
+  @Test
+  void testHandAssembledTemplateSizedFromStores() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(4));
+    main.add(VMInstr.STORE(0));
+    main.add(VMInstr.PUSH(5));
+    main.add(VMInstr.STORE(1));
+    main.add(VMInstr.LOAD(1));
+    main.add(VMInstr.WRITE());
+    VM vm = new VM();
+    vm.add(main);
+    assertEquals(2, main.maxLocals);
+    vm.run();
+    assertEquals("5", output.toString());
+  }
+
+  // ----------------------------------------------------------------------
+  // Execution
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testDeepRecursionMatchesAcrossEngines() {
+    String program = """
+        int sum(n: int) {
+          if n == 0 {
+            return 0
+          }
+          var rest = sum(n - 1)
+          return n + rest
+        }
+        void main() {
+          println(sum(2000))
+        }
+        """;
+    assertEquals("2001000\n", run(program, false));
+    assertEquals("2001000\n", run(program, true));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private Map<String, VMFrameTemplate> generate(String program) {
+    Map<String, VMFrameTemplate> templates = new HashMap<>();
+    VM vm = new VM() {
+      @Override
+      public void add(VMFrameTemplate template) {
+        templates.put(template.functionName, template);
+        super.add(template);
+      }
+    };
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new CodeGenerator(vm));
+    return templates;
+  }
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    vm.run();
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
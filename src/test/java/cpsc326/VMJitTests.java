@@ -0,0 +1,303 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the JIT tier (compiling hot functions to JVM classes).
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.util.EnumSet;
+import java.util.List;
+
+class VMJitTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Tiering
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testHotRecursiveFunctionCompiled() {
+    String program = """
+        int fib(n: int) {
+          if n < 2 {
+            return n
+          }
+          return fib(n - 1) + fib(n - 2)
+        }
+        void main() {
+          println(fib(20))
+        }
+        """;
+    VM vm = build(program, true);
+    vm.jitThresholds(100, 1000000);
+    vm.run();
+    assertEquals("6765\n", output.toString());
+    assertEquals(List.of("fib"), vm.jitCompiled());
+  }
+
+  @Test
+  void testTailRecursionCompiledToLoop() {
+    String program = """
+        int count(n: int, total: int) {
+          if n == 0 {
+            return total
+          }
+          return count(n - 1, total + 1)
+        }
+        void main() {
+          println(count(1000000, 0))
+        }
+        """;
+    VM vm = build(program, true);
+    vm.jitThresholds(100, 1000000);
+    vm.run();
+    assertEquals("1000000\n", output.toString());
+    assertEquals(List.of("count"), vm.jitCompiled());
+  }
+
+  @Test
+  void testHotLoopContinuesCompiled() {
+    String program = """
+        struct P {
+          x: int,
+          y: double
+        }
+        void main() {
+          var ps = new P[10]
+          var total = 0
+          var avg = 0.0
+          var s = ""
+          for i from 0 to 99 {
+            ps[i / 10] = new P(i, dbl_val(i) / 2.0)
+            total = total + ps[i / 10].x
+            avg = avg + ps[i / 10].y
+            if i - (i / 25) * 25 == 0 {
+              s = s + str_val(i) + ","
+            }
+          }
+          println(total)
+          println(avg)
+          println(s)
+        }
+        """;
+    String expected = run(program, false);
+    assertEquals("4950\n2475.0\n0,25,50,75,\n", expected);
+    VM vm = build(program, true);
+    vm.jitThresholds(1000, 10);
+    output.reset();
+    vm.run();
+    assertEquals(expected, output.toString());
+    assertEquals(List.of("main"), vm.jitCompiled());
+  }
+
+  @Test
+  void testCalleesCompiledWithCaller() {
+    String program = """
+        int sq(x: int) {
+          return x * x
+        }
+        int sumsq(n: int) {
+          var t = 0
+          for i from 1 to n {
+            t = t + sq(i)
+          }
+          return t
+        }
+        void main() {
+          var t = 0
+          for i from 1 to 5 {
+            t = t + sumsq(i)
+          }
+          println(t)
+        }
+        """;
+    VM vm = build(program, true);
+    vm.jitThresholds(3, 1000000);
+    vm.run();
+    assertEquals("105\n", output.toString());
+    assertTrue(vm.jitCompiled().containsAll(List.of("sq", "sumsq")), vm.jitCompiled().toString());
+  }
+
+  @Test
+  void testColdFunctionsInterpreted() {
+    String program = """
+        int sq(x: int) {
+          return x * x
+        }
+        void main() {
+          println(sq(3))
+        }
+        """;
+    VM vm = build(program, true);
+    vm.run();
+    assertEquals("9\n", output.toString());
+    assertTrue(vm.jitCompiled().isEmpty());
+  }
+
+  @Test
+  void testUnsupportedFunctionsStayInterpreted() {
+    // READ is not compiled, and neither is a caller of a function using it
+    VMFrameTemplate f = new VMFrameTemplate("f");
+    f.add(VMInstr.READ());
+    f.add(VMInstr.RET());
+    VMFrameTemplate g = new VMFrameTemplate("g");
+    g.add(VMInstr.CALL("f"));
+    g.add(VMInstr.RET());
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    for (int i = 0; i < 3; ++i) {
+      main.add(VMInstr.CALL("g"));
+      main.add(VMInstr.WRITE());
+    }
+    main.add(VMInstr.PUSH(VM.NULL));
+    main.add(VMInstr.RET());
+
+    InputStream stdin = System.in;
+    System.setIn(new ByteArrayInputStream("a\nb\nc\n".getBytes()));
+    try {
+      VM vm = new VM();
+      vm.jitMode(true);
+      vm.jitThresholds(1, 1);
+      vm.add(f);
+      vm.add(g);
+      vm.add(main);
+      vm.run();
+      assertEquals("abc", output.toString());
+      assertTrue(vm.jitCompiled().isEmpty());
+    } finally {
+      System.setIn(stdin);
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Errors
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testCompiledErrorsMatchInterpreter() {
+    String[] programs = {
+        """
+        int f(x: int) {
+          return 10 / x
+        }
+        void main() {
+          for i from 0 to 9 {
+            print(f(5 - i))
+          }
+        }
+        """,
+        """
+        struct N {
+          v: int,
+          next: N
+        }
+        int len(n: N) {
+          var k = 0
+          while n != null {
+            k = k + n.v
+            n = n.next
+          }
+          return k
+        }
+        void main() {
+          var n = new N(1, null)
+          for i from 0 to 9 {
+            print(len(n))
+            n = new N(i, n)
+          }
+          n.next.next.v = null
+          print(len(n))
+        }
+        """,
+        """
+        void main() {
+          var xs = new int[3]
+          for i from 0 to 9 {
+            xs[i] = i
+          }
+        }
+        """ };
+    for (String program : programs) {
+      String message = null;
+      for (boolean jit : new boolean[] { false, true }) {
+        VM vm = build(program, jit);
+        vm.jitThresholds(2, 2);
+        output.reset();
+        Exception e = assertThrows(MyPLException.class, vm::run);
+        if (jit) {
+          assertEquals(message, e.getMessage());
+          assertTrue(!vm.jitCompiled().isEmpty());
+        }
+        message = e.getMessage();
+      }
+    }
+  }
+
+  @Test
+  void testDivisionByZeroNamesInstruction() {
+    String program = """
+        int f(x: int) {
+          return 10 / x
+        }
+        void main() {
+          for i from 0 to 9 {
+            print(f(5 - i))
+          }
+        }
+        """;
+    VM vm = build(program, true);
+    vm.jitThresholds(2, 2);
+    Exception e = assertThrows(MyPLException.class, vm::run);
+    assertTrue(e.getMessage().contains("division by zero error in f at"), e.getMessage());
+    assertEquals("223510", output.toString());
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private String run(String program, boolean jit) {
+    output.reset();
+    build(program, jit).run();
+    return output.toString();
+  }
+
+  private VM build(String program, boolean jit) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    // keep the calls (inlining them, or evaluating them while optimizing,
+    // would leave little for the JIT to compile)
+    p.accept(new ASTOptimizer(EnumSet.complementOf(EnumSet.of(ASTOptimizer.Pass.INLINING,
+        ASTOptimizer.Pass.PURE_CALLS))));
+    VM vm = new VM();
+    vm.jitMode(jit);
+    p.accept(new CodeGenerator(vm));
+    vm.optimize(new VMPeephole());
+    vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
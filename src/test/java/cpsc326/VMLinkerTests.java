@@ -0,0 +1,100 @@
+/**
+ * CPSC 326, Spring 2025
+ * Linked (int[] + constant pool) code format tests.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+class VMLinkerTests {
+
+  private int opcodeOf(int word) {
+    return word & VMLinker.OPCODE_MASK;
+  }
+
+  @Test
+  void testOpcodeAndOperandPacking() {
+    VMFrameTemplate t = new VMFrameTemplate("main");
+    t.add(VMInstr.PUSH(42));
+    t.add(VMInstr.STORE(3));
+    t.add(VMInstr.LOAD(3));
+    t.add(VMInstr.JMPF(7));
+    t.add(VMInstr.GETF(2));
+    t.add(VMInstr.WRITE());
+    new VMLinker().link(List.of(t));
+
+    assertEquals(6, t.code.length);
+    assertEquals(OpCode.PUSH.ordinal(), opcodeOf(t.code[0]));
+    assertEquals(OpCode.STORE.ordinal(), opcodeOf(t.code[1]));
+    assertEquals(3, VMLinker.operand(t.code[1]));
+    assertEquals(3, VMLinker.operand(t.code[2]));
+    assertEquals(7, VMLinker.operand(t.code[3]));
+    assertEquals(2, VMLinker.operand(t.code[4]));
+    assertEquals(OpCode.WRITE.ordinal(), opcodeOf(t.code[5]));
+  }
+
+  @Test
+  void testConstantPoolSharedAcrossFunctions() {
+    VMFrameTemplate f = new VMFrameTemplate("f");
+    f.add(VMInstr.PUSH("hi"));
+    f.add(VMInstr.PUSH(1));
+    f.add(VMInstr.PUSH(1.0));
+    VMFrameTemplate g = new VMFrameTemplate("g");
+    g.add(VMInstr.PUSH(1));
+    g.add(VMInstr.CALL("f"));
+    g.add(VMInstr.PUSH("hi"));
+    VMLinker linker = new VMLinker();
+    linker.link(List.of(f, g));
+    Object[] pool = linker.constants();
+
+    // "hi", 1, and 1.0 (1 and 1.0 are distinct constants)
+    assertEquals(3, pool.length);
+    assertEquals(VMLinker.operand(f.code[0]), VMLinker.operand(g.code[2]));
+    assertEquals(VMLinker.operand(f.code[1]), VMLinker.operand(g.code[0]));
+    assertEquals(1.0, pool[VMLinker.operand(f.code[2])]);
+  }
+
+  @Test
+  void testCallsResolvedToTemplates() {
+    VMFrameTemplate f = new VMFrameTemplate("f");
+    f.add(VMInstr.RET());
+    VMFrameTemplate g = new VMFrameTemplate("g");
+    g.add(VMInstr.CALL("f"));
+    g.add(VMInstr.CALL("g"));
+    VMLinker linker = new VMLinker();
+    linker.link(List.of(f, g));
+    VMFrameTemplate[] functions = linker.functions();
+
+    assertSame(f, functions[VMLinker.operand(g.code[0])]);
+    assertSame(g, functions[VMLinker.operand(g.code[1])]);
+    assertSame(f, g.instructions.get(0).operand);
+    assertEquals("CALL(f)", g.instructions.get(0).toString().trim());
+
+    // relinking an already linked program is a no-op
+    new VMLinker().link(List.of(f, g));
+    assertSame(f, g.instructions.get(0).operand);
+  }
+
+  @Test
+  void testUndefinedFunctionRejectedAtLinkTime() {
+    VMFrameTemplate t = new VMFrameTemplate("main");
+    t.add(VMInstr.PUSH(1));
+    t.add(VMInstr.CALL("missing"));
+    Exception e = assertThrows(MyPLException.class, () -> new VMLinker().link(List.of(t)));
+    assertTrue(e.getMessage().contains("missing not recognized"), e.getMessage());
+  }
+
+  @Test
+  void testInvalidJumpTargetRejectedAtLinkTime() {
+    VMFrameTemplate t = new VMFrameTemplate("main");
+    t.add(new VMInstr(OpCode.JMP, "nowhere"));
+    assertThrows(MyPLException.class, () -> new VMLinker().link(List.of(t)));
+  }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for struct and array objects held by direct reference.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+
+class VMObjectTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Printing and identity
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testObjectsPrintAsObjectIds() {
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VMFrameTemplate main = new VMFrameTemplate("main");
+      main.add(VMInstr.ALLOCS(1));
+      main.add(VMInstr.WRITE());
+      main.add(VMInstr.PUSH(2));
+      main.add(VMInstr.ALLOCA());
+      main.add(VMInstr.WRITE());
+      main.add(VMInstr.ALLOCS(1));
+      main.add(VMInstr.WRITE());
+      VM vm = new VM();
+      vm.dispatchMode(dispatch);
+      vm.add(main);
+      output.reset();
+      vm.run();
+      assertEquals("202520262027", output.toString());
+    }
+  }
+
+  @Test
+  void testObjectsCompareByIdentity() {
+    String program = """
+        struct P {
+          x: int
+        }
+        void main() {
+          var p = new P(1)
+          var q = new P(1)
+          var r = p
+          r.x = 5
+          print(p == q)
+          print(p == r)
+          print(p != q)
+          print(p.x)
+        }
+        """;
+    assertEquals("falsetruetrue5", run(program, false));
+    assertEquals("falsetruetrue5", run(program, true));
+  }
+
+  @Test
+  void testStructFieldsAccessedBySlot() {
+    String program = """
+        struct Inner {
+          a: int,
+          b: string
+        }
+        struct Outer {
+          x: double,
+          in: Inner,
+          y: bool
+        }
+        void main() {
+          var o = new Outer(1.5, new Inner(2, "s"), true)
+          o.in.b = "t"
+          o.y = false
+          var i = o.in
+          i.a = i.a + 40
+          print(o.x)
+          print(o.in.a)
+          print(o.in.b)
+          print(o.y)
+        }
+        """;
+    assertEquals("1.542tfalse", run(program, false));
+    assertEquals("1.542tfalse", run(program, true));
+  }
+
+  @Test
+  void testNullObjectAccessReportsError() {
+    String program = """
+        struct P {
+          x: int
+        }
+        void main() {
+          var p: P = null
+          print(p.x)
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      Exception e = assertThrows(MyPLException.class, () -> run(program, dispatch));
+      assertTrue(e.getMessage().contains("Invalid struct object ID"), e.getMessage());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Unreachable objects are reclaimed
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testUnreachableArraysAreReclaimed() {
+    // ~1GB of arrays in total, but only one is reachable at a time
+    String program = """
+        void main() {
+          var total = 0
+          for i from 1 to 2500 {
+            var xs = new int[100000]
+            xs[99999] = i
+            total = total + xs[99999]
+          }
+          println(total)
+        }
+        """;
+    assertEquals("3126250\n", run(program, true));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    vm.run();
+    return output.toString();
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the dispatch engine's unboxed operand lanes.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+class VMOperandLanesTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Allocation
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testTightLoopRunsAllocationFree() {
+    String program = """
+        void main() {
+          var total = 0
+          var scale = 1.5
+          var d = 0.0
+          for i from 0 to 100000 {
+            total = total + i * 2 - 1
+            d = d + scale
+            if total < 0 and d > 0.0 {
+              total = 0
+            }
+          }
+          print(total)
+        }
+        """;
+    // warm up (class loading, lane growth) before measuring
+    build(program, true).run();
+
+    VM vm = build(program, true);
+    long before = allocatedBytes();
+    vm.run();
+    long allocated = allocatedBytes() - before;
+
+    // a boxed loop allocates several objects per iteration (megabytes in total)
+    assertTrue(allocated < 64 * 1024, "Expected an allocation-free loop, allocated " + allocated + " bytes");
+  }
+
+  // ----------------------------------------------------------------------
+  // Semantics match the boxed engine
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testLaneSemanticsMatchBoxedEngine() {
+    String program = """
+        struct P {
+          v: int
+        }
+        void main() {
+          var p = new P(3)
+          var q = p
+          var n: P = null
+          println(1 == 1)
+          println(1.0 == 1.0)
+          println(0.5 != 0.25)
+          println("a" == "a")
+          println(p == q)
+          println(n == null)
+          println(p != null)
+          println(dbl_val(p.v) * 2.0 == 6.0)
+          println(not (2 < 1) and 2.5 <= 2.5)
+          println("ab" < "b")
+          println(str_val(7 / 2) + str_val(7.0 / 2.0))
+          println(int_val(3.99) + int_val("4"))
+          println(dbl_val(2) + dbl_val("0.5"))
+          var xs = new double[2]
+          xs[1] = 2.25
+          println(xs[1] * 2.0)
+          println(xs[0])
+        }
+        """;
+    assertEquals(run(program, false), run(program, true));
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private long allocatedBytes() {
+    var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getCurrentThreadAllocatedBytes();
+  }
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    build(program, dispatch).run();
+    return output.toString();
+  }
+
+  private VM build(String program, boolean dispatch) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the peephole optimizer.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.util.List;
+
+class VMPeepholeTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Individual rules
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testStoreLoadBecomesDup() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(3));
+    main.add(VMInstr.STORE(0));
+    main.add(VMInstr.LOAD(0));
+    main.add(VMInstr.WRITE());
+    new VMPeephole().optimize(main);
+    assertEquals("[PUSH(3), DUP(), STORE(0), WRITE()]", main.instructions.toString());
+  }
+
+  @Test
+  void testDiscardedPushRemoved() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH("a"));
+    main.add(VMInstr.WRITE());
+    main.add(VMInstr.PUSH(VM.NULL));
+    main.add(VMInstr.POP());
+    main.add(VMInstr.PUSH(VM.NULL));
+    main.add(VMInstr.RET());
+    new VMPeephole().optimize(main);
+    assertEquals("[PUSH(a), WRITE(), PUSH(null), RET()]", main.instructions.toString());
+  }
+
+  @Test
+  void testJumpToJumpThreaded() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(true));  // 0
+    main.add(VMInstr.JMPF(4));     // 1
+    main.add(VMInstr.PUSH("a"));   // 2
+    main.add(VMInstr.WRITE());     // 3
+    main.add(VMInstr.JMP(6));      // 4
+    main.add(VMInstr.NOP());       // 5
+    main.add(VMInstr.PUSH("b"));   // 6
+    main.add(VMInstr.WRITE());     // 7
+    new VMPeephole(List.of(VMPeephole.JUMP_TO_JUMP)).optimize(main);
+    assertEquals(6, main.get(1).operand);
+  }
+
+  @Test
+  void testUnreachableCodeAfterReturnRemoved() {
+    VMFrameTemplate f = new VMFrameTemplate("f");
+    f.add(VMInstr.PUSH(1));
+    f.add(VMInstr.RET());
+    f.add(VMInstr.PUSH(VM.NULL));
+    f.add(VMInstr.RET());
+    new VMPeephole().optimize(f);
+    assertEquals("[PUSH(1), RET()]", f.instructions.toString());
+  }
+
+  @Test
+  void testCallBeforeReturnBecomesTailCall() {
+    VMFrameTemplate f = new VMFrameTemplate("f");
+    f.add(VMInstr.LOAD(0));
+    f.add(VMInstr.CALL("g"));
+    f.add(VMInstr.RET());
+    f.add(VMInstr.PUSH(VM.NULL));
+    f.add(VMInstr.RET());
+    new VMPeephole().optimize(f);
+    assertEquals("[LOAD(0), TAILCALL(g)]", f.instructions.toString());
+  }
+
+  // ----------------------------------------------------------------------
+  // Jump remapping
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testJumpTargetsRemappedAfterRemoval() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(0));     // 0
+    main.add(VMInstr.STORE(0));    // 1
+    main.add(VMInstr.LOAD(0));     // 2: loop
+    main.add(VMInstr.PUSH(3));     // 3
+    main.add(VMInstr.ICMPLT());    // 4
+    main.add(VMInstr.JMPF(15));    // 5
+    main.add(VMInstr.PUSH("x"));   // 6
+    main.add(VMInstr.WRITE());     // 7
+    main.add(VMInstr.PUSH(VM.NULL)); // 8
+    main.add(VMInstr.POP());       // 9
+    main.add(VMInstr.LOAD(0));     // 10
+    main.add(VMInstr.PUSH(1));     // 11
+    main.add(VMInstr.IADD());      // 12
+    main.add(VMInstr.STORE(0));    // 13
+    main.add(VMInstr.JMP(2));      // 14
+    main.add(VMInstr.PUSH(VM.NULL)); // 15: end
+    main.add(VMInstr.RET());       // 16
+    new VMPeephole().optimize(main);
+    // the loop head is a jump target, so STORE(0); LOAD(0) stays
+    assertEquals(OpCode.LOAD, main.get(2).opcode);
+    assertEquals(2, main.get(12).operand);
+    assertEquals(13, main.get(5).operand);
+    assertEquals(15, main.instructions.size());
+
+    VM vm = new VM();
+    vm.add(main);
+    vm.run();
+    assertEquals("xxx", output.toString());
+  }
+
+  @Test
+  void testCustomRuleSet() {
+    VMPeephole.Rule nopRemoval = (code, i) -> {
+      if (code.get(i).opcode != OpCode.NOP)
+        return false;
+      code.replace(i, 1);
+      return true;
+    };
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.JMP(2));
+    main.add(VMInstr.NOP());
+    main.add(VMInstr.NOP());
+    main.add(VMInstr.PUSH("a"));
+    main.add(VMInstr.WRITE());
+    new VMPeephole(List.of(nopRemoval)).optimize(main);
+    assertEquals("[JMP(1), PUSH(a), WRITE()]", main.instructions.toString());
+  }
+
+  // ----------------------------------------------------------------------
+  // Generated code
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testOptimizedProgramsBehaveTheSame() {
+    String program = """
+        int sign(x: int) {
+          if x < 0 {
+            return 0 - 1
+          } else if x > 0 {
+            return 1
+          } else {
+            return 0
+          }
+        }
+        void main() {
+          var total = 0
+          for i from 0 to 5 {
+            var j = i - 2
+            total = total + sign(j)
+            print(sign(j))
+          }
+          var k = 0
+          while k < 3 {
+            k = k + 1
+            if k == 2 {
+              print("two")
+            }
+          }
+          println(total)
+        }
+        """;
+    String expected = "-1-10111two1\n";
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VM plain = build(program, dispatch);
+      VM optimized = build(program, dispatch);
+      optimized.optimize(new VMPeephole());
+      assertTrue(optimized.toString().length() < plain.toString().length());
+      output.reset();
+      plain.run();
+      assertEquals(expected, output.toString());
+      output.reset();
+      optimized.run();
+      assertEquals(expected, output.toString());
+    }
+  }
+
+  @Test
+  void testTailRecursionRunsInOneFrame() {
+    String program = """
+        int count(n: int, total: int) {
+          if n == 0 {
+            return total
+          }
+          return count(n - 1, total + 2)
+        }
+        bool isEven(n: int) {
+          if n == 0 {
+            return true
+          }
+          return isOdd(n - 1)
+        }
+        bool isOdd(n: int) {
+          if n == 0 {
+            return false
+          }
+          return isEven(n - 1)
+        }
+        void main() {
+          println(count(100000, 0))
+          println(isEven(100001))
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VM plain = build(program, dispatch);
+      output.reset();
+      plain.run();
+      assertEquals("200000\nfalse\n", output.toString());
+      assertEquals(100003, plain.maxCallDepth());
+      VM optimized = build(program, dispatch);
+      optimized.optimize(new VMPeephole());
+      output.reset();
+      optimized.run();
+      assertEquals("200000\nfalse\n", output.toString());
+      assertEquals(2, optimized.maxCallDepth());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private VM build(String program, boolean dispatch) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
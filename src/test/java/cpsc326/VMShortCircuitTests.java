@@ -0,0 +1,174 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the short-circuit evaluation of and/or.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+
+class VMShortCircuitTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Code generation
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testAndOrLoweredToJumps() {
+    String code = build("""
+        void main() {
+          var a = true
+          var b = false
+          var c = a and b
+          var d = a or b
+          while a and not b {
+            a = false
+          }
+          if b or a {
+            println(c)
+          }
+        }
+        """, false).toString();
+    assertFalse(code.contains(": AND()"), code);
+    assertFalse(code.contains(": OR()"), code);
+  }
+
+  // ----------------------------------------------------------------------
+  // Execution
+  // ----------------------------------------------------------------------
+
+  private static final String EFFECTS = """
+      bool t(s: string, v: bool) {
+        print(s)
+        return v
+      }
+      void main() {
+        println(t("a", false) and t("b", true))
+        println(t("c", true) and t("d", false))
+        println(t("e", true) or t("f", true))
+        println(t("g", false) or t("h", true))
+        println(t("i", true) and t("j", false) or t("k", true))
+        println(t("l", false) or t("m", false) and t("n", true))
+        var n = 0
+        while n < 3 and t("o", true) {
+          n = n + 1
+        }
+        if t("p", false) and t("q", true) {
+          println("r")
+        } else if t("s", false) or t("t", true) {
+          println("u")
+        }
+      }
+      """;
+
+  private static final String EFFECTS_OUTPUT = "afalse\ncdfalse\netrue\nghtrue\nijktrue\nlmfalse\nooopstu\n";
+
+  @Test
+  void testRightOperandOnlyRunsWhenNeeded() {
+    assertEquals(EFFECTS_OUTPUT, run(EFFECTS, false));
+    assertEquals(EFFECTS_OUTPUT, run(EFFECTS, true));
+  }
+
+  @Test
+  void testOtherEnginesAgree() {
+    ClosureCompiler compiler = new ClosureCompiler();
+    parse(EFFECTS).accept(compiler);
+    output.reset();
+    compiler.run();
+    assertEquals(EFFECTS_OUTPUT, output.toString());
+
+    Program p = parse(EFFECTS);
+    p.accept(new ASTOptimizer());
+    RegVM vm = new RegVM();
+    p.accept(new RegCodeGenerator(vm));
+    output.reset();
+    vm.run();
+    assertEquals(EFFECTS_OUTPUT, output.toString());
+  }
+
+  @Test
+  void testGuardedArrayAccess() {
+    String program = """
+        void main() {
+          var xs = new int[3]
+          for i from 0 to 2 {
+            xs[i] = i + 1
+          }
+          var i = 0
+          while i < size(xs) and xs[i] > 0 {
+            i = i + 1
+          }
+          println(i)
+          var ys: [int] = null
+          if ys == null or size(ys) == 0 {
+            println("empty")
+          }
+        }
+        """;
+    assertEquals("3\nempty\n", run(program, false));
+    assertEquals("3\nempty\n", run(program, true));
+  }
+
+  @Test
+  void testNonBooleanOperandStillFails() {
+    String program = """
+        void main() {
+          var b: bool = null
+          println(true and b)
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      Exception e = assertThrows(MyPLException.class, () -> run(program, dispatch));
+      assertTrue(e.getMessage().contains("must be a boolean"), e.getMessage());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    build(program, dispatch).run();
+    return output.toString();
+  }
+
+  private VM build(String program, boolean dispatch) {
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    parse(program).accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private Program parse(String program) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    return p;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the fused superinstructions and the opcode pair report
+ * used to choose them.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+class VMSuperinstructionTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Opcode pair report
+  // ----------------------------------------------------------------------
+
+  @Test
+  void reportOpcodePairFrequencies() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (var stream = Files.list(Path.of("examples"))) {
+      stream.filter(f -> f.toString().endsWith(".mypl")).sorted().forEach(files::add);
+    }
+    assertFalse(files.isEmpty(), "No example programs found");
+
+    // executed pairs over the corpus, before fusing
+    Map<String, Long> counts = new HashMap<>();
+    long total = 0;
+    for (Path file : files) {
+      VM vm = build(Files.readString(file), false);
+      vm.profileMode(true);
+      vm.run();
+      for (var entry : vm.pairCounts().entrySet()) {
+        counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+        total += entry.getValue();
+      }
+    }
+
+    List<Map.Entry<String, Long>> ranked = new ArrayList<>(counts.entrySet());
+    ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-4s %-20s %12s %8s%n", "rank", "pair", "executed", "share"));
+    for (int i = 0; i < Math.min(20, ranked.size()); ++i)
+      report.append(String.format("%-4d %-20s %12d %7.1f%%%n", i + 1, ranked.get(i).getKey(),
+          ranked.get(i).getValue(), 100.0 * ranked.get(i).getValue() / total));
+    stdout.print(report);
+
+    // the fused sequences are among the hottest pairs
+    List<String> top = ranked.stream().limit(20).map(Map.Entry::getKey).toList();
+    for (String pair : List.of("LOAD LOAD", "LOAD PUSH", "PUSH IADD", "IADD STORE", "ICMPLE JMPF", "LOAD GETF"))
+      assertTrue(top.contains(pair), pair + " not in the top pairs:\n" + report);
+  }
+
+  // ----------------------------------------------------------------------
+  // Fusing
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testForLoopFused() {
+    String program = """
+        void main() {
+          var n = int_val("3")
+          for i from 1 to n {
+            print(i)
+          }
+        }
+        """;
+    String code = build(program, true).toString();
+    assertTrue(code.contains("LOAD_LOAD(1, 0)"), code);
+    assertTrue(code.contains("JMP_IF_NOT_LE("), code);
+    assertTrue(code.contains("INC_LOCAL(1)"), code);
+    assertFalse(code.contains("ICMPLE"), code);
+  }
+
+  @Test
+  void testLoadGetfPreferredOverLoadLoad() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.LOAD(0));
+    main.add(VMInstr.LOAD(1));
+    main.add(VMInstr.GETF(2));
+    new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES).optimize(main);
+    assertEquals("[LOAD(0), LOAD_GETF(1, 2)]", main.instructions.toString());
+  }
+
+  @Test
+  void testSequenceWithJumpIntoItNotFused() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(0));     // 0
+    main.add(VMInstr.STORE(0));    // 1
+    main.add(VMInstr.LOAD(0));     // 2
+    main.add(VMInstr.PUSH(1));     // 3: loop (entered with i loaded)
+    main.add(VMInstr.IADD());      // 4
+    main.add(VMInstr.STORE(0));    // 5
+    main.add(VMInstr.LOAD(0));     // 6
+    main.add(VMInstr.PUSH(2));     // 7
+    main.add(VMInstr.ICMPLE());    // 8
+    main.add(VMInstr.JMPF(12));    // 9
+    main.add(VMInstr.LOAD(0));     // 10
+    main.add(VMInstr.JMP(3));      // 11
+    main.add(VMInstr.LOAD(0));     // 12
+    main.add(VMInstr.WRITE());     // 13
+    new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES).optimize(main);
+    assertFalse(main.instructions.toString().contains("INC_LOCAL"));
+    assertEquals(OpCode.JMP_IF_NOT_LE, main.get(8).opcode);
+    assertEquals(11, main.get(8).operand);
+
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VM vm = new VM();
+      vm.dispatchMode(dispatch);
+      vm.add(main);
+      output.reset();
+      vm.run();
+      assertEquals("3", output.toString());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Semantics
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testFusedProgramsBehaveTheSame() {
+    String program = """
+        struct P {
+          x: int,
+          y: int
+        }
+        void main() {
+          var ps = new P[4]
+          for i from 0 to 3 {
+            ps[i] = new P(i, i * i)
+          }
+          var total = 0
+          for i from 0 to 3 {
+            var p = ps[i]
+            var a = p.x
+            var b = p.y
+            total = total + a + b
+          }
+          var k = 0
+          var m = 5
+          while k <= m {
+            k = k + 1
+          }
+          print(total)
+          print(" ")
+          print(k)
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VM plain = build(program, false);
+      VM fused = build(program, true);
+      plain.dispatchMode(dispatch);
+      fused.dispatchMode(dispatch);
+      output.reset();
+      plain.run();
+      String expected = output.toString();
+      output.reset();
+      fused.run();
+      assertEquals("20 6", expected);
+      assertEquals(expected, output.toString());
+      assertTrue(fused.instructionCount() < plain.instructionCount());
+    }
+  }
+
+  @Test
+  void testFusedNullOperandsReported() {
+    VMFrameTemplate main = new VMFrameTemplate("main");
+    main.add(VMInstr.PUSH(VM.NULL));
+    main.add(VMInstr.STORE(0));
+    main.add(VMInstr.INC_LOCAL(0));
+    for (boolean dispatch : new boolean[] { false, true }) {
+      VM vm = new VM();
+      vm.dispatchMode(dispatch);
+      vm.add(main);
+      Exception e = assertThrows(MyPLException.class, () -> vm.run());
+      assertTrue(e.getMessage().contains("null value error"), e.getMessage());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private VM build(String program, boolean fuse) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    p.accept(new ASTOptimizer());
+    VM vm = new VM();
+    p.accept(new CodeGenerator(vm));
+    vm.optimize(new VMPeephole());
+    if (fuse)
+      vm.optimize(new VMPeephole(VMPeephole.SUPERINSTRUCTION_RULES));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for unboxed int, double, and bool arrays.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+class VMTypedArrayTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Code generation
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testCodeGeneratorEmitsTypedAllocations() {
+    String program = """
+        struct P {
+          x: int
+        }
+        void main() {
+          var a = new int[1]
+          var b = new double[1]
+          var c = new bool[1]
+          var d = new string[1]
+          var e = new P[1]
+        }
+        """;
+    VM vm = build(program, false);
+    String code = vm.toString();
+    assertTrue(code.contains("IALLOCA()"), code);
+    assertTrue(code.contains("DALLOCA()"), code);
+    assertTrue(code.contains("BALLOCA()"), code);
+    assertEquals(2, code.split(" ALLOCA\\(\\)", -1).length - 1, code);
+  }
+
+  // ----------------------------------------------------------------------
+  // Semantics
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testTypedArrayElementsAndNulls() {
+    String program = """
+        void main() {
+          var xs = new int[3]
+          var ds = new double[2]
+          var bs = new bool[2]
+          xs[1] = 7
+          ds[0] = 2.5
+          bs[1] = true
+          print(xs[0])
+          print(" ")
+          print(xs[1] * 2)
+          print(" ")
+          print(ds[0] + ds[0])
+          print(" ")
+          print(ds[1])
+          print(" ")
+          print(bs[0])
+          print(" ")
+          print(bs[1] and true)
+          print(" ")
+          xs[1] = null
+          print(xs[1] == null)
+          print(" ")
+          print(size(xs) + size(ds) + size(bs))
+        }
+        """;
+    String expected = "null 14 5.0 null null true true 7";
+    assertEquals(expected, run(program, false));
+    assertEquals(expected, run(program, true));
+  }
+
+  // ----------------------------------------------------------------------
+  // Memory density
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testIntArrayStoredUnboxed() {
+    String program = """
+        void main() {
+          var n = 1000000
+          var xs = new int[n]
+          for i from 0 to n - 1 {
+            xs[i] = i * 3
+          }
+          var total = 0
+          for i from 0 to n - 1 {
+            total = total + xs[i] / 3
+          }
+          println(total)
+        }
+        """;
+    // warm up (class loading, lane growth) before measuring
+    run(program, true);
+
+    VM vm = build(program, true);
+    output.reset();
+    long before = allocatedBytes();
+    vm.run();
+    long allocated = allocatedBytes() - before;
+
+    assertEquals("1783293664\n", output.toString());
+    // an int[1M] is 4MB (plus a 125KB null bitmap); boxing every element
+    // would add another 16MB of Integer objects
+    assertTrue(allocated < 6 * 1024 * 1024, "Expected unboxed elements, allocated " + allocated + " bytes");
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private long allocatedBytes() {
+    var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getCurrentThreadAllocatedBytes();
+  }
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    build(program, dispatch).run();
+    return output.toString();
+  }
+
+  private VM build(String program, boolean dispatch) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}
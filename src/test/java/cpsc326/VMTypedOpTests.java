@@ -0,0 +1,150 @@
+/**
+ * CPSC 326, Spring 2025
+ * Tests for the type-specialized arithmetic and comparison opcodes.
+ */
+
+package cpsc326;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import java.io.*;
+
+class VMTypedOpTests {
+
+  // Output capture
+  private final PrintStream stdout = System.out;
+  private ByteArrayOutputStream output;
+
+  @BeforeEach
+  void setup() {
+    output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output));
+  }
+
+  @AfterEach
+  void teardown() {
+    System.setOut(stdout);
+  }
+
+  // ----------------------------------------------------------------------
+  // Code generation
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testCodeGeneratorEmitsTypedOps() {
+    String program = """
+        void main() {
+          var i = 1
+          var d = 2.0
+          var s = "a"
+          var b1 = i + i < i * i
+          var b2 = d - d <= d / d
+          var b3 = s + s > s
+          var b4 = i / i >= i - i
+        }
+        """;
+    String code = build(program, false).toString();
+    for (String op : new String[] { "IADD", "IMUL", "ICMPLT", "DSUB", "DDIV", "DCMPLE", "SCONCAT", "SCMPLT",
+        "IDIV", "ISUB", "ICMPLE" })
+      assertTrue(code.contains(op + "()"), "Expected " + op + " in:\n" + code);
+    assertFalse(code.contains(" ADD()"), "Unexpected generic ADD in:\n" + code);
+    assertFalse(code.contains(" CMPLT()"), "Unexpected generic CMPLT in:\n" + code);
+  }
+
+  // ----------------------------------------------------------------------
+  // Execution
+  // ----------------------------------------------------------------------
+
+  @Test
+  void testTypedOpsMatchAcrossEngines() {
+    String program = """
+        void main() {
+          println(3 + 4 * 2 - 7 / 2)
+          println(1.5 + 2.0 * 3.0 - 1.0 / 4.0)
+          println("ab" + "cd")
+          print(1 < 2)
+          print(2 <= 2)
+          print(3 > 4)
+          print(4 >= 5)
+          println("")
+          print(1.5 < 2.5)
+          print(2.5 <= 2.5)
+          print(3.5 > 4.5)
+          print(4.5 >= 4.5)
+          println("")
+          print("a" < "b")
+          print("b" <= "a")
+          print("c" > "b")
+          print("b" >= "b")
+          println("")
+          var total = 0
+          for i from 1 to 10 {
+            total = total + i
+          }
+          println(total)
+        }
+        """;
+    String expected = "8\n7.25\nabcd\ntruetruefalsefalse\ntruetruefalsetrue\ntruefalsetruetrue\n55\n";
+    assertEquals(expected, run(program, false));
+    assertEquals(expected, run(program, true));
+  }
+
+  @Test
+  void testNullOperandReportsNullValueError() {
+    String program = """
+        struct P {
+          v: int
+        }
+        void main() {
+          var p = new P(null)
+          println(p.v + 1)
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      Exception e = assertThrows(MyPLException.class, () -> run(program, dispatch));
+      assertTrue(e.getMessage().contains("null value error"), e.getMessage());
+    }
+  }
+
+  @Test
+  void testTypedDivisionByZero() {
+    String program = """
+        void main() {
+          var z = 0
+          println(1 / z)
+        }
+        """;
+    for (boolean dispatch : new boolean[] { false, true }) {
+      Exception e = assertThrows(MyPLException.class, () -> run(program, dispatch));
+      assertTrue(e.getMessage().contains("division by zero error"), e.getMessage());
+    }
+  }
+
+  // ----------------------------------------------------------------------
+  // Helpers
+  // ----------------------------------------------------------------------
+
+  private String run(String program, boolean dispatch) {
+    output.reset();
+    build(program, dispatch).run();
+    return output.toString();
+  }
+
+  private VM build(String program, boolean dispatch) {
+    Program p = new ASTParser(new Lexer(istream(program))).parse();
+    p.accept(new SemanticChecker());
+    VM vm = new VM();
+    vm.dispatchMode(dispatch);
+    p.accept(new CodeGenerator(vm));
+    return vm;
+  }
+
+  private InputStream istream(String str) {
+    return new ByteArrayInputStream(str.getBytes());
+  }
+}